@@ -0,0 +1,98 @@
+package com.transaction.benchmark;
+
+import com.transaction.service.TransactionService;
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.storage.ColumnarTransactionRepository;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+import com.transaction.storage.cache.CachingTransactionRepository;
+
+import java.math.BigDecimal;
+
+/**
+ * Creates the components and the transaction trees used by the benchmarks.
+ *
+ * @author Diyan Yordanov
+ */
+final class BenchmarkSupport {
+
+    static final BigDecimal AMOUNT = new BigDecimal("12.34");
+
+    static final String TYPE = "benchmark";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @param backend - heap, columnar or columnar-off-heap as the transaction.storage.backend property or
+     *                cached-columnar-off-heap for the off heap columns behind a cache of a tenth of the transactions
+     */
+    static TransactionRepository newRepository(String backend, int expectedSize) {
+        switch (backend) {
+            case "heap":
+                return new InMemoryTransactionRepository();
+            case "columnar":
+                return new ColumnarTransactionRepository(false, expectedSize);
+            case "columnar-off-heap":
+                return new ColumnarTransactionRepository(true, expectedSize);
+            case "cached-columnar-off-heap":
+                return new CachingTransactionRepository(new ColumnarTransactionRepository(true, expectedSize),
+                        (long) expectedSize / 10 * CachingTransactionRepository.ENTRY_OVERHEAD_BYTES);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown storage backend: %s", backend));
+        }
+    }
+
+    static TransactionServiceImpl newService(String backend, int expectedSize) {
+        return new TransactionServiceImpl(newRepository(backend, expectedSize),
+                new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+    }
+
+    /**
+     * Create a tree of transactions with IDs from 1 to size, where 1 is the root
+     *
+     * @param shape - chain: every transaction is a child of the previous one,
+     *              fan: all transactions are children of the root,
+     *              balanced: binary tree where the parent of a transaction is id / 2
+     */
+    static void createTree(TransactionService transactionService, String shape, int size) {
+        switch (shape) {
+            case "chain":
+                // Link the chain from the bottom, so every new parent is still a root and the update is cheap
+                for (long id = 1; id <= size; id++) {
+                    transactionService.createOrUpdate(new Transaction(id, AMOUNT, TYPE, null));
+                }
+                for (long id = size; id > 1; id--) {
+                    transactionService.createOrUpdate(new Transaction(id, AMOUNT, TYPE, id - 1));
+                }
+                break;
+            case "fan":
+                transactionService.createOrUpdate(new Transaction(1L, AMOUNT, TYPE, null));
+                for (long id = 2; id <= size; id++) {
+                    transactionService.createOrUpdate(new Transaction(id, AMOUNT, TYPE, 1L));
+                }
+                break;
+            case "balanced":
+                transactionService.createOrUpdate(new Transaction(1L, AMOUNT, TYPE, null));
+                for (long id = 2; id <= size; id++) {
+                    transactionService.createOrUpdate(new Transaction(id, AMOUNT, TYPE, id / 2));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown tree shape: %s", shape));
+        }
+    }
+
+    static Transaction transaction(long id, BigDecimal amount, Long parentId) {
+        Transaction transaction = new Transaction(id, amount, TYPE, parentId);
+        transaction.setSubtreeSum(amount);
+        return transaction;
+    }
+}
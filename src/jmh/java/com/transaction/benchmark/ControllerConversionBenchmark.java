@@ -0,0 +1,137 @@
+package com.transaction.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transaction.api.TransactionJsonCodec;
+import com.transaction.storage.Transaction;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per request work of the transaction controller besides the service call - reading the request body
+ * and writing the response body. The JSON codec of the controller is compared with the data binding
+ * and the DTO conversion by ModelMapper which it replaced.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ControllerConversionBenchmark {
+
+    private static final byte[] REQUEST_BODY =
+            "{\"amount\":5000.25,\"type\":\"cars\",\"parent_id\":72146}".getBytes();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ModelMapper modelMapper = new ModelMapper();
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+
+    private Transaction transaction;
+
+    @Setup
+    public void setup() {
+        transaction = new Transaction(72147L, new BigDecimal("5000.25"), "cars", 72146L);
+    }
+
+    @Benchmark
+    public Transaction readRequestDataBinding() throws IOException {
+        TransactionDTO transactionDTO = objectMapper.readValue(REQUEST_BODY, TransactionDTO.class);
+        Transaction result = modelMapper.map(transactionDTO, Transaction.class);
+        result.setId(72147L);
+        return result;
+    }
+
+    @Benchmark
+    public Transaction readRequestCodec() throws IOException {
+        return TransactionJsonCodec.readTransaction(new ByteArrayInputStream(REQUEST_BODY), 72147L);
+    }
+
+    @Benchmark
+    public int writeTransactionDataBinding() throws IOException {
+        output.reset();
+        objectMapper.writeValue(output, modelMapper.map(transaction, TransactionDTO.class));
+        return output.size();
+    }
+
+    @Benchmark
+    public int writeTransactionCodec() throws IOException {
+        output.reset();
+        TransactionJsonCodec.writeTransaction(transaction, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int writeSumDataBinding() throws IOException {
+        output.reset();
+        Map<String, BigDecimal> responseBody = new HashMap<>();
+        responseBody.put("sum", transaction.getAmount());
+        objectMapper.writeValue(output, responseBody);
+        return output.size();
+    }
+
+    @Benchmark
+    public int writeSumCodec() throws IOException {
+        output.reset();
+        TransactionJsonCodec.writeSum(transaction.getAmount(), output);
+        return output.size();
+    }
+
+    /**
+     * The DTO which was bound to the request and response bodies before the codec
+     */
+    public static class TransactionDTO {
+
+        private BigDecimal amount;
+
+        private String type;
+
+        @JsonProperty("parent_id")
+        private Long parentId;
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public void setAmount(BigDecimal amount) {
+            this.amount = amount;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public Long getParentId() {
+            return parentId;
+        }
+
+        public void setParentId(Long parentId) {
+            this.parentId = parentId;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.transaction.benchmark;
+
+import com.transaction.service.TransactionService;
+import com.transaction.storage.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Create or update of transactions in a balanced tree with and without re-parenting.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CreateOrUpdateBenchmark {
+
+    @Param({"heap", "columnar"})
+    public String backend;
+
+    @Param({"100000"})
+    public int size;
+
+    private TransactionService transactionService;
+
+    @Setup
+    public void setup() {
+        transactionService = BenchmarkSupport.newService(backend, size);
+        BenchmarkSupport.createTree(transactionService, "balanced", size);
+    }
+
+    @Benchmark
+    public Transaction updateAmount() {
+        long id = randomNonRootId();
+        Transaction transaction = new Transaction(id, randomAmount(), BenchmarkSupport.TYPE, id / 2);
+        transactionService.createOrUpdate(transaction);
+        return transaction;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction updateAmountContended() {
+        return updateAmount();
+    }
+
+    @Benchmark
+    public Transaction updateParent() {
+        // Move a leaf between two parents, the leaves are in the second half of the IDs
+        long id = ThreadLocalRandom.current().nextLong(size / 2 + 1, size + 1);
+        long parentId = ThreadLocalRandom.current().nextLong(1, size / 2 + 1);
+        Transaction transaction = new Transaction(id, BenchmarkSupport.AMOUNT, BenchmarkSupport.TYPE, parentId);
+        transactionService.createOrUpdate(transaction);
+        return transaction;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction updateParentContended() {
+        return updateParent();
+    }
+
+    private long randomNonRootId() {
+        return ThreadLocalRandom.current().nextLong(2, size + 1);
+    }
+
+    private static BigDecimal randomAmount() {
+        return BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 100000), 2);
+    }
+}
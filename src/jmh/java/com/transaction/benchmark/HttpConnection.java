@@ -0,0 +1,91 @@
+package com.transaction.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Non-blocking keep-alive connection of the load tests, which sends a request and reads its response. Only
+ * the responses with a Content-Length body are supported, as sent by both server modes.
+ *
+ * @author Diyan Yordanov
+ */
+final class HttpConnection {
+
+    private final SocketChannel channel;
+
+    private ByteBuffer input = ByteBuffer.allocate(4096);
+
+    HttpConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void send(byte[] request) throws IOException {
+        ByteBuffer output = ByteBuffer.wrap(request);
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+    }
+
+    /**
+     * Read the available bytes of the response
+     *
+     * @return the status code if the whole response is received, otherwise 0
+     */
+    int receive() throws IOException {
+        if (!input.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+            input.flip();
+            input = larger.put(input);
+        }
+        if (channel.read(input) < 0) {
+            throw new IOException("Connection closed by the server");
+        }
+
+        int headEnd = indexOf(input, "\r\n\r\n");
+        if (headEnd < 0) {
+            return 0;
+        }
+        String head = new String(input.array(), 0, headEnd, StandardCharsets.ISO_8859_1);
+        int contentLength = 0;
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        int responseLength = headEnd + 4 + contentLength;
+        if (input.position() < responseLength) {
+            return 0;
+        }
+
+        // The status line is HTTP/1.1 and a three digit code
+        int status = Integer.parseInt(head.substring(9, 12));
+        input.flip();
+        input.position(responseLength);
+        input.compact();
+        return status;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private static int indexOf(ByteBuffer buffer, String value) {
+        byte[] bytes = buffer.array();
+        for (int i = 0; i + value.length() <= buffer.position(); i++) {
+            int j = 0;
+            while (j < value.length() && bytes[i + j] == value.charAt(j)) {
+                j++;
+            }
+            if (j == value.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,254 @@
+package com.transaction.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of a running transaction server over HTTP. It keeps a number of concurrent keep-alive connections,
+ * every connection sends a request as soon as it receives the response of the previous one. A few selector
+ * threads drive all connections, so the client could open tens of thousands of connections. It reports
+ * the throughput and the latency percentiles after a warm up, so the servlet and the nio server modes could
+ * be compared by running it against a server started in each mode:
+ * <pre>
+ * ./gradlew loadTest -PloadTest.args="--connections=10000 --duration=60"
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>--host, --port - the address of the server, localhost:8080 by default</li>
+ * <li>--connections - the number of concurrent connections, 1000 by default</li>
+ * <li>--threads - the number of client threads, 4 by default</li>
+ * <li>--duration, --warmup - the measured and the warm up time in seconds, 30 and 10 by default</li>
+ * <li>--transactions - the number of transactions created before the test, 100000 by default</li>
+ * <li>--writes - the percentage of updates, the rest of the requests are split between reads and sums,
+ * 50 by default</li>
+ * </ul>
+ *
+ * @author Diyan Yordanov
+ */
+public final class HttpLoadTest {
+
+    private static final String PATH_PREFIX = "/transactionservice/";
+
+    private final InetSocketAddress address;
+
+    private final int transactions;
+
+    private final int writePercentage;
+
+    private volatile boolean recording;
+
+    private volatile boolean running = true;
+
+    private HttpLoadTest(InetSocketAddress address, int transactions, int writePercentage) {
+        this.address = address;
+        this.transactions = transactions;
+        this.writePercentage = writePercentage;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"),
+                Integer.parseInt(options.getOrDefault("port", "8080")));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "10"));
+
+        HttpLoadTest loadTest = new HttpLoadTest(address, Integer.parseInt(options.getOrDefault("transactions",
+                "100000")), Integer.parseInt(options.getOrDefault("writes", "50")));
+        loadTest.createTransactions();
+        loadTest.run(connections, threads, warmupSeconds, durationSeconds);
+    }
+
+    /**
+     * Create the transactions in a balanced tree, the parent of a transaction is id / 2
+     */
+    private void createTransactions() throws IOException {
+        Client client = new Client(1);
+        for (long id = 1; id <= transactions; id++) {
+            client.connections.get(0).send(updateRequest(id));
+            client.awaitResponse();
+        }
+        client.close();
+        System.out.printf("Created %d transactions%n", transactions);
+    }
+
+    private void run(int connections, int threads, long warmupSeconds, long durationSeconds) throws Exception {
+        List<Client> clients = new ArrayList<>();
+        List<Thread> clientThreads = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Client client = new Client(connections / threads + (i < connections % threads ? 1 : 0));
+            clients.add(client);
+            Thread thread = new Thread(client::run, "load-test-" + i);
+            clientThreads.add(thread);
+            thread.start();
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        recording = true;
+        long startTime = System.nanoTime();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        recording = false;
+        long elapsedNanos = System.nanoTime() - startTime;
+        running = false;
+        for (Thread thread : clientThreads) {
+            thread.join();
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long errors = 0;
+        for (Client client : clients) {
+            histogram.add(client.histogram);
+            errors += client.errors;
+        }
+        System.out.printf("Connections: %d, requests: %d, errors: %d%n", connections, histogram.getTotalCount(),
+                errors);
+        System.out.printf("Throughput: %.0f requests/s%n",
+                histogram.getTotalCount() * 1e9 / elapsedNanos);
+        System.out.printf("Latency (us): p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
+
+    private byte[] nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long id = random.nextLong(1, transactions + 1);
+        int operation = random.nextInt(100);
+        if (operation < writePercentage) {
+            return updateRequest(id);
+        }
+        String path = PATH_PREFIX + (operation % 2 == 0 ? "transaction/" : "sum/") + id;
+        return ("GET " + path + " HTTP/1.1\r\nHost: " + address.getHostString() + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private byte[] updateRequest(long id) {
+        long amount = ThreadLocalRandom.current().nextLong(1, 1000000);
+        String body = String.format("{\"amount\":%d.%02d,\"type\":\"type%d\",\"parent_id\":%s}", amount / 100,
+                amount % 100, id % 16, id > 1 ? String.valueOf(id / 2) : "null");
+        return ("PUT " + PATH_PREFIX + "transaction/" + id + " HTTP/1.1\r\nHost: " + address.getHostString()
+                + "\r\nContent-Type: application/json\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException(String.format("Invalid option %s, expected --name=value", arg));
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Drives a number of connections by a single thread
+     */
+    private final class Client {
+
+        private final Selector selector;
+
+        private final List<Connection> connections = new ArrayList<>();
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private long errors;
+
+        Client(int connectionCount) throws IOException {
+            selector = Selector.open();
+            for (int i = 0; i < connectionCount; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                Connection connection = new Connection(channel);
+                channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            }
+        }
+
+        void run() {
+            try {
+                for (Connection connection : connections) {
+                    connection.send(nextRequest());
+                }
+                while (running) {
+                    selector.select(100);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (connection.receive()) {
+                            connection.send(nextRequest());
+                        }
+                    }
+                }
+                close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Load test connection failed", e);
+            }
+        }
+
+        void awaitResponse() throws IOException {
+            Connection connection = connections.get(0);
+            while (true) {
+                selector.select();
+                selector.selectedKeys().clear();
+                if (connection.receive()) {
+                    return;
+                }
+            }
+        }
+
+        void close() throws IOException {
+            for (Connection connection : connections) {
+                connection.connection.close();
+            }
+            selector.close();
+        }
+
+        private final class Connection {
+
+            private final HttpConnection connection;
+
+            private long sendTime;
+
+            Connection(SocketChannel channel) {
+                this.connection = new HttpConnection(channel);
+            }
+
+            void send(byte[] request) throws IOException {
+                sendTime = System.nanoTime();
+                connection.send(request);
+            }
+
+            /**
+             * @return true if a whole response is received
+             */
+            boolean receive() throws IOException {
+                int status = connection.receive();
+                if (status == 0) {
+                    return false;
+                }
+                if (recording) {
+                    histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sendTime));
+                    if (status != 200) {
+                        errors++;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
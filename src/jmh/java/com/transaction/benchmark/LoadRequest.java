@@ -0,0 +1,57 @@
+package com.transaction.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request of a load test to one of the transactionservice endpoints
+ *
+ * @author Diyan Yordanov
+ */
+final class LoadRequest {
+
+    private final String method;
+
+    private final String path;
+
+    private final String body;
+
+    /**
+     * @param method - the HTTP method
+     * @param path   - the path with the query
+     * @param body   - the JSON body or null if the request has no body
+     */
+    LoadRequest(String method, String path, String body) {
+        this.method = method;
+        this.path = path;
+        this.body = body;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getBody() {
+        return body;
+    }
+
+    /**
+     * @param host - the value of the Host header
+     * @return the request head and body
+     */
+    byte[] toBytes(String host) {
+        StringBuilder request = new StringBuilder(128).append(method).append(' ').append(path)
+                .append(" HTTP/1.1\r\nHost: ").append(host).append("\r\n");
+        if (body != null) {
+            byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+            request.append("Content-Type: application/json\r\nContent-Length: ").append(bodyBytes.length)
+                    .append("\r\n\r\n").append(body);
+        } else {
+            request.append("\r\n");
+        }
+        return request.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,359 @@
+package com.transaction.benchmark;
+
+import com.transaction.TransactionServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load test of the transaction endpoints. Unlike {@link HttpLoadTest}, the requests are sent at a fixed
+ * rate, whether the server keeps up or not. A request which waits for a free connection is sent late, but its
+ * latency is measured from the time it should have been sent, so a stall of the server is not hidden by the client
+ * sending less requests during it (coordinated omission). The service time, measured from the actual send,
+ * is reported as well.
+ * <p>
+ * The requests are generated by {@link WorkloadGenerator}: a forest of transactions is created one by one before
+ * the test, then the requests of the mix are sent. The generated requests could be recorded to a {@link Trace}
+ * and replayed later, so different server modes or builds are compared with exactly the same requests:
+ * <pre>
+ * ./gradlew openLoopTest -PopenLoopTest.args="--local=nio --rate=20000 --record=build/workload.trace"
+ * ./gradlew openLoopTest -PopenLoopTest.args="--local=servlet --replay=build/workload.trace"
+ * </pre>
+ * Options, besides the workload options of {@link WorkloadGenerator}:
+ * <ul>
+ * <li>--host, --port - the address of the server, localhost:8080 by default</li>
+ * <li>--local - start a transaction server in the given mode (servlet or nio) in this process and stop it
+ * at the end</li>
+ * <li>--connections - the number of keep-alive connections, 64 by default</li>
+ * <li>--rate - the requests per second, 10000 by default</li>
+ * <li>--duration, --warmup - the measured and the warm up time in seconds, 30 and 10 by default</li>
+ * <li>--max-pending - the max number of requests which wait for a connection, the next requests are dropped,
+ * 100000 by default</li>
+ * <li>--record - the trace file to write the generated requests to</li>
+ * <li>--replay - the trace file to read the requests from instead of generating them</li>
+ * <li>--speed - the speed up of a replay, 1.0 by default</li>
+ * </ul>
+ *
+ * @author Diyan Yordanov
+ */
+public final class OpenLoopLoadTest {
+
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final InetSocketAddress address;
+
+    private final int maxPending;
+
+    private final long windowStartNanos;
+
+    private final long windowEndNanos;
+
+    // Latency from the intended send time and service time from the actual send time
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+    private long errors;
+
+    private long dropped;
+
+    private OpenLoopLoadTest(InetSocketAddress address, int maxPending, long warmupSeconds, long durationSeconds) {
+        this.address = address;
+        this.maxPending = maxPending;
+        this.windowStartNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.windowEndNanos = TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = HttpLoadTest.parseOptions(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        if (options.containsKey("local")) {
+            TransactionServer.main(new String[]{"--server.port=" + port,
+                    "--transaction.server.mode=" + options.get("local")});
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        int connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "10"));
+
+        Trace.Writer recorder = options.containsKey("record") ? new Trace.Writer(Paths.get(options.get("record")))
+                : null;
+        List<LoadRequest> setup;
+        Schedule schedule;
+        if (options.containsKey("replay")) {
+            Trace trace = Trace.read(Paths.get(options.get("replay")));
+            setup = trace.getSetup();
+            schedule = new ReplaySchedule(trace, Double.parseDouble(options.getOrDefault("speed", "1.0")));
+        } else {
+            WorkloadGenerator generator = WorkloadGenerator.fromOptions(options);
+            setup = generator.createForest(Integer.parseInt(options.getOrDefault("transactions", "100000")));
+            // The creates sent within the last requests of all connections could be still in progress
+            generator.setMargin(connections * 4);
+            schedule = new GeneratedSchedule(generator, Integer.parseInt(options.getOrDefault("rate", "10000")),
+                    TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds), recorder);
+        }
+        if (recorder != null) {
+            for (LoadRequest request : setup) {
+                recorder.writeSetup(request);
+            }
+        }
+
+        OpenLoopLoadTest loadTest = new OpenLoopLoadTest(address,
+                Integer.parseInt(options.getOrDefault("max-pending", "100000")), warmupSeconds, durationSeconds);
+        loadTest.createTransactions(setup);
+        loadTest.run(schedule, connections);
+        if (recorder != null) {
+            recorder.close();
+        }
+        if (options.containsKey("local")) {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Send the requests one by one, so every parent is created before its children
+     */
+    private void createTransactions(List<LoadRequest> setup) throws IOException {
+        HttpConnection connection = new HttpConnection(SocketChannel.open(address));
+        long setupErrors = 0;
+        for (LoadRequest request : setup) {
+            connection.send(request.toBytes(address.getHostString()));
+            int status;
+            while ((status = connection.receive()) == 0) {
+                // The channel is blocking, so every receive waits for more bytes
+            }
+            if (status != 200) {
+                setupErrors++;
+            }
+        }
+        connection.close();
+        System.out.printf("Created %d transactions, errors: %d%n", setup.size(), setupErrors);
+    }
+
+    private void run(Schedule schedule, int connectionCount) throws IOException {
+        Selector selector = Selector.open();
+        ArrayDeque<Connection> idle = new ArrayDeque<>(connectionCount);
+        for (int i = 0; i < connectionCount; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            Connection connection = new Connection(new HttpConnection(channel));
+            channel.register(selector, SelectionKey.OP_READ, connection);
+            idle.add(connection);
+        }
+        ArrayDeque<PendingRequest> pending = new ArrayDeque<>();
+        long startTime = System.nanoTime();
+        long drainDeadline = Long.MAX_VALUE;
+        long lastIntendedTime = 0;
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            while (schedule.hasNext() && schedule.nextOffsetNanos() <= now) {
+                long intendedTime = schedule.nextOffsetNanos();
+                lastIntendedTime = intendedTime;
+                LoadRequest request = schedule.next();
+                if (pending.size() < maxPending) {
+                    pending.add(new PendingRequest(intendedTime, request.toBytes(address.getHostString())));
+                } else if (isMeasured(intendedTime)) {
+                    dropped++;
+                }
+            }
+            while (!pending.isEmpty() && !idle.isEmpty()) {
+                idle.poll().send(pending.poll());
+            }
+
+            if (!schedule.hasNext()) {
+                if (pending.isEmpty() && idle.size() == connectionCount) {
+                    break;
+                }
+                if (drainDeadline == Long.MAX_VALUE) {
+                    drainDeadline = now + DRAIN_NANOS;
+                } else if (now > drainDeadline) {
+                    break;
+                }
+            }
+            // Wait for the responses until the next request is due, select has a millisecond resolution
+            long waitNanos = schedule.hasNext() ? schedule.nextOffsetNanos() - now : TimeUnit.MILLISECONDS.toNanos(100);
+            if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            } else if (selector.selectNow() == 0 && waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                if (connection.receive(startTime)) {
+                    idle.add(connection);
+                }
+            }
+        }
+        long incomplete = pending.size() + connectionCount - idle.size();
+        for (SelectionKey key : selector.keys()) {
+            ((Connection) key.attachment()).connection.close();
+        }
+        selector.close();
+
+        System.out.printf("Connections: %d, requests: %d, errors: %d, dropped: %d, incomplete: %d%n",
+                connectionCount, latency.getTotalCount(), errors, dropped, incomplete);
+        // A replayed trace could end before the measured window
+        long windowNanos = Math.min(windowEndNanos, lastIntendedTime + 1) - windowStartNanos;
+        System.out.printf("Throughput: %.0f requests/s%n", latency.getTotalCount() * 1e9 / Math.max(1, windowNanos));
+        print("Latency (us)", latency);
+        print("Service time (us)", serviceTime);
+    }
+
+    private boolean isMeasured(long intendedTime) {
+        return intendedTime >= windowStartNanos && intendedTime < windowEndNanos;
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        System.out.printf("%s: p50=%d p90=%d p99=%d p99.9=%d max=%d%n", name, histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(90), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
+
+    /**
+     * The requests of a test with their intended send times in nanoseconds since the start, in ascending order
+     */
+    private interface Schedule {
+
+        boolean hasNext();
+
+        long nextOffsetNanos();
+
+        LoadRequest next() throws IOException;
+    }
+
+    /**
+     * Generates the requests at fixed intervals and records them if a trace writer is given
+     */
+    private static final class GeneratedSchedule implements Schedule {
+
+        private final WorkloadGenerator generator;
+
+        private final double intervalNanos;
+
+        private final long endNanos;
+
+        private final Trace.Writer recorder;
+
+        private long index;
+
+        GeneratedSchedule(WorkloadGenerator generator, int rate, long endNanos, Trace.Writer recorder) {
+            this.generator = generator;
+            this.intervalNanos = 1e9 / rate;
+            this.endNanos = endNanos;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextOffsetNanos() < endNanos;
+        }
+
+        @Override
+        public long nextOffsetNanos() {
+            return (long) (index * intervalNanos);
+        }
+
+        @Override
+        public LoadRequest next() throws IOException {
+            LoadRequest request = generator.next();
+            if (recorder != null) {
+                recorder.write(TimeUnit.NANOSECONDS.toMicros(nextOffsetNanos()), request);
+            }
+            index++;
+            return request;
+        }
+    }
+
+    private static final class ReplaySchedule implements Schedule {
+
+        private final Trace trace;
+
+        private final double speed;
+
+        private int index;
+
+        ReplaySchedule(Trace trace, double speed) {
+            this.trace = trace;
+            this.speed = speed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < trace.getRequests().size();
+        }
+
+        @Override
+        public long nextOffsetNanos() {
+            return (long) (TimeUnit.MICROSECONDS.toNanos(trace.getOffsetMicros(index)) / speed);
+        }
+
+        @Override
+        public LoadRequest next() {
+            return trace.getRequests().get(index++);
+        }
+    }
+
+    private static final class PendingRequest {
+
+        private final long intendedTime;
+
+        private final byte[] bytes;
+
+        PendingRequest(long intendedTime, byte[] bytes) {
+            this.intendedTime = intendedTime;
+            this.bytes = bytes;
+        }
+    }
+
+    private final class Connection {
+
+        private final HttpConnection connection;
+
+        private long intendedTime;
+
+        private long sendTime;
+
+        Connection(HttpConnection connection) {
+            this.connection = connection;
+        }
+
+        void send(PendingRequest request) throws IOException {
+            intendedTime = request.intendedTime;
+            sendTime = System.nanoTime();
+            connection.send(request.bytes);
+        }
+
+        /**
+         * @return true if a whole response is received
+         */
+        boolean receive(long startTime) throws IOException {
+            int status = connection.receive();
+            if (status == 0) {
+                return false;
+            }
+            if (isMeasured(intendedTime)) {
+                long now = System.nanoTime();
+                latency.record(TimeUnit.NANOSECONDS.toMicros(now - startTime - intendedTime));
+                serviceTime.record(TimeUnit.NANOSECONDS.toMicros(now - sendTime));
+                if (status != 200) {
+                    errors++;
+                }
+            }
+            return true;
+        }
+    }
+}
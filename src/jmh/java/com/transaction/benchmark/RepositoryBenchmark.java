@@ -0,0 +1,87 @@
+package com.transaction.benchmark;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save and read of the transaction repository backends.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RepositoryBenchmark {
+
+    @Param({"heap", "columnar", "columnar-off-heap", "cached-columnar-off-heap"})
+    public String backend;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private TransactionRepository transactionRepository;
+
+    @Setup
+    public void setup() {
+        transactionRepository = BenchmarkSupport.newRepository(backend, size);
+        for (long id = 1; id <= size; id++) {
+            transactionRepository.save(BenchmarkSupport.transaction(id, BenchmarkSupport.AMOUNT, null));
+        }
+    }
+
+    @Benchmark
+    public Transaction read() {
+        return transactionRepository.read(randomId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction readContended() {
+        return transactionRepository.read(randomId());
+    }
+
+    /**
+     * Nine of ten reads are of the hot twentieth of the transactions, which fits in the cache
+     */
+    @Benchmark
+    @Threads(4)
+    public Transaction readSkewed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return transactionRepository.read(random.nextInt(10) < 9 ? random.nextLong(1, size / 20 + 1) : randomId());
+    }
+
+    @Benchmark
+    public Transaction save() {
+        Transaction transaction = BenchmarkSupport.transaction(randomId(), BenchmarkSupport.AMOUNT, null);
+        transactionRepository.save(transaction);
+        return transaction;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction saveContended() {
+        return save();
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, size + 1);
+    }
+}
@@ -0,0 +1,74 @@
+package com.transaction.benchmark;
+
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.storage.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sum calculation and subtree traversal over different tree shapes, as well as the cost of updating
+ * the deepest transaction which has to update the sums of all its ancestors.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xss512k")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SubtreeSumBenchmark {
+
+    @Param({"chain", "fan", "balanced"})
+    public String shape;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private TransactionServiceImpl transactionService;
+
+    @Setup
+    public void setup() {
+        transactionService = BenchmarkSupport.newService("heap", size);
+        BenchmarkSupport.createTree(transactionService, shape, size);
+    }
+
+    @Benchmark
+    public BigDecimal sum() {
+        return transactionService.calculateTransactionsSum(1L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BigDecimal sumContended() {
+        return sum();
+    }
+
+    @Benchmark
+    public BigDecimal traverseSubtree() {
+        return transactionService.aggregateSubtree(1L, Transaction::getAmount, BigDecimal::add, BigDecimal.ZERO);
+    }
+
+    @Benchmark
+    public Transaction updateDeepest() {
+        long parentId = "fan".equals(shape) ? 1L : "chain".equals(shape) ? size - 1 : size / 2;
+        BigDecimal amount = BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 100000), 2);
+        Transaction transaction = new Transaction((long) size, amount, BenchmarkSupport.TYPE, parentId);
+        transactionService.createOrUpdate(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,127 @@
+package com.transaction.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recorded requests of an open loop load test, so the same workload could be replayed against another server mode
+ * or build. It is a text file with a request per line:
+ * <pre>
+ * offset TAB method TAB path TAB body
+ * </pre>
+ * The offset is the intended send time in microseconds since the start of the test, or "-" for the requests which
+ * create the transactions before the test. The body is empty if the request has no body.
+ *
+ * @author Diyan Yordanov
+ */
+final class Trace {
+
+    private static final String HEADER = "# transaction trace v1";
+
+    private static final String SETUP_OFFSET = "-";
+
+    private final List<LoadRequest> setup;
+
+    private final List<LoadRequest> requests;
+
+    private final long[] offsetsMicros;
+
+    private Trace(List<LoadRequest> setup, List<LoadRequest> requests, long[] offsetsMicros) {
+        this.setup = setup;
+        this.requests = requests;
+        this.offsetsMicros = offsetsMicros;
+    }
+
+    /**
+     * @return the requests sent one by one before the test
+     */
+    List<LoadRequest> getSetup() {
+        return setup;
+    }
+
+    /**
+     * @return the requests of the test in the order of their offsets
+     */
+    List<LoadRequest> getRequests() {
+        return requests;
+    }
+
+    long getOffsetMicros(int index) {
+        return offsetsMicros[index];
+    }
+
+    static Trace read(Path path) throws IOException {
+        List<LoadRequest> setup = new ArrayList<>();
+        List<LoadRequest> requests = new ArrayList<>();
+        long[] offsets = new long[1024];
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(String.format("%s is not a transaction trace", path));
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) {
+                    throw new IOException(String.format("Invalid trace line: %s", line));
+                }
+                LoadRequest request = new LoadRequest(fields[1], fields[2], fields[3].isEmpty() ? null : fields[3]);
+                if (SETUP_OFFSET.equals(fields[0])) {
+                    setup.add(request);
+                    continue;
+                }
+                if (requests.size() == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[requests.size()] = Long.parseLong(fields[0]);
+                requests.add(request);
+            }
+        }
+        return new Trace(setup, requests, offsets);
+    }
+
+    /**
+     * Writes the requests of a test in the order they are generated
+     */
+    static final class Writer implements Closeable {
+
+        private final BufferedWriter writer;
+
+        Writer(Path path) throws IOException {
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            writer.write(HEADER);
+            writer.newLine();
+        }
+
+        void writeSetup(LoadRequest request) throws IOException {
+            write(SETUP_OFFSET, request);
+        }
+
+        void write(long offsetMicros, LoadRequest request) throws IOException {
+            write(String.valueOf(offsetMicros), request);
+        }
+
+        private void write(String offset, LoadRequest request) throws IOException {
+            writer.write(offset);
+            writer.write('\t');
+            writer.write(request.getMethod());
+            writer.write('\t');
+            writer.write(request.getPath());
+            writer.write('\t');
+            writer.write(request.getBody() != null ? request.getBody() : "");
+            writer.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.transaction.benchmark;
+
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionIdsByTypeIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save and page read of the transaction IDs by type index.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TypeIndexBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1", "100"})
+    public int typeCount;
+
+    @Param({"1000000"})
+    public int size;
+
+    private TransactionIdsByTypeIndex index;
+
+    private Transaction[] transactions;
+
+    @Setup
+    public void setup() {
+        index = new InMemoryTransactionIdsByTypeIndex();
+        transactions = new Transaction[size];
+        for (int i = 0; i < size; i++) {
+            transactions[i] = new Transaction((long) i, BigDecimal.ONE, "type" + i % typeCount, null);
+            index.save(transactions[i]);
+        }
+    }
+
+    @Benchmark
+    public Transaction save() {
+        Transaction transaction = transactions[ThreadLocalRandom.current().nextInt(size)];
+        index.save(transaction);
+        return transaction;
+    }
+
+    @Benchmark
+    public long[] getPage() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return index.getIds("type" + random.nextInt(typeCount), (long) random.nextInt(size), PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public long[] readWhileWriting() {
+        return getPage();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Transaction writeWhileReading() {
+        Transaction transaction = transactions[ThreadLocalRandom.current().nextInt(size)];
+        index.removeId(transaction);
+        index.save(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,126 @@
+package com.transaction.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.transaction.api.TransactionBinaryCodec;
+import com.transaction.api.TransactionJsonCodec;
+import com.transaction.storage.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the request bodies of a batch by the JSON codec and by the binary codec. A batch
+ * is a tree of transactions with a few types, as sent by the producers. The sizes of the bodies are printed
+ * at the setup, so the bytes on the wire are compared too.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WireFormatBenchmark {
+
+    private static final String[] TYPES = {"cars", "shopping", "car rental", "fuel"};
+
+    @Param({"1", "1000"})
+    private int batchSize;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+
+    private Transaction[] transactions;
+
+    private long[] ids;
+
+    private byte[] jsonBody;
+
+    private byte[] binaryBody;
+
+    @Setup
+    public void setup() throws IOException {
+        transactions = new Transaction[batchSize];
+        ids = new long[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            long id = 1_000_000L + i;
+            Long parentId = i > 0 ? 1_000_000L + (i - 1) / 4 : null;
+            transactions[i] = new Transaction(id, BigDecimal.valueOf(100 + i * 37L, 2), TYPES[i % TYPES.length],
+                    parentId);
+            ids[i] = id;
+        }
+        jsonBody = writeJson();
+        binaryBody = writeBinary();
+        System.out.printf("%nBatch of %d: %d bytes of JSON, %d bytes of binary%n", batchSize, jsonBody.length,
+                binaryBody.length);
+    }
+
+    @Benchmark
+    public int writeJsonBatch() throws IOException {
+        return writeJson().length;
+    }
+
+    @Benchmark
+    public int writeBinaryBatch() throws IOException {
+        return writeBinary().length;
+    }
+
+    @Benchmark
+    public long readJsonBatch() throws IOException {
+        long sum = 0;
+        try (JsonParser parser = TransactionJsonCodec.JSON_FACTORY.createParser(jsonBody)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                sum += TransactionJsonCodec.readStoredTransaction(parser).getId();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long readBinaryBatch() throws IOException {
+        long sum = 0;
+        TransactionBinaryCodec.Decoder decoder =
+                new TransactionBinaryCodec.Decoder(new ByteArrayInputStream(binaryBody), false);
+        Transaction transaction;
+        while ((transaction = decoder.read(null)) != null) {
+            sum += transaction.getId();
+        }
+        return sum;
+    }
+
+    private byte[] writeJson() throws IOException {
+        output.reset();
+        try (JsonGenerator generator = TransactionJsonCodec.JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartArray();
+            TransactionJsonCodec.writeEntries(generator, ids, transactions, null);
+            generator.writeEndArray();
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] writeBinary() throws IOException {
+        output.reset();
+        TransactionBinaryCodec.Encoder encoder = new TransactionBinaryCodec.Encoder(output);
+        for (Transaction transaction : transactions) {
+            encoder.write(transaction, true);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,259 @@
+package com.transaction.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates the requests of a workload shaped as the production traffic of the transaction endpoints. It keeps
+ * the tree which the generated writes build, so the updates, the re-parents and the reads refer to existing
+ * transactions and a re-parent never makes a cycle. The same options and seed generate the same requests.
+ * <p>
+ * The forest is built in breadth first order. The number of children of every transaction is drawn from
+ * a geometric distribution with the mean fan-out, until a tree reaches the max depth, then a new tree is started.
+ * The types are drawn from a Zipf distribution, so a few types have most of the transactions.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>--transactions - the number of transactions of the forest created before the test, 100000 by default</li>
+ * <li>--fan-out - the mean number of children of a transaction, 3 by default</li>
+ * <li>--max-depth - the max depth of a tree, 6 by default</li>
+ * <li>--types - the number of types, 100 by default</li>
+ * <li>--zipf - the exponent of the Zipf distribution of the types, 0 for uniform types, 1.0 by default</li>
+ * <li>--writes - the percentage of the PUT requests, 20 by default</li>
+ * <li>--updates, --reparents - the percentages of the writes which update the amount of a transaction or move it
+ * to another parent, 50 and 5 by default. The rest of the writes create new transactions</li>
+ * <li>--sums, --type-reads - the percentages of the reads of a subtree sum and of the IDs of a type, 40 and 10 by
+ * default. The rest of the reads get a transaction</li>
+ * <li>--type-limit - the limit of the IDs of a type read, 100 by default</li>
+ * <li>--seed - the seed of the random generator, 1 by default</li>
+ * </ul>
+ *
+ * @author Diyan Yordanov
+ */
+final class WorkloadGenerator {
+
+    private static final String PATH_PREFIX = "/transactionservice/";
+
+    private static final int REPARENT_ATTEMPTS = 8;
+
+    private final SplittableRandom random;
+
+    private final double fanOut;
+
+    private final int maxDepth;
+
+    private final double[] typeDistribution;
+
+    private final int writePercentage;
+
+    private final int updatePercentage;
+
+    private final int reparentPercentage;
+
+    private final int sumPercentage;
+
+    private final int typeReadPercentage;
+
+    private final int typeLimit;
+
+    // The parent and the type ordinal by transaction ID, the IDs start from 1 and a root has parent 0
+    private int[] parents = new int[1024];
+
+    private int[] types = new int[1024];
+
+    private int size;
+
+    // The writes of the last created transactions could be still in progress, so they are not referred to yet
+    private int margin;
+
+    private WorkloadGenerator(Map<String, String> options) {
+        random = new SplittableRandom(Long.parseLong(options.getOrDefault("seed", "1")));
+        fanOut = Double.parseDouble(options.getOrDefault("fan-out", "3"));
+        maxDepth = Integer.parseInt(options.getOrDefault("max-depth", "6"));
+        typeDistribution = zipf(Integer.parseInt(options.getOrDefault("types", "100")),
+                Double.parseDouble(options.getOrDefault("zipf", "1.0")));
+        writePercentage = Integer.parseInt(options.getOrDefault("writes", "20"));
+        updatePercentage = Integer.parseInt(options.getOrDefault("updates", "50"));
+        reparentPercentage = Integer.parseInt(options.getOrDefault("reparents", "5"));
+        sumPercentage = Integer.parseInt(options.getOrDefault("sums", "40"));
+        typeReadPercentage = Integer.parseInt(options.getOrDefault("type-reads", "10"));
+        typeLimit = Integer.parseInt(options.getOrDefault("type-limit", "100"));
+        if (fanOut < 0 || maxDepth < 0 || writePercentage > 100 || updatePercentage + reparentPercentage > 100
+                || sumPercentage + typeReadPercentage > 100) {
+            throw new IllegalArgumentException("Invalid workload options");
+        }
+    }
+
+    static WorkloadGenerator fromOptions(Map<String, String> options) {
+        return new WorkloadGenerator(options);
+    }
+
+    /**
+     * Generate the creates of the forest in breadth first order, so every parent is created before its children
+     *
+     * @param transactions - the number of the transactions of the forest
+     * @return the requests which create the forest
+     */
+    List<LoadRequest> createForest(int transactions) {
+        List<LoadRequest> requests = new ArrayList<>(transactions);
+        // The IDs and the depths of the transactions which children are not generated yet
+        Deque<int[]> queue = new ArrayDeque<>();
+        while (size < transactions) {
+            int[] node = queue.poll();
+            if (node == null) {
+                queue.add(new int[]{add(0), 0});
+                requests.add(write(size));
+            } else if (node[1] < maxDepth) {
+                for (int children = geometric(); children > 0 && size < transactions; children--) {
+                    queue.add(new int[]{add(node[0]), node[1] + 1});
+                    requests.add(write(size));
+                }
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * @param margin - the number of the last created transactions which are not referred to by the next requests,
+     *               as their creates could be still in progress in an open loop test
+     */
+    void setMargin(int margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Generate the next request of the mix
+     */
+    LoadRequest next() {
+        if (size == 0) {
+            add(0);
+            return write(size);
+        }
+        if (random.nextInt(100) < writePercentage) {
+            int kind = random.nextInt(100);
+            if (kind < reparentPercentage) {
+                return reparent();
+            }
+            if (kind < reparentPercentage + updatePercentage) {
+                return write(settledId());
+            }
+            return create();
+        }
+        int kind = random.nextInt(100);
+        if (kind < sumPercentage) {
+            return new LoadRequest("GET", PATH_PREFIX + "sum/" + settledId(), null);
+        }
+        if (kind < sumPercentage + typeReadPercentage) {
+            return new LoadRequest("GET", PATH_PREFIX + "types/" + typeName(nextType()) + "?limit=" + typeLimit,
+                    null);
+        }
+        return new LoadRequest("GET", PATH_PREFIX + "transaction/" + settledId(), null);
+    }
+
+    private LoadRequest create() {
+        int parent = 0;
+        for (int attempt = 0; attempt < REPARENT_ATTEMPTS && parent == 0; attempt++) {
+            int candidate = settledId();
+            if (depth(candidate) < maxDepth) {
+                parent = candidate;
+            }
+        }
+        return write(add(parent));
+    }
+
+    /**
+     * Move a transaction under a transaction out of its subtree, or make it a root if none is found
+     */
+    private LoadRequest reparent() {
+        int id = settledId();
+        int parent = 0;
+        for (int attempt = 0; attempt < REPARENT_ATTEMPTS && parent == 0; attempt++) {
+            int candidate = settledId();
+            if (candidate != parents[id] && !isInSubtree(candidate, id)) {
+                parent = candidate;
+            }
+        }
+        parents[id] = parent;
+        return write(id);
+    }
+
+    /**
+     * A PUT of a transaction with its current parent and type and a new amount
+     */
+    private LoadRequest write(int id) {
+        int cents = 1 + random.nextInt(999999);
+        String body = String.format("{\"amount\":%d.%02d,\"type\":\"%s\",\"parent_id\":%s}", cents / 100, cents % 100,
+                typeName(types[id]), parents[id] != 0 ? String.valueOf(parents[id]) : "null");
+        return new LoadRequest("PUT", PATH_PREFIX + "transaction/" + id, body);
+    }
+
+    private int add(int parent) {
+        if (size + 1 == parents.length) {
+            parents = Arrays.copyOf(parents, parents.length * 2);
+            types = Arrays.copyOf(types, types.length * 2);
+        }
+        size++;
+        parents[size] = parent;
+        types[size] = nextType();
+        return size;
+    }
+
+    private int settledId() {
+        return 1 + random.nextInt(Math.max(1, size - margin));
+    }
+
+    private int depth(int id) {
+        int depth = 0;
+        for (int ancestor = parents[id]; ancestor != 0; ancestor = parents[ancestor]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private boolean isInSubtree(int id, int ancestorId) {
+        for (int current = id; current != 0; current = parents[current]) {
+            if (current == ancestorId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int geometric() {
+        // The number of failures before the first success with a success probability of 1 / (1 + mean)
+        return (int) (Math.log(1 - random.nextDouble()) / Math.log(fanOut / (1 + fanOut)));
+    }
+
+    private int nextType() {
+        int index = Arrays.binarySearch(typeDistribution, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, typeDistribution.length - 1);
+    }
+
+    private static String typeName(int ordinal) {
+        return "type" + ordinal;
+    }
+
+    /**
+     * @return the cumulative distribution of the type ordinals
+     */
+    private static double[] zipf(int count, double exponent) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of types should be positive");
+        }
+        double[] distribution = new double[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            distribution[i] = total;
+        }
+        for (int i = 0; i < count; i++) {
+            distribution[i] /= total;
+        }
+        return distribution;
+    }
+}
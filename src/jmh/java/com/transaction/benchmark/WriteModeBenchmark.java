@@ -0,0 +1,92 @@
+package com.transaction.benchmark;
+
+import com.transaction.service.SingleWriterTransactionService;
+import com.transaction.service.TransactionService;
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.storage.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent creates and updates applied by the locking service and by the single writer pipeline
+ * as selected by the transaction.write.mode property.
+ *
+ * @author Diyan Yordanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+public class WriteModeBenchmark {
+
+    @Param({"locking", "single-writer"})
+    public String mode;
+
+    @Param({"heap", "columnar"})
+    public String backend;
+
+    @Param({"100000"})
+    public int size;
+
+    private TransactionService transactionService;
+
+    @Setup
+    public void setup() {
+        TransactionServiceImpl lockingService = (TransactionServiceImpl) BenchmarkSupport.newService(backend, size);
+        BenchmarkSupport.createTree(lockingService, "balanced", size);
+        if ("single-writer".equals(mode)) {
+            SingleWriterTransactionService singleWriterService =
+                    new SingleWriterTransactionService(lockingService, 4096, 256);
+            singleWriterService.start();
+            transactionService = singleWriterService;
+        } else {
+            transactionService = lockingService;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (transactionService instanceof SingleWriterTransactionService) {
+            ((SingleWriterTransactionService) transactionService).close();
+        }
+    }
+
+    @Benchmark
+    public Transaction updateAmount() {
+        long id = ThreadLocalRandom.current().nextLong(2, size + 1);
+        Transaction transaction = new Transaction(id, randomAmount(), BenchmarkSupport.TYPE, id / 2);
+        transactionService.createOrUpdate(transaction);
+        return transaction;
+    }
+
+    @Benchmark
+    public Transaction updateParent() {
+        long id = ThreadLocalRandom.current().nextLong(size / 2 + 1, size + 1);
+        long parentId = ThreadLocalRandom.current().nextLong(1, size / 2 + 1);
+        Transaction transaction = new Transaction(id, BenchmarkSupport.AMOUNT, BenchmarkSupport.TYPE, parentId);
+        transactionService.createOrUpdate(transaction);
+        return transaction;
+    }
+
+    private static BigDecimal randomAmount() {
+        return BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 100000), 2);
+    }
+}
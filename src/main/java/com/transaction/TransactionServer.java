@@ -2,11 +2,33 @@ package com.transaction;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
 
+/**
+ * Starts the transaction service. The transaction.server.mode property selects the server:
+ * <ul>
+ * <li>servlet - the embedded servlet container with a thread per request, the default one</li>
+ * <li>nio - a non-blocking server with a few event loop threads for all connections</li>
+ * </ul>
+ * The mode is needed before the application starts, so it could be given only as a command line argument,
+ * a system property or an environment variable.
+ *
+ * @author Diyan Yordanov
+ */
 @SpringBootApplication
 public class TransactionServer {
 
     public static void main(String[] args) {
-        SpringApplication.run(TransactionServer.class, args);
+        SpringApplication application = new SpringApplication(TransactionServer.class);
+        // The non-blocking server replaces the servlet container
+        application.setWebEnvironment(!"nio".equals(serverMode(args)));
+        application.run(args);
+    }
+
+    private static String serverMode(String[] args) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new SimpleCommandLinePropertySource(args));
+        return environment.getProperty("transaction.server.mode", "servlet");
     }
 }
@@ -0,0 +1,36 @@
+package com.transaction.api;
+
+import com.transaction.service.BatchResult;
+
+import java.util.List;
+
+/**
+ * Batch result DTO which represents the summary of a batch create or update in the REST service layer.
+ * <p>
+ *
+ * @author Diyan Yordanov
+ */
+public class BatchResultDTO {
+
+    private final BatchResult result;
+
+    public BatchResultDTO(BatchResult result) {
+        this.result = result;
+    }
+
+    public String getStatus() {
+        return "ok";
+    }
+
+    public long getProcessed() {
+        return result.getProcessed();
+    }
+
+    public long getFailed() {
+        return result.getFailed();
+    }
+
+    public List<BatchResult.Failure> getFailures() {
+        return result.getFailures();
+    }
+}
@@ -0,0 +1,63 @@
+package com.transaction.api;
+
+import com.transaction.storage.Transaction;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the frames of a binary batch body one by one with {@link TransactionBinaryCodec.Decoder}. Every frame
+ * has the ID of its transaction.
+ *
+ * @author Diyan Yordanov
+ */
+class BinaryTransactionStreamReader implements TransactionBatchReader {
+
+    private final TransactionBinaryCodec.Decoder decoder;
+
+    private boolean finished;
+
+    private Transaction next;
+
+    private long readCount;
+
+    private IOException error;
+
+    BinaryTransactionStreamReader(TransactionBinaryCodec.Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                next = decoder.read(null);
+            } catch (IOException e) {
+                error = e;
+            }
+            finished = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Transaction next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Transaction transaction = next;
+        next = null;
+        readCount++;
+        return transaction;
+    }
+
+    @Override
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public long getReadCount() {
+        return readCount;
+    }
+}
@@ -0,0 +1,81 @@
+package com.transaction.api;
+
+import com.transaction.feed.ChangeEvent;
+import com.transaction.feed.Subscription;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the events of a change feed subscription as server-sent events until the client disconnects:
+ * <pre>
+ * id: long
+ * event: transaction
+ * data: { "id":long, "amount":double, "type":string, "parent_id":long, "timestamp":long }
+ * </pre>
+ * A comment is written when there is no event in the heartbeat interval, so a disconnected client is detected and
+ * its subscription is closed. When the subscription is overflowed, an overflow event is written after the buffered
+ * events and the stream ends.
+ * <p>
+ * The stream is written by a thread of the asynchronous requests, so a slow client blocks only its own thread.
+ *
+ * @author Diyan Yordanov
+ */
+public class ChangeFeedStream implements StreamingResponseBody {
+
+    private static final byte[] EVENT_PREFIX = "\nevent: transaction\ndata: ".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] EVENT_END = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] OVERFLOW = "event: overflow\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Subscription subscription;
+
+    private final long heartbeatMillis;
+
+    public ChangeFeedStream(Subscription subscription, long heartbeatMillis) {
+        this.subscription = subscription;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        // The codec closes the stream it writes to, so every event is written to a buffer first
+        ByteArrayOutputStream data = new ByteArrayOutputStream(256);
+        try {
+            // The headers are sent before the first event
+            output.write(HEARTBEAT);
+            while (true) {
+                ChangeEvent event = subscription.poll(0);
+                if (event == null) {
+                    // A burst of events is flushed at once when there are no more buffered events
+                    output.flush();
+                    event = subscription.poll(heartbeatMillis);
+                }
+                if (event != null) {
+                    data.reset();
+                    TransactionJsonCodec.writeTransactionWithId(event.getTransaction(), data);
+                    output.write(("id: " + event.getSequence()).getBytes(StandardCharsets.UTF_8));
+                    output.write(EVENT_PREFIX);
+                    data.writeTo(output);
+                    output.write(EVENT_END);
+                } else if (subscription.isOverflowed()) {
+                    output.write(OVERFLOW);
+                    output.flush();
+                    return;
+                } else {
+                    output.write(HEARTBEAT);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscription.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.transaction.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link TransactionBinaryCodec} when a body is not a sequence of valid transaction frames
+ *
+ * @author Diyan Yordanov
+ */
+public class MalformedFrameException extends IOException {
+
+    public MalformedFrameException(String message) {
+        super(message);
+    }
+}
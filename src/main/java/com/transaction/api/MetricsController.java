@@ -0,0 +1,29 @@
+package com.transaction.api;
+
+import com.transaction.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * Exposes all metrics in the Prometheus text format to be scraped
+ *
+ * @author Diyan Yordanov
+ */
+@RestController
+public class MetricsController {
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @RequestMapping(value = "/metrics", method = GET)
+    public void scrape(HttpServletResponse response) throws IOException {
+        response.setContentType(MetricsRegistry.CONTENT_TYPE);
+        metricsRegistry.write(response.getWriter());
+    }
+}
@@ -0,0 +1,25 @@
+package com.transaction.api;
+
+import com.transaction.storage.Transaction;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads the transactions of a batch body one by one. Reading stops on malformed input and the error is kept
+ * in order to be reported together with the results of the transactions before it.
+ *
+ * @author Diyan Yordanov
+ */
+interface TransactionBatchReader extends Iterator<Transaction> {
+
+    /**
+     * @return the error which stopped the reading or null if the whole input is read
+     */
+    IOException getError();
+
+    /**
+     * @return the number of the read transactions, which is the index of the malformed one in case of error
+     */
+    long getReadCount();
+}
@@ -0,0 +1,401 @@
+package com.transaction.api;
+
+import com.transaction.storage.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary bodies of the transaction endpoints, which are an alternative to the JSON bodies
+ * of {@link TransactionJsonCodec} for the clients which send or read a lot of transactions. A body is a sequence
+ * of frames, every frame is a single transaction:
+ * <pre>
+ * varint  length of the rest of the frame
+ * byte    flags - which of the optional fields are present and how the amount and the type are encoded
+ * varint  id, if the ID flag is set
+ * varint  parent_id, if the PARENT_ID flag is set
+ * varint  timestamp, if the TIMESTAMP flag is set
+ * varint  scale of the amount, zigzag encoded
+ * varint  unscaled amount, zigzag encoded, or if the BIG_AMOUNT flag is set:
+ *         varint length and the two's complement bytes of an unscaled amount which doesn't fit in a long
+ * varint  ordinal of the type in the dictionary of the body, or if the NEW_TYPE flag is set:
+ *         varint length and the UTF-8 bytes of a type, which gets the next ordinal of the dictionary
+ * </pre>
+ * The varints are unsigned LEB128, so the IDs of a tree and the amounts with a few digits take a few bytes, and
+ * a type is sent once per body instead of once per transaction. A reader ignores the bytes after the known fields
+ * of a frame, so fields could be added at its end.
+ * <p>
+ * As in JSON, the id is a part of the frame only in a batch and the timestamp is read only from the responses.
+ * The frames are decoded directly into the model.
+ *
+ * @author Diyan Yordanov
+ */
+public final class TransactionBinaryCodec {
+
+    public static final String APPLICATION_TRANSACTION_BINARY_VALUE = "application/x-transaction-binary";
+
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private static final int ID = 1;
+
+    private static final int PARENT_ID = 1 << 1;
+
+    private static final int TIMESTAMP = 1 << 2;
+
+    private static final int NEW_TYPE = 1 << 3;
+
+    private static final int BIG_AMOUNT = 1 << 4;
+
+    private TransactionBinaryCodec() {
+    }
+
+    /**
+     * @param contentType - the Content-Type header of a request, null if it's missing
+     * @return whether the body of the request is binary
+     */
+    public static boolean isBinary(String contentType) {
+        return contentType != null && APPLICATION_TRANSACTION_BINARY_VALUE.equalsIgnoreCase(mediaType(contentType));
+    }
+
+    /**
+     * The binary format is chosen only if the client lists it, JSON remains the format of any other Accept header
+     *
+     * @param accept - the Accept header of a request, null if it's missing
+     * @return whether the response should be binary
+     */
+    public static boolean accepts(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        for (String range : accept.split(",")) {
+            if (APPLICATION_TRANSACTION_BINARY_VALUE.equalsIgnoreCase(mediaType(range))) {
+                return quality(range) > 0;
+            }
+        }
+        return false;
+    }
+
+    private static double quality(String range) {
+        String[] parameters = range.split(";");
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Read the body of a single transaction request, which is a single frame
+     *
+     * @param input - the body
+     * @param id    - the ID of the transaction
+     * @return the read transaction
+     * @throws MalformedFrameException in case of malformed input
+     */
+    public static Transaction readTransaction(InputStream input, Long id) throws IOException {
+        return readTransaction(input, id, false);
+    }
+
+    /**
+     * Read a single transaction written by {@link #writeTransaction(Transaction, OutputStream)} together with
+     * its timestamp
+     *
+     * @param input - the body
+     * @param id    - the ID of the transaction
+     * @return the read transaction
+     * @throws MalformedFrameException in case of malformed input
+     */
+    public static Transaction readStoredTransaction(InputStream input, Long id) throws IOException {
+        return readTransaction(input, id, true);
+    }
+
+    private static Transaction readTransaction(InputStream input, Long id, boolean withTimestamp)
+            throws IOException {
+        Transaction transaction = new Decoder(input, withTimestamp).read(id);
+        if (transaction == null) {
+            throw new MalformedFrameException("A transaction frame is expected");
+        }
+        if (input.read() >= 0) {
+            throw new MalformedFrameException("Unexpected content after the transaction");
+        }
+        return transaction;
+    }
+
+    /**
+     * Write a single transaction frame without its ID
+     */
+    public static void writeTransaction(Transaction transaction, OutputStream output) throws IOException {
+        new Encoder(output).write(transaction, false);
+    }
+
+    private static String mediaType(String value) {
+        int parameters = value.indexOf(';');
+        return (parameters < 0 ? value : value.substring(0, parameters)).trim();
+    }
+
+    /**
+     * Writes the frames of a body. The types are added to the dictionary of the body as they are written.
+     * The output is not buffered by the encoder, but every frame is written with a single call.
+     */
+    public static final class Encoder {
+
+        private final OutputStream output;
+
+        private final Map<String, Integer> ordinalsByType = new HashMap<>();
+
+        private byte[] frame = new byte[64];
+
+        private int length;
+
+        public Encoder(OutputStream output) {
+            this.output = output;
+        }
+
+        /**
+         * @param transaction - a transaction with an amount and a type
+         * @param withId      - whether the ID is written as in a batch
+         * @throws IllegalArgumentException if the transaction has no amount or no type or if its frame is too large
+         */
+        public void write(Transaction transaction, boolean withId) throws IOException {
+            BigDecimal amount = transaction.getAmount();
+            String type = transaction.getType();
+            if (amount == null || type == null) {
+                throw new IllegalArgumentException(String.format("Transaction %d has no amount or no type",
+                        transaction.getId()));
+            }
+            BigInteger unscaledAmount = amount.unscaledValue();
+            boolean bigAmount = unscaledAmount.bitLength() > Long.SIZE - 1;
+            Integer ordinal = ordinalsByType.get(type);
+
+            // The length prefix is written after the frame, so the frame starts after the longest length prefix
+            length = 3;
+            writeByte((withId ? ID : 0) | (transaction.getParentId() != null ? PARENT_ID : 0)
+                    | (transaction.getTimestamp() != null ? TIMESTAMP : 0) | (ordinal == null ? NEW_TYPE : 0)
+                    | (bigAmount ? BIG_AMOUNT : 0));
+            if (withId) {
+                writeVarint(transaction.getId());
+            }
+            if (transaction.getParentId() != null) {
+                writeVarint(transaction.getParentId());
+            }
+            if (transaction.getTimestamp() != null) {
+                writeVarint(transaction.getTimestamp());
+            }
+            writeVarint(zigzag(amount.scale()));
+            if (bigAmount) {
+                writeBytes(unscaledAmount.toByteArray());
+            } else {
+                writeVarint(zigzag(unscaledAmount.longValue()));
+            }
+            if (ordinal == null) {
+                writeBytes(type.getBytes(StandardCharsets.UTF_8));
+            } else {
+                writeVarint(ordinal);
+            }
+
+            int frameLength = length - 3;
+            if (frameLength > MAX_FRAME_SIZE) {
+                throw new IllegalArgumentException(String.format("Transaction %d is too large for a frame",
+                        transaction.getId()));
+            }
+            if (ordinal == null) {
+                ordinalsByType.put(type, ordinalsByType.size());
+            }
+            int start = 3 - varintSize(frameLength);
+            length = start;
+            writeVarint(frameLength);
+            output.write(frame, start, frameLength + 3 - start);
+        }
+
+        private void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, frame, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                frame[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            frame[length++] = (byte) value;
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            frame[length++] = (byte) value;
+        }
+
+        private void ensureCapacity(int size) {
+            if (length + size > frame.length) {
+                frame = Arrays.copyOf(frame, Math.max(frame.length * 2, length + size));
+            }
+        }
+
+        private static long zigzag(long value) {
+            return value << 1 ^ value >> 63;
+        }
+
+        private static int varintSize(int value) {
+            return value < 1 << 7 ? 1 : value < 1 << 14 ? 2 : 3;
+        }
+    }
+
+    /**
+     * Reads the frames of a body one by one, so the whole body is never in the memory
+     */
+    public static final class Decoder {
+
+        private final InputStream input;
+
+        private final boolean withTimestamp;
+
+        private final List<String> types = new ArrayList<>();
+
+        private byte[] frame = new byte[64];
+
+        private int position;
+
+        private int limit;
+
+        /**
+         * @param input         - the body
+         * @param withTimestamp - whether the timestamps are read, which are assigned by the server on write
+         */
+        public Decoder(InputStream input, boolean withTimestamp) {
+            this.input = input;
+            this.withTimestamp = withTimestamp;
+        }
+
+        /**
+         * Read the next frame
+         *
+         * @param id - the ID of the transaction or null if it should be read from the frame
+         * @return the read transaction or null at the end of the body
+         * @throws MalformedFrameException in case of malformed input
+         */
+        public Transaction read(Long id) throws IOException {
+            int first = input.read();
+            if (first < 0) {
+                return null;
+            }
+            int frameLength = readFrameLength(first);
+            if (frameLength == 0 || frameLength > MAX_FRAME_SIZE) {
+                throw new MalformedFrameException(String.format("Invalid frame length %d", frameLength));
+            }
+            if (frameLength > frame.length) {
+                frame = new byte[Math.max(frameLength, frame.length * 2)];
+            }
+            for (int read = 0; read < frameLength; ) {
+                int count = input.read(frame, read, frameLength - read);
+                if (count < 0) {
+                    throw new MalformedFrameException("Truncated frame");
+                }
+                read += count;
+            }
+            position = 0;
+            limit = frameLength;
+
+            int flags = readByte();
+            Long frameId = (flags & ID) != 0 ? readVarint() : null;
+            Long parentId = (flags & PARENT_ID) != 0 ? readVarint() : null;
+            Long timestamp = (flags & TIMESTAMP) != 0 ? readVarint() : null;
+            long scale = unzigzag(readVarint());
+            if (scale != (int) scale) {
+                throw new MalformedFrameException(String.format("Invalid amount scale %d", scale));
+            }
+            BigDecimal amount = (flags & BIG_AMOUNT) != 0
+                    ? new BigDecimal(new BigInteger(readBytes()), (int) scale)
+                    : BigDecimal.valueOf(unzigzag(readVarint()), (int) scale);
+            String type;
+            if ((flags & NEW_TYPE) != 0) {
+                int typeLength = readLength();
+                type = new String(frame, position, typeLength, StandardCharsets.UTF_8);
+                position += typeLength;
+                types.add(type);
+            } else {
+                long ordinal = readVarint();
+                if (ordinal < 0 || ordinal >= types.size()) {
+                    throw new MalformedFrameException(String.format("Unknown type ordinal %d", ordinal));
+                }
+                type = types.get((int) ordinal);
+            }
+
+            Transaction transaction = new Transaction(id != null ? id : frameId, amount, type, parentId);
+            if (withTimestamp) {
+                transaction.setTimestamp(timestamp);
+            }
+            return transaction;
+        }
+
+        private int readFrameLength(int first) throws IOException {
+            int value = first & 0x7F;
+            for (int shift = 7, current = first; (current & 0x80) != 0; shift += 7) {
+                current = input.read();
+                if (current < 0 || shift > 14) {
+                    throw new MalformedFrameException("Invalid frame length");
+                }
+                value |= (current & 0x7F) << shift;
+            }
+            return value;
+        }
+
+        private byte[] readBytes() throws MalformedFrameException {
+            int bytesLength = readLength();
+            if (bytesLength == 0) {
+                throw new MalformedFrameException("Empty unscaled amount");
+            }
+            byte[] bytes = Arrays.copyOfRange(frame, position, position + bytesLength);
+            position += bytesLength;
+            return bytes;
+        }
+
+        private int readLength() throws MalformedFrameException {
+            long value = readVarint();
+            if (value < 0 || value > limit - position) {
+                throw new MalformedFrameException(String.format("Invalid field length %d", value));
+            }
+            return (int) value;
+        }
+
+        private long readVarint() throws MalformedFrameException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int current = readByte();
+                value |= (long) (current & 0x7F) << shift;
+                if ((current & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new MalformedFrameException("Invalid varint");
+        }
+
+        private int readByte() throws MalformedFrameException {
+            if (position == limit) {
+                throw new MalformedFrameException("Unexpected end of frame");
+            }
+            return frame[position++] & 0xFF;
+        }
+
+        private static long unzigzag(long value) {
+            return value >>> 1 ^ -(value & 1);
+        }
+    }
+}
@@ -1,22 +1,35 @@
 package com.transaction.api;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.transaction.feed.ChangeFeed;
+import com.transaction.feed.Subscription;
+import com.transaction.feed.TooManySubscribersException;
+import com.transaction.replication.ReplicationLagException;
+import com.transaction.replication.ReplicationState;
+import com.transaction.service.BatchResult;
 import com.transaction.service.ParentNotFoundException;
 import com.transaction.storage.Transaction;
 import com.transaction.service.TransactionService;
-import org.modelmapper.ModelMapper;
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.TypeAggregates;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
+import static com.transaction.api.TransactionBinaryCodec.APPLICATION_TRANSACTION_BINARY_VALUE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.POST;
 import static org.springframework.web.bind.annotation.RequestMethod.PUT;
 
 /**
@@ -24,6 +37,12 @@ import static org.springframework.web.bind.annotation.RequestMethod.PUT;
  * It is a thin rest controller which only wrap the service itself and add some exception handling
  * in order to be return meaningful responses and correct response codes.
  * <p>
+ * On a replicated server, the writes return the position of the leader in the X-Log-Position header. A read
+ * with the min_position parameter waits until the server has the changes up to this position, so a client could
+ * read its writes from a follower. If the follower is too far behind, the read fails with 503.
+ * <p>
+ * The changes could be streamed from the feed endpoint instead of polling the transactions. A subscription which
+ * exceeds the limit of the subscribers fails with 503.
  *
  * @author Diyan Yordanov
  */
@@ -34,55 +53,326 @@ public class TransactionController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired(required = false)
+    private ReplicationState replicationState;
+
     @Autowired
-    private ModelMapper modelMapper;
+    private ChangeFeed changeFeed;
+
+    @Value("${transaction.feed.heartbeat-ms:15000}")
+    private long feedHeartbeatMillis;
+
+    private static final JsonFactory JSON_FACTORY = TransactionJsonCodec.JSON_FACTORY;
+
+    private static final int STREAMING_PAGE_SIZE = 4096;
+
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final String LOG_POSITION_HEADER = "X-Log-Position";
+
+    private static final String TEXT_EVENT_STREAM_VALUE = "text/event-stream";
+
+    /**
+     * Runs before every endpoint of the controller
+     */
+    @ModelAttribute
+    public void awaitReplication(@RequestParam(value = "min_position", required = false) Long minPosition,
+                                 HttpServletRequest request) {
+        if (replicationState != null && minPosition != null && GET.name().equals(request.getMethod())) {
+            replicationState.awaitPosition(minPosition);
+        }
+    }
 
-    private static final Map<String, String> okResponseBody = new HashMap<>();
+    /**
+     * The request and response bodies of the single transaction endpoints are read and written by
+     * {@link TransactionJsonCodec} directly from and to the streams. A request body with the binary content type
+     * is read by {@link TransactionBinaryCodec}.
+     */
+    @RequestMapping(value = "/transaction/{transaction_id}", method = PUT,
+            consumes = {APPLICATION_JSON_VALUE, APPLICATION_TRANSACTION_BINARY_VALUE})
+    public void createOrUpdate(@PathVariable("transaction_id") Long id, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        Transaction transaction = TransactionBinaryCodec.isBinary(request.getContentType())
+                ? TransactionBinaryCodec.readTransaction(request.getInputStream(), id)
+                : TransactionJsonCodec.readTransaction(request.getInputStream(), id);
+        // An invalid transaction is rejected by its result code instead of an exception
+        if (!transactionService.tryCreateOrUpdate(transaction).isValid()) {
+            response.sendError(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        setLogPosition(response);
 
-    static {
-        okResponseBody.put("status", "ok");
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeStatusOk(response.getOutputStream());
     }
 
-    @RequestMapping(value = "/transaction/{transaction_id}", method = PUT, consumes = APPLICATION_JSON_VALUE)
-    public Map<String, String> createOrUpdate(
-            @PathVariable("transaction_id") Long id, @RequestBody TransactionDTO transactionDTO) {
-        Transaction transaction = convertToModel(id, transactionDTO);
-        transactionService.createOrUpdate(transaction);
-        return okResponseBody;
+    /**
+     * Create or update a batch of transactions. The body is a JSON array, new line delimited JSON objects or
+     * binary frames. Every transaction has its ID in the body. The body is read and applied in chunks while it is
+     * received.
+     */
+    @RequestMapping(value = "/transactions", method = POST,
+            consumes = {APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE, APPLICATION_TRANSACTION_BINARY_VALUE},
+            produces = APPLICATION_JSON_VALUE)
+    public BatchResultDTO createOrUpdateAll(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (TransactionBinaryCodec.isBinary(request.getContentType())) {
+            return createOrUpdateAll(new BinaryTransactionStreamReader(
+                    new TransactionBinaryCodec.Decoder(request.getInputStream(), false)), response);
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(request.getInputStream())) {
+            return createOrUpdateAll(new TransactionStreamReader(parser), response);
+        }
     }
 
-    @RequestMapping(value = "/transaction/{transaction_id}", method = GET, produces = APPLICATION_JSON_VALUE)
-    public TransactionDTO read(@PathVariable("transaction_id") Long id) {
+    private BatchResultDTO createOrUpdateAll(TransactionBatchReader reader, HttpServletResponse response) {
+        BatchResult result = transactionService.createOrUpdateAll(reader);
+        if (reader.getError() != null) {
+            result.addFailure(reader.getReadCount(), null,
+                    String.format("Malformed input: %s", reader.getError().getMessage()));
+        }
+        setLogPosition(response);
+        return new BatchResultDTO(result);
+    }
+
+    /**
+     * The transaction is written as a binary frame if the Accept header lists the binary content type
+     */
+    @RequestMapping(value = "/transaction/{transaction_id}", method = GET,
+            produces = {APPLICATION_JSON_VALUE, APPLICATION_TRANSACTION_BINARY_VALUE})
+    public void read(@PathVariable("transaction_id") Long id,
+                     @RequestHeader(value = "Accept", required = false) String accept,
+                     HttpServletResponse response) throws IOException {
         Transaction transaction = transactionService.getById(id);
-        return convertToDto(transaction);
+
+        if (TransactionBinaryCodec.accepts(accept)) {
+            response.setContentType(APPLICATION_TRANSACTION_BINARY_VALUE);
+            TransactionBinaryCodec.writeTransaction(transaction, response.getOutputStream());
+        } else {
+            response.setContentType(APPLICATION_JSON_VALUE);
+            TransactionJsonCodec.writeTransaction(transaction, response.getOutputStream());
+        }
     }
 
+    /**
+     * Read several transactions in a single request. The IDs are a comma separated list in the path. The response is
+     * a JSON array of the transactions with their IDs in the order of the IDs, where a transaction which is not found
+     * is null. The subtree sums are added to the transactions if the sum parameter is true.
+     */
+    @RequestMapping(value = "transactions/{transaction_ids}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getTransactions(@PathVariable("transaction_ids") long[] ids,
+                                @RequestParam(value = "sum", defaultValue = "false") boolean sum,
+                                HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            writeEntries(generator, ids, TransactionJsonCodec.INCLUDE_TRANSACTION
+                    | (sum ? TransactionJsonCodec.INCLUDE_SUM : 0));
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Calculate the sums of several transactions in a single request. The IDs are given as in
+     * {@link #getTransactions}. The response is a JSON array of { "id":long, "sum":double } in the order of the IDs.
+     */
+    @RequestMapping(value = "sums/{transaction_ids}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getTransactionsSums(@PathVariable("transaction_ids") long[] ids, HttpServletResponse response)
+            throws IOException {
+        response.setContentType(APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            writeEntries(generator, ids, TransactionJsonCodec.INCLUDE_SUM);
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Stream the transaction IDs for a type as a JSON array. The IDs are read from the service in pages, so a type
+     * with a lot of transactions doesn't need a response buffer for all its IDs.
+     * <p>
+     * If a limit is given, only a single page is returned and its last ID is returned in the X-Next-Cursor header
+     * when the page is full. It could be used as the after parameter in order to read the next page.
+     * <p>
+     * The include parameter returns the entries of {@link #getTransactions} instead of the IDs. It is a comma
+     * separated list of transaction and sum. Every page is read from the service at once, so reading the transactions
+     * of a type is a single request instead of a request per transaction.
+     */
     @RequestMapping(value = "types/{type}", method = GET, produces = APPLICATION_JSON_VALUE)
-    private Collection<Long> getTransactionIdsByType(@PathVariable("type") String type) {
-        return transactionService.getTransactionIdsByType(type);
+    public void getTransactionIdsByType(@PathVariable("type") String type,
+                                        @RequestParam(value = "after", required = false) Long after,
+                                        @RequestParam(value = "limit", required = false) Integer limit,
+                                        @RequestParam(value = "include", required = false) String include,
+                                        HttpServletResponse response) throws IOException {
+        int parts = TransactionJsonCodec.parseInclude(include);
+        int pageSize = limit != null ? limit : STREAMING_PAGE_SIZE;
+        long[] ids = transactionService.getTransactionIdsByType(type, after, pageSize);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        if (limit != null && ids.length == limit) {
+            response.setHeader(NEXT_CURSOR_HEADER, String.valueOf(ids[ids.length - 1]));
+        }
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            while (ids.length > 0) {
+                if (parts != 0) {
+                    writeEntries(generator, ids, parts);
+                } else {
+                    for (long id : ids) {
+                        generator.writeNumber(id);
+                    }
+                }
+                if (limit != null || ids.length < pageSize) {
+                    break;
+                }
+                ids = transactionService.getTransactionIdsByType(type, ids[ids.length - 1], pageSize);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Return the count, the sum, the min and the max of the amounts of a type. The histogram of the amounts
+     * in fixed buckets is added if the histogram parameter is true.
+     */
+    @RequestMapping(value = "aggregates/{type}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getAggregatesByType(@PathVariable("type") String type,
+                                    @RequestParam(value = "histogram", defaultValue = "false") boolean histogram,
+                                    HttpServletResponse response) throws IOException {
+        TypeAggregates aggregates = transactionService.getAggregatesByType(type);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeTypeAggregates(aggregates, histogram, response.getOutputStream());
+    }
+
+    /**
+     * Return the IDs of the transactions of a type created in a time window as a JSON array in the order of their
+     * creation time. The window is given by the from and the to times in milliseconds since the epoch or by its
+     * length in milliseconds in the last parameter. The to time is the current time by default.
+     */
+    @RequestMapping(value = "range/{type}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getTransactionIdsByTime(@PathVariable("type") String type,
+                                        @RequestParam(value = "from", required = false) Long from,
+                                        @RequestParam(value = "to", required = false) Long to,
+                                        @RequestParam(value = "last", required = false) Long last,
+                                        @RequestParam(value = "limit", defaultValue = "2147483647") int limit,
+                                        HttpServletResponse response) throws IOException {
+        long windowEnd = to != null ? to : System.currentTimeMillis();
+        long windowStart = windowStart(from, last, windowEnd);
+        long[] ids = transactionService.getTransactionIdsByTime(type, windowStart, windowEnd, limit);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeIds(ids, response.getOutputStream());
+    }
+
+    /**
+     * Return the count and the sum of the amounts of the transactions of a type created in a time window. The window
+     * is given as in {@link #getTransactionIdsByTime}, so the total of a sliding window is read by the last parameter.
+     */
+    @RequestMapping(value = "window/{type}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getAggregatesByTime(@PathVariable("type") String type,
+                                    @RequestParam(value = "from", required = false) Long from,
+                                    @RequestParam(value = "to", required = false) Long to,
+                                    @RequestParam(value = "last", required = false) Long last,
+                                    HttpServletResponse response) throws IOException {
+        long windowEnd = to != null ? to : System.currentTimeMillis();
+        TimeWindowAggregates aggregates =
+                transactionService.getAggregatesByTime(type, windowStart(from, last, windowEnd), windowEnd);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeTimeWindowAggregates(aggregates, response.getOutputStream());
+    }
+
+    /**
+     * Return the IDs of the ancestors of a transaction from its parent to the root of its tree
+     */
+    @RequestMapping(value = "ancestors/{transaction_id}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getAncestorIds(@PathVariable("transaction_id") Long id, HttpServletResponse response)
+            throws IOException {
+        long[] ancestorIds = transactionService.getAncestorIds(id);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeIds(ancestorIds, response.getOutputStream());
+    }
+
+    @RequestMapping(value = "root/{transaction_id}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void getRootId(@PathVariable("transaction_id") Long id, HttpServletResponse response) throws IOException {
+        Long rootId = transactionService.getRootId(id);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeRootId(rootId, response.getOutputStream());
+    }
+
+    /**
+     * Check if the transaction given by the contains parameter is transitively linked by its parent_id to
+     * the transaction in the path
+     */
+    @RequestMapping(value = "subtree/{transaction_id}", method = GET, produces = APPLICATION_JSON_VALUE)
+    public void isInSubtree(@PathVariable("transaction_id") Long ancestorId,
+                            @RequestParam("contains") Long id, HttpServletResponse response) throws IOException {
+        boolean contains = transactionService.isInSubtree(id, ancestorId);
+
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeContains(contains, response.getOutputStream());
     }
 
     @RequestMapping(value = "sum/{transaction_id}", method = GET, produces = APPLICATION_JSON_VALUE)
-    private HashMap<String, BigDecimal> getTransactionsSum(@PathVariable("transaction_id") Long id) {
+    public void getTransactionsSum(@PathVariable("transaction_id") Long id, HttpServletResponse response)
+            throws IOException {
         BigDecimal sum = transactionService.calculateTransactionsSum(id);
-        HashMap<String, BigDecimal> responseBody = new HashMap<>();
-        responseBody.put("sum", sum);
 
-        return responseBody;
+        response.setContentType(APPLICATION_JSON_VALUE);
+        TransactionJsonCodec.writeSum(sum, response.getOutputStream());
     }
 
-    @ExceptionHandler({IllegalArgumentException.class, ParentNotFoundException.class})
+    /**
+     * Stream the created and updated transactions as server-sent events, optionally only these of a type and of
+     * the subtree of the root_id transaction. An update is streamed if either its old or its new state matches. See
+     * {@link ChangeFeedStream} for the format of the events.
+     */
+    @RequestMapping(value = "feed", method = GET, produces = TEXT_EVENT_STREAM_VALUE)
+    public StreamingResponseBody subscribe(@RequestParam(value = "type", required = false) String type,
+                                           @RequestParam(value = "root_id", required = false) Long rootId,
+                                           HttpServletResponse response) {
+        // Subscribe before the response is started, so the changes after the request are not missed
+        Subscription subscription = changeFeed.subscribe(type, rootId);
+
+        response.setContentType(TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        return new ChangeFeedStream(subscription, feedHeartbeatMillis);
+    }
+
+    @ExceptionHandler({ReplicationLagException.class, TooManySubscribersException.class})
+    void handleUnavailable(HttpServletResponse response) throws IOException {
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
+    @ExceptionHandler({IllegalArgumentException.class, ParentNotFoundException.class, JsonProcessingException.class,
+            MalformedFrameException.class})
     void handleBadRequests(HttpServletResponse response) throws IOException {
         response.sendError(HttpStatus.BAD_REQUEST.value());
     }
 
-    private TransactionDTO convertToDto(Transaction transaction) {
-        return modelMapper.map(transaction, TransactionDTO.class);
+    private static long windowStart(Long from, Long last, long windowEnd) {
+        if (from == null && last == null) {
+            throw new IllegalArgumentException("Either the from or the last parameter is required");
+        }
+        return from != null ? from : windowEnd - last;
+    }
+
+    private void writeEntries(JsonGenerator generator, long[] ids, int parts) throws IOException {
+        Transaction[] transactions = (parts & TransactionJsonCodec.INCLUDE_TRANSACTION) != 0
+                ? transactionService.getByIds(ids) : null;
+        BigDecimal[] sums = (parts & TransactionJsonCodec.INCLUDE_SUM) != 0
+                ? transactionService.calculateTransactionsSums(ids) : null;
+        TransactionJsonCodec.writeEntries(generator, ids, transactions, sums);
     }
 
-    private Transaction convertToModel(Long id, TransactionDTO transactionDTO) {
-        Transaction transaction = modelMapper.map(transactionDTO, Transaction.class);
-        transaction.setId(id);
-        return transaction;
+    private void setLogPosition(HttpServletResponse response) {
+        if (replicationState != null) {
+            response.setHeader(LOG_POSITION_HEADER, String.valueOf(replicationState.getPosition()));
+        }
     }
 }
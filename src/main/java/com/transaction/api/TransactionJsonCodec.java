@@ -0,0 +1,427 @@
+package com.transaction.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the JSON bodies of the transaction endpoints with the streaming parser and generator.
+ * A transaction is read directly into the model and written directly to the response stream, without
+ * an intermediate DTO and data binding. The JSON format of a transaction is:
+ * <pre>
+ * { "id":long, "amount":double, "type":string, "parent_id":long, "timestamp":long }
+ * </pre>
+ * where the id is a part of the body only in a batch and in a change event. The timestamp is the creation time of
+ * a stored transaction in milliseconds since the epoch. It is assigned by the server, so it is not read from
+ * the requests. Unknown fields are ignored.
+ *
+ * @author Diyan Yordanov
+ */
+public final class TransactionJsonCodec {
+
+    public static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static final int INCLUDE_TRANSACTION = 1;
+
+    public static final int INCLUDE_SUM = 1 << 1;
+
+    private static final byte[] STATUS_OK = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+
+    private static final String ID = "id";
+
+    private static final String AMOUNT = "amount";
+
+    private static final String TYPE = "type";
+
+    private static final String PARENT_ID = "parent_id";
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final String FROM = "from";
+
+    private static final String TO = "to";
+
+    private static final String SUM = "sum";
+
+    private static final String COUNT = "count";
+
+    private static final String MIN = "min";
+
+    private static final String MAX = "max";
+
+    private static final String HISTOGRAM = "histogram";
+
+    private static final String BOUNDS = "bounds";
+
+    private static final String COUNTS = "counts";
+
+    private static final String ROOT_ID = "root_id";
+
+    private static final String CONTAINS = "contains";
+
+    private TransactionJsonCodec() {
+    }
+
+    /**
+     * Read a single transaction object
+     *
+     * @param input - the JSON object
+     * @param id    - the ID of the transaction
+     * @return the read transaction
+     * @throws JsonParseException in case of malformed input
+     */
+    public static Transaction readTransaction(InputStream input, Long id) throws IOException {
+        return readTransaction(input, id, false);
+    }
+
+    /**
+     * Read a single transaction object written by {@link #writeTransaction(Transaction, OutputStream)} together
+     * with its timestamp
+     *
+     * @param input - the JSON object
+     * @param id    - the ID of the transaction
+     * @return the read transaction
+     * @throws JsonParseException in case of malformed input
+     */
+    public static Transaction readStoredTransaction(InputStream input, Long id) throws IOException {
+        return readTransaction(input, id, true);
+    }
+
+    /**
+     * Read a transaction object with its ID and its timestamp which start token is the current token of the parser,
+     * e.g. an entry written by {@link #writeEntries(JsonGenerator, long[], Transaction[], BigDecimal[])}. The parser
+     * is left at the end token of the object.
+     *
+     * @param parser - the parser positioned at the start of the object
+     * @return the read transaction
+     * @throws JsonParseException in case of malformed input
+     */
+    public static Transaction readStoredTransaction(JsonParser parser) throws IOException {
+        return readTransaction(parser, null, true);
+    }
+
+    private static Transaction readTransaction(InputStream input, Long id, boolean withTimestamp)
+            throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(input)) {
+            parser.nextToken();
+            Transaction transaction = readTransaction(parser, id, withTimestamp);
+            if (parser.nextToken() != null) {
+                throw new JsonParseException("Unexpected content after the transaction", parser.getCurrentLocation());
+            }
+            return transaction;
+        }
+    }
+
+    /**
+     * Read a transaction object which start token is the current token of the parser. The parser is left at
+     * the end token of the object.
+     *
+     * @param parser - the parser positioned at the start of the object
+     * @param id     - the ID of the transaction or null if it should be read from the object
+     * @return the read transaction
+     * @throws JsonParseException in case of malformed input
+     */
+    static Transaction readTransaction(JsonParser parser, Long id) throws IOException {
+        return readTransaction(parser, id, false);
+    }
+
+    private static Transaction readTransaction(JsonParser parser, Long id, boolean withTimestamp)
+            throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("A transaction object is expected", parser.getCurrentLocation());
+        }
+
+        Transaction transaction = new Transaction(id, null, null, null);
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            if (AMOUNT.equals(field)) {
+                transaction.setAmount(readDecimal(parser, token));
+            } else if (TYPE.equals(field)) {
+                transaction.setType(readString(parser, token));
+            } else if (PARENT_ID.equals(field)) {
+                transaction.setParentId(readLong(parser, token));
+            } else if (id == null && ID.equals(field)) {
+                transaction.setId(readLong(parser, token));
+            } else if (withTimestamp && TIMESTAMP.equals(field)) {
+                transaction.setTimestamp(readLong(parser, token));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException("A field name is expected", parser.getCurrentLocation());
+        }
+        return transaction;
+    }
+
+    /**
+     * Write a transaction object without its ID
+     */
+    public static void writeTransaction(Transaction transaction, OutputStream output) throws IOException {
+        writeTransaction(transaction, false, output);
+    }
+
+    /**
+     * Write a transaction object with its ID as in a batch
+     */
+    public static void writeTransactionWithId(Transaction transaction, OutputStream output) throws IOException {
+        writeTransaction(transaction, true, output);
+    }
+
+    private static void writeTransaction(Transaction transaction, boolean withId, OutputStream output)
+            throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartObject();
+            if (withId) {
+                generator.writeNumberField(ID, transaction.getId());
+            }
+            writeTransactionFields(generator, transaction);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Parse the include parameter of a type, which is a comma separated list of the parts of every entry -
+     * transaction and sum
+     *
+     * @return a combination of {@link #INCLUDE_TRANSACTION} and {@link #INCLUDE_SUM} or 0 if the parameter is null
+     * @throws IllegalArgumentException in case of an unknown part
+     */
+    public static int parseInclude(String include) {
+        int parts = 0;
+        if (include == null) {
+            return parts;
+        }
+        for (String part : include.split(",")) {
+            switch (part.trim()) {
+                case "transaction":
+                    parts |= INCLUDE_TRANSACTION;
+                    break;
+                case SUM:
+                    parts |= INCLUDE_SUM;
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown part to include: %s", part));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Write the entries of several transactions to an open array:
+     * <pre>
+     * { "id":long, "amount":double, "type":string, "parent_id":long, "timestamp":long, "sum":double }
+     * </pre>
+     * where the transaction fields are written only if the transactions are given and the sum is written only if
+     * the sums are given. The entry of a transaction which is not found is null.
+     *
+     * @param ids          - the IDs of the entries
+     * @param transactions - the transactions in the order of the IDs or null
+     * @param sums         - the subtree sums in the order of the IDs or null
+     */
+    public static void writeEntries(JsonGenerator generator, long[] ids, Transaction[] transactions,
+                                    BigDecimal[] sums) throws IOException {
+        for (int i = 0; i < ids.length; i++) {
+            if (transactions != null ? transactions[i] == null : sums[i] == null) {
+                generator.writeNull();
+                continue;
+            }
+            generator.writeStartObject();
+            generator.writeNumberField(ID, ids[i]);
+            if (transactions != null) {
+                writeTransactionFields(generator, transactions[i]);
+            }
+            if (sums != null) {
+                writeNullableNumber(generator, SUM, sums[i]);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeTransactionFields(JsonGenerator generator, Transaction transaction) throws IOException {
+        generator.writeFieldName(AMOUNT);
+        generator.writeNumber(transaction.getAmount());
+        generator.writeStringField(TYPE, transaction.getType());
+        generator.writeFieldName(PARENT_ID);
+        if (transaction.getParentId() != null) {
+            generator.writeNumber(transaction.getParentId());
+        } else {
+            generator.writeNull();
+        }
+        if (transaction.getTimestamp() != null) {
+            generator.writeNumberField(TIMESTAMP, transaction.getTimestamp());
+        }
+    }
+
+    /**
+     * Write a sum object - { "sum":double }
+     */
+    public static void writeSum(BigDecimal sum, OutputStream output) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeFieldName(SUM);
+            generator.writeNumber(sum);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write the aggregates of a type. The histogram has one more count than bounds, the count i is of
+     * the amounts from the bound i - 1 inclusive to the bound i exclusive:
+     * <pre>
+     * { "type":string, "count":long, "sum":double, "min":double, "max":double,
+     *   "histogram":{ "bounds":[double], "counts":[long] } }
+     * </pre>
+     *
+     * @param histogram - true if the histogram should be written
+     */
+    public static void writeTypeAggregates(TypeAggregates aggregates, boolean histogram, OutputStream output)
+            throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeStringField(TYPE, aggregates.getType());
+            generator.writeNumberField(COUNT, aggregates.getCount());
+            generator.writeNumberField(SUM, aggregates.getSum());
+            writeNullableNumber(generator, MIN, aggregates.getMin());
+            writeNullableNumber(generator, MAX, aggregates.getMax());
+            if (histogram) {
+                generator.writeObjectFieldStart(HISTOGRAM);
+                generator.writeArrayFieldStart(BOUNDS);
+                for (BigDecimal bound : aggregates.getHistogramBounds()) {
+                    generator.writeNumber(bound);
+                }
+                generator.writeEndArray();
+                generator.writeArrayFieldStart(COUNTS);
+                for (long count : aggregates.getHistogramCounts()) {
+                    generator.writeNumber(count);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write the aggregates of a time window:
+     * <pre>
+     * { "type":string, "from":long, "to":long, "count":long, "sum":double }
+     * </pre>
+     */
+    public static void writeTimeWindowAggregates(TimeWindowAggregates aggregates, OutputStream output)
+            throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeStringField(TYPE, aggregates.getType());
+            generator.writeNumberField(FROM, aggregates.getFrom());
+            generator.writeNumberField(TO, aggregates.getTo());
+            generator.writeNumberField(COUNT, aggregates.getCount());
+            generator.writeNumberField(SUM, aggregates.getSum());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write an array of IDs - [long]
+     */
+    public static void writeIds(long[] ids, OutputStream output) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartArray();
+            for (long id : ids) {
+                generator.writeNumber(id);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Write the root of a transaction tree - { "root_id":long }
+     */
+    public static void writeRootId(long rootId, OutputStream output) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeNumberField(ROOT_ID, rootId);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write the result of a subtree check - { "contains":boolean }
+     */
+    public static void writeContains(boolean contains, OutputStream output) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeBooleanField(CONTAINS, contains);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write the status of a successful request - { "status":"ok" }
+     */
+    public static void writeStatusOk(OutputStream output) throws IOException {
+        output.write(STATUS_OK);
+    }
+
+    private static void writeNullableNumber(JsonGenerator generator, String field, BigDecimal value)
+            throws IOException {
+        generator.writeFieldName(field);
+        if (value != null) {
+            generator.writeNumber(value);
+        } else {
+            generator.writeNull();
+        }
+    }
+
+    private static BigDecimal readDecimal(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_STRING:
+                return new BigDecimal(parser.getText());
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException(String.format("A number is expected for '%s'",
+                        parser.getCurrentName()), parser.getCurrentLocation());
+        }
+    }
+
+    private static Long readLong(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_STRING:
+                return Long.valueOf(parser.getText());
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException(String.format("An integer is expected for '%s'",
+                        parser.getCurrentName()), parser.getCurrentLocation());
+        }
+    }
+
+    private static String readString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(String.format("A string is expected for '%s'", parser.getCurrentName()),
+                    parser.getCurrentLocation());
+        }
+        return parser.getText();
+    }
+}
@@ -0,0 +1,85 @@
+package com.transaction.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.transaction.storage.Transaction;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads transactions from a JSON array or from new line delimited JSON objects one by one, so the whole input
+ * is never in the memory. Reading stops on malformed input and the error is kept in order to be reported.
+ * <p>
+ *
+ * @author Diyan Yordanov
+ */
+class TransactionStreamReader implements TransactionBatchReader {
+
+    private final JsonParser parser;
+
+    private boolean array;
+
+    private boolean started;
+
+    private Transaction next;
+
+    private long readCount;
+
+    private IOException error;
+
+    TransactionStreamReader(JsonParser parser) {
+        this.parser = parser;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && error == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Transaction next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Transaction transaction = next;
+        next = null;
+        readCount++;
+        return transaction;
+    }
+
+    @Override
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public long getReadCount() {
+        return readCount;
+    }
+
+    private Transaction readNext() {
+        try {
+            JsonToken token = parser.nextToken();
+            if (!started) {
+                started = true;
+                // A JSON array or a sequence of root level objects separated by new lines
+                array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+            }
+            if (token == null || array && token == JsonToken.END_ARRAY) {
+                return null;
+            }
+
+            return TransactionJsonCodec.readTransaction(parser, null);
+        } catch (IOException e) {
+            error = e;
+            return null;
+        }
+    }
+}
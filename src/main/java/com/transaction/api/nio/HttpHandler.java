@@ -0,0 +1,20 @@
+package com.transaction.api.nio;
+
+import java.io.IOException;
+
+/**
+ * Handles the requests of a {@link NioHttpServer}. It is called either by the event loop of the connection, then it
+ * should not block, or by a worker of the server.
+ *
+ * @author Diyan Yordanov
+ */
+public interface HttpHandler {
+
+    /**
+     * Handle a request
+     *
+     * @param request  - the request which is valid only during the call
+     * @param response - the response to be filled, its status is 200 by default
+     */
+    void handle(HttpRequest request, HttpResponse response) throws IOException;
+}
@@ -0,0 +1,131 @@
+package com.transaction.api.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HTTP request read by a {@link NioHttpServer}. The body refers to the input buffer of the connection,
+ * so it could be read only during the handling of the request.
+ *
+ * @author Diyan Yordanov
+ */
+public final class HttpRequest {
+
+    private final String method;
+
+    private final String path;
+
+    private final String query;
+
+    private final String contentType;
+
+    private final String accept;
+
+    private final byte[] buffer;
+
+    private final int bodyOffset;
+
+    private final int bodyLength;
+
+    private Map<String, String> parameters;
+
+    HttpRequest(String method, String target, String contentType, String accept, byte[] buffer, int bodyOffset,
+                int bodyLength) {
+        this.method = method;
+        int queryStart = target.indexOf('?');
+        this.path = decodePath(queryStart < 0 ? target : target.substring(0, queryStart));
+        this.query = queryStart < 0 ? null : target.substring(queryStart + 1);
+        this.contentType = contentType;
+        this.accept = accept;
+        this.buffer = buffer;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the decoded path of the request without the query
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the decoded value of a query parameter or null if it's missing
+     */
+    public String getParameter(String name) {
+        if (parameters == null) {
+            parameters = parseQuery(query);
+        }
+        return parameters.get(name);
+    }
+
+    /**
+     * @return the Content-Type header or null if it's missing
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the Accept header or null if it's missing
+     */
+    public String getAccept() {
+        return accept;
+    }
+
+    public InputStream getBody() {
+        return new ByteArrayInputStream(buffer, bodyOffset, bodyLength);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        if (query == null || query.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> parameters = new HashMap<>();
+        try {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                String name = separator < 0 ? parameter : parameter.substring(0, separator);
+                String value = separator < 0 ? "" : parameter.substring(separator + 1);
+                parameters.putIfAbsent(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    private static String decodePath(String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        // Unlike the query, a '+' in the path is not a space
+        byte[] decoded = new byte[path.length()];
+        int length = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%' && i + 2 < path.length()) {
+                int high = Character.digit(path.charAt(i + 1), 16);
+                int low = Character.digit(path.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    throw new IllegalArgumentException(String.format("Invalid escape in path %s", path));
+                }
+                decoded[length++] = (byte) (high << 4 | low);
+                i += 2;
+            } else {
+                decoded[length++] = (byte) c;
+            }
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+}
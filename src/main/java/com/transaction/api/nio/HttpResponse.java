@@ -0,0 +1,125 @@
+package com.transaction.api.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP response written by a {@link NioHttpServer}. The body is buffered and the buffer is reused for all
+ * responses of a connection.
+ *
+ * @author Diyan Yordanov
+ */
+public final class HttpResponse {
+
+    private static final String APPLICATION_JSON = "application/json;charset=UTF-8";
+
+    private final Body body = new Body();
+
+    private final StringBuilder headers = new StringBuilder();
+
+    private int status;
+
+    private String contentType;
+
+    HttpResponse() {
+        reset();
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param contentType - the content type of the body, JSON by default
+     */
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public void setHeader(String name, String value) {
+        headers.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    public OutputStream getBody() {
+        return body;
+    }
+
+    void reset() {
+        status = 200;
+        contentType = APPLICATION_JSON;
+        headers.setLength(0);
+        body.reset();
+    }
+
+    /**
+     * @return the status line and the headers of the response
+     */
+    ByteBuffer head(boolean keepAlive) {
+        StringBuilder head = new StringBuilder(128 + headers.length())
+                .append("HTTP/1.1 ").append(status).append(' ').append(reasonPhrase(status)).append("\r\n");
+        if (body.size() > 0) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.size()).append("\r\n");
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append(headers).append("\r\n");
+        return ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    ByteBuffer body() {
+        return body.buffer();
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            default:
+                return "Unknown";
+        }
+    }
+
+    private static final class Body extends ByteArrayOutputStream {
+
+        // A larger buffer of a single large response is not kept for the next responses
+        private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+        Body() {
+            super(256);
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            if (buf.length > MAX_RETAINED_SIZE) {
+                buf = new byte[256];
+            }
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.transaction.api.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal non-blocking HTTP/1.1 server. The connections are spread between a fixed number of event loops and
+ * every event loop serves all its connections by a single thread with a selector, so an idle or a slow connection
+ * doesn't hold a thread. The requests are handled either by the event loop thread, then the handler should not
+ * block, or by a pool of worker threads if the handler could block, e.g. on a lock or on a write to the disk.
+ * The response of a worker is handed back to the event loop of its connection, which writes it. A connection has
+ * at most one request in the pool, so the queue of the pool is bounded by the number of connections.
+ * <p>
+ * It supports keep-alive and pipelined requests with a Content-Length body. Chunked request bodies are not
+ * supported. The size of the request head is limited to {@link #MAX_HEAD_SIZE} and the size of the body to
+ * {@link #MAX_BODY_SIZE}.
+ *
+ * @author Diyan Yordanov
+ */
+public class NioHttpServer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioHttpServer.class);
+
+    static final int MAX_HEAD_SIZE = 8 * 1024;
+
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final int BACKLOG = 1024;
+
+    private final InetSocketAddress address;
+
+    private final HttpHandler handler;
+
+    private final EventLoop[] eventLoops;
+
+    private final int workerCount;
+
+    // Null if the requests are handled by the event loops
+    private ExecutorService workers;
+
+    private ServerSocketChannel serverChannel;
+
+    private Thread acceptor;
+
+    private volatile boolean running;
+
+    /**
+     * Create a server which handles the requests by the event loops, so the handler should not block
+     *
+     * @param address        - the address to listen to, the port could be 0 for any free port
+     * @param eventLoopCount - the number of event loop threads
+     * @param handler        - handles the requests
+     */
+    public NioHttpServer(InetSocketAddress address, int eventLoopCount, HttpHandler handler) {
+        this(address, eventLoopCount, 0, handler);
+    }
+
+    /**
+     * @param address        - the address to listen to, the port could be 0 for any free port
+     * @param eventLoopCount - the number of event loop threads
+     * @param workerCount    - the number of worker threads which handle the requests or 0 if the requests are
+     *                       handled by the event loops
+     * @param handler        - handles the requests
+     */
+    public NioHttpServer(InetSocketAddress address, int eventLoopCount, int workerCount, HttpHandler handler) {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException("The number of event loops should be positive");
+        }
+        if (workerCount < 0) {
+            throw new IllegalArgumentException("The number of workers should not be negative");
+        }
+        this.address = address;
+        this.handler = handler;
+        this.eventLoops = new EventLoop[eventLoopCount];
+        this.workerCount = workerCount;
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, BACKLOG);
+        running = true;
+        if (workerCount > 0) {
+            AtomicInteger workerIndex = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(workerCount,
+                    runnable -> new Thread(runnable, "nio-http-worker-" + workerIndex.getAndIncrement()));
+        }
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+            eventLoops[i].thread.start();
+        }
+        acceptor = new Thread(this::accept, "nio-http-acceptor");
+        acceptor.start();
+        LOG.info("NIO HTTP server started on port {} with {} event loops and {} workers", getPort(),
+                eventLoops.length, workerCount);
+    }
+
+    /**
+     * @return the port the server listens to
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stop accepting connections and close all open connections
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        try {
+            if (acceptor != null) {
+                acceptor.join();
+            }
+            if (workers != null) {
+                // A worker which finishes later hands its response to a closed event loop, which ignores it
+                workers.shutdownNow();
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.selector.wakeup();
+                    eventLoop.thread.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    LOG.warn("Accepting a connection failed", e);
+                }
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+
+        // The connections which requests are handled by the workers
+        private final Queue<Connection> handledRequests = new ConcurrentLinkedQueue<>();
+
+        private final Thread thread;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-http-" + index);
+        }
+
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Called by a worker after it handled the request of a connection, so the response is written by the event
+         * loop
+         */
+        void requestHandled(Connection connection) {
+            handledRequests.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        Connection connection = new Connection(this, channel);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+                    Connection handled;
+                    while ((handled = handledRequests.poll()) != null) {
+                        try {
+                            handled.respond();
+                        } catch (IOException e) {
+                            handled.close(handled.key);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read(key);
+                            } else if (key.isValid() && key.isWritable()) {
+                                connection.write(key);
+                            }
+                        } catch (IOException e) {
+                            // The connection is closed or reset by the client
+                            connection.close(key);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.error("Event loop failure", e);
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.warn("Closing the selector failed", e);
+            }
+        }
+    }
+
+    private final class Connection {
+
+        private final EventLoop eventLoop;
+
+        private final SocketChannel channel;
+
+        private SelectionKey key;
+
+        private final HttpResponse response = new HttpResponse();
+
+        private final ByteBuffer[] output = new ByteBuffer[2];
+
+        private byte[] input = new byte[INITIAL_BUFFER_SIZE];
+
+        private int inputLength;
+
+        // The input before this index is already searched for the end of the request head
+        private int scannedLength;
+
+        private boolean writing;
+
+        private boolean closeAfterWrite;
+
+        // Set while the request is handled by a worker, which owns the response meanwhile
+        private boolean handling;
+
+        private boolean handledKeepAlive;
+
+        Connection(EventLoop eventLoop, SocketChannel channel) {
+            this.eventLoop = eventLoop;
+            this.channel = channel;
+        }
+
+        void read(SelectionKey key) throws IOException {
+            if (inputLength == input.length) {
+                input = Arrays.copyOf(input, Math.min(input.length * 2, MAX_HEAD_SIZE + MAX_BODY_SIZE));
+            }
+            int read = channel.read(ByteBuffer.wrap(input, inputLength, input.length - inputLength));
+            if (read < 0) {
+                close(key);
+                return;
+            }
+            inputLength += read;
+            process(key);
+        }
+
+        void write(SelectionKey key) throws IOException {
+            flush(key);
+            process(key);
+        }
+
+        /**
+         * Write the response of a request handled by a worker and continue with the pipelined requests
+         */
+        void respond() throws IOException {
+            handling = false;
+            if (!key.isValid()) {
+                // The connection is closed while the request was handled
+                return;
+            }
+            closeAfterWrite = !handledKeepAlive;
+            prepareOutput(handledKeepAlive);
+            flush(key);
+            process(key);
+        }
+
+        void close(SelectionKey key) {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Closing a connection failed", e);
+            }
+        }
+
+        private void process(SelectionKey key) throws IOException {
+            // A pipelined request is handled only after the response of the previous one is written
+            while (!writing && !handling && !closeAfterWrite) {
+                int requestLength = handleRequest();
+                if (requestLength == 0) {
+                    break;
+                }
+                consume(requestLength);
+                flush(key);
+            }
+            if (key.isValid()) {
+                // The input is not read while a worker handles the request, so it is not buffered without a limit
+                key.interestOps(writing ? SelectionKey.OP_WRITE : handling ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * @return the length of the handled request or 0 if the request is not received completely
+         */
+        private int handleRequest() {
+            int headLength = findHeadEnd();
+            if (headLength < 0) {
+                return inputLength >= MAX_HEAD_SIZE ? respondAndClose(431) : 0;
+            }
+
+            String[] lines = new String(input, 0, headLength - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                return respondAndClose(400);
+            }
+            boolean keepAlive = "HTTP/1.1".equals(requestLine[2]);
+            long contentLength = 0;
+            String contentType = null;
+            String accept = null;
+            for (int i = 1; i < lines.length; i++) {
+                int separator = lines[i].indexOf(':');
+                if (separator <= 0) {
+                    return respondAndClose(400);
+                }
+                String name = lines[i].substring(0, separator).trim();
+                String value = lines[i].substring(separator + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        return respondAndClose(400);
+                    }
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name) && !"identity".equalsIgnoreCase(value)) {
+                    return respondAndClose(411);
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    keepAlive = "keep-alive".equalsIgnoreCase(value) || keepAlive && !"close".equalsIgnoreCase(value);
+                } else if ("Content-Type".equalsIgnoreCase(name)) {
+                    contentType = value;
+                } else if ("Accept".equalsIgnoreCase(name)) {
+                    accept = value;
+                }
+            }
+            if (contentLength < 0) {
+                return respondAndClose(400);
+            }
+            if (contentLength > MAX_BODY_SIZE) {
+                return respondAndClose(413);
+            }
+            int requestLength = headLength + (int) contentLength;
+            if (inputLength < requestLength) {
+                // Wait for the rest of the body
+                return 0;
+            }
+
+            HttpRequest request;
+            try {
+                if (workers != null) {
+                    // The input buffer is reused by the next requests while the worker handles the body
+                    request = new HttpRequest(requestLine[0], requestLine[1], contentType, accept,
+                            Arrays.copyOfRange(input, headLength, requestLength), 0, (int) contentLength);
+                } else {
+                    request = new HttpRequest(requestLine[0], requestLine[1], contentType, accept, input,
+                            headLength, (int) contentLength);
+                }
+            } catch (IllegalArgumentException e) {
+                // A malformed escape in the path
+                return respondAndClose(400);
+            }
+
+            if (workers != null) {
+                handling = true;
+                handledKeepAlive = keepAlive;
+                try {
+                    workers.execute(() -> {
+                        handle(request);
+                        eventLoop.requestHandled(this);
+                    });
+                } catch (RejectedExecutionException e) {
+                    // The server is closed
+                    handling = false;
+                    return respondAndClose(503);
+                }
+                return requestLength;
+            }
+            handle(request);
+            closeAfterWrite = !keepAlive;
+            prepareOutput(keepAlive);
+            return requestLength;
+        }
+
+        private void handle(HttpRequest request) {
+            response.reset();
+            try {
+                handler.handle(request, response);
+            } catch (Exception e) {
+                LOG.error("Request handling failed", e);
+                response.reset();
+                response.setStatus(500);
+            }
+        }
+
+        private int respondAndClose(int status) {
+            response.reset();
+            response.setStatus(status);
+            closeAfterWrite = true;
+            prepareOutput(false);
+            return inputLength;
+        }
+
+        private int findHeadEnd() {
+            for (int i = Math.max(3, scannedLength); i < inputLength; i++) {
+                if (input[i] == '\n' && input[i - 1] == '\r' && input[i - 2] == '\n' && input[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            scannedLength = inputLength;
+            return -1;
+        }
+
+        private void consume(int requestLength) {
+            inputLength -= requestLength;
+            if (inputLength == 0 && input.length > INITIAL_BUFFER_SIZE) {
+                input = new byte[INITIAL_BUFFER_SIZE];
+            } else {
+                System.arraycopy(input, requestLength, input, 0, inputLength);
+            }
+            scannedLength = 0;
+        }
+
+        private void prepareOutput(boolean keepAlive) {
+            output[0] = response.head(keepAlive);
+            output[1] = response.body();
+            writing = true;
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            if (!writing) {
+                return;
+            }
+            channel.write(output);
+            if (output[0].hasRemaining() || output[1].hasRemaining()) {
+                return;
+            }
+            writing = false;
+            output[0] = null;
+            output[1] = null;
+            if (closeAfterWrite) {
+                close(key);
+            }
+        }
+    }
+}
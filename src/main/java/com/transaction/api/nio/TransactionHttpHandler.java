@@ -0,0 +1,398 @@
+package com.transaction.api.nio;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.transaction.api.EndpointMetricsInterceptor;
+import com.transaction.api.MalformedFrameException;
+import com.transaction.api.TransactionBinaryCodec;
+import com.transaction.api.TransactionJsonCodec;
+import com.transaction.metrics.LatencyRecorder;
+import com.transaction.metrics.MetricsRegistry;
+import com.transaction.replication.ReplicationLagException;
+import com.transaction.replication.ReplicationState;
+import com.transaction.service.ParentNotFoundException;
+import com.transaction.service.TransactionService;
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the transactionservice endpoints of the {@link com.transaction.api.TransactionController} on
+ * a {@link NioHttpServer}. The requests and the responses have the same format and the same status codes.
+ * The single transaction endpoints negotiate the binary content type as in the controller.
+ * The latencies are recorded by the names of the controller methods, so both server modes have the same metrics.
+ * The metrics are scraped from /metrics.
+ * <p>
+ * On a replicated server, the writes return the position of the leader. A read with the min_position parameter
+ * doesn't wait for the position as in the controller, since it would hold a thread of the server. It fails with 503 at
+ * once if the position is not applied yet, so the client could retry it.
+ *
+ * @author Diyan Yordanov
+ */
+public class TransactionHttpHandler implements HttpHandler {
+
+    private static final String PATH_PREFIX = "/transactionservice/";
+
+    private static final int STREAMING_PAGE_SIZE = 4096;
+
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final String LOG_POSITION_HEADER = "X-Log-Position";
+
+    private static final String MIN_POSITION_PARAMETER = "min_position";
+
+    private static final String METRICS_PATH = "/metrics";
+
+    private final TransactionService transactionService;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final ReplicationState replicationState;
+
+    private final LatencyRecorder createOrUpdateLatency;
+
+    private final LatencyRecorder readLatency;
+
+    private final LatencyRecorder transactionsLatency;
+
+    private final LatencyRecorder sumsLatency;
+
+    private final LatencyRecorder idsByTypeLatency;
+
+    private final LatencyRecorder aggregatesLatency;
+
+    private final LatencyRecorder idsByTimeLatency;
+
+    private final LatencyRecorder windowLatency;
+
+    private final LatencyRecorder ancestorsLatency;
+
+    private final LatencyRecorder rootLatency;
+
+    private final LatencyRecorder subtreeLatency;
+
+    private final LatencyRecorder sumLatency;
+
+    public TransactionHttpHandler(TransactionService transactionService, MetricsRegistry metricsRegistry) {
+        this(transactionService, metricsRegistry, null);
+    }
+
+    /**
+     * @param replicationState - the position of the leader or the follower, null if the server is not replicated
+     */
+    public TransactionHttpHandler(TransactionService transactionService, MetricsRegistry metricsRegistry,
+                                  ReplicationState replicationState) {
+        this.transactionService = transactionService;
+        this.metricsRegistry = metricsRegistry;
+        this.replicationState = replicationState;
+        this.createOrUpdateLatency = endpointLatency("createOrUpdate");
+        this.readLatency = endpointLatency("read");
+        this.transactionsLatency = endpointLatency("getTransactions");
+        this.sumsLatency = endpointLatency("getTransactionsSums");
+        this.idsByTypeLatency = endpointLatency("getTransactionIdsByType");
+        this.aggregatesLatency = endpointLatency("getAggregatesByType");
+        this.idsByTimeLatency = endpointLatency("getTransactionIdsByTime");
+        this.windowLatency = endpointLatency("getAggregatesByTime");
+        this.ancestorsLatency = endpointLatency("getAncestorIds");
+        this.rootLatency = endpointLatency("getRootId");
+        this.subtreeLatency = endpointLatency("isInSubtree");
+        this.sumLatency = endpointLatency("getTransactionsSum");
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) throws IOException {
+        String path = request.getPath();
+        if (METRICS_PATH.equals(path) && "GET".equals(request.getMethod())) {
+            response.setContentType(MetricsRegistry.CONTENT_TYPE);
+            Writer writer = new OutputStreamWriter(response.getBody(), StandardCharsets.UTF_8);
+            metricsRegistry.write(writer);
+            return;
+        }
+        int separator = path.indexOf('/', PATH_PREFIX.length());
+        if (!path.startsWith(PATH_PREFIX) || separator < 0 || separator == path.length() - 1
+                || path.indexOf('/', separator + 1) >= 0) {
+            response.setStatus(404);
+            return;
+        }
+        String resource = path.substring(PATH_PREFIX.length(), separator);
+        String argument = path.substring(separator + 1);
+
+        long startTime = System.nanoTime();
+        LatencyRecorder latency = null;
+        try {
+            awaitReplication(request);
+            switch (resource) {
+                case "transaction":
+                    if ("PUT".equals(request.getMethod())) {
+                        latency = createOrUpdateLatency;
+                        createOrUpdate(Long.valueOf(argument), request, response);
+                    } else if ("GET".equals(request.getMethod())) {
+                        latency = readLatency;
+                        read(Long.valueOf(argument), request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "transactions":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = transactionsLatency;
+                        getTransactions(argument, request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "sums":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = sumsLatency;
+                        getTransactionsSums(argument, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "types":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = idsByTypeLatency;
+                        getTransactionIdsByType(argument, request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "aggregates":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = aggregatesLatency;
+                        getAggregatesByType(argument, request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "range":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = idsByTimeLatency;
+                        getTransactionIdsByTime(argument, request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "window":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = windowLatency;
+                        getAggregatesByTime(argument, request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "ancestors":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = ancestorsLatency;
+                        getAncestorIds(Long.valueOf(argument), response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "root":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = rootLatency;
+                        getRootId(Long.valueOf(argument), response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "subtree":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = subtreeLatency;
+                        isInSubtree(Long.valueOf(argument), request, response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                case "sum":
+                    if ("GET".equals(request.getMethod())) {
+                        latency = sumLatency;
+                        getTransactionsSum(Long.valueOf(argument), response);
+                    } else {
+                        response.setStatus(405);
+                    }
+                    break;
+                default:
+                    response.setStatus(404);
+            }
+        } catch (IllegalArgumentException | ParentNotFoundException | JsonProcessingException
+                | MalformedFrameException e) {
+            response.reset();
+            response.setStatus(400);
+        } catch (ReplicationLagException e) {
+            response.reset();
+            response.setStatus(503);
+        } finally {
+            if (latency != null) {
+                latency.recordSince(startTime);
+            }
+        }
+    }
+
+    private LatencyRecorder endpointLatency(String endpoint) {
+        return metricsRegistry.latencyRecorder(EndpointMetricsInterceptor.LATENCY_METRIC,
+                EndpointMetricsInterceptor.LATENCY_HELP, "endpoint", endpoint);
+    }
+
+    private void awaitReplication(HttpRequest request) {
+        String minPosition = request.getParameter(MIN_POSITION_PARAMETER);
+        if (replicationState != null && minPosition != null && "GET".equals(request.getMethod())) {
+            replicationState.checkPosition(Long.parseLong(minPosition));
+        }
+    }
+
+    private void createOrUpdate(Long id, HttpRequest request, HttpResponse response) throws IOException {
+        Transaction transaction = TransactionBinaryCodec.isBinary(request.getContentType())
+                ? TransactionBinaryCodec.readTransaction(request.getBody(), id)
+                : TransactionJsonCodec.readTransaction(request.getBody(), id);
+        if (!transactionService.tryCreateOrUpdate(transaction).isValid()) {
+            response.setStatus(400);
+            return;
+        }
+        if (replicationState != null) {
+            response.setHeader(LOG_POSITION_HEADER, String.valueOf(replicationState.getPosition()));
+        }
+        TransactionJsonCodec.writeStatusOk(response.getBody());
+    }
+
+    private void read(Long id, HttpRequest request, HttpResponse response) throws IOException {
+        Transaction transaction = transactionService.getById(id);
+        if (TransactionBinaryCodec.accepts(request.getAccept())) {
+            response.setContentType(TransactionBinaryCodec.APPLICATION_TRANSACTION_BINARY_VALUE);
+            TransactionBinaryCodec.writeTransaction(transaction, response.getBody());
+        } else {
+            TransactionJsonCodec.writeTransaction(transaction, response.getBody());
+        }
+    }
+
+    private void getTransactions(String ids, HttpRequest request, HttpResponse response) throws IOException {
+        int parts = TransactionJsonCodec.INCLUDE_TRANSACTION
+                | (Boolean.parseBoolean(request.getParameter("sum")) ? TransactionJsonCodec.INCLUDE_SUM : 0);
+        try (JsonGenerator generator = TransactionJsonCodec.JSON_FACTORY.createGenerator(response.getBody())) {
+            generator.writeStartArray();
+            writeEntries(generator, parseIds(ids), parts);
+            generator.writeEndArray();
+        }
+    }
+
+    private void getTransactionsSums(String ids, HttpResponse response) throws IOException {
+        try (JsonGenerator generator = TransactionJsonCodec.JSON_FACTORY.createGenerator(response.getBody())) {
+            generator.writeStartArray();
+            writeEntries(generator, parseIds(ids), TransactionJsonCodec.INCLUDE_SUM);
+            generator.writeEndArray();
+        }
+    }
+
+    private static long[] parseIds(String ids) {
+        String[] values = ids.split(",");
+        long[] parsed = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Long.parseLong(values[i].trim());
+        }
+        return parsed;
+    }
+
+    private void writeEntries(JsonGenerator generator, long[] ids, int parts) throws IOException {
+        Transaction[] transactions = (parts & TransactionJsonCodec.INCLUDE_TRANSACTION) != 0
+                ? transactionService.getByIds(ids) : null;
+        BigDecimal[] sums = (parts & TransactionJsonCodec.INCLUDE_SUM) != 0
+                ? transactionService.calculateTransactionsSums(ids) : null;
+        TransactionJsonCodec.writeEntries(generator, ids, transactions, sums);
+    }
+
+    private void getTransactionIdsByType(String type, HttpRequest request, HttpResponse response)
+            throws IOException {
+        int parts = TransactionJsonCodec.parseInclude(request.getParameter("include"));
+        String afterParameter = request.getParameter("after");
+        String limitParameter = request.getParameter("limit");
+        Long after = afterParameter != null ? Long.valueOf(afterParameter) : null;
+        Integer limit = limitParameter != null ? Integer.valueOf(limitParameter) : null;
+
+        int pageSize = limit != null ? limit : STREAMING_PAGE_SIZE;
+        long[] ids = transactionService.getTransactionIdsByType(type, after, pageSize);
+        if (limit != null && ids.length == limit) {
+            response.setHeader(NEXT_CURSOR_HEADER, String.valueOf(ids[ids.length - 1]));
+        }
+        try (JsonGenerator generator = TransactionJsonCodec.JSON_FACTORY.createGenerator(response.getBody())) {
+            generator.writeStartArray();
+            while (ids.length > 0) {
+                if (parts != 0) {
+                    writeEntries(generator, ids, parts);
+                } else {
+                    for (long id : ids) {
+                        generator.writeNumber(id);
+                    }
+                }
+                if (limit != null || ids.length < pageSize) {
+                    break;
+                }
+                ids = transactionService.getTransactionIdsByType(type, ids[ids.length - 1], pageSize);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private void getAggregatesByType(String type, HttpRequest request, HttpResponse response) throws IOException {
+        TypeAggregates aggregates = transactionService.getAggregatesByType(type);
+        TransactionJsonCodec.writeTypeAggregates(aggregates, Boolean.parseBoolean(request.getParameter("histogram")),
+                response.getBody());
+    }
+
+    private void getTransactionIdsByTime(String type, HttpRequest request, HttpResponse response)
+            throws IOException {
+        String limitParameter = request.getParameter("limit");
+        int limit = limitParameter != null ? Integer.parseInt(limitParameter) : Integer.MAX_VALUE;
+        long windowEnd = windowEnd(request);
+        long[] ids = transactionService.getTransactionIdsByTime(type, windowStart(request, windowEnd), windowEnd,
+                limit);
+        TransactionJsonCodec.writeIds(ids, response.getBody());
+    }
+
+    private void getAggregatesByTime(String type, HttpRequest request, HttpResponse response) throws IOException {
+        long windowEnd = windowEnd(request);
+        TimeWindowAggregates aggregates =
+                transactionService.getAggregatesByTime(type, windowStart(request, windowEnd), windowEnd);
+        TransactionJsonCodec.writeTimeWindowAggregates(aggregates, response.getBody());
+    }
+
+    private static long windowEnd(HttpRequest request) {
+        String to = request.getParameter("to");
+        return to != null ? Long.parseLong(to) : System.currentTimeMillis();
+    }
+
+    private static long windowStart(HttpRequest request, long windowEnd) {
+        String from = request.getParameter("from");
+        String last = request.getParameter("last");
+        if (from == null && last == null) {
+            throw new IllegalArgumentException("Either the from or the last parameter is required");
+        }
+        return from != null ? Long.parseLong(from) : windowEnd - Long.parseLong(last);
+    }
+
+    private void getAncestorIds(Long id, HttpResponse response) throws IOException {
+        long[] ancestorIds = transactionService.getAncestorIds(id);
+        TransactionJsonCodec.writeIds(ancestorIds, response.getBody());
+    }
+
+    private void getRootId(Long id, HttpResponse response) throws IOException {
+        Long rootId = transactionService.getRootId(id);
+        TransactionJsonCodec.writeRootId(rootId, response.getBody());
+    }
+
+    private void isInSubtree(Long ancestorId, HttpRequest request, HttpResponse response) throws IOException {
+        boolean contains = transactionService.isInSubtree(Long.valueOf(request.getParameter("contains")), ancestorId);
+        TransactionJsonCodec.writeContains(contains, response.getBody());
+    }
+
+    private void getTransactionsSum(Long id, HttpResponse response) throws IOException {
+        BigDecimal sum = transactionService.calculateTransactionsSum(id);
+        TransactionJsonCodec.writeSum(sum, response.getBody());
+    }
+}
@@ -1,24 +1,327 @@
 package com.transaction.config;
 
-import org.modelmapper.ModelMapper;
+import com.transaction.api.EndpointMetricsInterceptor;
+import com.transaction.api.nio.NioHttpServer;
+import com.transaction.api.nio.TransactionHttpHandler;
+import com.transaction.feed.ChangeFeed;
+import com.transaction.metrics.MetricsRegistry;
+import com.transaction.replication.ChangeLog;
+import com.transaction.replication.ChangeLogTransactionRepository;
+import com.transaction.replication.ReadOnlyTransactionService;
+import com.transaction.replication.ReplicationFollower;
+import com.transaction.replication.ReplicationServer;
+import com.transaction.replication.ReplicationState;
+import com.transaction.service.SingleWriterTransactionService;
+import com.transaction.service.TransactionService;
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.service.WriteAheadLogRecovery;
+import com.transaction.shard.ShardClient;
+import com.transaction.shard.ShardedTransactionService;
+import com.transaction.storage.ColumnarTransactionRepository;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.TransactionAggregatesByTypeIndex;
+import com.transaction.storage.TransactionAncestryIndex;
+import com.transaction.storage.TransactionRepository;
+import com.transaction.storage.TransactionTimeIndex;
+import com.transaction.storage.cache.CachingTransactionRepository;
+import com.transaction.storage.wal.SnapshotScheduler;
+import com.transaction.storage.wal.SnapshotStore;
+import com.transaction.storage.wal.WriteAheadLog;
+import com.transaction.storage.wal.WriteAheadLogTransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Configuration
-public class Config {
+public class Config extends WebMvcConfigurerAdapter {
 
+    @Value("${transaction.feed.timeout-ms:0}")
+    private long feedTimeoutMillis;
+
+    @Bean
+    public MetricsRegistry metricsRegistry() {
+        return new MetricsRegistry();
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new EndpointMetricsInterceptor(metricsRegistry()))
+                .addPathPatterns("/transactionservice/**");
+    }
+
+    /**
+     * The change feed streams are the only asynchronous requests. They are not timed out by default, as a client
+     * keeps its stream open while it is subscribed.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(feedTimeoutMillis);
+    }
+
+    /**
+     * The transaction storage backend is selected by the transaction.storage.backend property:
+     * <ul>
+     * <li>heap - transaction objects in a HashMap, the default one</li>
+     * <li>columnar - primitive columns on the heap</li>
+     * <li>columnar-off-heap - primitive columns outside of the heap</li>
+     * </ul>
+     * When the transaction.cache.memory-budget property is positive, the reads of the backend go through a cache
+     * which takes up to this number of bytes. On a replication leader, every saved transaction is appended to
+     * the change log of the followers. When the write ahead log is enabled, every saved transaction is appended
+     * to it.
+     */
+    @Bean
+    public TransactionRepository transactionRepository(
+            @Value("${transaction.storage.backend:heap}") String backend,
+            @Value("${transaction.storage.expected-size:1024}") int expectedSize,
+            @Value("${transaction.cache.memory-budget:0}") long cacheMemoryBudget,
+            Optional<ChangeLog> changeLog, Optional<WriteAheadLog> writeAheadLog, MetricsRegistry metricsRegistry) {
+        TransactionRepository transactionRepository = createTransactionRepository(backend, expectedSize);
+        if (cacheMemoryBudget > 0) {
+            CachingTransactionRepository cache = new CachingTransactionRepository(transactionRepository,
+                    cacheMemoryBudget);
+            registerCacheMetrics(cache, metricsRegistry);
+            transactionRepository = cache;
+        }
+        if (changeLog.isPresent()) {
+            transactionRepository = new ChangeLogTransactionRepository(transactionRepository, changeLog.get());
+        }
+        if (writeAheadLog.isPresent()) {
+            return new WriteAheadLogTransactionRepository(transactionRepository, writeAheadLog.get());
+        }
+        return transactionRepository;
+    }
+
+    /**
+     * The bounds of the amount histogram buckets of every type are a comma separated list in ascending order.
+     */
     @Bean
-    public ModelMapper modelMapper() {
-        return new ModelMapper();
+    public TransactionAggregatesByTypeIndex transactionAggregatesByTypeIndex(
+            @Value("${transaction.aggregates.histogram-bounds:0,10,100,1000,10000,100000}") String histogramBounds) {
+        String[] bounds = histogramBounds.split(",");
+        BigDecimal[] parsedBounds = new BigDecimal[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            parsedBounds[i] = new BigDecimal(bounds[i].trim());
+        }
+        return new InMemoryTransactionAggregatesByTypeIndex(parsedBounds);
     }
 
+    /**
+     * The transactions of every type are split into buckets by their creation time. A bucket covers
+     * transaction.time-index.bucket-ms milliseconds. The aggregates of a window visit the transactions of the buckets
+     * at its edges only, so a bucket should be shorter than the usual windows.
+     */
     @Bean
-    public Validator validator() {
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        return factory.getValidator();
+    public TransactionTimeIndex transactionTimeIndex(
+            @Value("${transaction.time-index.bucket-ms:" + InMemoryTransactionTimeIndex.DEFAULT_BUCKET_MILLIS + "}")
+                    long bucketMillis) {
+        return new InMemoryTransactionTimeIndex(bucketMillis);
+    }
+
+    /**
+     * Every subscriber of the change feed buffers up to transaction.feed.buffer-size changes. A subscriber which
+     * doesn't keep up with the writes is disconnected when its buffer is full. The number of the subscribers is
+     * limited by transaction.feed.max-subscribers, as every one of them holds a request thread.
+     */
+    @Bean
+    public ChangeFeed changeFeed(TransactionAncestryIndex transactionAncestryIndex,
+                                 @Value("${transaction.feed.buffer-size:4096}") int bufferSize,
+                                 @Value("${transaction.feed.max-subscribers:64}") int maxSubscribers,
+                                 MetricsRegistry metricsRegistry) {
+        ChangeFeed changeFeed = new ChangeFeed(transactionAncestryIndex, bufferSize, maxSubscribers);
+        metricsRegistry.gauge("transaction_feed_subscribers", "Number of the change feed subscribers",
+                changeFeed::getSubscriberCount);
+        metricsRegistry.counter("transaction_feed_overflows_total", "Feed subscribers overflowed by a full buffer",
+                changeFeed::getOverflowCount);
+        return changeFeed;
+    }
+
+    /**
+     * When the transaction.write.mode property is single-writer, the creates and updates are applied in batches
+     * by a single writer thread instead of the request threads. It replaces the default locking service.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty(name = "transaction.write.mode", havingValue = "single-writer")
+    public SingleWriterTransactionService singleWriterTransactionService(
+            TransactionServiceImpl transactionService,
+            @Value("${transaction.write.buffer-size:4096}") int bufferSize,
+            @Value("${transaction.write.batch-size:256}") int batchSize) {
+        return new SingleWriterTransactionService(transactionService, bufferSize, batchSize);
+    }
+
+    /**
+     * When the transaction.shard.nodes property is set, the server is a router of the shards given by a comma
+     * separated list of their URLs. The requests are forwarded to the shards instead of the local service. The order
+     * of the shards places the transactions, so it should not be changed while the shards have transactions.
+     */
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty(name = "transaction.shard.nodes")
+    public ShardedTransactionService shardedTransactionService(
+            @Value("${transaction.shard.nodes}") String nodes,
+            @Value("${transaction.shard.timeout-ms:5000}") int timeoutMillis) {
+        return new ShardedTransactionService(Arrays.stream(nodes.split(","))
+                .map(node -> new ShardClient(node.trim(), timeoutMillis))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * When the transaction.replication.role property is leader, the changes are streamed to the followers from
+     * the replication port. The change log keeps the latest changes, a follower which is further behind gets
+     * a snapshot of all transactions.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "transaction.replication.role", havingValue = "leader")
+    public ChangeLog changeLog(@Value("${transaction.replication.log-capacity:262144}") int capacity,
+                               MetricsRegistry metricsRegistry) {
+        ChangeLog changeLog = new ChangeLog(capacity);
+        registerReplicationMetrics(changeLog, metricsRegistry);
+        return changeLog;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnProperty(name = "transaction.replication.role", havingValue = "leader")
+    public ReplicationServer replicationServer(ChangeLog changeLog, TransactionRepository transactionRepository,
+                                               @Value("${transaction.replication.port:9090}") int port) {
+        return new ReplicationServer(new InetSocketAddress(port), changeLog, transactionRepository);
+    }
+
+    /**
+     * When the transaction.replication.role property is follower, the changes streamed from the replication port
+     * of the leader given by the transaction.replication.leader property as host:port are applied to the local
+     * service. The clients could only read from a follower.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnProperty(name = "transaction.replication.role", havingValue = "follower")
+    public ReplicationFollower replicationFollower(
+            TransactionServiceImpl transactionService, MetricsRegistry metricsRegistry,
+            @Value("${transaction.replication.leader}") String leader,
+            @Value("${transaction.replication.read-wait-ms:1000}") long readWaitMillis) {
+        int separator = leader.lastIndexOf(':');
+        ReplicationFollower follower = new ReplicationFollower(new InetSocketAddress(leader.substring(0, separator),
+                Integer.parseInt(leader.substring(separator + 1))), transactionService, readWaitMillis);
+        registerReplicationMetrics(follower, metricsRegistry);
+        return follower;
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "transaction.replication.role", havingValue = "follower")
+    public ReadOnlyTransactionService readOnlyTransactionService(TransactionServiceImpl transactionService) {
+        return new ReadOnlyTransactionService(transactionService);
+    }
+
+    /**
+     * When the transaction.server.mode property is nio, the endpoints are served by a non-blocking server instead
+     * of the servlet container. See {@link com.transaction.TransactionServer}.
+     * <p>
+     * The write ahead log recovery is a dependency, so the server accepts writes only after the recovery is
+     * finished. The servlet container starts its connectors after all beans are created.
+     * <p>
+     * The service calls could block, e.g. on the tree lock, on the single writer, on a write to the disk or on
+     * the requests of a router to its shards, so they are handled by a pool of workers instead of the event loops.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnProperty(name = "transaction.server.mode", havingValue = "nio")
+    public NioHttpServer nioHttpServer(TransactionService transactionService, MetricsRegistry metricsRegistry,
+                                       Optional<ReplicationState> replicationState,
+                                       Optional<WriteAheadLogRecovery> writeAheadLogRecovery,
+                                       @Value("${server.port:8080}") int port,
+                                       @Value("${transaction.server.nio.event-loops:0}") int eventLoops,
+                                       @Value("${transaction.server.nio.workers:0}") int workers) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new NioHttpServer(new InetSocketAddress(port), eventLoops > 0 ? eventLoops : processors,
+                workers > 0 ? workers : 4 * processors,
+                new TransactionHttpHandler(transactionService, metricsRegistry, replicationState.orElse(null)));
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "transaction.wal.enabled", havingValue = "true")
+    public WriteAheadLog writeAheadLog(
+            @Value("${transaction.wal.directory:wal}") String directory,
+            @Value("${transaction.wal.segment-size:67108864}") int segmentSize,
+            @Value("${transaction.wal.fsync:group}") String fsyncPolicy) throws IOException {
+        return new WriteAheadLog(Paths.get(directory), segmentSize,
+                WriteAheadLog.FsyncPolicy.valueOf(fsyncPolicy.toUpperCase()));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "transaction.wal.enabled", havingValue = "true")
+    public SnapshotStore snapshotStore(@Value("${transaction.wal.directory:wal}") String directory)
+            throws IOException {
+        return new SnapshotStore(Paths.get(directory));
+    }
+
+    /**
+     * The log is replayed into the local service, which owns the logged repository. The primary service could be
+     * a read only service of a follower or a router of the shards.
+     */
+    @Bean(initMethod = "recover")
+    @ConditionalOnProperty(name = "transaction.wal.enabled", havingValue = "true")
+    public WriteAheadLogRecovery writeAheadLogRecovery(WriteAheadLog writeAheadLog, SnapshotStore snapshotStore,
+                                                       TransactionServiceImpl transactionService) {
+        return new WriteAheadLogRecovery(writeAheadLog, snapshotStore, transactionService);
+    }
+
+    /**
+     * Snapshots are written only after the recovery, otherwise a snapshot of a partially recovered state could
+     * replace the log.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnProperty(name = "transaction.wal.enabled", havingValue = "true")
+    public SnapshotScheduler snapshotScheduler(TransactionRepository transactionRepository,
+                                               SnapshotStore snapshotStore,
+                                               WriteAheadLogRecovery writeAheadLogRecovery,
+                                               @Value("${transaction.snapshot.interval-seconds:300}")
+                                                       long intervalSeconds) {
+        return new SnapshotScheduler((WriteAheadLogTransactionRepository) transactionRepository, snapshotStore,
+                intervalSeconds);
+    }
+
+    private void registerCacheMetrics(CachingTransactionRepository cache, MetricsRegistry metricsRegistry) {
+        metricsRegistry.counter("transaction_cache_hits_total", "Reads served from the transaction cache",
+                () -> cache.getStats().getHitCount());
+        metricsRegistry.counter("transaction_cache_misses_total", "Reads loaded from the storage backend",
+                () -> cache.getStats().getMissCount());
+        metricsRegistry.counter("transaction_cache_evictions_total", "Transactions evicted from the cache",
+                () -> cache.getStats().getEvictionCount());
+        metricsRegistry.counter("transaction_cache_invalidations_total", "Cached transactions removed on write",
+                () -> cache.getStats().getInvalidationCount());
+        metricsRegistry.gauge("transaction_cache_weight_bytes", "Estimated memory of the cached transactions",
+                () -> cache.getStats().getWeight());
+    }
+
+    private void registerReplicationMetrics(ReplicationState replicationState, MetricsRegistry metricsRegistry) {
+        metricsRegistry.gauge("transaction_replication_position", "Position of the replicated change log",
+                replicationState::getPosition);
+    }
+
+    private TransactionRepository createTransactionRepository(String backend, int expectedSize) {
+        switch (backend) {
+            case "heap":
+                return new InMemoryTransactionRepository();
+            case "columnar":
+                return new ColumnarTransactionRepository(false, expectedSize);
+            case "columnar-off-heap":
+                return new ColumnarTransactionRepository(true, expectedSize);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown storage backend: %s", backend));
+        }
     }
 }
@@ -0,0 +1,32 @@
+package com.transaction.feed;
+
+import com.transaction.storage.Transaction;
+
+/**
+ * A created or updated transaction published by a {@link ChangeFeed}. The transaction is a copy of the state
+ * after the write, so it is not changed by the later writes while the event waits in a buffer.
+ *
+ * @author Diyan Yordanov
+ */
+public final class ChangeEvent {
+
+    private final long sequence;
+
+    private final Transaction transaction;
+
+    ChangeEvent(long sequence, Transaction transaction) {
+        this.sequence = sequence;
+        this.transaction = transaction;
+    }
+
+    /**
+     * @return the unique ID of the event, the later published events of a transaction have greater IDs
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+}
@@ -0,0 +1,131 @@
+package com.transaction.feed;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionAncestryIndex;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes every created or updated transaction to the subscribers which filter matches it, so the downstream
+ * systems don't need to poll for changes. A subscriber could filter the changes by a type and by the root of
+ * a subtree.
+ * <p>
+ * The changes are published by the writes, so publishing never waits: every subscriber has a bounded buffer
+ * and a subscriber which buffer is full is overflowed instead of slowing down the writes. Without subscribers,
+ * publishing is a single volatile read. The subtree filter walks the ancestors of the changed transaction in
+ * the ancestry index, which is O(depth) as the write itself.
+ * <p>
+ * The changes of a transaction are published in the order of its writes. The changes of different transactions
+ * which are written in parallel could be received in any order.
+ *
+ * @author Diyan Yordanov
+ */
+public class ChangeFeed {
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    private final TransactionAncestryIndex ancestryIndex;
+
+    private final int bufferSize;
+
+    private final int maxSubscribers;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder overflowCount = new LongAdder();
+
+    // Copied on subscribe and unsubscribe, which are rare compared to the publishing
+    private volatile Subscription[] subscriptions = NO_SUBSCRIPTIONS;
+
+    /**
+     * @param ancestryIndex  - the index of the parents of the published transactions
+     * @param bufferSize     - the maximum number of the buffered events of a subscriber
+     * @param maxSubscribers - the maximum number of the subscribers at a time
+     */
+    public ChangeFeed(TransactionAncestryIndex ancestryIndex, int bufferSize, int maxSubscribers) {
+        if (bufferSize <= 0 || maxSubscribers <= 0) {
+            throw new IllegalArgumentException("The buffer size and the subscriber limit should be positive");
+        }
+        this.ancestryIndex = ancestryIndex;
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    /**
+     * Subscribe to the changes published from now on
+     *
+     * @param type   - the type of the changed transactions or null for all types
+     * @param rootId - the root of the subtree of the changed transactions or null for all transactions
+     * @return the subscription which should be closed when the subscriber is done
+     * @throws IllegalArgumentException    if the root is not an existing transaction
+     * @throws TooManySubscribersException if the maximum number of subscribers is reached
+     */
+    public synchronized Subscription subscribe(String type, Long rootId) {
+        if (rootId != null && ancestryIndex.getDepth(rootId) < 0) {
+            throw new IllegalArgumentException(String.format("Invalid root id: %s", rootId));
+        }
+        if (subscriptions.length >= maxSubscribers) {
+            throw new TooManySubscribersException(String.format("The feed has %d subscribers", maxSubscribers));
+        }
+        Subscription subscription = new Subscription(this, type, rootId, bufferSize);
+        Subscription[] updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        updated[subscriptions.length] = subscription;
+        subscriptions = updated;
+        return subscription;
+    }
+
+    synchronized void unsubscribe(Subscription subscription) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i] == subscription) {
+                Subscription[] updated = new Subscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, updated, 0, i);
+                System.arraycopy(subscriptions, i + 1, updated, i, updated.length - i);
+                subscriptions = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publish an applied write. It should be called after the transaction is added to the ancestry index.
+     *
+     * @param transaction    - the created or updated transaction
+     * @param oldTransaction - the transaction before the update or null for a created transaction
+     */
+    public void publish(Transaction transaction, Transaction oldTransaction) {
+        Subscription[] current = subscriptions;
+        ChangeEvent event = null;
+        for (Subscription subscription : current) {
+            if (subscription.isOverflowed() || !subscription.matches(transaction, oldTransaction, ancestryIndex)) {
+                continue;
+            }
+            if (event == null) {
+                // The event is created once for all matching subscribers
+                event = new ChangeEvent(sequence.incrementAndGet(), copy(transaction));
+            }
+            if (!subscription.offer(event)) {
+                overflowCount.increment();
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+    /**
+     * @return the number of the subscribers which were overflowed
+     */
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    private static Transaction copy(Transaction transaction) {
+        Transaction copy = new Transaction(transaction.getId(), transaction.getAmount(), transaction.getType(),
+                transaction.getParentId());
+        copy.setTimestamp(transaction.getTimestamp());
+        return copy;
+    }
+}
@@ -0,0 +1,105 @@
+package com.transaction.feed;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionAncestryIndex;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscription to the changes of a {@link ChangeFeed} which match its filter. The events are buffered in a bounded
+ * queue until the subscriber reads them. A subscriber which doesn't keep up gets the buffered events and then it is
+ * overflowed, as the writes never wait for a subscriber. An overflowed subscriber has missed some changes, so it
+ * should read the current state again before it subscribes again.
+ * <p>
+ * The events are read by a single thread.
+ *
+ * @author Diyan Yordanov
+ */
+public class Subscription implements Closeable {
+
+    private final ChangeFeed changeFeed;
+
+    private final String type;
+
+    private final Long rootId;
+
+    private final BlockingQueue<ChangeEvent> events;
+
+    private volatile boolean overflowed;
+
+    Subscription(ChangeFeed changeFeed, String type, Long rootId, int bufferSize) {
+        this.changeFeed = changeFeed;
+        this.type = type;
+        this.rootId = rootId;
+        this.events = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    /**
+     * Read the next event. It waits up to the given time for an event unless the subscription is overflowed.
+     *
+     * @return the next event or null if there is no event in the wait time or no more events of an overflowed
+     * subscription
+     */
+    public ChangeEvent poll(long waitMillis) throws InterruptedException {
+        if (overflowed) {
+            return events.poll();
+        }
+        return events.poll(waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if an event is dropped because the buffer was full. No more events are added then.
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Stop receiving events
+     */
+    @Override
+    public void close() {
+        changeFeed.unsubscribe(this);
+    }
+
+    /**
+     * A change matches the filter if either the new or the old state of the transaction matches it, so a subscriber
+     * gets the update which moves a transaction out of its type or subtree as well
+     */
+    boolean matches(Transaction transaction, Transaction oldTransaction, TransactionAncestryIndex ancestryIndex) {
+        return matches(transaction, transaction.getId(), ancestryIndex)
+                || oldTransaction != null && matches(oldTransaction, oldTransaction.getParentId(), ancestryIndex);
+    }
+
+    /**
+     * @param subtreeId - the ID of a transaction which is in the subtree of the root if the state is in it
+     */
+    private boolean matches(Transaction state, Long subtreeId, TransactionAncestryIndex ancestryIndex) {
+        if (type != null && !type.equals(state.getType())) {
+            return false;
+        }
+        // The old state is moved already, so its old parent is checked instead. The parent is never in the subtree
+        // of the moved transaction.
+        return rootId == null || rootId.equals(state.getId())
+                || subtreeId != null && ancestryIndex.isInSubtree(subtreeId, rootId);
+    }
+
+    /**
+     * Add an event without waiting
+     *
+     * @return false if the event is dropped because the buffer is full
+     */
+    boolean offer(ChangeEvent event) {
+        if (overflowed) {
+            return false;
+        }
+        if (!events.offer(event)) {
+            overflowed = true;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package com.transaction.feed;
+
+/**
+ * Thrown when a change feed already has the maximum number of subscribers
+ *
+ * @author Diyan Yordanov
+ */
+public class TooManySubscribersException extends RuntimeException {
+
+    public TooManySubscribersException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,25 @@
+package com.transaction.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter. It is incremented without a lock and the increments of different threads don't contend.
+ *
+ * @author Diyan Yordanov
+ */
+public class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long value) {
+        count.add(value);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,123 @@
+package com.transaction.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with a relative error of about 3%. The values are counted in
+ * buckets of a power of two which are split in 32 linear sub-buckets, so the histogram has a fixed number of
+ * counters and recording a value neither locks nor allocates.
+ * <p>
+ * A snapshot reads the counters one by one while the values are recorded, so the percentiles of a snapshot could
+ * miss the values recorded during it.
+ *
+ * @author Diyan Yordanov
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT);
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * @param nanos - the latency in nanoseconds, a negative latency is recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        totalNanos.add(value);
+    }
+
+    /**
+     * Record the time since a start time
+     *
+     * @param startNanos - the start time given by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param percentiles - the percentiles between 0 and 100
+     * @return the count, the total and the values in nanoseconds at the percentiles
+     */
+    public Snapshot snapshot(double... percentiles) {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+
+        long[] values = new long[percentiles.length];
+        for (int p = 0; p < percentiles.length; p++) {
+            long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < copy.length && seen < rank; i++) {
+                seen += copy[i];
+                values[p] = highestValue(i);
+            }
+            if (count == 0) {
+                values[p] = 0;
+            }
+        }
+        return new Snapshot(count, totalNanos.sum(), values);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // The bucket is given by the position of the highest bit and the sub-bucket by the next bits
+        int bucket = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> bucket) - SUB_BUCKET_COUNT;
+        return (bucket + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    /**
+     * The state of a recorder at a point in time
+     */
+    public static class Snapshot {
+
+        private final long count;
+
+        private final long totalNanos;
+
+        private final long[] percentileValues;
+
+        Snapshot(long count, long totalNanos, long[] percentileValues) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.percentileValues = percentileValues;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @param index - the index of the percentile in the snapshot request
+         * @return the highest value in nanoseconds of the bucket which contains the percentile
+         */
+        public long getValueAtPercentile(int index) {
+            return percentileValues[index];
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.transaction.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Named metrics which are written in the Prometheus text format. A metric could have a single label, the metrics
+ * with the same name and different label values are written as a single family. Registering a counter or
+ * a latency recorder which is already registered returns the registered one, so the components which record
+ * the same metric share it.
+ * <p>
+ * Only the registration and the scrape take the lock of the registry, the metrics themselves are recorded
+ * without it. The latency recorders are written as summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles in
+ * seconds.
+ *
+ * @author Diyan Yordanov
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return register(name, help, Type.COUNTER, labelName, labelValue, Counter::new, Counter.class);
+    }
+
+    /**
+     * Register a counter which value is maintained by another component
+     *
+     * @param supplier - returns the current value of the counter
+     */
+    public void counter(String name, String help, LongSupplier supplier) {
+        replace(name, help, Type.COUNTER, (DoubleSupplier) () -> supplier.getAsLong());
+    }
+
+    /**
+     * Register a gauge which value is read on every scrape
+     *
+     * @param supplier - returns the current value of the gauge
+     */
+    public void gauge(String name, String help, DoubleSupplier supplier) {
+        replace(name, help, Type.GAUGE, supplier);
+    }
+
+    public LatencyRecorder latencyRecorder(String name, String help, String labelName, String labelValue) {
+        return register(name, help, Type.SUMMARY, labelName, labelValue, LatencyRecorder::new,
+                LatencyRecorder.class);
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format
+     */
+    public void write(Writer writer) throws IOException {
+        List<Family> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(families.size());
+            for (Family family : families.values()) {
+                snapshot.add(family.copy());
+            }
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (Family family : snapshot) {
+            writer.write("# HELP " + family.name + " " + family.help + "\n");
+            writer.write("# TYPE " + family.name + " " + family.type.name().toLowerCase() + "\n");
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String label = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof LatencyRecorder) {
+                    LatencyRecorder.Snapshot latencies = ((LatencyRecorder) value).snapshot(PERCENTILES);
+                    for (int i = 0; i < QUANTILES.length; i++) {
+                        String quantile = "quantile=\"" + QUANTILES[i] + "\"";
+                        writeSample(writer, line, family.name, label.isEmpty() ? quantile : label + "," + quantile,
+                                latencies.getValueAtPercentile(i) / NANOS_PER_SECOND);
+                    }
+                    writeSample(writer, line, family.name + "_sum", label,
+                            latencies.getTotalNanos() / NANOS_PER_SECOND);
+                    writeSample(writer, line, family.name + "_count", label, latencies.getCount());
+                } else if (value instanceof Counter) {
+                    writeSample(writer, line, family.name, label, ((Counter) value).get());
+                } else {
+                    writeSample(writer, line, family.name, label, ((DoubleSupplier) value).getAsDouble());
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private synchronized <T> T register(String name, String help, Type type, String labelName, String labelValue,
+                                        Supplier<T> factory, Class<T> metricClass) {
+        Family family = family(name, help, type);
+        String label = label(labelName, labelValue);
+        Object metric = family.metrics.computeIfAbsent(label, key -> factory.get());
+        if (!metricClass.isInstance(metric)) {
+            throw new IllegalArgumentException(String.format("Metric %s is already registered with another type",
+                    name));
+        }
+        return metricClass.cast(metric);
+    }
+
+    private synchronized void replace(String name, String help, Type type, DoubleSupplier supplier) {
+        family(name, help, type).metrics.put("", supplier);
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException(String.format("Metric %s is already registered as a %s", name,
+                    family.type.name().toLowerCase()));
+        }
+        return family;
+    }
+
+    private static String label(String labelName, String labelValue) {
+        if (labelName == null) {
+            return "";
+        }
+        String escaped = labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return labelName + "=\"" + escaped + "\"";
+    }
+
+    private static void writeSample(Writer writer, StringBuilder line, String name, String label, double value)
+            throws IOException {
+        line.setLength(0);
+        line.append(name);
+        if (!label.isEmpty()) {
+            line.append('{').append(label).append('}');
+        }
+        line.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            line.append((long) value);
+        } else {
+            line.append(value);
+        }
+        line.append('\n');
+        writer.write(line.toString());
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    private static final class Family {
+
+        private final String name;
+
+        private final String help;
+
+        private final Type type;
+
+        // The metrics by their label, an empty label for a metric without a label
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        Family copy() {
+            Family copy = new Family(name, help, type);
+            copy.metrics.putAll(metrics);
+            return copy;
+        }
+    }
+}
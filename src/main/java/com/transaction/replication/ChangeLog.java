@@ -0,0 +1,153 @@
+package com.transaction.replication;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.wal.TransactionRecords;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory log of the latest changes of a leader which are streamed to the followers. Every change is a record of
+ * the whole state of a created or updated transaction in the format of {@link TransactionRecords}. The position of
+ * the log is the number of the appended records, so a follower which has applied the records up to a position has
+ * all the writes which were done before the leader returned this position.
+ * <p>
+ * Only the latest records are kept in a ring of a fixed capacity. A follower which is behind the oldest kept
+ * record gets a snapshot of all transactions instead. Every log has a random ID, so a follower could find that its
+ * position is of another log after a restart of the leader.
+ * <p>
+ * The implementation is thread safe. The appends and the reads are synchronized on the log. The records are encoded
+ * by the writers before the append, so only the copy of a record into the ring is synchronized.
+ *
+ * @author Diyan Yordanov
+ */
+public class ChangeLog implements ReplicationState {
+
+    private final long logId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    private final byte[][] records;
+
+    private long position;
+
+    // Shared by the writes which append their records, exclusive while the position of a snapshot is taken
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param capacity - the maximum number of the kept records
+     */
+    public ChangeLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity should be positive");
+        }
+        this.records = new byte[capacity][];
+    }
+
+    /**
+     * Append the state of a transaction and wake up the waiting readers
+     *
+     * @return the position of the log after the record
+     */
+    public long append(Transaction transaction) {
+        return append(TransactionRecords.encode(transaction));
+    }
+
+    /**
+     * Append an encoded record and wake up the waiting readers
+     *
+     * @return the position of the log after the record
+     */
+    public synchronized long append(byte[] record) {
+        records[(int) (position % records.length)] = record;
+        position++;
+        notifyAll();
+        return position;
+    }
+
+    /**
+     * Append an encoded record and then apply its change, e.g. save the transaction. The changes of several
+     * writers are applied concurrently, a snapshot waits for them by {@link #getSnapshotPosition()}.
+     *
+     * @param record - the encoded record
+     * @param change - applies the change of the record
+     */
+    public void append(byte[] record, Runnable change) {
+        snapshotLock.readLock().lock();
+        try {
+            append(record);
+            change.run();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the position of a snapshot, the changes of all the records before it are applied
+     */
+    public long getSnapshotPosition() {
+        snapshotLock.writeLock().lock();
+        try {
+            return getPosition();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    @Override
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * The writes of the leader are visible as soon as its position is returned
+     */
+    @Override
+    public void awaitPosition(long position) {
+    }
+
+    @Override
+    public void checkPosition(long position) {
+    }
+
+    /**
+     * @return true if all records after the position are kept
+     */
+    public synchronized boolean contains(long fromPosition) {
+        return fromPosition <= position && fromPosition >= position - records.length;
+    }
+
+    /**
+     * Read the records after a position. If there are no such records yet, it waits for an append up to
+     * the given time.
+     *
+     * @param fromPosition - the position of the last read record
+     * @param maxRecords   - the maximum number of the returned records
+     * @param waitMillis   - the maximum time to wait for a record
+     * @return the records in the order of their positions, an empty list if nothing is appended in the wait time or
+     * null if the records after the position are not kept anymore
+     */
+    public synchronized List<byte[]> read(long fromPosition, int maxRecords, long waitMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long remainingMillis = waitMillis;
+        while (position == fromPosition && remainingMillis > 0) {
+            wait(remainingMillis);
+            remainingMillis = deadline - System.currentTimeMillis();
+        }
+        if (!contains(fromPosition)) {
+            return null;
+        }
+        int count = (int) Math.min(maxRecords, position - fromPosition);
+        List<byte[]> result = new ArrayList<>(count);
+        for (long recordPosition = fromPosition; recordPosition < fromPosition + count; recordPosition++) {
+            result.add(records[(int) (recordPosition % records.length)]);
+        }
+        return result;
+    }
+}
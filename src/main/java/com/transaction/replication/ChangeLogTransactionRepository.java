@@ -0,0 +1,87 @@
+package com.transaction.replication;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+import com.transaction.storage.wal.TransactionRecords;
+
+import java.math.BigDecimal;
+import java.util.function.Consumer;
+
+/**
+ * Transaction repository which appends every saved transaction to the change log of the followers. The child links
+ * and the subtree sums are not logged, as a follower rebuilds them when it applies the transactions.
+ * <p>
+ * A transaction is encoded before any lock is taken, then it is appended and saved afterwards, as in the write
+ * ahead log. A child is validated after its parent is saved, so it is never logged before its parent. Only the
+ * append is synchronized on the log, the saves are concurrent. A snapshot takes its position by
+ * {@link ChangeLog#getSnapshotPosition()}, which waits for the saves of all the appended records.
+ *
+ * @author Diyan Yordanov
+ */
+public class ChangeLogTransactionRepository implements TransactionRepository {
+
+    private final TransactionRepository transactionRepository;
+
+    private final ChangeLog changeLog;
+
+    public ChangeLogTransactionRepository(TransactionRepository transactionRepository, ChangeLog changeLog) {
+        this.transactionRepository = transactionRepository;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public void save(Transaction transaction) {
+        byte[] record = TransactionRecords.encode(transaction);
+        changeLog.append(record, () -> transactionRepository.save(transaction));
+    }
+
+    @Override
+    public boolean canStoreAmount(BigDecimal amount) {
+        return transactionRepository.canStoreAmount(amount);
+    }
+
+    @Override
+    public void saveGrouped(Runnable writes) {
+        transactionRepository.saveGrouped(writes);
+    }
+
+    @Override
+    public Transaction read(Long id) {
+        return transactionRepository.read(id);
+    }
+
+    @Override
+    public Transaction[] readAll(long[] ids) {
+        return transactionRepository.readAll(ids);
+    }
+
+    @Override
+    public void forEach(Consumer<Transaction> consumer) {
+        transactionRepository.forEach(consumer);
+    }
+
+    @Override
+    public long size() {
+        return transactionRepository.size();
+    }
+
+    @Override
+    public long[] getChildIds(Long id) {
+        return transactionRepository.getChildIds(id);
+    }
+
+    @Override
+    public void addChild(Long parentId, Long childId) {
+        transactionRepository.addChild(parentId, childId);
+    }
+
+    @Override
+    public void removeChild(Long parentId, Long childId) {
+        transactionRepository.removeChild(parentId, childId);
+    }
+
+    @Override
+    public void addToSubtreeSums(Long id, BigDecimal delta) {
+        transactionRepository.addToSubtreeSums(id, delta);
+    }
+}
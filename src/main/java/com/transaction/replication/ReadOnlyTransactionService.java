@@ -0,0 +1,104 @@
+package com.transaction.replication;
+
+import com.transaction.service.BatchResult;
+import com.transaction.service.TransactionService;
+import com.transaction.service.ValidationResult;
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Transaction service of a follower. The reads are delegated to the service where the replicated changes are
+ * applied, the writes of the clients are rejected as they should go to the leader.
+ *
+ * @author Diyan Yordanov
+ */
+public class ReadOnlyTransactionService implements TransactionService {
+
+    private static final String READ_ONLY_MESSAGE = "The server is a read-only follower, write to the leader";
+
+    private final TransactionService transactionService;
+
+    public ReadOnlyTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    @Override
+    public Transaction getById(Long transactionId) {
+        return transactionService.getById(transactionId);
+    }
+
+    @Override
+    public Transaction[] getByIds(long[] transactionIds) {
+        return transactionService.getByIds(transactionIds);
+    }
+
+    @Override
+    public Collection<Long> getTransactionIdsByType(String type) {
+        return transactionService.getTransactionIdsByType(type);
+    }
+
+    @Override
+    public long[] getTransactionIdsByType(String type, Long afterId, int limit) {
+        return transactionService.getTransactionIdsByType(type, afterId, limit);
+    }
+
+    @Override
+    public TypeAggregates getAggregatesByType(String type) {
+        return transactionService.getAggregatesByType(type);
+    }
+
+    @Override
+    public long[] getTransactionIdsByTime(String type, long from, long to, int limit) {
+        return transactionService.getTransactionIdsByTime(type, from, to, limit);
+    }
+
+    @Override
+    public TimeWindowAggregates getAggregatesByTime(String type, long from, long to) {
+        return transactionService.getAggregatesByTime(type, from, to);
+    }
+
+    @Override
+    public long[] getAncestorIds(Long transactionId) {
+        return transactionService.getAncestorIds(transactionId);
+    }
+
+    @Override
+    public Long getRootId(Long transactionId) {
+        return transactionService.getRootId(transactionId);
+    }
+
+    @Override
+    public boolean isInSubtree(Long transactionId, Long ancestorId) {
+        return transactionService.isInSubtree(transactionId, ancestorId);
+    }
+
+    @Override
+    public BigDecimal calculateTransactionsSum(Long transactionId) {
+        return transactionService.calculateTransactionsSum(transactionId);
+    }
+
+    @Override
+    public BigDecimal[] calculateTransactionsSums(long[] transactionIds) {
+        return transactionService.calculateTransactionsSums(transactionIds);
+    }
+
+    @Override
+    public void createOrUpdate(Transaction transaction) {
+        throw new IllegalArgumentException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public ValidationResult tryCreateOrUpdate(Transaction transaction) {
+        throw new IllegalArgumentException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public BatchResult createOrUpdateAll(Iterator<Transaction> transactions) {
+        throw new IllegalArgumentException(READ_ONLY_MESSAGE);
+    }
+}
@@ -0,0 +1,227 @@
+package com.transaction.replication;
+
+import com.transaction.service.BatchResult;
+import com.transaction.service.TransactionService;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.wal.TransactionRecords;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Applies the change log streamed by a leader to the local service, which rebuilds the type index, the child
+ * links and the subtree sums as on the leader. The changes are applied in the order of the leader, so the follower
+ * has the state of the leader at some earlier position.
+ * <p>
+ * The follower reconnects after any failure and continues from its position. If the leader has been restarted or
+ * the follower is too far behind, the leader sends a snapshot first. A snapshot or a frame of changes is applied
+ * as a batch, so the transactions which come before their parents in a snapshot are applied after them.
+ *
+ * @author Diyan Yordanov
+ */
+public class ReplicationFollower implements ReplicationState, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final InetSocketAddress leaderAddress;
+
+    private final TransactionService transactionService;
+
+    private final long readWaitMillis;
+
+    private long logId;
+
+    private long position;
+
+    private volatile boolean running;
+
+    private volatile Socket socket;
+
+    private Thread thread;
+
+    /**
+     * @param leaderAddress      - the replication address of the leader
+     * @param transactionService - the local service where the changes are applied
+     * @param readWaitMillis     - the maximum time a read waits for the changes up to its position
+     */
+    public ReplicationFollower(InetSocketAddress leaderAddress, TransactionService transactionService,
+                               long readWaitMillis) {
+        this.leaderAddress = leaderAddress;
+        this.transactionService = transactionService;
+        this.readWaitMillis = readWaitMillis;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized void awaitPosition(long requiredPosition) {
+        long deadline = System.currentTimeMillis() + readWaitMillis;
+        long remainingMillis = readWaitMillis;
+        try {
+            while (position < requiredPosition && remainingMillis > 0) {
+                wait(remainingMillis);
+                remainingMillis = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (position < requiredPosition) {
+            throw new ReplicationLagException(String.format("Position %d is not replicated yet, the follower is at %d",
+                    requiredPosition, position));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket leader = new Socket()) {
+                socket = leader;
+                leader.connect(leaderAddress, ReplicationProtocol.READ_TIMEOUT_MILLIS);
+                leader.setSoTimeout(ReplicationProtocol.READ_TIMEOUT_MILLIS);
+                leader.setTcpNoDelay(true);
+                follow(leader);
+            } catch (IOException | UncheckedIOException e) {
+                if (running) {
+                    LOG.warn("Replication from {} failed, reconnecting: {}", leaderAddress, e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket leader) throws IOException {
+        DataOutputStream output = new DataOutputStream(leader.getOutputStream());
+        synchronized (this) {
+            output.writeLong(logId);
+            output.writeLong(position);
+        }
+        output.flush();
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(leader.getInputStream()));
+        while (running) {
+            byte frame = input.readByte();
+            switch (frame) {
+                case ReplicationProtocol.SNAPSHOT:
+                    long snapshotLogId = input.readLong();
+                    long snapshotPosition = input.readLong();
+                    apply(new SnapshotRecords(input), "snapshot");
+                    advance(snapshotLogId, snapshotPosition);
+                    break;
+                case ReplicationProtocol.CHANGES:
+                    int count = input.readInt();
+                    List<Transaction> changes = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        changes.add(readRecord(input, input.readInt()));
+                    }
+                    apply(changes.iterator(), "changes");
+                    advance(logId, position + count);
+                    break;
+                case ReplicationProtocol.HEARTBEAT:
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown replication frame %d", frame));
+            }
+        }
+    }
+
+    private void apply(Iterator<Transaction> transactions, String source) {
+        BatchResult result = transactionService.createOrUpdateAll(transactions);
+        if (result.getFailed() > 0) {
+            // The leader has applied all of them, so it could happen only if the follower has diverged
+            LOG.error("{} of the replicated {} are not applied, the first failure: {}", result.getFailed(), source,
+                    result.getFailures().get(0).getMessage());
+        }
+    }
+
+    private synchronized void advance(long newLogId, long newPosition) {
+        logId = newLogId;
+        position = newPosition;
+        notifyAll();
+    }
+
+    private static Transaction readRecord(DataInputStream input, int length) throws IOException {
+        byte[] record = new byte[length];
+        input.readFully(record);
+        return TransactionRecords.decode(ByteBuffer.wrap(record));
+    }
+
+    /**
+     * Reads the records of a snapshot from the stream while they are applied
+     */
+    private static final class SnapshotRecords implements Iterator<Transaction> {
+
+        private final DataInputStream input;
+
+        private int nextLength = -1;
+
+        SnapshotRecords(DataInputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextLength < 0) {
+                try {
+                    nextLength = input.readInt();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return nextLength > 0;
+        }
+
+        @Override
+        public Transaction next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return readRecord(input, nextLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                nextLength = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.transaction.replication;
+
+/**
+ * Thrown when a follower has not applied the changes up to a requested position in time
+ *
+ * @author Diyan Yordanov
+ */
+public class ReplicationLagException extends RuntimeException {
+
+    public ReplicationLagException(String message) {
+        super(message);
+    }
+}
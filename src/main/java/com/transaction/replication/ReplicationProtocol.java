@@ -0,0 +1,38 @@
+package com.transaction.replication;
+
+/**
+ * Frames of the replication stream. A follower connects to the replication port of the leader and sends:
+ * <pre>
+ * long    ID of the log of its position, 0 if it has no position
+ * long    position of the applied changes
+ * </pre>
+ * Then the leader sends a sequence of frames, each of them starts with its type:
+ * <pre>
+ * SNAPSHOT   long log ID, long position, records until a record with length 0
+ * CHANGES    int number of records, records
+ * HEARTBEAT  no content, sent when there are no changes for a while
+ * </pre>
+ * Every record is an int length followed by a payload in the format of
+ * {@link com.transaction.storage.wal.TransactionRecords}. The records of a snapshot could be in any order,
+ * the changes are in the order of their positions.
+ *
+ * @author Diyan Yordanov
+ */
+final class ReplicationProtocol {
+
+    static final byte SNAPSHOT = 1;
+
+    static final byte CHANGES = 2;
+
+    static final byte HEARTBEAT = 3;
+
+    static final int MAX_CHANGES = 1024;
+
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    // A follower reconnects if the leader sends nothing for several heartbeats
+    static final int READ_TIMEOUT_MILLIS = (int) (5 * HEARTBEAT_MILLIS);
+
+    private ReplicationProtocol() {
+    }
+}
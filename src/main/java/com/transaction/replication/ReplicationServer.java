@@ -0,0 +1,167 @@
+package com.transaction.replication;
+
+import com.transaction.storage.TransactionRepository;
+import com.transaction.storage.wal.TransactionRecords;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams the change log of a leader to the followers over TCP. There are only a few followers, so every
+ * follower is served by its own thread.
+ * <p>
+ * The follower starts with the ID of the log and the position it has applied. If the log has all the records
+ * after the position, the stream starts from it. Otherwise the follower gets a snapshot of all transactions first.
+ * All the frames are described by {@link ReplicationProtocol}.
+ *
+ * @author Diyan Yordanov
+ */
+public class ReplicationServer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationServer.class);
+
+    private final InetSocketAddress address;
+
+    private final ChangeLog changeLog;
+
+    private final TransactionRepository transactionRepository;
+
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean running;
+
+    /**
+     * @param address               - the address of the replication port
+     * @param changeLog             - the log of the leader
+     * @param transactionRepository - the repository of the leader, which snapshots are visited
+     */
+    public ReplicationServer(InetSocketAddress address, ChangeLog changeLog,
+                             TransactionRepository transactionRepository) {
+        this.address = address;
+        this.changeLog = changeLog;
+        this.transactionRepository = transactionRepository;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        running = true;
+        startThread("replication-acceptor", this::accept);
+        LOG.info("Replication server listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (Socket follower : followers) {
+            follower.close();
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket follower = serverSocket.accept();
+                follower.setTcpNoDelay(true);
+                followers.add(follower);
+                startThread("replication-" + follower.getRemoteSocketAddress(), () -> stream(follower));
+            } catch (IOException e) {
+                if (running) {
+                    LOG.error("Accepting a follower failed", e);
+                }
+            }
+        }
+    }
+
+    private void stream(Socket follower) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(follower.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(follower.getOutputStream()))) {
+            long logId = input.readLong();
+            long position = input.readLong();
+            if (logId != changeLog.getLogId() || !changeLog.contains(position)) {
+                position = sendSnapshot(output);
+                LOG.info("Snapshot at position {} sent to follower {}", position, follower.getRemoteSocketAddress());
+            }
+
+            while (running) {
+                List<byte[]> records = changeLog.read(position, ReplicationProtocol.MAX_CHANGES,
+                        ReplicationProtocol.HEARTBEAT_MILLIS);
+                if (records == null) {
+                    // The follower is too far behind, it gets a snapshot when it connects again
+                    LOG.warn("Follower {} is behind the change log", follower.getRemoteSocketAddress());
+                    return;
+                }
+                if (records.isEmpty()) {
+                    output.writeByte(ReplicationProtocol.HEARTBEAT);
+                } else {
+                    output.writeByte(ReplicationProtocol.CHANGES);
+                    output.writeInt(records.size());
+                    for (byte[] record : records) {
+                        output.writeInt(record.length);
+                        output.write(record);
+                    }
+                    position += records.size();
+                }
+                output.flush();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            if (running) {
+                LOG.info("Follower {} disconnected: {}", follower.getRemoteSocketAddress(), e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    /**
+     * @return the position of the snapshot
+     */
+    private long sendSnapshot(DataOutputStream output) throws IOException {
+        // All the records before the position are saved, the later changes are streamed after the snapshot
+        long position = changeLog.getSnapshotPosition();
+        output.writeByte(ReplicationProtocol.SNAPSHOT);
+        output.writeLong(changeLog.getLogId());
+        output.writeLong(position);
+        transactionRepository.forEach(transaction -> {
+            byte[] record = TransactionRecords.encode(transaction);
+            try {
+                output.writeInt(record.length);
+                output.write(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        output.writeInt(0);
+        return position;
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
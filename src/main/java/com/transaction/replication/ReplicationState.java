@@ -0,0 +1,38 @@
+package com.transaction.replication;
+
+/**
+ * The position of the replicated change log on a leader or on a follower. A client which has written to the leader
+ * gets its position and could read its writes from a follower by asking for this position.
+ *
+ * @author Diyan Yordanov
+ */
+public interface ReplicationState {
+
+    /**
+     * @return the position of the appended changes on a leader or the applied changes on a follower
+     */
+    long getPosition();
+
+    /**
+     * Wait until the changes up to a position are applied
+     *
+     * @param position - the position returned by the leader on a write
+     * @throws ReplicationLagException if the changes are not applied in the wait time
+     */
+    void awaitPosition(long position);
+
+    /**
+     * Check without waiting that the changes up to a position are applied, so it could be called by a thread
+     * which should not block, e.g. an event loop
+     *
+     * @param position - the position returned by the leader on a write
+     * @throws ReplicationLagException if the changes are not applied yet
+     */
+    default void checkPosition(long position) {
+        long currentPosition = getPosition();
+        if (currentPosition < position) {
+            throw new ReplicationLagException(String.format(
+                    "Position %d is not replicated yet, the follower is at %d", position, currentPosition));
+        }
+    }
+}
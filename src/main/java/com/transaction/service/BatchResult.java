@@ -0,0 +1,83 @@
+package com.transaction.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summary of a bulk create or update. It counts the processed and the failed transactions and keeps
+ * the reasons of the first failures.
+ *
+ * @author Diyan Yordanov
+ */
+public class BatchResult {
+
+    // Limit the reported failures in order to keep the summary small for large batches of invalid transactions
+    static final int MAX_REPORTED_FAILURES = 1000;
+
+    private long processed;
+
+    private long failed;
+
+    private final List<Failure> failures = new ArrayList<>();
+
+    public void addProcessed() {
+        processed++;
+    }
+
+    /**
+     * Add a failed transaction
+     *
+     * @param index   - the index of the transaction in the batch
+     * @param id      - the id of the transaction if known
+     * @param message - the reason of the failure
+     */
+    public void addFailure(long index, Long id, String message) {
+        failed++;
+        if (failures.size() < MAX_REPORTED_FAILURES) {
+            failures.add(new Failure(index, id, message));
+        }
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * A transaction which is not created or updated
+     */
+    public static class Failure {
+
+        private final long index;
+
+        private final Long id;
+
+        private final String message;
+
+        public Failure(long index, Long id, String message) {
+            this.index = index;
+            this.id = id;
+            this.message = message;
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
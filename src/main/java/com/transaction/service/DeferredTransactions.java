@@ -0,0 +1,159 @@
+package com.transaction.service;
+
+import com.transaction.storage.Transaction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transactions of a bulk create or update which are deferred. A transaction which parent is not found waits
+ * until its parent is applied later in the batch. The later transactions with the same ID wait behind it, so
+ * the transactions with the same ID are applied in the order of the batch. The number of the deferred transactions
+ * is limited, so a batch of orphans doesn't keep the whole batch in memory.
+ *
+ * @author Diyan Yordanov
+ */
+public class DeferredTransactions {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final int capacity;
+
+    // The first deferred item of an ID by the ID of the parent it waits for
+    private final Map<Long, List<Item>> waitingForParent = new HashMap<>();
+
+    // The deferred items by their ID in the order of the batch. The entry of an ID is kept while its released item
+    // is applied.
+    private final Map<Long, Deque<Item>> deferredById = new HashMap<>();
+
+    private int size;
+
+    /**
+     * @param capacity - the max number of the deferred transactions
+     */
+    public DeferredTransactions(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return true if the item should be deferred, as an earlier transaction with the same ID is deferred
+     */
+    public boolean isBehindDeferred(Item item) {
+        return !item.released && item.getId() != null && deferredById.containsKey(item.getId());
+    }
+
+    /**
+     * @return true if no more transactions could be deferred. A released item is not counted, so it could be
+     * deferred again.
+     */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /**
+     * Defer an item behind the deferred transaction with the same ID
+     */
+    public void addBehindDeferred(Item item) {
+        deferredById.get(item.getId()).addLast(item);
+        size++;
+    }
+
+    /**
+     * Defer an item which parent is not found
+     */
+    public void addWaitingForParent(Item item) {
+        // A released item is the first one of its ID again
+        deferredById.computeIfAbsent(item.getId(), id -> new ArrayDeque<>()).addFirst(item);
+        waitingForParent.computeIfAbsent(item.transaction.getParentId(), parentId -> new ArrayList<>()).add(item);
+        size++;
+    }
+
+    /**
+     * Release the items which could be applied after an item is applied or rejected: the items which wait for
+     * the applied transaction as their parent and the next item with the same ID
+     *
+     * @param item     - the applied or rejected item
+     * @param applied  - true if the transaction of the item is applied
+     * @param released - the released items are added to it
+     */
+    public void complete(Item item, boolean applied, Collection<Item> released) {
+        if (applied) {
+            List<Item> children = waitingForParent.remove(item.getId());
+            if (children != null) {
+                // The waiting child is the first deferred item of its ID
+                children.forEach(child -> release(deferredById.get(child.getId()).poll(), released));
+            }
+        }
+        if (item.released) {
+            Deque<Item> sameId = deferredById.get(item.getId());
+            Item next = sameId.poll();
+            if (next == null) {
+                deferredById.remove(item.getId());
+            } else {
+                release(next, released);
+            }
+        }
+    }
+
+    /**
+     * @return the items which are still deferred at the end of the batch in the order of the batch
+     */
+    public List<Item> getRemaining() {
+        List<Item> remaining = new ArrayList<>(size);
+        deferredById.values().forEach(remaining::addAll);
+        remaining.sort(Comparator.comparingLong(Item::getIndex));
+        return remaining;
+    }
+
+    private void release(Item item, Collection<Item> released) {
+        item.released = true;
+        size--;
+        released.add(item);
+    }
+
+    /**
+     * A transaction of a batch with its index in the batch
+     */
+    public static final class Item {
+
+        private final long index;
+
+        private final Transaction transaction;
+
+        // Set when the item leaves the deferred ones, so it is not deferred behind its own ID
+        private boolean released;
+
+        public Item(long index, Transaction transaction) {
+            this.index = index;
+            this.transaction = transaction;
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return true if the item was deferred and it is released
+         */
+        public boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * @return the ID of the transaction or null if it is missing
+         */
+        public Long getId() {
+            return transaction != null ? transaction.getId() : null;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.transaction.service;
+
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+
+import javax.validation.constraints.NotNull;
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transaction service which applies all creates and updates by a single writer thread, so the writers don't
+ * contend for the locks of the tree. A write passes through a pipeline of stages connected by a ring buffer:
+ * <ol>
+ * <li>validation - done by the calling threads in parallel before the transaction is published to the buffer</li>
+ * <li>application - the writer thread takes all published transactions, up to the batch size, and applies them
+ * to the repository, the type index and the children under a single lock</li>
+ * <li>completion - the writer wakes up the callers of the batch, which throw the error of their transaction
+ * if it could not be applied</li>
+ * </ol>
+ * A caller waits until its transaction is applied, so it reads its own writes. The reads and the bulk writes
+ * are delegated, they read the published state without locks.
+ *
+ * @author Diyan Yordanov
+ */
+public class SingleWriterTransactionService implements TransactionService, Closeable {
+
+    private static final int SPINS_BEFORE_PARK = 100;
+
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final TransactionServiceImpl transactionService;
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    private final int batchSize;
+
+    // The next sequence to be claimed by a caller
+    private final AtomicLong claimedSequence = new AtomicLong();
+
+    // The last sequence which slot is taken by the writer and could be reused
+    private final AtomicLong releasedSequence = new AtomicLong(-1);
+
+    private final Thread writer;
+
+    private volatile boolean running;
+
+    private volatile boolean writerParked;
+
+    /**
+     * @param transactionService - validates and applies the transactions
+     * @param bufferSize         - the number of slots in the ring buffer, a power of two
+     * @param batchSize          - the maximum number of transactions applied under a single lock
+     */
+    public SingleWriterTransactionService(TransactionServiceImpl transactionService, int bufferSize, int batchSize) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("The buffer size should be a power of two");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size should be positive");
+        }
+        this.transactionService = transactionService;
+        this.slots = new Slot[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = bufferSize - 1;
+        this.batchSize = Math.min(batchSize, bufferSize);
+        this.writer = new Thread(this::write, "transaction-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public void start() {
+        running = true;
+        writer.start();
+    }
+
+    /**
+     * Stop the writer thread. The already published transactions are applied before it stops.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Transaction getById(Long transactionId) {
+        return transactionService.getById(transactionId);
+    }
+
+    @Override
+    public Transaction[] getByIds(long[] transactionIds) {
+        return transactionService.getByIds(transactionIds);
+    }
+
+    @Override
+    public Collection<Long> getTransactionIdsByType(String type) {
+        return transactionService.getTransactionIdsByType(type);
+    }
+
+    @Override
+    public long[] getTransactionIdsByType(String type, Long afterId, int limit) {
+        return transactionService.getTransactionIdsByType(type, afterId, limit);
+    }
+
+    @Override
+    public TypeAggregates getAggregatesByType(String type) {
+        return transactionService.getAggregatesByType(type);
+    }
+
+    @Override
+    public long[] getTransactionIdsByTime(String type, long from, long to, int limit) {
+        return transactionService.getTransactionIdsByTime(type, from, to, limit);
+    }
+
+    @Override
+    public TimeWindowAggregates getAggregatesByTime(String type, long from, long to) {
+        return transactionService.getAggregatesByTime(type, from, to);
+    }
+
+    @Override
+    public long[] getAncestorIds(Long transactionId) {
+        return transactionService.getAncestorIds(transactionId);
+    }
+
+    @Override
+    public Long getRootId(Long transactionId) {
+        return transactionService.getRootId(transactionId);
+    }
+
+    @Override
+    public boolean isInSubtree(Long transactionId, Long ancestorId) {
+        return transactionService.isInSubtree(transactionId, ancestorId);
+    }
+
+    @Override
+    public BigDecimal calculateTransactionsSum(Long transactionId) {
+        return transactionService.calculateTransactionsSum(transactionId);
+    }
+
+    @Override
+    public BigDecimal[] calculateTransactionsSums(long[] transactionIds) {
+        return transactionService.calculateTransactionsSums(transactionIds);
+    }
+
+    @Override
+    public void createOrUpdate(@NotNull Transaction transaction) {
+        ValidationResult result = tryCreateOrUpdate(transaction);
+        if (!result.isValid()) {
+            throw result.toException(transaction);
+        }
+    }
+
+    @Override
+    public ValidationResult tryCreateOrUpdate(Transaction transaction) {
+        long startTime = System.nanoTime();
+        try {
+            ValidationResult result = transactionService.validate(transaction);
+            if (!result.isValid()) {
+                return result;
+            }
+
+            Completion completion = new Completion();
+            publish(transaction, completion);
+
+            boolean interrupted = false;
+            while (!completion.done) {
+                LockSupport.parkNanos(this, WAIT_NANOS);
+                interrupted |= Thread.interrupted();
+                if (!completion.done && !writer.isAlive()) {
+                    throw new IllegalStateException("The transaction writer is stopped");
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (completion.error != null) {
+                throw completion.error;
+            }
+            return completion.result;
+        } finally {
+            transactionService.recordCreateOrUpdate(startTime);
+        }
+    }
+
+    @Override
+    public BatchResult createOrUpdateAll(Iterator<Transaction> transactions) {
+        return transactionService.createOrUpdateAll(transactions);
+    }
+
+    private void publish(Transaction transaction, Completion completion) {
+        if (!running) {
+            throw new IllegalStateException("The transaction writer is stopped");
+        }
+        long sequence = claimedSequence.getAndIncrement();
+        // Wait for the writer to take the previous transaction of the slot when the buffer is full
+        while (sequence - releasedSequence.get() > slots.length) {
+            if (!writer.isAlive()) {
+                throw new IllegalStateException("The transaction writer is stopped");
+            }
+            LockSupport.parkNanos(this, 1000);
+        }
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.transaction = transaction;
+        slot.completion = completion;
+        // The volatile write publishes the transaction and the completion to the writer
+        slot.sequence = sequence;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void write() {
+        Transaction[] batch = new Transaction[batchSize];
+        Completion[] completions = new Completion[batchSize];
+        ValidationResult[] results = new ValidationResult[batchSize];
+        long nextSequence = 0;
+        int idleSpins = 0;
+        while (true) {
+            int count = 0;
+            while (count < batchSize) {
+                Slot slot = slots[(int) (nextSequence + count) & mask];
+                if (slot.sequence != nextSequence + count) {
+                    break;
+                }
+                batch[count] = slot.transaction;
+                completions[count] = slot.completion;
+                slot.transaction = null;
+                slot.completion = null;
+                count++;
+            }
+
+            if (count == 0) {
+                if (!running) {
+                    return;
+                }
+                if (++idleSpins < SPINS_BEFORE_PARK) {
+                    Thread.yield();
+                } else {
+                    // The flag is set before the last check, so a caller which publishes meanwhile unparks the writer
+                    writerParked = true;
+                    if (slots[(int) nextSequence & mask].sequence != nextSequence && running) {
+                        LockSupport.park(this);
+                    }
+                    writerParked = false;
+                }
+                continue;
+            }
+
+            idleSpins = 0;
+            nextSequence += count;
+            // The slots are copied, so the callers could reuse them while the batch is applied
+            releasedSequence.set(nextSequence - 1);
+            apply(batch, completions, results, count);
+        }
+    }
+
+    private void apply(Transaction[] batch, Completion[] completions, ValidationResult[] results, int count) {
+        RuntimeException error = null;
+        try {
+            transactionService.applyValidated(batch, count, results);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+
+        for (int i = 0; i < count; i++) {
+            Completion completion = completions[i];
+            completion.result = results[i];
+            // The transactions before the failed one are applied, so only the failed one and the later ones get
+            // the error. The results are cleared after every batch, so they are null from the failed one.
+            completion.error = results[i] == null ? error : null;
+            completion.done = true;
+            LockSupport.unpark(completion.caller);
+            batch[i] = null;
+            completions[i] = null;
+            results[i] = null;
+        }
+    }
+
+    private static final class Slot {
+
+        // The sequence of the published transaction, it is written after the other fields
+        private volatile long sequence = -1;
+
+        private Transaction transaction;
+
+        private Completion completion;
+    }
+
+    private static final class Completion {
+
+        private final Thread caller = Thread.currentThread();
+
+        // Written after the result and the error, so they are visible to the caller once it's done
+        private volatile boolean done;
+
+        private ValidationResult result;
+
+        private RuntimeException error;
+    }
+}
@@ -0,0 +1,136 @@
+package com.transaction.service;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Walks all transactions which are transitively linked to a given transaction and aggregates them.
+ * <p>
+ * The walk uses an explicit work stack instead of recursion, so the depth of the tree is limited only by the heap.
+ * A subtree is walked by the calling thread until the parallel threshold number of transactions are visited.
+ * If there are still transactions to be visited, the rest of the walk is done in a fork join pool where
+ * the pending transactions are split between the tasks on every threshold number of visited transactions.
+ * <p>
+ * As the transactions could be aggregated in any order, the combiner should be associative and commutative.
+ *
+ * @author Diyan Yordanov
+ */
+public class SubtreeTraversal {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    private final TransactionRepository transactionRepository;
+
+    private final ForkJoinPool forkJoinPool;
+
+    private final int parallelThreshold;
+
+    public SubtreeTraversal(TransactionRepository transactionRepository, int parallelThreshold) {
+        this(transactionRepository, ForkJoinPool.commonPool(), parallelThreshold);
+    }
+
+    public SubtreeTraversal(TransactionRepository transactionRepository, ForkJoinPool forkJoinPool,
+                            int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold should be positive");
+        }
+        this.transactionRepository = transactionRepository;
+        this.forkJoinPool = forkJoinPool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Aggregate a transaction and all transactions transitively linked to it
+     *
+     * @param root     - the top level transaction
+     * @param mapper   - maps every transaction to a value to be aggregated
+     * @param combiner - associative and commutative function which combines two values
+     * @param identity - the identity value of the combiner
+     * @return the aggregated value of the whole subtree
+     */
+    public <R> R aggregate(Transaction root, Function<Transaction, R> mapper, BinaryOperator<R> combiner, R identity) {
+        Deque<Transaction> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        R result = walk(pending, identity, mapper, combiner);
+        if (!pending.isEmpty()) {
+            // The subtree is larger than the threshold, walk the rest of it in parallel
+            result = combiner.apply(result,
+                    forkJoinPool.invoke(new AggregationTask<>(pending, mapper, combiner, identity)));
+        }
+        return result;
+    }
+
+    /**
+     * Visit up to threshold number of transactions. The transactions which are still not visited are left
+     * in the pending deque.
+     */
+    private <R> R walk(Deque<Transaction> pending, R result, Function<Transaction, R> mapper,
+                       BinaryOperator<R> combiner) {
+        for (int visited = 0; visited < parallelThreshold && !pending.isEmpty(); visited++) {
+            Transaction transaction = pending.pop();
+            result = combiner.apply(result, mapper.apply(transaction));
+
+            for (long childId : transactionRepository.getChildIds(transaction.getId())) {
+                pending.push(transactionRepository.read(childId));
+            }
+        }
+        return result;
+    }
+
+    private class AggregationTask<R> extends RecursiveTask<R> {
+
+        private final Deque<Transaction> pending;
+
+        private final Function<Transaction, R> mapper;
+
+        private final BinaryOperator<R> combiner;
+
+        private final R identity;
+
+        AggregationTask(Deque<Transaction> pending, Function<Transaction, R> mapper, BinaryOperator<R> combiner,
+                        R identity) {
+            this.pending = pending;
+            this.mapper = mapper;
+            this.combiner = combiner;
+            this.identity = identity;
+        }
+
+        @Override
+        protected R compute() {
+            List<AggregationTask<R>> forkedTasks = new ArrayList<>();
+            R result = identity;
+            while (true) {
+                result = walk(pending, result, mapper, combiner);
+                if (pending.isEmpty()) {
+                    break;
+                }
+                if (pending.size() > 1) {
+                    // The bottom of the stack holds the transactions closest to the root, which usually
+                    // have the largest subtrees, so they are given to the forked task
+                    Deque<Transaction> split = new ArrayDeque<>();
+                    for (int i = pending.size() / 2; i > 0; i--) {
+                        split.push(pending.removeLast());
+                    }
+                    AggregationTask<R> task = new AggregationTask<>(split, mapper, combiner, identity);
+                    task.fork();
+                    forkedTasks.add(task);
+                }
+            }
+
+            for (AggregationTask<R> task : forkedTasks) {
+                result = combiner.apply(result, task.join());
+            }
+            return result;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.transaction.service;
 
+import com.transaction.storage.TimeWindowAggregates;
 import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
 
 import java.math.BigDecimal;
 import java.util.Collection;
+import java.util.Iterator;
 
 /**
  * Service which manages transactions
@@ -21,6 +24,14 @@ public interface TransactionService {
      */
     Transaction getById(Long transactionId);
 
+    /**
+     * Read several transactions at once, e.g. a page of the IDs of a type
+     *
+     * @param transactionIds - the IDs of the transactions which need to be read
+     * @return - the transactions in the order of the IDs, null for an ID which is not found
+     */
+    Transaction[] getByIds(long[] transactionIds);
+
     /**
      * Return a collection of transaction IDs for a given type
      *
@@ -30,6 +41,80 @@ public interface TransactionService {
      */
     Collection<Long> getTransactionIdsByType(String type);
 
+    /**
+     * Return a page of transaction IDs for a given type in ascending order
+     *
+     * @param type    - the transaction type for which the IDs should be retrieved
+     * @param afterId - the last ID of the previous page or null for the first page
+     * @param limit   - the maximum number of IDs in the page
+     * @return - the transaction IDs in the page, an empty array if there are no more IDs
+     * @throws IllegalArgumentException in case of invalid type or limit
+     */
+    long[] getTransactionIdsByType(String type, Long afterId, int limit);
+
+    /**
+     * Return the aggregates of the amounts of all transactions of a given type. They are maintained on write,
+     * so it doesn't go through the transactions of the type.
+     *
+     * @param type - the transaction type
+     * @return the count, the sum, the min, the max and the histogram of the amounts, a zero count for an unknown type
+     * @throws IllegalArgumentException in case of invalid type
+     */
+    TypeAggregates getAggregatesByType(String type);
+
+    /**
+     * Return the IDs of the transactions of a given type created in a time window. They are read from a time
+     * index, so it takes time proportional to the window rather than to all transactions of the type.
+     *
+     * @param type  - the transaction type
+     * @param from  - the start of the window in milliseconds since the epoch, inclusive
+     * @param to    - the end of the window in milliseconds since the epoch, exclusive
+     * @param limit - the maximum number of IDs
+     * @return the IDs in the order of the creation time of the transactions
+     * @throws IllegalArgumentException in case of invalid type, window or limit
+     */
+    long[] getTransactionIdsByTime(String type, long from, long to, int limit);
+
+    /**
+     * Return the count and the sum of the amounts of the transactions of a given type created in a time window
+     *
+     * @param type - the transaction type
+     * @param from - the start of the window in milliseconds since the epoch, inclusive
+     * @param to   - the end of the window in milliseconds since the epoch, exclusive
+     * @return the aggregates of the window, a zero count if there are no transactions in it
+     * @throws IllegalArgumentException in case of invalid type or window
+     */
+    TimeWindowAggregates getAggregatesByTime(String type, long from, long to);
+
+    /**
+     * Return the ancestors of a transaction. They are read from an index, so it takes O(depth).
+     *
+     * @param transactionId - the ID of the transaction
+     * @return the IDs of the ancestors from the parent to the root, an empty array for a root transaction
+     * @throws IllegalArgumentException in case of invalid transaction ID
+     */
+    long[] getAncestorIds(Long transactionId);
+
+    /**
+     * Return the root of the tree of a transaction
+     *
+     * @param transactionId - the ID of the transaction
+     * @return the ID of the top level ancestor or the ID of the transaction itself if it has no parent
+     * @throws IllegalArgumentException in case of invalid transaction ID
+     */
+    Long getRootId(Long transactionId);
+
+    /**
+     * Check if a transaction is transitively linked by its parentId to another transaction. It walks only
+     * the ancestors of the transaction.
+     *
+     * @param transactionId - the ID of the transaction
+     * @param ancestorId    - the ID of the top level transaction of the subtree
+     * @return true if the transaction is the top level transaction or one of its descendants
+     * @throws IllegalArgumentException in case of invalid transaction IDs
+     */
+    boolean isInSubtree(Long transactionId, Long ancestorId);
+
     /**
      * Calculates the sum of all transactions that are transitively linked by their parentId to a given transaction
      *
@@ -39,6 +124,14 @@ public interface TransactionService {
      */
     BigDecimal calculateTransactionsSum(Long transactionId);
 
+    /**
+     * Calculates the subtree sums of several transactions at once
+     *
+     * @param transactionIds - the IDs of the top level transactions
+     * @return the sums in the order of the IDs, null for an ID which is not found
+     */
+    BigDecimal[] calculateTransactionsSums(long[] transactionIds);
+
     /**
      * Create or update a transaction by ID. If a transaction with this ID exists, it will be updated
      * otherwise a new transaction will be created
@@ -49,4 +142,41 @@ public interface TransactionService {
      */
     void createOrUpdate(Transaction transaction);
 
+    /**
+     * Create or update a transaction as {@link #createOrUpdate(Transaction)}, but return the result code of
+     * the validation instead of throwing an exception for an invalid transaction, so rejecting a transaction is
+     * as cheap as possible
+     *
+     * The rejections are returned as:
+     * <ul>
+     * <li>{@link ValidationResult#MISSING_TRANSACTION}, {@link ValidationResult#MISSING_ID},
+     * {@link ValidationResult#MISSING_AMOUNT}, {@link ValidationResult#MISSING_TYPE} - a required field is
+     * missing</li>
+     * <li>{@link ValidationResult#AMOUNT_SCALE}, {@link ValidationResult#AMOUNT_RANGE} - the amount has more than 2
+     * digits after the decimal point or it could not be stored by the repository</li>
+     * <li>{@link ValidationResult#SELF_PARENT}, {@link ValidationResult#PARENT_NOT_FOUND} - the parent is the
+     * transaction itself or it doesn't exist</li>
+     * <li>{@link ValidationResult#PARENT_CYCLE} - the parent is a descendant of the transaction, also when
+     * a concurrent move made it one after the validation</li>
+     * <li>{@link ValidationResult#PARENT_ON_OTHER_SHARD} - a router could not move the transaction under a parent
+     * on another shard</li>
+     * </ul>
+     *
+     * @param transaction - the transaction to be created or updated
+     * @return {@link ValidationResult#VALID} if the transaction is applied, otherwise the reason of the rejection
+     * @throws IllegalArgumentException if a router gets the transaction rejected by its shard
+     */
+    ValidationResult tryCreateOrUpdate(Transaction transaction);
+
+    /**
+     * Create or update transactions in bulk. The transactions are consumed from the iterator lazily and applied
+     * in chunks, so the batch doesn't need to be in the memory at once. A transaction could have a parent which
+     * comes later in the same batch, it is applied after its parent then. An invalid transaction doesn't stop
+     * the batch, it is reported as a failure in the result.
+     *
+     * @param transactions - the transactions to be created or updated in the order of the batch
+     * @return summary of the processed and failed transactions
+     */
+    BatchResult createOrUpdateAll(Iterator<Transaction> transactions);
+
 }
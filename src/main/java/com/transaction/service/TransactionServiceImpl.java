@@ -1,24 +1,72 @@
 package com.transaction.service;
 
+import com.transaction.feed.ChangeFeed;
+import com.transaction.metrics.Counter;
+import com.transaction.metrics.LatencyRecorder;
+import com.transaction.metrics.MetricsRegistry;
+import com.transaction.storage.TimeWindowAggregates;
 import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionAggregatesByTypeIndex;
+import com.transaction.storage.TransactionAncestryIndex;
 import com.transaction.storage.TransactionIdsByTypeIndex;
 import com.transaction.storage.TransactionRepository;
+import com.transaction.storage.TransactionTimeIndex;
+import com.transaction.storage.TypeAggregates;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.validation.ConstraintViolation;
-import javax.validation.Validator;
 import javax.validation.constraints.NotNull;
 import java.math.BigDecimal;
-import java.util.Collections;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 /**
  * Transaction service which stores transactions in the memory. It uses a HashMap to store the transactions.
- * Every Transaction stores its children, so it will be easy to go through the all parent/child
- * transaction tree recursively.
+ * The repository stores the children of every transaction, so it will be easy to go through the all parent/child
+ * transaction tree. The tree is walked by a {@link SubtreeTraversal} which is stack safe and walks large
+ * subtrees in parallel.
  * <p>
- * The implementation is thread safe.
+ * Every Transaction also stores the sum of its subtree. It is updated on write with the delta of the change
+ * for all the ancestors of the changed transaction, so the sum calculation is a single lookup - O(1).
+ * When the sum verification is enabled, every calculated sum is checked against the sum of the whole subtree.
+ * <p>
+ * The implementation is thread safe. Every create or update is atomic across the repository, the type index
+ * and the tree. The writes of a transaction are serialized by a lock from a fixed set of striped locks chosen
+ * by the transaction ID, so the writes of different transactions run in parallel. The subtree sums of the
+ * ancestors are updated with atomic adds, so the parallel writes in a subtree don't lose an update. Moving
+ * a transaction to another parent changes the ancestors of its whole subtree, so it takes an exclusive tree
+ * lock which waits for all other writes.
+ * <p>
+ * The aggregates of the amounts per type are updated on write as well, so they are read in O(1).
+ * <p>
+ * The parent of every transaction is kept in an ancestry index, so the lineage queries walk only
+ * the ancestors. A transaction could not be moved under one of its descendants, as it would create a cycle. It is
+ * checked by walking the ancestors of the new parent in the index, which is O(depth) as the update of the subtree
+ * sums.
+ * <p>
+ * A new transaction gets the current time as its timestamp, unless it already has one as a transaction replayed
+ * from a log. An update keeps the timestamp of the created transaction. The transactions of every type are kept
+ * in a time index, so the queries of a time window don't depend on the number of the transactions out of it.
+ * <p>
+ * The latencies of the reads and the writes, the rejected writes and the size of the stored tree are recorded in
+ * a {@link MetricsRegistry}. The recording doesn't lock or allocate.
+ * <p>
+ * Every applied create or update is published to the {@link ChangeFeed} if there is one.
+ * <p>
+ * A write is validated by straight-line checks which return a {@link ValidationResult}, so a rejected write
+ * doesn't create an exception unless it is made by {@link #createOrUpdate(Transaction)}.
  * <p>
  *
  * @author Diyan Yordanov
@@ -26,114 +74,677 @@ import java.util.Set;
 @Service
 public class TransactionServiceImpl implements TransactionService {
 
-    private Validator validator;
-
     private TransactionRepository transactionRepository;
 
     private TransactionIdsByTypeIndex transactionIdsByTypeIndex;
 
+    private TransactionAggregatesByTypeIndex transactionAggregatesByTypeIndex;
+
+    private TransactionAncestryIndex transactionAncestryIndex;
+
+    private TransactionTimeIndex transactionTimeIndex;
+
+    // Shared by the writes which keep the tree structure, exclusive for the writes which change it
+    private final ReadWriteLock treeLock = new ReentrantReadWriteLock();
+
+    private final Lock[] stripes;
+
+    private static final int BATCH_CHUNK_SIZE = 1024;
+
+    private int maxDeferredTransactions = DeferredTransactions.DEFAULT_CAPACITY;
+
+    // The number of striped locks is a power of two, so the stripe of an ID is selected with a mask
+    private static final int STRIPE_COUNT =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 16);
+
+    private boolean sumVerificationEnabled;
+
+    private SubtreeTraversal subtreeTraversal;
+
+    private LatencyRecorder getByIdLatency;
+
+    private LatencyRecorder getByIdsLatency;
+
+    private LatencyRecorder idsByTypeLatency;
+
+    private LatencyRecorder sumLatency;
+
+    private LatencyRecorder sumsLatency;
+
+    private LatencyRecorder createOrUpdateLatency;
+
+    private Counter validationFailures;
+
+    private ChangeFeed changeFeed;
+
+    private Counter parentNotFoundFailures;
+
     @Autowired
-    public TransactionServiceImpl(Validator validator, TransactionRepository transactionRepository,
-                                  TransactionIdsByTypeIndex transactionIdsByTypeIndex) {
-        this.validator = validator;
+    public TransactionServiceImpl(TransactionRepository transactionRepository,
+                                  TransactionIdsByTypeIndex transactionIdsByTypeIndex,
+                                  TransactionAggregatesByTypeIndex transactionAggregatesByTypeIndex,
+                                  TransactionAncestryIndex transactionAncestryIndex,
+                                  TransactionTimeIndex transactionTimeIndex) {
         this.transactionRepository = transactionRepository;
         this.transactionIdsByTypeIndex = transactionIdsByTypeIndex;
+        this.transactionAggregatesByTypeIndex = transactionAggregatesByTypeIndex;
+        this.transactionAncestryIndex = transactionAncestryIndex;
+        this.transactionTimeIndex = transactionTimeIndex;
+        this.subtreeTraversal =
+                new SubtreeTraversal(transactionRepository, SubtreeTraversal.DEFAULT_PARALLEL_THRESHOLD);
+        this.stripes = new Lock[STRIPE_COUNT];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        setMetricsRegistry(new MetricsRegistry());
+    }
+
+    /**
+     * Publish every applied create or update to a change feed. The feed doesn't wait for its subscribers, so
+     * the writes are not slowed down by them.
+     */
+    @Autowired(required = false)
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    /**
+     * Register the metrics of the service in a registry. Until then they are recorded in a registry of
+     * the service which is not exposed.
+     *
+     * @param metricsRegistry - the registry of the exposed metrics
+     */
+    @Autowired
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        String latencyName = "transaction_service_latency_seconds";
+        String latencyHelp = "Latency of the transaction service methods";
+        getByIdLatency = metricsRegistry.latencyRecorder(latencyName, latencyHelp, "method", "getById");
+        getByIdsLatency = metricsRegistry.latencyRecorder(latencyName, latencyHelp, "method", "getByIds");
+        idsByTypeLatency = metricsRegistry.latencyRecorder(latencyName, latencyHelp, "method",
+                "getTransactionIdsByType");
+        sumLatency = metricsRegistry.latencyRecorder(latencyName, latencyHelp, "method", "calculateTransactionsSum");
+        sumsLatency = metricsRegistry.latencyRecorder(latencyName, latencyHelp, "method",
+                "calculateTransactionsSums");
+        createOrUpdateLatency = metricsRegistry.latencyRecorder(latencyName, latencyHelp, "method", "createOrUpdate");
+        validationFailures = metricsRegistry.counter("transaction_validation_failures_total",
+                "Creates and updates rejected because of an invalid transaction");
+        parentNotFoundFailures = metricsRegistry.counter("transaction_parent_not_found_total",
+                "Creates and updates rejected because of a not existing parent");
+        metricsRegistry.gauge("transaction_repository_size", "Number of stored transactions",
+                transactionRepository::size);
+        metricsRegistry.gauge("transaction_type_count", "Number of transaction types",
+                transactionIdsByTypeIndex::typeCount);
+        metricsRegistry.gauge("transaction_tree_max_depth",
+                "Maximum number of ancestors of a transaction",
+                transactionAncestryIndex::getMaxDepth);
+    }
+
+    /**
+     * Enable verification of the maintained subtree sums against the sum of the whole subtree on every
+     * sum calculation. It is expensive and should be used only for troubleshooting.
+     *
+     * @param sumVerificationEnabled - true if every calculated sum should be verified
+     */
+    @Value("${transaction.sum.verify:false}")
+    public void setSumVerificationEnabled(boolean sumVerificationEnabled) {
+        this.sumVerificationEnabled = sumVerificationEnabled;
+    }
+
+    /**
+     * Set the number of transactions which are walked sequentially before the rest of a subtree is split
+     * between parallel tasks.
+     *
+     * @param parallelThreshold - the number of transactions walked by a single task before splitting
+     */
+    @Value("${transaction.traversal.parallel-threshold:" + SubtreeTraversal.DEFAULT_PARALLEL_THRESHOLD + "}")
+    public void setTraversalParallelThreshold(int parallelThreshold) {
+        this.subtreeTraversal = new SubtreeTraversal(transactionRepository, parallelThreshold);
+    }
+
+    /**
+     * Set the max number of the transactions of a batch which wait for their parent or behind an earlier
+     * transaction with the same ID. The transactions over it are rejected as their parent is not found.
+     *
+     * @param maxDeferredTransactions - the max number of the deferred transactions of a batch
+     */
+    @Value("${transaction.batch.max-deferred:" + DeferredTransactions.DEFAULT_CAPACITY + "}")
+    public void setMaxDeferredTransactions(int maxDeferredTransactions) {
+        this.maxDeferredTransactions = maxDeferredTransactions;
     }
 
     @Override
     public Transaction getById(@NotNull Long transactionId) {
-        if (transactionId == null) {
-            throw new IllegalArgumentException("Transaction id could not be null");
-        }
+        long startTime = System.nanoTime();
+        try {
+            if (transactionId == null) {
+                throw new IllegalArgumentException("Transaction id could not be null");
+            }
 
-        Transaction result = transactionRepository.read(transactionId);
+            Transaction result = transactionRepository.read(transactionId);
 
-        if (result == null) {
-            throw new IllegalArgumentException(String.format("No transaction for id %d found", transactionId));
+            if (result == null) {
+                throw new IllegalArgumentException(String.format("No transaction for id %d found", transactionId));
+            }
+
+            return result;
+        } finally {
+            getByIdLatency.recordSince(startTime);
         }
+    }
 
+    /**
+     * The transactions are read from the repository at once
+     */
+    @Override
+    public Transaction[] getByIds(@NotNull long[] transactionIds) {
+        long startTime = System.nanoTime();
+        try {
+            return transactionRepository.readAll(transactionIds);
+        } finally {
+            getByIdsLatency.recordSince(startTime);
+        }
+    }
+
+    @Override
+    public Collection<Long> getTransactionIdsByType(@NotNull String type) {
+        long[] ids = getTransactionIdsByType(type, null, Integer.MAX_VALUE);
+        List<Long> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            result.add(id);
+        }
         return result;
     }
 
     @Override
-    public Set<Long> getTransactionIdsByType(@NotNull String type) {
+    public long[] getTransactionIdsByType(@NotNull String type, Long afterId, int limit) {
+        long startTime = System.nanoTime();
+        try {
+            if (type == null || type.isEmpty()) {
+                throw new IllegalArgumentException("Transaction type could not be null or empty");
+            }
+            if (limit < 1) {
+                throw new IllegalArgumentException("Limit should be positive");
+            }
+            return transactionIdsByTypeIndex.getIds(type, afterId, limit);
+        } finally {
+            idsByTypeLatency.recordSince(startTime);
+        }
+    }
+
+    @Override
+    public TypeAggregates getAggregatesByType(@NotNull String type) {
         if (type == null || type.isEmpty()) {
             throw new IllegalArgumentException("Transaction type could not be null or empty");
         }
-        Set<Long> result = transactionIdsByTypeIndex.getIds(type);
-        return result != null ? result : Collections.EMPTY_SET;
+        return transactionAggregatesByTypeIndex.get(type);
     }
 
     @Override
-    public BigDecimal calculateTransactionsSum(@NotNull Long transactionId) {
-        if (transactionId == null) {
-            throw new IllegalArgumentException("Transaction Id is null");
+    public long[] getTransactionIdsByTime(@NotNull String type, long from, long to, int limit) {
+        checkTimeWindow(type, from, to);
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit should be positive");
         }
+        return transactionTimeIndex.getIds(type, from, to, limit);
+    }
 
-        Transaction transaction = transactionRepository.read(transactionId);
-        if (transaction == null) {
-            throw new IllegalArgumentException(String.format("Transaction for id %d not found", transactionId));
+    @Override
+    public TimeWindowAggregates getAggregatesByTime(@NotNull String type, long from, long to) {
+        checkTimeWindow(type, from, to);
+        return transactionTimeIndex.getAggregates(type, from, to);
+    }
+
+    @Override
+    public long[] getAncestorIds(@NotNull Long transactionId) {
+        long[] ancestorIds = transactionAncestryIndex.getAncestorIds(requireTransactionId(transactionId));
+        if (ancestorIds == null) {
+            throw new IllegalArgumentException(String.format("No transaction for id %d found", transactionId));
         }
+        return ancestorIds;
+    }
 
-        // Recursive invocation for all children
-        BigDecimal childrenSum = transaction.getChildren().stream()
-                .map(childTransaction -> calculateTransactionsSum(childTransaction.getId()))
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    @Override
+    public Long getRootId(@NotNull Long transactionId) {
+        Long rootId = transactionAncestryIndex.getRootId(requireTransactionId(transactionId));
+        if (rootId == null) {
+            throw new IllegalArgumentException(String.format("No transaction for id %d found", transactionId));
+        }
+        return rootId;
+    }
 
-        return transaction.getAmount().add(childrenSum);
+    @Override
+    public boolean isInSubtree(@NotNull Long transactionId, @NotNull Long ancestorId) {
+        long id = requireTransactionId(transactionId);
+        long subtreeRootId = requireTransactionId(ancestorId);
+        if (transactionAncestryIndex.isInSubtree(id, subtreeRootId)) {
+            return true;
+        }
+        for (long checkedId : new long[]{id, subtreeRootId}) {
+            if (transactionAncestryIndex.getDepth(checkedId) < 0) {
+                throw new IllegalArgumentException(String.format("No transaction for id %d found", checkedId));
+            }
+        }
+        return false;
     }
 
     @Override
-    public void createOrUpdate(@NotNull Transaction transaction) {
-        validateCreateUpdateInput(transaction);
-        processOldTransaction(transaction);
+    public BigDecimal calculateTransactionsSum(@NotNull Long transactionId) {
+        long startTime = System.nanoTime();
+        try {
+            if (transactionId == null) {
+                throw new IllegalArgumentException("Transaction Id is null");
+            }
 
-        transactionRepository.save(transaction);
-        transactionIdsByTypeIndex.save(transaction);
+            Transaction transaction = transactionRepository.read(transactionId);
+            if (transaction == null) {
+                throw new IllegalArgumentException(String.format("Transaction for id %d not found", transactionId));
+            }
+
+            if (sumVerificationEnabled) {
+                verifySubtreeSum(transactionId);
+            }
 
-        if (transaction.getParentId() != null) {
-            Transaction parent = transactionRepository.read(transaction.getParentId());
-            parent.getChildren().add(transaction);
+            return transaction.getSubtreeSum();
+        } finally {
+            sumLatency.recordSince(startTime);
         }
     }
 
-    private void validateCreateUpdateInput(@NotNull Transaction transaction) {
-        Set<ConstraintViolation<Transaction>> errors = validator.validate(transaction);
-        if (!errors.isEmpty()) {
-            throw new IllegalArgumentException(String.format("Validation error(s): %s",
-                    errors.stream()
-                            .map(error -> String.format("'%s' %s", error.getPropertyPath().toString(), error.getMessage()))
-                            .reduce("", (s1, s2) -> s1 + s2 + ";")));
+    /**
+     * The sums are maintained, so every sum is a read of the transaction and the overlapping subtrees don't
+     * need any more work. All transactions are read from the repository at once.
+     */
+    @Override
+    public BigDecimal[] calculateTransactionsSums(@NotNull long[] transactionIds) {
+        long startTime = System.nanoTime();
+        try {
+            Transaction[] transactions = transactionRepository.readAll(transactionIds);
+            BigDecimal[] sums = new BigDecimal[transactions.length];
+            for (int i = 0; i < transactions.length; i++) {
+                if (transactions[i] != null) {
+                    if (sumVerificationEnabled) {
+                        verifySubtreeSum(transactionIds[i]);
+                    }
+                    sums[i] = transactions[i].getSubtreeSum();
+                }
+            }
+            return sums;
+        } finally {
+            sumsLatency.recordSince(startTime);
         }
-        if (transaction.getParentId() != null && transactionRepository.read(transaction.getParentId()) == null) {
-            throw new ParentNotFoundException(String.format("Invalid parent id: %s", transaction.getParentId()));
+    }
+
+    /**
+     * Walks a transaction and all transactions that are transitively linked by their parentId to it and
+     * aggregates them. Large subtrees are walked in parallel, so the transactions are aggregated in no
+     * particular order. It is not a part of {@link TransactionService}, as a router could not send the mapper and
+     * the combiner to its shards.
+     *
+     * @param transactionId - the id of the top level transaction
+     * @param mapper        - maps every transaction to a value to be aggregated
+     * @param combiner      - associative and commutative function which combines two values
+     * @param identity      - the identity value of the combiner
+     * @return the aggregated value of all transactions that are transitively linked
+     * @throws IllegalArgumentException in case of invalid transaction ID
+     */
+    public <R> R aggregateSubtree(@NotNull Long transactionId, Function<Transaction, R> mapper,
+                                  BinaryOperator<R> combiner, R identity) {
+        Transaction transaction = getById(transactionId);
+        return subtreeTraversal.aggregate(transaction, mapper, combiner, identity);
+    }
+
+    @Override
+    public void createOrUpdate(@NotNull Transaction transaction) {
+        ValidationResult result = tryCreateOrUpdate(transaction);
+        if (!result.isValid()) {
+            throw result.toException(transaction);
+        }
+    }
+
+    @Override
+    public ValidationResult tryCreateOrUpdate(Transaction transaction) {
+        long startTime = System.nanoTime();
+        try {
+            // The parent is never removed, so the validation doesn't need a lock
+            ValidationResult result = validate(transaction);
+            return result.isValid() ? applyLocked(transaction) : result;
+        } finally {
+            createOrUpdateLatency.recordSince(startTime);
+        }
+    }
+
+    /**
+     * Apply a validated transaction under the stripe of its ID or under the exclusive tree lock if it is moved
+     * to another parent
+     *
+     * @return {@link ValidationResult#PARENT_CYCLE} if a concurrent move made the new parent a descendant of
+     * the transaction after the validation, otherwise {@link ValidationResult#VALID}
+     */
+    private ValidationResult applyLocked(@NotNull Transaction transaction) {
+        Lock stripe = stripe(transaction.getId());
+        treeLock.readLock().lock();
+        stripe.lock();
+        try {
+            Transaction oldTransaction = transactionRepository.read(transaction.getId());
+            if (oldTransaction == null || Objects.equals(oldTransaction.getParentId(), transaction.getParentId())) {
+                applyCreateOrUpdate(transaction, oldTransaction);
+                return ValidationResult.VALID;
+            }
+        } finally {
+            stripe.unlock();
+            treeLock.readLock().unlock();
         }
-        if (transaction.getId().equals(transaction.getParentId())) {
-            throw new IllegalArgumentException("Parent could not point to self");
+
+        // The transaction is moved to another parent
+        treeLock.writeLock().lock();
+        try {
+            ValidationResult result = checkParentCycle(transaction);
+            if (result.isValid()) {
+                applyCreateOrUpdate(transaction, transactionRepository.read(transaction.getId()));
+            }
+            return result;
+        } finally {
+            treeLock.writeLock().unlock();
         }
-        if (transaction.getAmount().scale() > 2) {
-            throw new IllegalArgumentException("Amount shouldn't have more then 2 digits after the '.' sign");
+    }
+
+    @Override
+    public BatchResult createOrUpdateAll(Iterator<Transaction> transactions) {
+        BatchResult result = new BatchResult();
+        // Transactions which parent is not found yet. They are applied as soon as their parent is applied.
+        DeferredTransactions deferred = new DeferredTransactions(maxDeferredTransactions);
+
+        List<DeferredTransactions.Item> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+        long index = 0;
+        while (transactions.hasNext()) {
+            chunk.add(new DeferredTransactions.Item(index++, transactions.next()));
+            if (chunk.size() == BATCH_CHUNK_SIZE) {
+                // The saves of a chunk become durable together after the tree lock is released
+                transactionRepository.saveGrouped(() -> applyChunk(chunk, deferred, result));
+                chunk.clear();
+            }
         }
+        transactionRepository.saveGrouped(() -> applyChunk(chunk, deferred, result));
 
+        // The parents of the deferred transactions are not found in the whole batch
+        deferred.getRemaining().forEach(item -> rejectDeferred(item, result));
+        return result;
     }
 
-    private void processOldTransaction(@NotNull Transaction transaction) {
-        Transaction oldTransaction = transactionRepository.read(transaction.getId());
-        if (oldTransaction != null) {
-            if (oldTransaction.getParentId() != null) {
-                // If the old transaction has a parent, removeId it from its children
-                Transaction oldTransactionPartent = transactionRepository.read(oldTransaction.getParentId());
-                oldTransactionPartent.getChildren().remove(oldTransaction);
+    private void applyChunk(List<DeferredTransactions.Item> chunk, DeferredTransactions deferred,
+                            BatchResult result) {
+        // Take the exclusive lock once per chunk instead of a lock per transaction
+        treeLock.writeLock().lock();
+        try {
+            Deque<DeferredTransactions.Item> pending = new ArrayDeque<>();
+            for (DeferredTransactions.Item chunkItem : chunk) {
+                pending.add(chunkItem);
+                while (!pending.isEmpty()) {
+                    DeferredTransactions.Item item = pending.poll();
+                    if (deferred.isBehindDeferred(item)) {
+                        if (deferred.isFull()) {
+                            rejectDeferred(item, result);
+                        } else {
+                            deferred.addBehindDeferred(item);
+                        }
+                        continue;
+                    }
+                    ValidationResult validation = checkCreateUpdateInput(item.getTransaction());
+                    if (validation == ValidationResult.PARENT_NOT_FOUND) {
+                        if (deferred.isFull() && !item.isReleased()) {
+                            rejectDeferred(item, result);
+                        } else {
+                            deferred.addWaitingForParent(item);
+                        }
+                        continue;
+                    }
+                    boolean applied = false;
+                    if (!validation.isValid()) {
+                        validationFailures.increment();
+                        result.addFailure(item.getIndex(), item.getId(), validation.getMessage());
+                    } else {
+                        try {
+                            applyCreateOrUpdate(item.getTransaction(), transactionRepository.read(item.getId()));
+                            result.addProcessed();
+                            applied = true;
+                        } catch (IllegalArgumentException e) {
+                            validationFailures.increment();
+                            result.addFailure(item.getIndex(), item.getId(), e.getMessage());
+                        }
+                    }
+                    deferred.complete(item, applied, pending);
+                }
             }
-            // Apply the children map to the new transaction
-            transaction.setChildren(oldTransaction.getChildren());
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    private void rejectDeferred(DeferredTransactions.Item item, BatchResult result) {
+        parentNotFoundFailures.increment();
+        result.addFailure(item.getIndex(), item.getId(),
+                String.format("Invalid parent id: %s", item.getTransaction().getParentId()));
+    }
+
+    /**
+     * Apply a validated transaction. The caller should hold either the exclusive tree lock or the shared tree lock
+     * together with the stripe of the transaction if the parent of the transaction is not changed.
+     */
+    private void applyCreateOrUpdate(@NotNull Transaction transaction, Transaction oldTransaction) {
+        if (oldTransaction == null) {
+            if (transaction.getTimestamp() == null) {
+                transaction.setTimestamp(System.currentTimeMillis());
+            }
+            // The subtree sum is added to the transaction and its ancestors after the transaction is saved
+            transaction.setSubtreeSum(BigDecimal.ZERO);
+            transactionRepository.save(transaction);
+            transactionRepository.addToSubtreeSums(transaction.getId(), transaction.getAmount());
+            transactionAggregatesByTypeIndex.add(transaction);
+            transactionTimeIndex.add(transaction);
+        } else {
+            transaction.setTimestamp(oldTransaction.getTimestamp());
+            processOldTransaction(transaction, oldTransaction);
+        }
+        transactionIdsByTypeIndex.save(transaction);
+
+        boolean parentChanged = oldTransaction == null
+                || !Objects.equals(transaction.getParentId(), oldTransaction.getParentId());
+        if (transaction.getParentId() != null && parentChanged) {
+            transactionRepository.addChild(transaction.getParentId(), transaction.getId());
+        }
+        // The ancestry index takes its exclusive lock, so an update which keeps the parent doesn't touch it
+        if (parentChanged) {
+            transactionAncestryIndex.save(transaction.getId(), transaction.getParentId());
+        }
+        if (changeFeed != null) {
+            changeFeed.publish(transaction, oldTransaction);
+        }
+    }
+
+    /**
+     * Apply transactions which are already validated by {@link #validate(Transaction)} in order
+     * under a single exclusive lock. It is used by a single writer which applies the writes in batches.
+     *
+     * @param transactions - the validated transactions, the first count of them are applied
+     * @param count        - the number of transactions to be applied
+     * @param results      - filled with the result of every transaction, a previous transaction of the batch could
+     *                     make the new parent of a transaction its descendant. A result is set only after its
+     *                     transaction is applied, so if the batch fails, the results of the failed transaction and
+     *                     of the ones after it are left as they were. It returns after the saves of the batch are
+     *                     durable, so the results could be given to the callers.
+     */
+    void applyValidated(Transaction[] transactions, int count, ValidationResult[] results) {
+        transactionRepository.saveGrouped(() -> {
+            treeLock.writeLock().lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    ValidationResult result = checkParentCycle(transactions[i]);
+                    if (result.isValid()) {
+                        applyCreateOrUpdate(transactions[i], transactionRepository.read(transactions[i].getId()));
+                    }
+                    results[i] = result;
+                }
+            } finally {
+                treeLock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Record the latency of a create or update which is applied by another writer
+     *
+     * @param startTime - the start time of the create or update given by {@link System#nanoTime()}
+     */
+    void recordCreateOrUpdate(long startTime) {
+        createOrUpdateLatency.recordSince(startTime);
+    }
+
+    /**
+     * Validate a transaction and count the rejected ones
+     *
+     * @return the result code of the validation
+     */
+    ValidationResult validate(Transaction transaction) {
+        ValidationResult result = checkCreateUpdateInput(transaction);
+        if (result == ValidationResult.PARENT_NOT_FOUND) {
+            parentNotFoundFailures.increment();
+        } else if (!result.isValid()) {
+            validationFailures.increment();
+        }
+        return result;
+    }
 
-            if (!oldTransaction.getType().equals(transaction.getType())) {
-                // Remove the old record from the index only if the type is changed
-                transactionIdsByTypeIndex.removeId(oldTransaction);
+    /**
+     * Check the bean constraints of the transaction and its parent. The checks are ordered by their cost, so
+     * the lookup of the parent is the last one and it is the only read.
+     */
+    private ValidationResult checkCreateUpdateInput(Transaction transaction) {
+        if (transaction == null) {
+            return ValidationResult.MISSING_TRANSACTION;
+        }
+        Long id = transaction.getId();
+        if (id == null) {
+            return ValidationResult.MISSING_ID;
+        }
+        BigDecimal amount = transaction.getAmount();
+        if (amount == null) {
+            return ValidationResult.MISSING_AMOUNT;
+        }
+        String type = transaction.getType();
+        if (type == null || type.isEmpty()) {
+            return ValidationResult.MISSING_TYPE;
+        }
+        if (amount.scale() > 2) {
+            return ValidationResult.AMOUNT_SCALE;
+        }
+        if (!transactionRepository.canStoreAmount(amount)) {
+            return ValidationResult.AMOUNT_RANGE;
+        }
+        Long parentId = transaction.getParentId();
+        if (parentId != null) {
+            if (parentId.equals(id)) {
+                return ValidationResult.SELF_PARENT;
+            }
+            if (transactionRepository.read(parentId) == null) {
+                return ValidationResult.PARENT_NOT_FOUND;
+            }
+            // A new transaction is not in the index, so only the ancestors of the parent of an update are walked
+            if (transactionAncestryIndex.isInSubtree(parentId, id)) {
+                return ValidationResult.PARENT_CYCLE;
             }
         }
+        return ValidationResult.VALID;
+    }
+
+    /**
+     * Check again under the exclusive tree lock that a moved transaction is not put under its own descendant, as
+     * the tree could be changed by another move after the validation
+     */
+    private ValidationResult checkParentCycle(Transaction transaction) {
+        Long parentId = transaction.getParentId();
+        if (parentId != null && transactionAncestryIndex.isInSubtree(parentId, transaction.getId())) {
+            validationFailures.increment();
+            return ValidationResult.PARENT_CYCLE;
+        }
+        return ValidationResult.VALID;
+    }
+
+    private void processOldTransaction(@NotNull Transaction transaction, @NotNull Transaction oldTransaction) {
+        if (oldTransaction.getParentId() != null && !oldTransaction.getParentId().equals(transaction.getParentId())) {
+            // The child link is kept by an update under the same parent, only a move removes it from the old parent
+            transactionRepository.removeChild(oldTransaction.getParentId(), oldTransaction.getId());
+        }
 
+        // The saved transaction keeps its subtree sum, the children are kept as well, so only the amount of
+        // the transaction itself could change the subtree sum
+        transactionRepository.save(transaction);
+        BigDecimal amountDelta = transaction.getAmount().subtract(oldTransaction.getAmount());
+
+        if (!Objects.equals(oldTransaction.getParentId(), transaction.getParentId())) {
+            // Re-parenting moves the whole subtree, so its sum is moved from the old to the new ancestors.
+            // It's done under the exclusive tree lock, so the subtree sum could not be changed meanwhile.
+            BigDecimal subtreeSum = transactionRepository.read(transaction.getId()).getSubtreeSum();
+            addToAncestorsSubtreeSum(oldTransaction.getParentId(), subtreeSum.negate());
+            addToAncestorsSubtreeSum(transaction.getParentId(), subtreeSum);
+        }
+        addToAncestorsSubtreeSum(transaction.getId(), amountDelta);
+
+        if (!oldTransaction.getType().equals(transaction.getType())) {
+            // Remove the old record from the index only if the type is changed
+            transactionIdsByTypeIndex.removeId(oldTransaction);
+        }
+        if (!oldTransaction.getType().equals(transaction.getType()) || amountDelta.signum() != 0) {
+            transactionAggregatesByTypeIndex.remove(oldTransaction);
+            transactionAggregatesByTypeIndex.add(transaction);
+            transactionTimeIndex.remove(oldTransaction);
+            transactionTimeIndex.add(transaction);
+        }
+    }
+
+    private void addToAncestorsSubtreeSum(Long id, BigDecimal delta) {
+        if (id != null && delta.signum() != 0) {
+            transactionRepository.addToSubtreeSums(id, delta);
+        }
+    }
+
+    private static void checkTimeWindow(String type, long from, long to) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("Transaction type could not be null or empty");
+        }
+        if (from >= to) {
+            throw new IllegalArgumentException("The start of the time window should be before its end");
+        }
+    }
+
+    private static long requireTransactionId(Long transactionId) {
+        if (transactionId == null) {
+            throw new IllegalArgumentException("Transaction id could not be null");
+        }
+        return transactionId;
+    }
+
+    private Lock stripe(long id) {
+        // Spread the sequential IDs over all stripes
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 32) & (stripes.length - 1)];
+    }
+
+    private void verifySubtreeSum(@NotNull Long transactionId) {
+        // Block the writers in order to compare the maintained sum with a stable subtree
+        treeLock.writeLock().lock();
+        try {
+            Transaction transaction = transactionRepository.read(transactionId);
+            BigDecimal maintainedSum = transaction.getSubtreeSum();
+            BigDecimal calculatedSum = subtreeTraversal.aggregate(transaction, Transaction::getAmount,
+                    BigDecimal::add, BigDecimal.ZERO);
+            if (maintainedSum.compareTo(calculatedSum) != 0) {
+                throw new IllegalStateException(String.format(
+                        "Subtree sum mismatch for transaction %d: maintained %s, calculated %s",
+                        transaction.getId(), maintainedSum, calculatedSum));
+            }
+        } finally {
+            treeLock.writeLock().unlock();
+        }
     }
 
 }
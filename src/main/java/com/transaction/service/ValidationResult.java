@@ -0,0 +1,75 @@
+package com.transaction.service;
+
+import com.transaction.storage.Transaction;
+
+/**
+ * Result code of the validation of a create or update. The codes are preallocated, so a rejected transaction
+ * costs neither an exception nor a message. The bean constraints of {@link Transaction} are checked by
+ * straight-line code in a fixed order and the first violated one is the result.
+ *
+ * @author Diyan Yordanov
+ */
+public enum ValidationResult {
+
+    VALID(null),
+
+    MISSING_TRANSACTION("'transaction' may not be null"),
+
+    MISSING_ID("'id' may not be null"),
+
+    MISSING_AMOUNT("'amount' may not be null"),
+
+    MISSING_TYPE("'type' may not be empty"),
+
+    AMOUNT_SCALE("Amount shouldn't have more then 2 digits after the '.' sign"),
+
+    AMOUNT_RANGE("Amount is out of the range of the storage"),
+
+    SELF_PARENT("Parent could not point to self"),
+
+    PARENT_NOT_FOUND("Invalid parent id"),
+
+    PARENT_CYCLE("Parent could not be a descendant of the transaction"),
+
+    PARENT_ON_OTHER_SHARD("Transaction could not be moved under a parent on another shard");
+
+    private final String message;
+
+    ValidationResult(String message) {
+        this.message = message;
+    }
+
+    public boolean isValid() {
+        return this == VALID;
+    }
+
+    /**
+     * @return the reason of the rejection or null if the transaction is valid
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Create the exception which is thrown by {@link TransactionService#createOrUpdate(Transaction)} for
+     * a rejected transaction
+     *
+     * @param transaction - the rejected transaction
+     * @return {@link ParentNotFoundException} if the parent is not found, otherwise {@link IllegalArgumentException}
+     */
+    public RuntimeException toException(Transaction transaction) {
+        if (this == PARENT_NOT_FOUND) {
+            return new ParentNotFoundException(String.format("Invalid parent id: %s", transaction.getParentId()));
+        }
+        if (this == PARENT_CYCLE) {
+            return new IllegalArgumentException(String.format("Parent %d is a descendant of transaction %d",
+                    transaction.getParentId(), transaction.getId()));
+        }
+        if (this == PARENT_ON_OTHER_SHARD) {
+            return new IllegalArgumentException(String.format(
+                    "Transaction %d could not be moved under parent %d which is on another shard",
+                    transaction.getId(), transaction.getParentId()));
+        }
+        return new IllegalArgumentException(message);
+    }
+}
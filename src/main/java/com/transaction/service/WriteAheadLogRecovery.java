@@ -0,0 +1,55 @@
+package com.transaction.service;
+
+import com.transaction.storage.wal.SnapshotStore;
+import com.transaction.storage.wal.WriteAheadLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds the transactions, the type index and the child links on startup. The latest snapshot is loaded and
+ * the write ahead log after the snapshot is replayed through the bulk create or update of the service.
+ *
+ * @author Diyan Yordanov
+ */
+public class WriteAheadLogRecovery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLogRecovery.class);
+
+    private final WriteAheadLog writeAheadLog;
+
+    private final SnapshotStore snapshotStore;
+
+    private final TransactionService transactionService;
+
+    public WriteAheadLogRecovery(WriteAheadLog writeAheadLog, SnapshotStore snapshotStore,
+                                 TransactionService transactionService) {
+        this.writeAheadLog = writeAheadLog;
+        this.snapshotStore = snapshotStore;
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * Load the latest snapshot and replay the log after it. It should be done before any transaction is
+     * created or updated.
+     */
+    public void recover() throws IOException {
+        long startTime = System.nanoTime();
+        BatchResult[] snapshotResult = {new BatchResult()};
+        long snapshotPosition = snapshotStore.load(transactions -> writeAheadLog.withoutAppending(() ->
+                snapshotResult[0] = transactionService.createOrUpdateAll(transactions)));
+        LOG.info("Loaded {} transactions from the snapshot at log position {} in {} ms",
+                snapshotResult[0].getProcessed(), snapshotPosition,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        startTime = System.nanoTime();
+        BatchResult[] logResult = {new BatchResult()};
+        long position = writeAheadLog.replay(snapshotPosition, transactions ->
+                logResult[0] = transactionService.createOrUpdateAll(transactions));
+        LOG.info("Replayed {} transactions up to log position {} in {} ms, {} failed",
+                logResult[0].getProcessed(), position,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), logResult[0].getFailed());
+    }
+}
@@ -0,0 +1,350 @@
+package com.transaction.shard;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.transaction.api.TransactionJsonCodec;
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Client of the transactionservice endpoints of a single shard, which is a transaction server in any server mode.
+ * The connections are kept alive and reused by the JDK between the requests.
+ * <p>
+ * A 400 response is thrown as {@link IllegalArgumentException}, so the rejected requests are rejected by
+ * the router in the same way. Any other failure is thrown as {@link UncheckedIOException}.
+ *
+ * @author Diyan Yordanov
+ */
+public class ShardClient {
+
+    private static final String PATH_PREFIX = "/transactionservice/";
+
+    private static final int BAD_REQUEST = 400;
+
+    // The IDs of a bulk read are a part of the URL, which length is limited by the shard servers
+    private static final int MAX_IDS_PER_REQUEST = 256;
+
+    private final String baseUrl;
+
+    private final int timeoutMillis;
+
+    /**
+     * @param baseUrl       - the URL of the shard server, e.g. http://localhost:8081
+     * @param timeoutMillis - the connect and the read timeout of every request
+     */
+    public ShardClient(String baseUrl, int timeoutMillis) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return the transaction or null if it is not stored on the shard
+     */
+    public Transaction read(long id) {
+        try {
+            HttpURLConnection connection = open("GET", "transaction/" + id);
+            if (connection.getResponseCode() == BAD_REQUEST) {
+                discard(connection);
+                return null;
+            }
+            try (InputStream input = body(connection)) {
+                return TransactionJsonCodec.readStoredTransaction(input, id);
+            }
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    public void createOrUpdate(Transaction transaction) {
+        try {
+            HttpURLConnection connection = open("PUT", "transaction/" + transaction.getId());
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                TransactionJsonCodec.writeTransaction(transaction, output);
+            }
+            body(connection).close();
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    public long[] getTransactionIdsByType(String type, Long afterId, int limit) {
+        String path = "types/" + encode(type) + "?limit=" + limit + (afterId != null ? "&after=" + afterId : "");
+        return get(path, ShardClient::readIds);
+    }
+
+    public long[] getTransactionIdsByTime(String type, long from, long to, int limit) {
+        return get("range/" + encode(type) + "?from=" + from + "&to=" + to + "&limit=" + limit, ShardClient::readIds);
+    }
+
+    public TypeAggregates getAggregatesByType(String type) {
+        return get("aggregates/" + encode(type) + "?histogram=true", ShardClient::readTypeAggregates);
+    }
+
+    public TimeWindowAggregates getAggregatesByTime(String type, long from, long to) {
+        return get("window/" + encode(type) + "?from=" + from + "&to=" + to, parser -> {
+            expect(parser, JsonToken.START_OBJECT);
+            long count = 0;
+            BigDecimal sum = BigDecimal.ZERO;
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                parser.nextToken();
+                if ("count".equals(field)) {
+                    count = parser.getLongValue();
+                } else if ("sum".equals(field)) {
+                    sum = parser.getDecimalValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new TimeWindowAggregates(type, from, to, count, sum);
+        });
+    }
+
+    public long[] getAncestorIds(long id) {
+        return get("ancestors/" + id, ShardClient::readIds);
+    }
+
+    public long getRootId(long id) {
+        return get("root/" + id, parser -> {
+            readField(parser, "root_id");
+            return parser.getLongValue();
+        });
+    }
+
+    public boolean isInSubtree(long id, long ancestorId) {
+        return get("subtree/" + ancestorId + "?contains=" + id,
+                parser -> readField(parser, "contains") == JsonToken.VALUE_TRUE);
+    }
+
+    public BigDecimal calculateTransactionsSum(long id) {
+        return get("sum/" + id, parser -> {
+            readField(parser, "sum");
+            return parser.getDecimalValue();
+        });
+    }
+
+    /**
+     * @return the transactions in the order of the IDs, null for a transaction which is not stored on the shard
+     */
+    public Transaction[] getByIds(long[] ids) {
+        return getEntries("transactions/", ids, new Transaction[ids.length],
+                TransactionJsonCodec::readStoredTransaction);
+    }
+
+    /**
+     * @return the subtree sums in the order of the IDs, null for a transaction which is not stored on the shard
+     */
+    public BigDecimal[] calculateTransactionsSums(long[] ids) {
+        return getEntries("sums/", ids, new BigDecimal[ids.length], parser -> {
+            BigDecimal sum = null;
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                parser.nextToken();
+                if ("sum".equals(field)) {
+                    sum = parser.getDecimalValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Read the entries of a bulk read in chunks of IDs
+     *
+     * @param resource - the path of the bulk read before the IDs
+     * @param entries  - filled with the entries in the order of the IDs
+     * @param reader   - reads an entry object which start token is the current token
+     */
+    private <R> R[] getEntries(String resource, long[] ids, R[] entries, ResponseReader<R> reader) {
+        for (int first = 0; first < ids.length; first += MAX_IDS_PER_REQUEST) {
+            int end = Math.min(ids.length, first + MAX_IDS_PER_REQUEST);
+            StringBuilder path = new StringBuilder(resource);
+            for (int i = first; i < end; i++) {
+                path.append(i > first ? "," : "").append(ids[i]);
+            }
+            int offset = first;
+            get(path.toString(), parser -> {
+                expect(parser, JsonToken.START_ARRAY);
+                for (int i = offset; i < end; i++) {
+                    if (parser.nextToken() != JsonToken.VALUE_NULL) {
+                        entries[i] = reader.read(parser);
+                    }
+                }
+                return entries;
+            });
+        }
+        return entries;
+    }
+
+    private <R> R get(String path, ResponseReader<R> reader) {
+        try {
+            HttpURLConnection connection = open("GET", path);
+            try (InputStream input = body(connection);
+                 JsonParser parser = TransactionJsonCodec.JSON_FACTORY.createParser(input)) {
+                parser.nextToken();
+                return reader.read(parser);
+            }
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    private HttpURLConnection open(String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + PATH_PREFIX + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        return connection;
+    }
+
+    private InputStream body(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status == BAD_REQUEST) {
+            discard(connection);
+            throw new IllegalArgumentException(String.format("Request rejected by shard %s", baseUrl));
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            discard(connection);
+            throw new IOException(String.format("Unexpected status %d from shard %s", status, baseUrl));
+        }
+        return connection.getInputStream();
+    }
+
+    private UncheckedIOException failure(IOException e) {
+        return new UncheckedIOException(String.format("Request to shard %s failed", baseUrl), e);
+    }
+
+    /**
+     * Read the error body, so the connection could be reused
+     */
+    private static void discard(HttpURLConnection connection) throws IOException {
+        InputStream error = connection.getErrorStream();
+        if (error != null) {
+            byte[] buffer = new byte[1024];
+            while (error.read(buffer) >= 0) {
+                // Nothing to do with the error page
+            }
+            error.close();
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            // The type is a path segment, where a space is not a plus
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long[] readIds(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_ARRAY);
+        long[] ids = new long[16];
+        int count = 0;
+        while (parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = parser.getLongValue();
+        }
+        expect(parser, JsonToken.END_ARRAY);
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static TypeAggregates readTypeAggregates(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        String type = null;
+        long count = 0;
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal min = null;
+        BigDecimal max = null;
+        List<BigDecimal> bounds = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "type":
+                    type = parser.getText();
+                    break;
+                case "count":
+                    count = parser.getLongValue();
+                    break;
+                case "sum":
+                    sum = parser.getDecimalValue();
+                    break;
+                case "min":
+                    min = token != JsonToken.VALUE_NULL ? parser.getDecimalValue() : null;
+                    break;
+                case "max":
+                    max = token != JsonToken.VALUE_NULL ? parser.getDecimalValue() : null;
+                    break;
+                case "histogram":
+                    String histogramField;
+                    while ((histogramField = parser.nextFieldName()) != null) {
+                        parser.nextToken();
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            if ("bounds".equals(histogramField)) {
+                                bounds.add(parser.getDecimalValue());
+                            } else {
+                                counts.add(parser.getLongValue());
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return new TypeAggregates(type, count, sum, min, max, bounds.toArray(new BigDecimal[bounds.size()]),
+                counts.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * Read the start of an object with a single field
+     *
+     * @return the token of the field value, which is the current token of the parser
+     */
+    private static JsonToken readField(JsonParser parser, String field) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        if (!field.equals(parser.nextFieldName())) {
+            throw new JsonParseException(String.format("Field '%s' is expected", field), parser.getCurrentLocation());
+        }
+        return parser.nextToken();
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.getCurrentToken() != token) {
+            throw new JsonParseException(String.format("%s is expected", token), parser.getCurrentLocation());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<R> {
+
+        R read(JsonParser parser) throws IOException;
+    }
+}
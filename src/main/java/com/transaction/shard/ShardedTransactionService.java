@@ -0,0 +1,506 @@
+package com.transaction.shard;
+
+import com.transaction.service.BatchResult;
+import com.transaction.service.DeferredTransactions;
+import com.transaction.service.TransactionService;
+import com.transaction.service.ValidationResult;
+import com.transaction.storage.LongIntHashMap;
+import com.transaction.storage.TimeWindowAggregates;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Routes the requests to several shards, which are transaction servers. It is used instead of the local service
+ * when the server runs as a router.
+ * <p>
+ * A whole transaction tree is placed on a single shard, so the sum and the lineage of a transaction are served by
+ * a single shard. A new transaction without a parent is placed on a shard by the hash of its ID. A new
+ * transaction with a parent is placed on the shard of its parent. As the transactions are never removed and
+ * never moved between shards, the shard of a transaction doesn't change. The shards of the known transactions
+ * are kept in a directory of primitive IDs. A transaction which is not in the directory (e.g. after a restart of
+ * the router or a write through another router) is looked up on all shards and added to the directory. A write
+ * of such a transaction is looked up too, as a child made a root stays on the shard of its old tree, so the shard
+ * of a stored transaction could not be derived from its ID.
+ * <p>
+ * Moving a transaction under a parent on another shard would need to move its whole subtree. It is rejected,
+ * as the shards could not remove the moved transactions.
+ * <p>
+ * The transaction IDs and the aggregates of a type or of a time window are gathered from all shards in parallel
+ * and merged.
+ *
+ * @author Diyan Yordanov
+ */
+public class ShardedTransactionService implements TransactionService, Closeable {
+
+    private static final int NO_SHARD = LongIntHashMap.NO_VALUE;
+
+    private static final int ID_PAGE_SIZE = 4096;
+
+    private final List<ShardClient> shards;
+
+    private final LongIntHashMap shardsById = new LongIntHashMap(1024);
+
+    private final ReadWriteLock directoryLock = new ReentrantReadWriteLock();
+
+    private final ExecutorService executor;
+
+    public ShardedTransactionService(List<ShardClient> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.executor = Executors.newFixedThreadPool(shards.size() * 2, runnable -> {
+            Thread thread = new Thread(runnable, "shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Transaction getById(Long transactionId) {
+        return shards.get(requireShard(transactionId)).read(transactionId);
+    }
+
+    /**
+     * The IDs are sent to their shards in parallel. The IDs which are not in the directory are sent to all shards.
+     */
+    @Override
+    public Transaction[] getByIds(long[] transactionIds) {
+        return gather(transactionIds, new Transaction[transactionIds.length], ShardClient::getByIds);
+    }
+
+    @Override
+    public Collection<Long> getTransactionIdsByType(String type) {
+        List<Long> ids = new ArrayList<>();
+        long[] page = getTransactionIdsByType(type, null, ID_PAGE_SIZE);
+        while (page.length > 0) {
+            Arrays.stream(page).forEach(ids::add);
+            page = page.length == ID_PAGE_SIZE
+                    ? getTransactionIdsByType(type, page[page.length - 1], ID_PAGE_SIZE) : new long[0];
+        }
+        return ids;
+    }
+
+    /**
+     * Every shard returns up to the limit of its IDs after the given one in ascending order, so the page is
+     * the smallest of all of them.
+     */
+    @Override
+    public long[] getTransactionIdsByType(String type, Long afterId, int limit) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("Type could not be empty");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit should be positive");
+        }
+        List<long[]> pages = scatter(shard -> shard.getTransactionIdsByType(type, afterId, limit));
+
+        long[] ids = new long[limit];
+        int[] positions = new int[pages.size()];
+        int count = 0;
+        while (count < limit) {
+            int smallest = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                if (positions[i] < pages.get(i).length && (smallest < 0
+                        || pages.get(i)[positions[i]] < pages.get(smallest)[positions[smallest]])) {
+                    smallest = i;
+                }
+            }
+            if (smallest < 0) {
+                break;
+            }
+            ids[count++] = pages.get(smallest)[positions[smallest]++];
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * The aggregates of all shards are merged. The shards should have the same histogram bounds.
+     */
+    @Override
+    public TypeAggregates getAggregatesByType(String type) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("Type could not be empty");
+        }
+        List<TypeAggregates> shardAggregates = scatter(shard -> shard.getAggregatesByType(type));
+
+        TypeAggregates first = shardAggregates.get(0);
+        long count = 0;
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal min = null;
+        BigDecimal max = null;
+        long[] histogramCounts = new long[first.getHistogramCounts().length];
+        for (TypeAggregates aggregates : shardAggregates) {
+            if (!Arrays.equals(aggregates.getHistogramBounds(), first.getHistogramBounds())) {
+                throw new IllegalStateException("The shards have different histogram bounds");
+            }
+            count += aggregates.getCount();
+            sum = sum.add(aggregates.getSum());
+            min = min == null || aggregates.getMin() != null && aggregates.getMin().compareTo(min) < 0
+                    ? aggregates.getMin() : min;
+            max = max == null || aggregates.getMax() != null && aggregates.getMax().compareTo(max) > 0
+                    ? aggregates.getMax() : max;
+            for (int i = 0; i < histogramCounts.length; i++) {
+                histogramCounts[i] += aggregates.getHistogramCounts()[i];
+            }
+        }
+        return new TypeAggregates(type, count, sum, min, max, first.getHistogramBounds(), histogramCounts);
+    }
+
+    /**
+     * Every shard returns up to the limit of its IDs of the window in the order of their time. The shards return
+     * the IDs without their times, so every shard reads the times of its IDs by a bulk read as well. The pages are
+     * merged by the times of the IDs, the IDs with the same time are kept in the order of the shards.
+     */
+    @Override
+    public long[] getTransactionIdsByTime(String type, long from, long to, int limit) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("Type could not be empty");
+        }
+        if (from >= to) {
+            throw new IllegalArgumentException("The start of the time window should be before its end");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit should be positive");
+        }
+        List<TimePage> pages = scatter(shard -> {
+            long[] ids = shard.getTransactionIdsByTime(type, from, to, limit);
+            // The creation time of a transaction is kept by its updates, so it doesn't change after the page is read
+            long[] timestamps = Arrays.stream(shard.getByIds(ids))
+                    .mapToLong(transaction -> transaction != null ? transaction.getTimestamp() : Long.MAX_VALUE)
+                    .toArray();
+            return new TimePage(ids, timestamps);
+        });
+
+        long[] ids = new long[(int) Math.min(limit, pages.stream().mapToLong(page -> page.ids.length).sum())];
+        int[] positions = new int[pages.size()];
+        int count = 0;
+        while (count < ids.length) {
+            int earliest = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                TimePage page = pages.get(i);
+                if (positions[i] < page.ids.length && (earliest < 0
+                        || page.timestamps[positions[i]] < pages.get(earliest).timestamps[positions[earliest]])) {
+                    earliest = i;
+                }
+            }
+            ids[count++] = pages.get(earliest).ids[positions[earliest]++];
+        }
+        return ids;
+    }
+
+    @Override
+    public TimeWindowAggregates getAggregatesByTime(String type, long from, long to) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("Type could not be empty");
+        }
+        if (from >= to) {
+            throw new IllegalArgumentException("The start of the time window should be before its end");
+        }
+        long count = 0;
+        BigDecimal sum = BigDecimal.ZERO;
+        for (TimeWindowAggregates aggregates : scatter(shard -> shard.getAggregatesByTime(type, from, to))) {
+            count += aggregates.getCount();
+            sum = sum.add(aggregates.getSum());
+        }
+        return new TimeWindowAggregates(type, from, to, count, sum);
+    }
+
+    @Override
+    public long[] getAncestorIds(Long transactionId) {
+        return shards.get(requireShard(transactionId)).getAncestorIds(transactionId);
+    }
+
+    @Override
+    public Long getRootId(Long transactionId) {
+        return shards.get(requireShard(transactionId)).getRootId(transactionId);
+    }
+
+    @Override
+    public boolean isInSubtree(Long transactionId, Long ancestorId) {
+        int shard = requireShard(transactionId);
+        // The transactions on different shards are in different trees
+        return shard == requireShard(ancestorId) && shards.get(shard).isInSubtree(transactionId, ancestorId);
+    }
+
+    @Override
+    public BigDecimal calculateTransactionsSum(Long transactionId) {
+        return shards.get(requireShard(transactionId)).calculateTransactionsSum(transactionId);
+    }
+
+    /**
+     * The IDs are sent to their shards as in {@link #getByIds(long[])}
+     */
+    @Override
+    public BigDecimal[] calculateTransactionsSums(long[] transactionIds) {
+        return gather(transactionIds, new BigDecimal[transactionIds.length], ShardClient::calculateTransactionsSums);
+    }
+
+    @Override
+    public void createOrUpdate(Transaction transaction) {
+        ValidationResult result = tryCreateOrUpdate(transaction);
+        if (!result.isValid()) {
+            throw result.toException(transaction);
+        }
+    }
+
+    /**
+     * Only the ID and the parent are checked by the router, the rest of the transaction is validated by its shard
+     */
+    @Override
+    public ValidationResult tryCreateOrUpdate(Transaction transaction) {
+        if (transaction == null) {
+            return ValidationResult.MISSING_TRANSACTION;
+        }
+        if (transaction.getId() == null) {
+            return ValidationResult.MISSING_ID;
+        }
+        int shard = findShard(transaction.getId());
+        Long parentId = transaction.getParentId();
+        int parentShard = parentId != null ? findShard(parentId) : NO_SHARD;
+        if (parentId != null && parentShard == NO_SHARD) {
+            return ValidationResult.PARENT_NOT_FOUND;
+        }
+
+        if (shard == NO_SHARD) {
+            // A new transaction is placed with its tree
+            shard = parentId != null ? parentShard : placeRoot(transaction.getId());
+        } else if (parentId != null && parentShard != shard) {
+            return ValidationResult.PARENT_ON_OTHER_SHARD;
+        }
+        shards.get(shard).createOrUpdate(transaction);
+        register(transaction.getId(), shard);
+        return ValidationResult.VALID;
+    }
+
+    /**
+     * The transactions are forwarded one by one. A transaction which parent is not found waits for its parent until
+     * the end of the batch, as in the local service.
+     */
+    @Override
+    public BatchResult createOrUpdateAll(Iterator<Transaction> transactions) {
+        BatchResult result = new BatchResult();
+        DeferredTransactions deferred = new DeferredTransactions(DeferredTransactions.DEFAULT_CAPACITY);
+        Deque<DeferredTransactions.Item> pending = new ArrayDeque<>();
+        long index = 0;
+        while (transactions.hasNext()) {
+            pending.add(new DeferredTransactions.Item(index++, transactions.next()));
+            while (!pending.isEmpty()) {
+                DeferredTransactions.Item item = pending.poll();
+                if (deferred.isBehindDeferred(item)) {
+                    if (deferred.isFull()) {
+                        rejectDeferred(item, result);
+                    } else {
+                        deferred.addBehindDeferred(item);
+                    }
+                    continue;
+                }
+                ValidationResult validation;
+                try {
+                    validation = tryCreateOrUpdate(item.getTransaction());
+                } catch (IllegalArgumentException e) {
+                    result.addFailure(item.getIndex(), item.getId(), e.getMessage());
+                    deferred.complete(item, false, pending);
+                    continue;
+                }
+                if (validation == ValidationResult.PARENT_NOT_FOUND) {
+                    if (deferred.isFull() && !item.isReleased()) {
+                        rejectDeferred(item, result);
+                    } else {
+                        deferred.addWaitingForParent(item);
+                    }
+                    continue;
+                }
+                if (validation.isValid()) {
+                    result.addProcessed();
+                } else {
+                    result.addFailure(item.getIndex(), item.getId(), validation.getMessage());
+                }
+                deferred.complete(item, validation.isValid(), pending);
+            }
+        }
+
+        deferred.getRemaining().forEach(item -> rejectDeferred(item, result));
+        return result;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the index of the shard of a new transaction without a parent
+     */
+    int placeRoot(long id) {
+        // Spread the sequential IDs over all shards
+        long hash = (id * 0x9E3779B97F4A7C15L) >>> 32;
+        return (int) (hash % shards.size());
+    }
+
+    private static void rejectDeferred(DeferredTransactions.Item item, BatchResult result) {
+        result.addFailure(item.getIndex(), item.getId(),
+                String.format("Invalid parent id: %s", item.getTransaction().getParentId()));
+    }
+
+    private int requireShard(Long transactionId) {
+        if (transactionId == null) {
+            throw new IllegalArgumentException("Transaction id could not be null");
+        }
+        int shard = findShard(transactionId);
+        if (shard == NO_SHARD) {
+            throw new IllegalArgumentException(String.format("No transaction for id %d found", transactionId));
+        }
+        return shard;
+    }
+
+    /**
+     * @return the index of the shard of a transaction or {@link #NO_SHARD} if it is not stored on any shard
+     */
+    private int findShard(long id) {
+        int knownShard = knownShard(id);
+        if (knownShard != NO_SHARD) {
+            return knownShard;
+        }
+
+        List<Transaction> found = scatter(shard -> shard.read(id));
+        for (int shard = 0; shard < found.size(); shard++) {
+            if (found.get(shard) != null) {
+                register(id, shard);
+                return shard;
+            }
+        }
+        return NO_SHARD;
+    }
+
+    /**
+     * @return the index of the shard of a transaction in the directory or {@link #NO_SHARD} if it is not there
+     */
+    private int knownShard(long id) {
+        directoryLock.readLock().lock();
+        try {
+            return shardsById.get(id);
+        } finally {
+            directoryLock.readLock().unlock();
+        }
+    }
+
+    private void register(long id, int shard) {
+        directoryLock.writeLock().lock();
+        try {
+            shardsById.put(id, shard);
+        } finally {
+            directoryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Send a request to all shards in parallel
+     *
+     * @return the responses in the order of the shards
+     */
+    private <R> List<R> scatter(Function<ShardClient, R> request) {
+        List<CompletableFuture<R>> futures = new ArrayList<>(shards.size());
+        for (ShardClient shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> request.apply(shard), executor));
+        }
+        return join(futures);
+    }
+
+    /**
+     * Send a bulk read of the IDs of every shard to the shard in parallel. The IDs which shard is not known are sent
+     * to all shards and the found ones are added to the directory.
+     *
+     * @param results - filled with the found entries in the order of the IDs
+     * @return the results
+     */
+    private <R> R[] gather(long[] ids, R[] results, BiFunction<ShardClient, long[], R[]> request) {
+        int[] shardOfIds = new int[ids.length];
+        directoryLock.readLock().lock();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                shardOfIds[i] = shardsById.get(ids[i]);
+            }
+        } finally {
+            directoryLock.readLock().unlock();
+        }
+
+        List<int[]> positions = new ArrayList<>(shards.size());
+        List<CompletableFuture<R[]>> futures = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int current = shard;
+            int[] shardPositions = IntStream.range(0, ids.length)
+                    .filter(i -> shardOfIds[i] == current || shardOfIds[i] == NO_SHARD)
+                    .toArray();
+            long[] shardIds = Arrays.stream(shardPositions).mapToLong(i -> ids[i]).toArray();
+            ShardClient client = shards.get(shard);
+            positions.add(shardPositions);
+            futures.add(shardIds.length > 0 ? CompletableFuture.supplyAsync(() -> request.apply(client, shardIds),
+                    executor) : CompletableFuture.completedFuture(null));
+        }
+
+        List<R[]> responses = join(futures);
+        for (int shard = 0; shard < responses.size(); shard++) {
+            R[] response = responses.get(shard);
+            for (int j = 0; response != null && j < response.length; j++) {
+                int i = positions.get(shard)[j];
+                if (response[j] != null) {
+                    results[i] = response[j];
+                    if (shardOfIds[i] == NO_SHARD) {
+                        register(ids[i], shard);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private static <R> List<R> join(List<CompletableFuture<R>> futures) {
+        List<R> responses = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<R> future : futures) {
+                responses.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return responses;
+    }
+
+    /**
+     * The IDs of a time window on a shard with the creation times of their transactions
+     */
+    private static final class TimePage {
+
+        private final long[] ids;
+
+        private final long[] timestamps;
+
+        TimePage(long[] ids, long[] timestamps) {
+            this.ids = ids;
+            this.timestamps = timestamps;
+        }
+    }
+}
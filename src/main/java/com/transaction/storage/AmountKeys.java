@@ -0,0 +1,52 @@
+package com.transaction.storage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Packs an amount with up to 2 digits after the decimal point in a primitive long key, so the indexes don't keep
+ * an object per amount. The key is the cents of the amount shifted left with its scale in the low bits. The keys are
+ * ordered as the amounts and an amount is unpacked with the scale it was packed with.
+ *
+ * @author Diyan Yordanov
+ */
+final class AmountKeys {
+
+    // The key of an amount which doesn't fit in a key
+    static final long NO_KEY = Long.MIN_VALUE;
+
+    // The number of bits of the scale in a key
+    private static final int SCALE_BITS = 2;
+
+    private AmountKeys() {
+    }
+
+    /**
+     * @return the key of an amount or {@link #NO_KEY} if the amount has more than 2 digits after the decimal point
+     * or it is too large
+     */
+    static long toKey(BigDecimal amount) {
+        int scale = Math.max(amount.scale(), 0);
+        if (scale > 2) {
+            return NO_KEY;
+        }
+        BigInteger cents = amount.setScale(2).unscaledValue();
+        // The shifted cents should not reach NO_KEY
+        if (cents.bitLength() >= Long.SIZE - SCALE_BITS - 1) {
+            return NO_KEY;
+        }
+        return cents.longValue() << SCALE_BITS | scale;
+    }
+
+    static long cents(long key) {
+        return key >> SCALE_BITS;
+    }
+
+    static int scale(long key) {
+        return (int) (key & ((1 << SCALE_BITS) - 1));
+    }
+
+    static BigDecimal toAmount(long key) {
+        return BigDecimal.valueOf(cents(key), 2).setScale(scale(key));
+    }
+}
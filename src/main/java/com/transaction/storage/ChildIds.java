@@ -0,0 +1,97 @@
+package com.transaction.storage;
+
+import java.util.Arrays;
+
+/**
+ * IDs of the direct children of a transaction. The IDs are kept in a growable primitive array, so a child link
+ * costs 8 bytes and it is found by its ID only, whatever the state of the child transaction is. A removed child
+ * is replaced by the last one, so the order of the children is not kept.
+ * <p>
+ * A few children are found by a scan. Above {@link #INDEX_THRESHOLD} children the positions are indexed by ID,
+ * so adding and removing a child is O(1) amortized for any fan-out.
+ * <p>
+ * The IDs are changed and read under the monitor of the instance, so the children of a parent could be changed
+ * concurrently by writes under different stripes.
+ *
+ * @author Diyan Yordanov
+ */
+public final class ChildIds {
+
+    static final int INDEX_THRESHOLD = 16;
+
+    private static final long[] EMPTY = new long[0];
+
+    private long[] ids = EMPTY;
+
+    private int size;
+
+    // The position of every ID in the array, created when the number of children exceeds the threshold
+    private LongIntHashMap positions;
+
+    /**
+     * @param id - the ID of the child
+     * @return true if the child is added, false if it is already linked
+     */
+    public synchronized boolean add(long id) {
+        if (indexOf(id) >= 0) {
+            return false;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+        }
+        ids[size] = id;
+        if (positions != null) {
+            positions.put(id, size);
+        } else if (size == INDEX_THRESHOLD) {
+            positions = new LongIntHashMap(size * 2);
+            for (int i = 0; i <= size; i++) {
+                positions.put(ids[i], i);
+            }
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * @param id - the ID of the child
+     * @return true if the child is removed, false if it is not linked
+     */
+    public synchronized boolean remove(long id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return false;
+        }
+        long lastId = ids[--size];
+        ids[index] = lastId;
+        if (positions != null) {
+            positions.remove(id);
+            if (index != size) {
+                positions.put(lastId, index);
+            }
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the IDs, so it could be iterated while the children are changed
+     */
+    public synchronized long[] toArray() {
+        return size == 0 ? EMPTY : Arrays.copyOf(ids, size);
+    }
+
+    private int indexOf(long id) {
+        if (positions != null) {
+            return positions.get(id);
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,384 @@
+package com.transaction.storage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread safe transaction storage which stores the transaction fields in primitive columns instead of objects.
+ * <p>
+ * Every transaction is a row in the columns. The row of a transaction is found by an open addressing hash map with
+ * primitive long keys. The amounts are stored as long values in cents, the types are interned as ordinals.
+ * The subtree sums are stored as 128 bit values in cents, so a sum of up to 2^31 amounts never overflows and
+ * an update of the sums of the ancestors could not fail half way. The children of a transaction are a doubly linked
+ * list of rows, so linking and unlinking a child is O(1) and it doesn't need any objects.
+ * <p>
+ * The columns could be stored outside of the heap. Only the hash map and the type dictionary are on the heap then.
+ * <p>
+ * The reads share a lock and all writes take it exclusively, as a new row could grow the hash map and every column.
+ * So the saves, the child links and the updates of the subtree sums are serialized even for different trees, unlike
+ * in {@link InMemoryTransactionRepository}, and the striped locks of the service don't make them parallel. The
+ * repository fits a read mostly load or a single writer.
+ * <p>
+ * The transactions returned by {@link #read(Long)} are copies of the stored rows and they have no children set.
+ * The children should be read by {@link #getChildIds(Long)}.
+ *
+ * @author Diyan Yordanov
+ */
+public class ColumnarTransactionRepository implements TransactionRepository {
+
+    private static final int NO_ROW = -1;
+
+    private static final int AMOUNT_SCALE = 2;
+
+    // The digits of Long.MAX_VALUE / 100
+    private static final int MAX_INTEGER_DIGITS = 17;
+
+    private static final BigInteger LOW_BITS = BigInteger.ONE.shiftLeft(Long.SIZE).subtract(BigInteger.ONE);
+
+    // The number of rows read under a single read lock on a visit of all transactions or on a bulk read
+    private static final int VISIT_BATCH_SIZE = 1024;
+
+    private static final long HAS_PARENT = 1;
+
+    private static final long LINKED_TO_PARENT = 1 << 1;
+
+    private static final long HAS_TIMESTAMP = 1 << 2;
+
+    private final LongIntHashMap rowsById;
+
+    private final TypeDictionary typeDictionary = new TypeDictionary();
+
+    private final LongColumn ids;
+
+    private final LongColumn parentIds;
+
+    private final LongColumn timestamps;
+
+    // Amounts in cents
+    private final LongColumn amounts;
+
+    // The low and the high 64 bits of the subtree sums in cents
+    private final LongColumn subtreeSums;
+
+    private final LongColumn subtreeSumsHigh;
+
+    // Type ordinal, the original scale of the amount and flags packed in a single value
+    private final LongColumn attributes;
+
+    // The first child row and the number of children
+    private final LongColumn childLinks;
+
+    // The next and the previous sibling rows
+    private final LongColumn siblingLinks;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int rowCount;
+
+    public ColumnarTransactionRepository(boolean offHeap, int expectedSize) {
+        Supplier<LongColumn> columnFactory = offHeap ? LongColumn::offHeap : LongColumn::onHeap;
+        rowsById = new LongIntHashMap(expectedSize);
+        ids = columnFactory.get();
+        parentIds = columnFactory.get();
+        timestamps = columnFactory.get();
+        amounts = columnFactory.get();
+        subtreeSums = columnFactory.get();
+        subtreeSumsHigh = columnFactory.get();
+        attributes = columnFactory.get();
+        childLinks = columnFactory.get();
+        siblingLinks = columnFactory.get();
+    }
+
+    @Override
+    public void save(Transaction transaction) {
+        long amount = toCents(transaction.getAmount());
+        // The subtree sum is used only for a new transaction
+        BigInteger subtreeSum = transaction.getSubtreeSum() != null ? toWideCents(transaction.getSubtreeSum())
+                : BigInteger.ZERO;
+        int typeOrdinal = typeDictionary.ordinal(transaction.getType());
+
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(transaction.getId());
+            long linkFlags = 0;
+            if (row == NO_ROW) {
+                row = allocateRow(transaction.getId());
+                subtreeSums.set(row, subtreeSum.longValue());
+                subtreeSumsHigh.set(row, subtreeSum.shiftRight(Long.SIZE).longValue());
+            } else {
+                // Keep the link to the parent, the service unlinks and links the children explicitly
+                linkFlags = attributes.get(row) & LINKED_TO_PARENT;
+            }
+
+            long flags = linkFlags;
+            if (transaction.getParentId() != null) {
+                parentIds.set(row, transaction.getParentId());
+                flags |= HAS_PARENT;
+            }
+            if (transaction.getTimestamp() != null) {
+                timestamps.set(row, transaction.getTimestamp());
+                flags |= HAS_TIMESTAMP;
+            }
+            amounts.set(row, amount);
+            attributes.set(row, attributes(typeOrdinal, transaction.getAmount().scale(), flags));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The amounts are stored as long values in cents
+     */
+    @Override
+    public boolean canStoreAmount(BigDecimal amount) {
+        // The number of the integer digits is checked first, so a huge exponent doesn't expand into a huge number
+        return amount.scale() <= AMOUNT_SCALE && amount.precision() - amount.scale() <= MAX_INTEGER_DIGITS
+                && amount.movePointRight(AMOUNT_SCALE).toBigInteger().bitLength() < Long.SIZE;
+    }
+
+    @Override
+    public Transaction read(Long id) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(id);
+            return row != NO_ROW ? readRow(row) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Transaction[] readAll(long[] ids) {
+        Transaction[] transactions = new Transaction[ids.length];
+        for (int first = 0; first < ids.length; first += VISIT_BATCH_SIZE) {
+            // A batch of rows is read under a single read lock, so a write waits for a single batch at most
+            lock.readLock().lock();
+            try {
+                for (int i = first; i < ids.length && i < first + VISIT_BATCH_SIZE; i++) {
+                    int row = rowsById.get(ids[i]);
+                    transactions[i] = row != NO_ROW ? readRow(row) : null;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return transactions;
+    }
+
+    @Override
+    public void forEach(Consumer<Transaction> consumer) {
+        List<Transaction> batch = new ArrayList<>(VISIT_BATCH_SIZE);
+        for (int firstRow = 0; ; firstRow += VISIT_BATCH_SIZE) {
+            // Copy a batch of rows under the lock and visit them without holding it
+            lock.readLock().lock();
+            try {
+                for (int row = firstRow; row < rowCount && row < firstRow + VISIT_BATCH_SIZE; row++) {
+                    batch.add(readRow(row));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            batch.forEach(consumer);
+            batch.clear();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return rowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] getChildIds(Long id) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(id);
+            long links = childLinks.get(row);
+            long[] childIds = new long[(int) links];
+            int childRow = (int) (links >> 32);
+            for (int i = 0; childRow != NO_ROW; i++) {
+                childIds[i] = ids.get(childRow);
+                childRow = (int) (siblingLinks.get(childRow) >> 32);
+            }
+            return childIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addChild(Long parentId, Long childId) {
+        lock.writeLock().lock();
+        try {
+            int parentRow = rowsById.get(parentId);
+            int childRow = rowsById.get(childId);
+            long childAttributes = attributes.get(childRow);
+            if ((childAttributes & LINKED_TO_PARENT) != 0) {
+                return;
+            }
+
+            // Insert the child as a head of the children list of the parent
+            long parentLinks = childLinks.get(parentRow);
+            int firstChildRow = (int) (parentLinks >> 32);
+            if (firstChildRow != NO_ROW) {
+                siblingLinks.set(firstChildRow, siblingLinks(nextSibling(firstChildRow), childRow));
+            }
+            siblingLinks.set(childRow, siblingLinks(firstChildRow, NO_ROW));
+            childLinks.set(parentRow, childLinks(childRow, (int) parentLinks + 1));
+            attributes.set(childRow, childAttributes | LINKED_TO_PARENT);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeChild(Long parentId, Long childId) {
+        lock.writeLock().lock();
+        try {
+            int parentRow = rowsById.get(parentId);
+            int childRow = rowsById.get(childId);
+            long childAttributes = attributes.get(childRow);
+            if ((childAttributes & LINKED_TO_PARENT) == 0) {
+                return;
+            }
+
+            int nextRow = nextSibling(childRow);
+            int previousRow = previousSibling(childRow);
+            long parentLinks = childLinks.get(parentRow);
+            if (previousRow == NO_ROW) {
+                parentLinks = childLinks(nextRow, (int) parentLinks);
+            } else {
+                siblingLinks.set(previousRow, siblingLinks(nextRow, previousSibling(previousRow)));
+            }
+            if (nextRow != NO_ROW) {
+                siblingLinks.set(nextRow, siblingLinks(nextSibling(nextRow), previousRow));
+            }
+            childLinks.set(parentRow, childLinks((int) (parentLinks >> 32), (int) parentLinks - 1));
+            siblingLinks.set(childRow, siblingLinks(NO_ROW, NO_ROW));
+            attributes.set(childRow, childAttributes & ~LINKED_TO_PARENT);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addToSubtreeSums(Long id, BigDecimal delta) {
+        BigInteger deltaCents = toWideCents(delta);
+        long deltaLow = deltaCents.longValue();
+        long deltaHigh = deltaCents.shiftRight(Long.SIZE).longValue();
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(id);
+            while (row != NO_ROW) {
+                // Add the 128 bit values with the carry of the low halves
+                long low = subtreeSums.get(row);
+                long sumLow = low + deltaLow;
+                long carry = Long.compareUnsigned(sumLow, low) < 0 ? 1 : 0;
+                subtreeSums.set(row, sumLow);
+                subtreeSumsHigh.set(row, subtreeSumsHigh.get(row) + deltaHigh + carry);
+                row = (attributes.get(row) & HAS_PARENT) != 0 ? rowsById.get(parentIds.get(row)) : NO_ROW;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Transaction readRow(int row) {
+        long rowAttributes = attributes.get(row);
+        int scale = (byte) (rowAttributes >>> 8);
+        Long parentId = (rowAttributes & HAS_PARENT) != 0 ? parentIds.get(row) : null;
+
+        Transaction transaction = new Transaction(ids.get(row),
+                BigDecimal.valueOf(amounts.get(row), AMOUNT_SCALE).setScale(scale, RoundingMode.UNNECESSARY),
+                typeDictionary.type((int) (rowAttributes >>> 16)), parentId);
+        transaction.setTimestamp((rowAttributes & HAS_TIMESTAMP) != 0 ? timestamps.get(row) : null);
+        transaction.setSubtreeSum(subtreeSum(row));
+        return transaction;
+    }
+
+    private BigDecimal subtreeSum(int row) {
+        long low = subtreeSums.get(row);
+        long high = subtreeSumsHigh.get(row);
+        if (high == low >> 63) {
+            // The sum fits in a long value
+            return BigDecimal.valueOf(low, AMOUNT_SCALE);
+        }
+        BigInteger sum = BigInteger.valueOf(high).shiftLeft(Long.SIZE).or(BigInteger.valueOf(low).and(LOW_BITS));
+        return new BigDecimal(sum, AMOUNT_SCALE);
+    }
+
+    private int allocateRow(long id) {
+        int row = rowCount++;
+        ids.ensureCapacity(rowCount);
+        parentIds.ensureCapacity(rowCount);
+        timestamps.ensureCapacity(rowCount);
+        amounts.ensureCapacity(rowCount);
+        subtreeSums.ensureCapacity(rowCount);
+        subtreeSumsHigh.ensureCapacity(rowCount);
+        attributes.ensureCapacity(rowCount);
+        childLinks.ensureCapacity(rowCount);
+        siblingLinks.ensureCapacity(rowCount);
+
+        ids.set(row, id);
+        childLinks.set(row, childLinks(NO_ROW, 0));
+        siblingLinks.set(row, siblingLinks(NO_ROW, NO_ROW));
+        rowsById.put(id, row);
+        return row;
+    }
+
+    private int nextSibling(int row) {
+        return (int) (siblingLinks.get(row) >> 32);
+    }
+
+    private int previousSibling(int row) {
+        return (int) siblingLinks.get(row);
+    }
+
+    private static long childLinks(int firstChildRow, int childCount) {
+        return ((long) firstChildRow << 32) | (childCount & 0xFFFFFFFFL);
+    }
+
+    private static long siblingLinks(int nextRow, int previousRow) {
+        return ((long) nextRow << 32) | (previousRow & 0xFFFFFFFFL);
+    }
+
+    private static long attributes(int typeOrdinal, int scale, long flags) {
+        return ((long) typeOrdinal << 16) | ((scale & 0xFFL) << 8) | flags;
+    }
+
+    private static long toCents(BigDecimal amount) {
+        try {
+            return amount.setScale(AMOUNT_SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Amount %s could not be stored in cents", amount), e);
+        }
+    }
+
+    private static BigInteger toWideCents(BigDecimal amount) {
+        BigInteger cents;
+        try {
+            cents = amount.setScale(AMOUNT_SCALE, RoundingMode.UNNECESSARY).unscaledValue();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Amount %s could not be stored in cents", amount), e);
+        }
+        if (cents.bitLength() >= 2 * Long.SIZE) {
+            throw new IllegalArgumentException(String.format("Amount %s is out of the range of a sum", amount));
+        }
+        return cents;
+    }
+}
@@ -0,0 +1,194 @@
+package com.transaction.storage;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe in memory aggregates index. The count, the sum and the histogram of a type are running totals.
+ * The minimum and the maximum could be removed by an update, so the number of transactions of every distinct amount
+ * of a type is kept in a primitive hash map by its {@link AmountKeys key}, which has no objects per amount. Only
+ * an amount which doesn't fit in a key is kept in a sorted map.
+ * <p>
+ * An update of the aggregates is O(1). When the last transaction with the minimum or the maximum amount is removed,
+ * the next read finds them again in O(distinct amounts), otherwise a read is O(1) besides the copy of
+ * the histogram.
+ *
+ * @author Diyan Yordanov
+ */
+public class InMemoryTransactionAggregatesByTypeIndex implements TransactionAggregatesByTypeIndex {
+
+    public static final BigDecimal[] DEFAULT_HISTOGRAM_BOUNDS = {BigDecimal.ZERO, BigDecimal.TEN,
+            new BigDecimal(100), new BigDecimal(1000), new BigDecimal(10000), new BigDecimal(100000)};
+
+    private final BigDecimal[] histogramBounds;
+
+    private final Map<String, Aggregates> aggregatesByType = new ConcurrentHashMap<>();
+
+    public InMemoryTransactionAggregatesByTypeIndex() {
+        this(DEFAULT_HISTOGRAM_BOUNDS);
+    }
+
+    /**
+     * @param histogramBounds - the bounds of the histogram buckets in ascending order
+     */
+    public InMemoryTransactionAggregatesByTypeIndex(BigDecimal[] histogramBounds) {
+        for (int i = 1; i < histogramBounds.length; i++) {
+            if (histogramBounds[i - 1].compareTo(histogramBounds[i]) >= 0) {
+                throw new IllegalArgumentException("The histogram bounds should be in ascending order");
+            }
+        }
+        this.histogramBounds = histogramBounds.clone();
+    }
+
+    @Override
+    public TypeAggregates get(String type) {
+        Aggregates aggregates = aggregatesByType.get(type);
+        if (aggregates == null) {
+            return new TypeAggregates(type, 0, BigDecimal.ZERO, null, null, histogramBounds,
+                    new long[histogramBounds.length + 1]);
+        }
+        synchronized (aggregates) {
+            aggregates.findExtremes();
+            return new TypeAggregates(type, aggregates.count, aggregates.sum, aggregates.min(), aggregates.max(),
+                    histogramBounds, aggregates.histogram.clone());
+        }
+    }
+
+    @Override
+    public void add(Transaction transaction) {
+        Aggregates aggregates = aggregatesByType.computeIfAbsent(transaction.getType(),
+                type -> new Aggregates(histogramBounds.length + 1));
+        BigDecimal amount = transaction.getAmount();
+        int bucket = bucket(amount);
+        long key = AmountKeys.toKey(amount);
+        synchronized (aggregates) {
+            aggregates.count++;
+            aggregates.sum = aggregates.sum.add(amount);
+            if (key != AmountKeys.NO_KEY) {
+                aggregates.addAmount(key);
+            } else {
+                aggregates.largeAmounts().merge(amount, 1L, Long::sum);
+            }
+            aggregates.histogram[bucket]++;
+        }
+    }
+
+    @Override
+    public void remove(Transaction transaction) {
+        Aggregates aggregates = aggregatesByType.get(transaction.getType());
+        BigDecimal amount = transaction.getAmount();
+        int bucket = bucket(amount);
+        long key = AmountKeys.toKey(amount);
+        synchronized (aggregates) {
+            aggregates.count--;
+            aggregates.sum = aggregates.sum.subtract(amount);
+            if (key != AmountKeys.NO_KEY) {
+                aggregates.removeAmount(key);
+            } else {
+                aggregates.largeAmounts().computeIfPresent(amount, (large, count) -> count > 1 ? count - 1 : null);
+            }
+            aggregates.histogram[bucket]--;
+        }
+    }
+
+    private int bucket(BigDecimal amount) {
+        int index = Arrays.binarySearch(histogramBounds, amount);
+        // A bound belongs to the bucket after it
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private static final class Aggregates {
+
+        // The number of transactions by the key of their amount
+        private final LongIntHashMap countsByAmount = new LongIntHashMap(16);
+
+        // The amounts which don't fit in a key, null until there is one
+        private TreeMap<BigDecimal, Long> largeAmounts;
+
+        private long minKey;
+
+        private long maxKey;
+
+        // Set when the last transaction with the min or the max key is removed
+        private boolean extremesStale;
+
+        private final long[] histogram;
+
+        private long count;
+
+        private BigDecimal sum = BigDecimal.ZERO;
+
+        Aggregates(int bucketCount) {
+            this.histogram = new long[bucketCount];
+        }
+
+        void addAmount(long key) {
+            int keyCount = countsByAmount.get(key);
+            if (countsByAmount.size() == 0) {
+                minKey = key;
+                maxKey = key;
+                extremesStale = false;
+            } else if (!extremesStale) {
+                minKey = Math.min(minKey, key);
+                maxKey = Math.max(maxKey, key);
+            }
+            countsByAmount.put(key, keyCount == LongIntHashMap.NO_VALUE ? 1 : keyCount + 1);
+        }
+
+        void removeAmount(long key) {
+            int keyCount = countsByAmount.get(key);
+            if (keyCount > 1) {
+                countsByAmount.put(key, keyCount - 1);
+            } else if (keyCount == 1) {
+                countsByAmount.remove(key);
+                if (key == minKey || key == maxKey) {
+                    extremesStale = true;
+                }
+            }
+        }
+
+        /**
+         * Find the min and the max key again after the last transaction with one of them is removed
+         */
+        void findExtremes() {
+            if (!extremesStale) {
+                return;
+            }
+            minKey = Long.MAX_VALUE;
+            maxKey = Long.MIN_VALUE;
+            countsByAmount.forEachKey(key -> {
+                minKey = Math.min(minKey, key);
+                maxKey = Math.max(maxKey, key);
+            });
+            extremesStale = false;
+        }
+
+        BigDecimal min() {
+            BigDecimal min = countsByAmount.size() > 0 ? AmountKeys.toAmount(minKey) : null;
+            if (largeAmounts != null && !largeAmounts.isEmpty()
+                    && (min == null || largeAmounts.firstKey().compareTo(min) < 0)) {
+                min = largeAmounts.firstKey();
+            }
+            return min;
+        }
+
+        BigDecimal max() {
+            BigDecimal max = countsByAmount.size() > 0 ? AmountKeys.toAmount(maxKey) : null;
+            if (largeAmounts != null && !largeAmounts.isEmpty()
+                    && (max == null || largeAmounts.lastKey().compareTo(max) > 0)) {
+                max = largeAmounts.lastKey();
+            }
+            return max;
+        }
+
+        TreeMap<BigDecimal, Long> largeAmounts() {
+            if (largeAmounts == null) {
+                largeAmounts = new TreeMap<>();
+            }
+            return largeAmounts;
+        }
+    }
+}
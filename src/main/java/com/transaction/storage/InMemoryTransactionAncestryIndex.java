@@ -0,0 +1,211 @@
+package com.transaction.storage;
+
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread safe in memory ancestry index. Every transaction has a row with its ID and the row of its parent, so
+ * walking the ancestors doesn't look up the IDs and doesn't need any objects.
+ * <p>
+ * The depths are not kept up to date, as moving a transaction would change the depths of its whole subtree. A long
+ * chain linked from its bottom would cost O(n^2) then. Adding and moving a transaction is O(1) and the lineage
+ * queries are O(depth) instead. Reads share a lock and writes take it exclusively.
+ * <p>
+ * Only for the max depth, the depth of a transaction is kept in the upper half of its parent row, which is an int
+ * in a long column. A new transaction gets the depth of its parent plus one and the max depth is updated, so
+ * the max depth is O(1). A move makes the stored depths stale, then the next read of the max depth recomputes them
+ * in O(n).
+ *
+ * @author Diyan Yordanov
+ */
+@Repository
+public class InMemoryTransactionAncestryIndex implements TransactionAncestryIndex {
+
+    private static final int NO_ROW = LongIntHashMap.NO_VALUE;
+
+    private final LongIntHashMap rowsById = new LongIntHashMap(1024);
+
+    private final LongColumn ids = LongColumn.onHeap();
+
+    private final LongColumn parentRows = LongColumn.onHeap();
+
+    private int rowCount;
+
+    private int maxDepth;
+
+    // Set by a move, cleared by the read of the max depth which recomputes the depths
+    private volatile boolean depthsStale;
+
+    // Serializes the recomputations of the depths, which run under the shared lock
+    private final Object recomputeMonitor = new Object();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void save(long id, Long parentId) {
+        lock.writeLock().lock();
+        try {
+            int parentRow = parentId != null ? rowsById.get(parentId) : NO_ROW;
+            if (parentId != null && parentRow == NO_ROW) {
+                throw new IllegalStateException(String.format("Parent %d is not indexed", parentId));
+            }
+
+            int row = rowsById.get(id);
+            if (row == NO_ROW) {
+                row = rowCount++;
+                ids.ensureCapacity(rowCount);
+                parentRows.ensureCapacity(rowCount);
+                ids.set(row, id);
+                rowsById.put(id, row);
+                int depth = parentRow != NO_ROW ? storedDepth(parentRow) + 1 : 0;
+                maxDepth = Math.max(maxDepth, depth);
+                setParentRow(row, parentRow, depth);
+            } else if (parentRow(row) != parentRow) {
+                depthsStale = true;
+                setParentRow(row, parentRow, 0);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int getDepth(long id) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(id);
+            return row != NO_ROW ? depth(row) : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] getAncestorIds(long id) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(id);
+            if (row == NO_ROW) {
+                return null;
+            }
+            long[] ancestorIds = new long[depth(row)];
+            for (int i = 0; i < ancestorIds.length; i++) {
+                row = parentRow(row);
+                ancestorIds[i] = ids.get(row);
+            }
+            return ancestorIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Long getRootId(long id) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(id);
+            if (row == NO_ROW) {
+                return null;
+            }
+            while (parentRow(row) != NO_ROW) {
+                row = parentRow(row);
+            }
+            return ids.get(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isInSubtree(long id, long ancestorId) {
+        lock.readLock().lock();
+        try {
+            int ancestorRow = rowsById.get(ancestorId);
+            if (ancestorRow == NO_ROW) {
+                return false;
+            }
+            for (int row = rowsById.get(id); row != NO_ROW; row = parentRow(row)) {
+                if (row == ancestorRow) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getMaxDepth() {
+        lock.readLock().lock();
+        try {
+            if (!depthsStale) {
+                return maxDepth;
+            }
+            synchronized (recomputeMonitor) {
+                if (depthsStale) {
+                    recomputeDepths();
+                }
+                return maxDepth;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recompute the stored depths and the max depth after a move. The caller should hold the shared lock, so
+     * the parent rows are not changed, and the recompute monitor.
+     */
+    private void recomputeDepths() {
+        // Every row is walked only up to the first ancestor with a known depth, so it is O(n) for all rows
+        int[] depths = new int[rowCount];
+        Arrays.fill(depths, -1);
+        int[] path = new int[16];
+        int recomputedMaxDepth = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int pathLength = 0;
+            int ancestorRow = row;
+            while (ancestorRow != NO_ROW && depths[ancestorRow] < 0) {
+                if (pathLength == path.length) {
+                    path = Arrays.copyOf(path, pathLength * 2);
+                }
+                path[pathLength++] = ancestorRow;
+                ancestorRow = parentRow(ancestorRow);
+            }
+            int depth = ancestorRow != NO_ROW ? depths[ancestorRow] : -1;
+            while (pathLength > 0) {
+                depths[path[--pathLength]] = ++depth;
+            }
+            recomputedMaxDepth = Math.max(recomputedMaxDepth, depths[row]);
+        }
+        for (int row = 0; row < rowCount; row++) {
+            setParentRow(row, parentRow(row), depths[row]);
+        }
+        maxDepth = recomputedMaxDepth;
+        depthsStale = false;
+    }
+
+    private int depth(int row) {
+        int depth = 0;
+        for (row = parentRow(row); row != NO_ROW; row = parentRow(row)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private int parentRow(int row) {
+        return (int) parentRows.get(row);
+    }
+
+    private int storedDepth(int row) {
+        return (int) (parentRows.get(row) >>> 32);
+    }
+
+    private void setParentRow(int row, int parentRow, int depth) {
+        parentRows.set(row, (long) depth << 32 | parentRow & 0xFFFFFFFFL);
+    }
+}
@@ -2,35 +2,79 @@ package com.transaction.storage;
 
 import org.springframework.stereotype.Repository;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Thread safe in memory index. Stores IDs list per type in a HashMap.
+ * Thread safe in memory index. Stores a compressed bitmap of IDs per type in a HashMap.
+ * A bitmap needs about 2 bytes per ID when many IDs share a chunk of 65536 values and even less for dense ones.
+ * Every chunk costs about 100 bytes on its own though, so the IDs which are spread in different chunks need about
+ * 100 bytes per ID.
  *
  * @author Diyan Yordanov
  */
 @Repository
 public class InMemoryTransactionIdsByTypeIndex implements TransactionIdsByTypeIndex {
 
-    private Map<String, Set<Long>> transactionIdsByTypeMap = new ConcurrentHashMap<>();
+    private static final long[] NO_IDS = new long[0];
+
+    private Map<String, LongBitmap> transactionIdsByTypeMap = new ConcurrentHashMap<>();
+
+    @Override
+    public long[] getIds(String type, Long afterId, int limit) {
+        LongBitmap ids = transactionIdsByTypeMap.get(type);
+        if (ids == null || afterId != null && afterId == Long.MAX_VALUE) {
+            return NO_IDS;
+        }
+
+        long[] buffer;
+        int count;
+        synchronized (ids) {
+            buffer = new long[(int) Math.min(limit, ids.cardinality())];
+            count = ids.copyValues(afterId != null ? afterId + 1 : Long.MIN_VALUE, buffer);
+        }
+        return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+    }
+
+    @Override
+    public long count(String type) {
+        LongBitmap ids = transactionIdsByTypeMap.get(type);
+        if (ids == null) {
+            return 0;
+        }
+        synchronized (ids) {
+            return ids.cardinality();
+        }
+    }
 
     @Override
-    public Set<Long> getIds(String type) {
-        return transactionIdsByTypeMap.get(type);
+    public int typeCount() {
+        // The bitmap of a type is kept when all its IDs are removed
+        int typeCount = 0;
+        for (LongBitmap ids : transactionIdsByTypeMap.values()) {
+            synchronized (ids) {
+                if (ids.cardinality() > 0) {
+                    typeCount++;
+                }
+            }
+        }
+        return typeCount;
     }
 
     @Override
     public void save(Transaction transaction) {
-        transactionIdsByTypeMap.putIfAbsent(transaction.getType(), Collections.synchronizedSet(new HashSet<>()));
-        transactionIdsByTypeMap.get(transaction.getType()).add(transaction.getId());
+        LongBitmap ids = transactionIdsByTypeMap.computeIfAbsent(transaction.getType(), type -> new LongBitmap());
+        synchronized (ids) {
+            ids.add(transaction.getId());
+        }
     }
 
     @Override
     public void removeId(Transaction transaction) {
-        transactionIdsByTypeMap.get(transaction.getType()).remove(transaction.getId());
+        LongBitmap ids = transactionIdsByTypeMap.get(transaction.getType());
+        synchronized (ids) {
+            ids.remove(transaction.getId());
+        }
     }
 }
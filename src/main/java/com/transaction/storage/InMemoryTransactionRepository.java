@@ -1,16 +1,15 @@
 package com.transaction.storage;
 
-import org.springframework.stereotype.Repository;
-
+import java.math.BigDecimal;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Concurrent safe in memory transaction storage which stores transactions in a HashMap
  *
  * @author Diyan Yordanov
  */
-@Repository
 public class InMemoryTransactionRepository implements TransactionRepository {
 
     // Store transactions as a HashMap in order to achieve a fast access by key - O(1)
@@ -20,7 +19,15 @@ public class InMemoryTransactionRepository implements TransactionRepository {
 
     @Override
     public void save(Transaction transaction) {
-        transactionStorage.put(transaction.getId(), transaction);
+        // The new transaction replaces the old one under the lock of the map entry, so a concurrent
+        // update of the subtree sum or the children of the old transaction could not be lost
+        transactionStorage.compute(transaction.getId(), (id, oldTransaction) -> {
+            if (oldTransaction != null && oldTransaction != transaction) {
+                transaction.setChildren(oldTransaction.getChildren());
+                transaction.setSubtreeSum(oldTransaction.getSubtreeSum());
+            }
+            return transaction;
+        });
     }
 
     @Override
@@ -28,4 +35,49 @@ public class InMemoryTransactionRepository implements TransactionRepository {
         return transactionStorage.get(id);
     }
 
+    @Override
+    public Transaction[] readAll(long[] ids) {
+        Transaction[] transactions = new Transaction[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            transactions[i] = transactionStorage.get(ids[i]);
+        }
+        return transactions;
+    }
+
+    @Override
+    public void forEach(Consumer<Transaction> consumer) {
+        transactionStorage.values().forEach(consumer);
+    }
+
+    @Override
+    public long size() {
+        return transactionStorage.size();
+    }
+
+    @Override
+    public long[] getChildIds(Long id) {
+        return transactionStorage.get(id).getChildren().toArray();
+    }
+
+    @Override
+    public void addChild(Long parentId, Long childId) {
+        transactionStorage.get(parentId).getChildren().add(childId);
+    }
+
+    @Override
+    public void removeChild(Long parentId, Long childId) {
+        transactionStorage.get(parentId).getChildren().remove(childId);
+    }
+
+    @Override
+    public void addToSubtreeSums(Long id, BigDecimal delta) {
+        while (id != null) {
+            Transaction transaction = transactionStorage.computeIfPresent(id, (transactionId, stored) -> {
+                stored.setSubtreeSum(stored.getSubtreeSum().add(delta));
+                return stored;
+            });
+            id = transaction.getParentId();
+        }
+    }
+
 }
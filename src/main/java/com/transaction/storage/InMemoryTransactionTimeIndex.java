@@ -0,0 +1,266 @@
+package com.transaction.storage;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread safe in memory time index. The transactions of every type are split into buckets by their creation time,
+ * every bucket covers a fixed number of milliseconds. The buckets of a type are kept in a sorted map, so the buckets
+ * of a window are found in O(log(buckets)) and the transactions outside of the window are never visited.
+ * <p>
+ * A bucket keeps its transactions in primitive arrays sorted by the time and the ID, together with the count and
+ * the sum of their amounts. The amounts are stored as {@link AmountKeys keys} of their cents and scale, so there are
+ * no objects per transaction. Only an amount which doesn't fit in a key is kept in a map by the transaction ID.
+ * The transactions are created mostly in the order of their time, so a transaction is usually appended at the end
+ * of the last bucket. The aggregates of a window use the totals of the buckets which are fully in the window and
+ * visit only the transactions of the two buckets at its edges.
+ * <p>
+ * The buckets of a type are guarded by a read write lock of the type.
+ *
+ * @author Diyan Yordanov
+ */
+public class InMemoryTransactionTimeIndex implements TransactionTimeIndex {
+
+    public static final long DEFAULT_BUCKET_MILLIS = 60_000;
+
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    private final long bucketMillis;
+
+    private final Map<String, Timeline> timelines = new ConcurrentHashMap<>();
+
+    public InMemoryTransactionTimeIndex() {
+        this(DEFAULT_BUCKET_MILLIS);
+    }
+
+    /**
+     * @param bucketMillis - the time covered by a bucket in milliseconds
+     */
+    public InMemoryTransactionTimeIndex(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("The bucket time should be positive");
+        }
+        this.bucketMillis = bucketMillis;
+    }
+
+    @Override
+    public long[] getIds(String type, long from, long to, int limit) {
+        Timeline timeline = timelines.get(type);
+        if (timeline == null || from >= to) {
+            return new long[0];
+        }
+        long[] ids = new long[Math.min(limit, INITIAL_BUCKET_CAPACITY)];
+        int count = 0;
+        timeline.lock.readLock().lock();
+        try {
+            for (Bucket bucket : bucketsOf(timeline, from, to).values()) {
+                int start = bucket.lowerBound(from);
+                int end = start + Math.min(bucket.lowerBound(to) - start, limit - count);
+                if (count + end - start > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(count + end - start, Math.min(limit, ids.length * 2)));
+                }
+                System.arraycopy(bucket.ids, start, ids, count, end - start);
+                count += end - start;
+                if (count == limit) {
+                    break;
+                }
+            }
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    @Override
+    public TimeWindowAggregates getAggregates(String type, long from, long to) {
+        Timeline timeline = timelines.get(type);
+        if (timeline == null || from >= to) {
+            return new TimeWindowAggregates(type, from, to, 0, BigDecimal.ZERO);
+        }
+        long count = 0;
+        BigDecimal sum = BigDecimal.ZERO;
+        timeline.lock.readLock().lock();
+        try {
+            for (Map.Entry<Long, Bucket> entry : bucketsOf(timeline, from, to).entrySet()) {
+                Bucket bucket = entry.getValue();
+                long bucketStart = entry.getKey() * bucketMillis;
+                if (bucketStart >= from && bucketStart + bucketMillis <= to) {
+                    count += bucket.size;
+                    sum = sum.add(bucket.sum);
+                } else {
+                    int start = bucket.lowerBound(from);
+                    int end = bucket.lowerBound(to);
+                    count += end - start;
+                    sum = sum.add(bucket.sum(start, end));
+                }
+            }
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+        return new TimeWindowAggregates(type, from, to, count, sum);
+    }
+
+    @Override
+    public void add(Transaction transaction) {
+        Timeline timeline = timelines.computeIfAbsent(transaction.getType(), type -> new Timeline());
+        long timestamp = transaction.getTimestamp();
+        timeline.lock.writeLock().lock();
+        try {
+            timeline.buckets.computeIfAbsent(Math.floorDiv(timestamp, bucketMillis), key -> new Bucket())
+                    .add(timestamp, transaction.getId(), transaction.getAmount());
+        } finally {
+            timeline.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Transaction transaction) {
+        Timeline timeline = timelines.get(transaction.getType());
+        if (timeline == null) {
+            return;
+        }
+        long timestamp = transaction.getTimestamp();
+        long key = Math.floorDiv(timestamp, bucketMillis);
+        timeline.lock.writeLock().lock();
+        try {
+            Bucket bucket = timeline.buckets.get(key);
+            if (bucket != null && bucket.remove(timestamp, transaction.getId()) && bucket.size == 0) {
+                timeline.buckets.remove(key);
+            }
+        } finally {
+            timeline.lock.writeLock().unlock();
+        }
+    }
+
+    private NavigableMap<Long, Bucket> bucketsOf(Timeline timeline, long from, long to) {
+        return timeline.buckets.subMap(Math.floorDiv(from, bucketMillis), true,
+                Math.floorDiv(to - 1, bucketMillis), true);
+    }
+
+    private static final class Timeline {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final NavigableMap<Long, Bucket> buckets = new TreeMap<>();
+    }
+
+    /**
+     * Transactions sorted by the time and the ID
+     */
+    private static final class Bucket {
+
+        private long[] timestamps = new long[INITIAL_BUCKET_CAPACITY];
+
+        private long[] ids = new long[INITIAL_BUCKET_CAPACITY];
+
+        // The keys of the amounts
+        private long[] amounts = new long[INITIAL_BUCKET_CAPACITY];
+
+        // The amounts which don't fit in a key by the transaction ID, null until there is one
+        private Map<Long, BigDecimal> largeAmounts;
+
+        private int size;
+
+        private BigDecimal sum = BigDecimal.ZERO;
+
+        void add(long timestamp, long id, BigDecimal amount) {
+            if (size == ids.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+            }
+            // Usually the last one, so it doesn't move any transaction
+            int index = size;
+            while (index > 0 && compare(timestamps[index - 1], ids[index - 1], timestamp, id) > 0) {
+                index--;
+            }
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(amounts, index, amounts, index + 1, size - index);
+            timestamps[index] = timestamp;
+            ids[index] = id;
+            amounts[index] = AmountKeys.toKey(amount);
+            if (amounts[index] == AmountKeys.NO_KEY) {
+                if (largeAmounts == null) {
+                    largeAmounts = new HashMap<>();
+                }
+                largeAmounts.put(id, amount);
+            }
+            size++;
+            sum = sum.add(amount);
+        }
+
+        boolean remove(long timestamp, long id) {
+            int index = lowerBound(timestamp);
+            while (index < size && timestamps[index] == timestamp && ids[index] != id) {
+                index++;
+            }
+            if (index == size || timestamps[index] != timestamp) {
+                return false;
+            }
+            sum = sum.subtract(amounts[index] != AmountKeys.NO_KEY ? AmountKeys.toAmount(amounts[index])
+                    : largeAmounts.remove(id));
+            size--;
+            System.arraycopy(timestamps, index + 1, timestamps, index, size - index);
+            System.arraycopy(ids, index + 1, ids, index, size - index);
+            System.arraycopy(amounts, index + 1, amounts, index, size - index);
+            return true;
+        }
+
+        /**
+         * @return the sum of the amounts of the transactions from the start index inclusive to the end index
+         * exclusive. The cents are added as long values and the scale of the sum is the max scale of the amounts,
+         * as if the amounts were added one by one.
+         */
+        BigDecimal sum(int start, int end) {
+            BigDecimal sum = BigDecimal.ZERO;
+            long cents = 0;
+            int scale = 0;
+            for (int i = start; i < end; i++) {
+                if (amounts[i] == AmountKeys.NO_KEY) {
+                    sum = sum.add(largeAmounts.get(ids[i]));
+                    continue;
+                }
+                long amountCents = AmountKeys.cents(amounts[i]);
+                long nextCents = cents + amountCents;
+                if (((cents ^ nextCents) & (amountCents ^ nextCents)) < 0) {
+                    // The long sum overflows, the cents added so far have up to the scale of the amounts before
+                    sum = sum.add(BigDecimal.valueOf(cents, 2).setScale(scale));
+                    nextCents = amountCents;
+                }
+                cents = nextCents;
+                scale = Math.max(scale, AmountKeys.scale(amounts[i]));
+            }
+            return sum.add(BigDecimal.valueOf(cents, 2).setScale(scale));
+        }
+
+        /**
+         * @return the index of the first transaction created at or after the time
+         */
+        int lowerBound(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamps[middle] < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static int compare(long timestamp, long id, long otherTimestamp, long otherId) {
+            int result = Long.compare(timestamp, otherTimestamp);
+            return result != 0 ? result : Long.compare(id, otherId);
+        }
+    }
+}
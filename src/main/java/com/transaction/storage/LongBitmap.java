@@ -0,0 +1,239 @@
+package com.transaction.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compressed bitmap of long values in the spirit of the Roaring bitmaps. The values are split in chunks by their
+ * high 48 bits and the low 16 bits of every value are stored in a container for its chunk. A sparse chunk is a
+ * sorted array of 16 bit values - 2 bytes per value, a dense chunk is a bitmap of 65536 bits - 8KB per chunk.
+ * Every chunk has an overhead of about 100 bytes for its tree map entry, its key and its container, so a value
+ * which is alone in its chunk costs about 100 bytes.
+ * <p>
+ * The values are iterated in ascending order. The implementation is not thread safe.
+ *
+ * @author Diyan Yordanov
+ */
+public class LongBitmap {
+
+    // A sorted array container is converted to a bitmap when it grows over this size and back when it shrinks
+    private static final int MAX_ARRAY_CONTAINER_SIZE = 4096;
+
+    private static final int CHUNK_BITS = 16;
+
+    private static final long LOW_BITS_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final TreeMap<Long, Container> containers = new TreeMap<>();
+
+    private long cardinality;
+
+    /**
+     * Add a value to the bitmap
+     *
+     * @param value - the value to be added
+     * @return true if the value was not in the bitmap
+     */
+    public boolean add(long value) {
+        long key = value >> CHUNK_BITS;
+        Container container = containers.get(key);
+        if (container == null) {
+            container = new ArrayContainer();
+            containers.put(key, container);
+        }
+        int lowBits = (int) (value & LOW_BITS_MASK);
+        if (container.contains(lowBits)) {
+            return false;
+        }
+        if (container instanceof ArrayContainer && container.cardinality() == MAX_ARRAY_CONTAINER_SIZE) {
+            container = ((ArrayContainer) container).toBitmapContainer();
+            containers.put(key, container);
+        }
+        container.add(lowBits);
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Remove a value from the bitmap
+     *
+     * @param value - the value to be removed
+     * @return true if the value was in the bitmap
+     */
+    public boolean remove(long value) {
+        long key = value >> CHUNK_BITS;
+        Container container = containers.get(key);
+        int lowBits = (int) (value & LOW_BITS_MASK);
+        if (container == null || !container.contains(lowBits)) {
+            return false;
+        }
+        container.remove(lowBits);
+        cardinality--;
+        if (container.cardinality() == 0) {
+            containers.remove(key);
+        } else if (container instanceof BitmapContainer && container.cardinality() <= MAX_ARRAY_CONTAINER_SIZE / 2) {
+            containers.put(key, ((BitmapContainer) container).toArrayContainer());
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        Container container = containers.get(value >> CHUNK_BITS);
+        return container != null && container.contains((int) (value & LOW_BITS_MASK));
+    }
+
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Copy the values greater than or equal to a given value in ascending order
+     *
+     * @param fromValue - the smallest value to be copied
+     * @param buffer    - the values are copied to the beginning of this buffer until it is full
+     * @return the number of the copied values
+     */
+    public int copyValues(long fromValue, long[] buffer) {
+        int count = 0;
+        long fromKey = fromValue >> CHUNK_BITS;
+        for (Map.Entry<Long, Container> entry : containers.tailMap(fromKey, true).entrySet()) {
+            if (count == buffer.length) {
+                break;
+            }
+            long key = entry.getKey();
+            int fromLowBits = key == fromKey ? (int) (fromValue & LOW_BITS_MASK) : 0;
+            count = entry.getValue().copyValues(key << CHUNK_BITS, fromLowBits, buffer, count);
+        }
+        return count;
+    }
+
+    private interface Container {
+
+        boolean contains(int lowBits);
+
+        void add(int lowBits);
+
+        void remove(int lowBits);
+
+        int cardinality();
+
+        /**
+         * Copy the values with low bits greater than or equal to fromLowBits to the buffer starting from offset
+         *
+         * @return the new offset in the buffer
+         */
+        int copyValues(long highBits, int fromLowBits, long[] buffer, int offset);
+    }
+
+    private static class ArrayContainer implements Container {
+
+        private char[] values = new char[4];
+
+        private int size;
+
+        @Override
+        public boolean contains(int lowBits) {
+            return Arrays.binarySearch(values, 0, size, (char) lowBits) >= 0;
+        }
+
+        @Override
+        public void add(int lowBits) {
+            int index = -Arrays.binarySearch(values, 0, size, (char) lowBits) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, MAX_ARRAY_CONTAINER_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = (char) lowBits;
+            size++;
+        }
+
+        @Override
+        public void remove(int lowBits) {
+            int index = Arrays.binarySearch(values, 0, size, (char) lowBits);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public int copyValues(long highBits, int fromLowBits, long[] buffer, int offset) {
+            int index = Arrays.binarySearch(values, 0, size, (char) fromLowBits);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (; index < size && offset < buffer.length; index++) {
+                buffer[offset++] = highBits | values[index];
+            }
+            return offset;
+        }
+
+        BitmapContainer toBitmapContainer() {
+            BitmapContainer container = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                container.add(values[i]);
+            }
+            return container;
+        }
+    }
+
+    private static class BitmapContainer implements Container {
+
+        private final long[] words = new long[1 << (CHUNK_BITS - 6)];
+
+        private int cardinality;
+
+        @Override
+        public boolean contains(int lowBits) {
+            return (words[lowBits >>> 6] & (1L << lowBits)) != 0;
+        }
+
+        @Override
+        public void add(int lowBits) {
+            words[lowBits >>> 6] |= 1L << lowBits;
+            cardinality++;
+        }
+
+        @Override
+        public void remove(int lowBits) {
+            words[lowBits >>> 6] &= ~(1L << lowBits);
+            cardinality--;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public int copyValues(long highBits, int fromLowBits, long[] buffer, int offset) {
+            int wordIndex = fromLowBits >>> 6;
+            // Skip the bits lower than fromLowBits in the first word
+            long word = words[wordIndex] & (-1L << fromLowBits);
+            while (offset < buffer.length) {
+                if (word != 0) {
+                    buffer[offset++] = highBits | (wordIndex << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                } else if (++wordIndex < words.length) {
+                    word = words[wordIndex];
+                } else {
+                    break;
+                }
+            }
+            return offset;
+        }
+
+        ArrayContainer toArrayContainer() {
+            ArrayContainer container = new ArrayContainer();
+            long[] buffer = new long[cardinality];
+            copyValues(0, 0, buffer, 0);
+            for (long value : buffer) {
+                container.add((int) value);
+            }
+            return container;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.transaction.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable column of primitive long values addressed by row. The values are stored in fixed size chunks,
+ * so growing the column never copies the stored values. The chunks are either long arrays on the heap
+ * or direct byte buffers outside of the heap, where they are not scanned by the garbage collector.
+ * <p>
+ * The implementation is not thread safe.
+ *
+ * @author Diyan Yordanov
+ */
+public abstract class LongColumn {
+
+    static final int CHUNK_BITS = 16;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Create a column which stores its values in long arrays on the heap
+     */
+    public static LongColumn onHeap() {
+        return new HeapLongColumn();
+    }
+
+    /**
+     * Create a column which stores its values in direct byte buffers outside of the heap
+     */
+    public static LongColumn offHeap() {
+        return new OffHeapLongColumn();
+    }
+
+    /**
+     * Read the value of a row
+     *
+     * @param row - the row which should be already allocated by {@link #ensureCapacity(int)}
+     * @return the value of the row
+     */
+    public abstract long get(int row);
+
+    /**
+     * Set the value of a row
+     *
+     * @param row   - the row which should be already allocated by {@link #ensureCapacity(int)}
+     * @param value - the new value of the row
+     */
+    public abstract void set(int row, long value);
+
+    /**
+     * Allocate chunks until the column could hold the given number of rows
+     *
+     * @param rows - the number of rows
+     */
+    public abstract void ensureCapacity(int rows);
+
+    private static class HeapLongColumn extends LongColumn {
+
+        private long[][] chunks = new long[0][];
+
+        @Override
+        public long get(int row) {
+            return chunks[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        }
+
+        @Override
+        public void set(int row, long value) {
+            chunks[row >>> CHUNK_BITS][row & CHUNK_MASK] = value;
+        }
+
+        @Override
+        public void ensureCapacity(int rows) {
+            int chunkCount = (rows + CHUNK_MASK) >>> CHUNK_BITS;
+            if (chunkCount > chunks.length) {
+                int oldChunkCount = chunks.length;
+                chunks = Arrays.copyOf(chunks, chunkCount);
+                for (int i = oldChunkCount; i < chunkCount; i++) {
+                    chunks[i] = new long[CHUNK_SIZE];
+                }
+            }
+        }
+    }
+
+    private static class OffHeapLongColumn extends LongColumn {
+
+        private LongBuffer[] chunks = new LongBuffer[0];
+
+        @Override
+        public long get(int row) {
+            return chunks[row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+        }
+
+        @Override
+        public void set(int row, long value) {
+            chunks[row >>> CHUNK_BITS].put(row & CHUNK_MASK, value);
+        }
+
+        @Override
+        public void ensureCapacity(int rows) {
+            int chunkCount = (rows + CHUNK_MASK) >>> CHUNK_BITS;
+            if (chunkCount > chunks.length) {
+                int oldChunkCount = chunks.length;
+                chunks = Arrays.copyOf(chunks, chunkCount);
+                for (int i = oldChunkCount; i < chunkCount; i++) {
+                    chunks[i] = ByteBuffer.allocateDirect(CHUNK_SIZE * Long.BYTES)
+                            .order(ByteOrder.nativeOrder())
+                            .asLongBuffer();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.transaction.storage;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing hash map with primitive long keys and non negative int values. It uses linear probing over
+ * two parallel arrays, so there are no boxed keys and no entry objects.
+ * <p>
+ * The implementation is not thread safe.
+ *
+ * @author Diyan Yordanov
+ */
+public class LongIntHashMap {
+
+    public static final int NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+
+    // The value + 1 is stored, so 0 marks a free slot
+    private int[] values;
+
+    private int size;
+
+    private int resizeThreshold;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Get the value for a key
+     *
+     * @param key - the key to be looked up
+     * @return the value or {@link #NO_VALUE} if the key is not found
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Put a value for a key
+     *
+     * @param key   - the key
+     * @param value - non negative value
+     */
+    public void put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should not be negative");
+        }
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (values[i] != 0) {
+            if (keys[i] == key) {
+                values[i] = value + 1;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value + 1;
+        if (++size > resizeThreshold) {
+            resize();
+        }
+    }
+
+    /**
+     * Remove a key. The following entries of its probe sequence are shifted back, so there are no tombstones.
+     *
+     * @param key - the key to be removed
+     * @return the removed value or {@link #NO_VALUE} if the key is not found
+     */
+    public int remove(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int value = values[i] - 1;
+                int free = i;
+                for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+                    // An entry could be moved to the free slot only if the slot is not before its home slot
+                    if (((j - index(keys[j], mask)) & mask) >= ((j - free) & mask)) {
+                        keys[free] = keys[j];
+                        values[free] = values[j];
+                        free = j;
+                    }
+                }
+                values[free] = 0;
+                size--;
+                return value;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visit all keys in no particular order
+     *
+     * @param consumer - visits every key
+     */
+    public void forEachKey(LongConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                consumer.accept(keys[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new int[oldValues.length << 1];
+        resizeThreshold = (int) (keys.length * LOAD_FACTOR);
+
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != 0) {
+                int i = index(oldKeys[j], mask);
+                while (values[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int index(long key, int mask) {
+        // Mix the bits as sequential ids would otherwise fill neighbour slots
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,50 @@
+package com.transaction.storage;
+
+import java.math.BigDecimal;
+
+/**
+ * Aggregates of the amounts of the transactions of a type which are created in a time window. The window starts
+ * at its from time inclusive and ends at its to time exclusive, both in milliseconds since the epoch.
+ *
+ * @author Diyan Yordanov
+ */
+public class TimeWindowAggregates {
+
+    private final String type;
+
+    private final long from;
+
+    private final long to;
+
+    private final long count;
+
+    private final BigDecimal sum;
+
+    public TimeWindowAggregates(String type, long from, long to, long count, BigDecimal sum) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.count = count;
+        this.sum = sum;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getSum() {
+        return sum;
+    }
+}
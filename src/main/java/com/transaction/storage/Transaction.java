@@ -4,9 +4,6 @@ import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.constraints.NotNull;
 import java.math.BigDecimal;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * Java bean which represents a transaction in the domain logic
@@ -26,10 +23,19 @@ public class Transaction {
 
     private Long parentId;
 
-    private Set<Transaction> children;
+    // The time when the transaction was created in milliseconds since the epoch. It is set by the service
+    // and it is kept by the updates.
+    private Long timestamp;
+
+    // The IDs of the direct children, kept by the repository across the updates of the transaction
+    private ChildIds children;
+
+    // Sum of the amount of this transaction and all transactions transitively linked to it.
+    // Maintained by the service on write, so it could be read without walking the children.
+    private volatile BigDecimal subtreeSum;
 
     public Transaction() {
-        children = Collections.synchronizedSet(new HashSet<>());
+        children = new ChildIds();
     }
 
     public Transaction(Long id, BigDecimal amount, String type, Long parentId) {
@@ -37,7 +43,7 @@ public class Transaction {
         this.amount = amount;
         this.type = type;
         this.parentId = parentId;
-        children = Collections.synchronizedSet(new HashSet<>());
+        children = new ChildIds();
     }
 
     public Long getId() {
@@ -72,14 +78,30 @@ public class Transaction {
         this.parentId = parentId;
     }
 
-    public Set<Transaction> getChildren() {
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public ChildIds getChildren() {
         return children;
     }
 
-    public void setChildren(Set<Transaction> children) {
+    public void setChildren(ChildIds children) {
         this.children = children;
     }
 
+    public BigDecimal getSubtreeSum() {
+        return subtreeSum;
+    }
+
+    public void setSubtreeSum(BigDecimal subtreeSum) {
+        this.subtreeSum = subtreeSum;
+    }
+
     @Override
     public String toString() {
         return "Transaction{" +
@@ -87,6 +109,7 @@ public class Transaction {
                 ", amount=" + amount +
                 ", type='" + type + '\'' +
                 ", parentId=" + parentId +
+                ", timestamp=" + timestamp +
                 '}';
     }
 
@@ -100,8 +123,7 @@ public class Transaction {
         if (id != null ? !id.equals(that.id) : that.id != null) return false;
         if (amount != null ? !amount.equals(that.amount) : that.amount != null) return false;
         if (type != null ? !type.equals(that.type) : that.type != null) return false;
-        if (parentId != null ? !parentId.equals(that.parentId) : that.parentId != null) return false;
-        return children.equals(that.children);
+        return parentId != null ? parentId.equals(that.parentId) : that.parentId == null;
 
     }
 
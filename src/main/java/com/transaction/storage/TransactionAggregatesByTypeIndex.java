@@ -0,0 +1,32 @@
+package com.transaction.storage;
+
+/**
+ * Running aggregates of the transaction amounts per type. The aggregates are updated on write, so they are read
+ * without going through the transactions of a type.
+ *
+ * @author Diyan Yordanov
+ */
+public interface TransactionAggregatesByTypeIndex {
+
+    /**
+     * Get the aggregates of a type
+     *
+     * @param type - the transaction type
+     * @return the aggregates of the type, a zero count if there are no transactions of this type
+     */
+    TypeAggregates get(String type);
+
+    /**
+     * Add the amount of a transaction to the aggregates of its type
+     *
+     * @param transaction - the new or the updated transaction
+     */
+    void add(Transaction transaction);
+
+    /**
+     * Remove the amount of a transaction from the aggregates of its type
+     *
+     * @param transaction - the old state of an updated transaction
+     */
+    void remove(Transaction transaction);
+}
@@ -0,0 +1,50 @@
+package com.transaction.storage;
+
+/**
+ * Parent pointers of the transactions, so the lineage of a transaction is read in O(depth) without
+ * the repository and without walking the children. The depth of a root transaction is 0.
+ *
+ * @author Diyan Yordanov
+ */
+public interface TransactionAncestryIndex {
+
+    /**
+     * Add a transaction or move it to another parent
+     *
+     * @param id       - the ID of the transaction
+     * @param parentId - the ID of the parent which should be already indexed or null for a root transaction
+     */
+    void save(long id, Long parentId);
+
+    /**
+     * @return the number of ancestors of the transaction or -1 if it is not indexed
+     */
+    int getDepth(long id);
+
+    /**
+     * @return the IDs of the ancestors from the parent to the root or null if the transaction is not indexed
+     */
+    long[] getAncestorIds(long id);
+
+    /**
+     * @return the ID of the root of the transaction tree, which is the transaction itself for a root transaction,
+     * or null if the transaction is not indexed
+     */
+    Long getRootId(long id);
+
+    /**
+     * Check if a transaction is in the subtree of another one. A transaction is in its own subtree.
+     *
+     * @param id         - the ID of the transaction
+     * @param ancestorId - the ID of the root of the subtree
+     * @return true if the transaction is the ancestor or one of its descendants, false if it is not or if any of
+     * the transactions is not indexed
+     */
+    boolean isInSubtree(long id, long ancestorId);
+
+    /**
+     * @return the maximum depth of all transactions or 0 if there are no transactions. It could go through all
+     * transactions after a transaction is moved.
+     */
+    int getMaxDepth();
+}
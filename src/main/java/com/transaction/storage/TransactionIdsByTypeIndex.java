@@ -1,7 +1,5 @@
 package com.transaction.storage;
 
-import java.util.Set;
-
 /**
  * Transaction IDs per type index. Used for faster read of transaction IDs by type.
  * Store the transaction ids organised by type in a separate data structure in order to achieve fast read.
@@ -12,12 +10,27 @@ import java.util.Set;
 public interface TransactionIdsByTypeIndex {
 
     /**
-     * Get transaction IDs for a given type
+     * Get a page of transaction IDs for a given type in ascending order
+     *
+     * @param type    - the transaction type for which the IDs should be read
+     * @param afterId - only the IDs greater than this one are read, all IDs are read from the beginning if null
+     * @param limit   - the maximum number of IDs to be read
+     * @return IDs for the transactions for the given type, an empty array if there are no more IDs
+     */
+    long[] getIds(String type, Long afterId, int limit);
+
+    /**
+     * Get the number of transaction IDs for a given type
      *
-     * @param type - the transaction type for which the IDs should be read
-     * @return IDs for all transactions for the given type
+     * @param type - the transaction type
+     * @return the number of transactions for the given type
+     */
+    long count(String type);
+
+    /**
+     * @return the number of types which have transactions
      */
-    Set<Long> getIds(String type);
+    int typeCount();
 
     /**
      * Save transaction ID in the index for a transaction
@@ -1,19 +1,48 @@
 package com.transaction.storage;
 
+import java.math.BigDecimal;
+import java.util.function.Consumer;
+
 /**
  * Store transactions
+ * <p>
+ * The returned transactions could be copies of the stored state, so the parent/child links and the subtree sums
+ * should be changed only through the repository.
  *
  * @author Diyan Yordanov
  */
 public interface TransactionRepository {
 
     /**
-     * Create or update a transaction
+     * Create or update a transaction. The children and the subtree sum of an existing transaction are kept,
+     * so the concurrent updates of the subtree sum through {@link #addToSubtreeSums(Long, BigDecimal)} are not lost.
      *
      * @param transaction - the transaction to be created or updated
      */
     void save(Transaction transaction);
 
+    /**
+     * Check whether an amount could be stored by {@link #save(Transaction)}, so an amount out of the range of
+     * the storage is rejected before any change of the stored state
+     *
+     * @param amount - an amount with up to 2 digits after the decimal point
+     * @return true if the amount could be stored
+     */
+    default boolean canStoreAmount(BigDecimal amount) {
+        return true;
+    }
+
+    /**
+     * Run a group of writes which saves don't wait one by one until they are durable. It returns after all saves
+     * of the group are durable, so the writes should release their locks before they return and the callers should
+     * be acknowledged after it returns.
+     *
+     * @param writes - the writes of the group, they are run on the calling thread
+     */
+    default void saveGrouped(Runnable writes) {
+        writes.run();
+    }
+
     /**
      * Read transaciton by ID
      *
@@ -21,4 +50,59 @@ public interface TransactionRepository {
      * @return - a transaction if found or null otherwise
      */
     Transaction read(Long id);
+
+    /**
+     * Read several transactions at once. A backend could share the work of the reads, e.g. take its lock once for
+     * many of them.
+     *
+     * @param ids - the IDs of the transactions to be read
+     * @return the transactions in the order of the IDs, null for an ID which is not found
+     */
+    Transaction[] readAll(long[] ids);
+
+    /**
+     * Visit all stored transactions. The visit doesn't block the writes, so the transactions changed during
+     * the visit could be visited either with their old or with their new state.
+     *
+     * @param consumer - visits every transaction
+     */
+    void forEach(Consumer<Transaction> consumer);
+
+    /**
+     * @return the number of stored transactions
+     */
+    long size();
+
+    /**
+     * Read the IDs of the direct children of a transaction
+     *
+     * @param id - the ID of the parent transaction
+     * @return - the IDs of the children or an empty array if the transaction has no children
+     */
+    long[] getChildIds(Long id);
+
+    /**
+     * Link a child to its parent transaction
+     *
+     * @param parentId - the ID of the parent transaction
+     * @param childId  - the ID of the child transaction
+     */
+    void addChild(Long parentId, Long childId);
+
+    /**
+     * Remove the link between a child and its parent transaction
+     *
+     * @param parentId - the ID of the parent transaction
+     * @param childId  - the ID of the child transaction
+     */
+    void removeChild(Long parentId, Long childId);
+
+    /**
+     * Add a delta to the subtree sum of a transaction and all its ancestors. Every single sum is updated atomically,
+     * but the ancestors are updated one by one.
+     *
+     * @param id    - the ID of the first transaction to be updated
+     * @param delta - the amount to be added to the subtree sums
+     */
+    void addToSubtreeSums(Long id, BigDecimal delta);
 }
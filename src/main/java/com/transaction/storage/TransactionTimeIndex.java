@@ -0,0 +1,46 @@
+package com.transaction.storage;
+
+/**
+ * Transactions per type ordered by their creation time. Used for the queries of the transactions created in
+ * a time window, which should not go through all transactions of a type. The time windows start at their from
+ * time inclusive and end at their to time exclusive, both in milliseconds since the epoch.
+ *
+ * @author Diyan Yordanov
+ */
+public interface TransactionTimeIndex {
+
+    /**
+     * Get the IDs of the transactions of a type created in a time window
+     *
+     * @param type  - the transaction type
+     * @param from  - the start of the window
+     * @param to    - the end of the window
+     * @param limit - the maximum number of IDs to be read
+     * @return the IDs ordered by the creation time of the transactions and by the IDs for the same time
+     */
+    long[] getIds(String type, long from, long to, int limit);
+
+    /**
+     * Get the count and the sum of the amounts of the transactions of a type created in a time window
+     *
+     * @param type - the transaction type
+     * @param from - the start of the window
+     * @param to   - the end of the window
+     * @return the aggregates of the window, a zero count if there are no transactions in it
+     */
+    TimeWindowAggregates getAggregates(String type, long from, long to);
+
+    /**
+     * Add a transaction to the index
+     *
+     * @param transaction - the new or the updated transaction, it should have a timestamp
+     */
+    void add(Transaction transaction);
+
+    /**
+     * Remove a transaction from the index
+     *
+     * @param transaction - the old state of an updated transaction
+     */
+    void remove(Transaction transaction);
+}
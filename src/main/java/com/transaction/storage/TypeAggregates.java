@@ -0,0 +1,72 @@
+package com.transaction.storage;
+
+import java.math.BigDecimal;
+
+/**
+ * Aggregates of the amounts of all transactions of a type. The histogram counts the amounts in fixed buckets.
+ * The bucket i contains the amounts which are greater than or equal to the bound i - 1 and less than the bound i,
+ * so there is one more bucket than the bounds.
+ *
+ * @author Diyan Yordanov
+ */
+public class TypeAggregates {
+
+    private final String type;
+
+    private final long count;
+
+    private final BigDecimal sum;
+
+    private final BigDecimal min;
+
+    private final BigDecimal max;
+
+    private final BigDecimal[] histogramBounds;
+
+    private final long[] histogramCounts;
+
+    public TypeAggregates(String type, long count, BigDecimal sum, BigDecimal min, BigDecimal max,
+                          BigDecimal[] histogramBounds, long[] histogramCounts) {
+        this.type = type;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.histogramBounds = histogramBounds;
+        this.histogramCounts = histogramCounts;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the minimal amount or null if there are no transactions
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * @return the maximal amount or null if there are no transactions
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    public BigDecimal[] getHistogramBounds() {
+        return histogramBounds.clone();
+    }
+
+    public long[] getHistogramCounts() {
+        return histogramCounts.clone();
+    }
+}
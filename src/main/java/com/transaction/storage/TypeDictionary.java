@@ -0,0 +1,57 @@
+package com.transaction.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe dictionary which interns transaction types as int ordinals, so every type string is stored once
+ * regardless the number of transactions of this type.
+ *
+ * @author Diyan Yordanov
+ */
+public class TypeDictionary {
+
+    private final Map<String, Integer> ordinalsByType = new ConcurrentHashMap<>();
+
+    private final List<String> types = new ArrayList<>();
+
+    /**
+     * Get the ordinal of a type. A new ordinal is assigned if the type is not known.
+     *
+     * @param type - the transaction type
+     * @return the ordinal of the type
+     */
+    public int ordinal(String type) {
+        Integer ordinal = ordinalsByType.get(type);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (types) {
+            return ordinalsByType.computeIfAbsent(type, newType -> {
+                types.add(newType);
+                return types.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Get the type for an ordinal
+     *
+     * @param ordinal - an ordinal which is already assigned
+     * @return the transaction type
+     */
+    public String type(int ordinal) {
+        synchronized (types) {
+            return types.get(ordinal);
+        }
+    }
+
+    /**
+     * Get the number of the known types
+     */
+    public int size() {
+        return ordinalsByType.size();
+    }
+}
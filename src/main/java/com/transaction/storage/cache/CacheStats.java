@@ -0,0 +1,86 @@
+package com.transaction.storage.cache;
+
+/**
+ * Point in time statistics of a {@link CachingTransactionRepository}
+ *
+ * @author Diyan Yordanov
+ */
+public class CacheStats {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    private final long invalidationCount;
+
+    private final long entryCount;
+
+    private final long weight;
+
+    private final long memoryBudget;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long invalidationCount, long entryCount,
+                      long weight, long memoryBudget) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+        this.entryCount = entryCount;
+        this.weight = weight;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the ratio of the hits to all reads or 0 if there are no reads
+     */
+    public double getHitRate() {
+        long readCount = hitCount + missCount;
+        return readCount == 0 ? 0 : (double) hitCount / readCount;
+    }
+
+    /**
+     * @return the number of entries removed in order to keep the cache in its memory budget
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of entries removed because the cached transaction is changed
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the estimated memory of the cached entries in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, hitRate=%.3f, evictions=%d, invalidations=%d, entries=%d, "
+                        + "weight=%d/%d", hitCount, missCount, getHitRate(), evictionCount, invalidationCount,
+                entryCount, weight, memoryBudget);
+    }
+}
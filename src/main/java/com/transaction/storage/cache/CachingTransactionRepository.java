@@ -0,0 +1,348 @@
+package com.transaction.storage.cache;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache of the transactions of a repository which doesn't keep all its transactions on the heap.
+ * The size of the cache is bounded by a memory budget. The memory of every cached transaction is estimated,
+ * so the budget is kept regardless of the length of the types.
+ * <p>
+ * The cache is split into segments by the transaction ID. Every segment is a segmented LRU which is guarded by
+ * its own lock. A new transaction is added to the probationary segment and it is moved to the protected segment on
+ * its second read, so a scan of many transactions which are read only once doesn't evict the hot ones. The protected
+ * segment gets up to {@link #PROTECTED_RATIO} of the budget. A transaction is evicted from the probationary
+ * segment first.
+ * <p>
+ * A cached transaction has its subtree sum, so a cached sum is a single lookup as well. Every write removes
+ * the changed transactions from the cache: a save removes the transaction, a child link removes the parent and
+ * an update of the subtree sums removes the transaction with all its ancestors. As the parents are changed only by
+ * a save, moving a subtree removes all the old and the new ancestors through the subtree sum updates. A read which
+ * loads a transaction concurrently with its write doesn't cache it, so a stale transaction is never cached after
+ * the write is done.
+ *
+ * @author Diyan Yordanov
+ */
+public class CachingTransactionRepository implements TransactionRepository {
+
+    /**
+     * The estimated memory of a cached transaction besides its type: the transaction with its amounts and IDs,
+     * the cache node and the hash map entry
+     */
+    public static final int ENTRY_OVERHEAD_BYTES = 280;
+
+    static final double PROTECTED_RATIO = 0.8;
+
+    private final TransactionRepository transactionRepository;
+
+    private final long memoryBudget;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public CachingTransactionRepository(TransactionRepository transactionRepository, long memoryBudget) {
+        this(transactionRepository, memoryBudget,
+                Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    /**
+     * @param transactionRepository - the cached repository
+     * @param memoryBudget          - the maximum estimated memory of the cached transactions in bytes
+     * @param segmentCount          - the number of independently locked segments, a power of two
+     */
+    public CachingTransactionRepository(TransactionRepository transactionRepository, long memoryBudget,
+                                        int segmentCount) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("The memory budget should be positive");
+        }
+        if (segmentCount < 1 || Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("The number of segments should be a power of two");
+        }
+        this.transactionRepository = transactionRepository;
+        this.memoryBudget = memoryBudget;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(memoryBudget / segmentCount);
+        }
+    }
+
+    @Override
+    public boolean canStoreAmount(BigDecimal amount) {
+        return transactionRepository.canStoreAmount(amount);
+    }
+
+    @Override
+    public void saveGrouped(Runnable writes) {
+        transactionRepository.saveGrouped(writes);
+    }
+
+    @Override
+    public Transaction read(Long id) {
+        Segment segment = segment(id);
+        Node loading = null;
+        synchronized (segment) {
+            Node node = segment.nodes.get(id);
+            if (node != null && node.value != null) {
+                segment.onHit(node);
+                hits.increment();
+                return node.value;
+            }
+            if (node == null) {
+                // Mark the load, so a write during the load could discard it
+                loading = new Node(id);
+                segment.nodes.put(id, loading);
+            }
+        }
+
+        misses.increment();
+        Transaction transaction = null;
+        try {
+            transaction = transactionRepository.read(id);
+            return transaction;
+        } finally {
+            if (loading != null) {
+                synchronized (segment) {
+                    if (segment.nodes.get(id) == loading) {
+                        if (transaction != null) {
+                            evictions.add(segment.add(loading, transaction, weigh(transaction)));
+                        } else {
+                            segment.nodes.remove(id);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void save(Transaction transaction) {
+        transactionRepository.save(transaction);
+        invalidate(transaction.getId());
+    }
+
+    /**
+     * Every transaction is read through the cache, so the cached ones are not read from the backend
+     */
+    @Override
+    public Transaction[] readAll(long[] ids) {
+        Transaction[] transactions = new Transaction[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            transactions[i] = read(ids[i]);
+        }
+        return transactions;
+    }
+
+    @Override
+    public void forEach(Consumer<Transaction> consumer) {
+        transactionRepository.forEach(consumer);
+    }
+
+    @Override
+    public long size() {
+        return transactionRepository.size();
+    }
+
+    @Override
+    public long[] getChildIds(Long id) {
+        return transactionRepository.getChildIds(id);
+    }
+
+    @Override
+    public void addChild(Long parentId, Long childId) {
+        transactionRepository.addChild(parentId, childId);
+        invalidate(parentId);
+    }
+
+    @Override
+    public void removeChild(Long parentId, Long childId) {
+        transactionRepository.removeChild(parentId, childId);
+        invalidate(parentId);
+    }
+
+    @Override
+    public void addToSubtreeSums(Long id, BigDecimal delta) {
+        transactionRepository.addToSubtreeSums(id, delta);
+        // The cached transaction has the parent ID as well, so the underlying repository is read only for
+        // the ancestors which are not cached
+        Long ancestorId = id;
+        while (ancestorId != null) {
+            Transaction cached = invalidate(ancestorId);
+            Transaction ancestor = cached != null ? cached : transactionRepository.read(ancestorId);
+            ancestorId = ancestor != null ? ancestor.getParentId() : null;
+        }
+    }
+
+    /**
+     * @return the current statistics of the cache
+     */
+    public CacheStats getStats() {
+        long entryCount = 0;
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                entryCount += segment.entryCount;
+                weight += segment.probationWeight + segment.protectedWeight;
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), entryCount, weight,
+                memoryBudget);
+    }
+
+    /**
+     * Remove a transaction from the cache
+     *
+     * @return the removed transaction or null if it is not cached
+     */
+    private Transaction invalidate(Long id) {
+        Segment segment = segment(id);
+        synchronized (segment) {
+            Node node = segment.remove(id);
+            if (node == null || node.value == null) {
+                return null;
+            }
+            invalidations.increment();
+            return node.value;
+        }
+    }
+
+    private Segment segment(long id) {
+        // Spread the sequential IDs over all segments
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    static int weigh(Transaction transaction) {
+        return ENTRY_OVERHEAD_BYTES + 2 * transaction.getType().length();
+    }
+
+    private static final class Node {
+
+        private final long id;
+
+        // Null while the transaction is loaded
+        private Transaction value;
+
+        private int weight;
+
+        private boolean protectedNode;
+
+        private Node previous;
+
+        private Node next;
+
+        Node(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Segmented LRU guarded by its monitor. Both segments are circular lists from the least to the most
+     * recently used node.
+     */
+    private static final class Segment {
+
+        private final Map<Long, Node> nodes = new HashMap<>();
+
+        private final Node probation = new Node(0);
+
+        private final Node protectedHead = new Node(0);
+
+        private final long maxWeight;
+
+        private final long maxProtectedWeight;
+
+        private long probationWeight;
+
+        private long protectedWeight;
+
+        private long entryCount;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxProtectedWeight = (long) (maxWeight * PROTECTED_RATIO);
+            probation.previous = probation.next = probation;
+            protectedHead.previous = protectedHead.next = protectedHead;
+        }
+
+        /**
+         * Add a loaded transaction to the probationary segment
+         *
+         * @return the number of evicted transactions
+         */
+        int add(Node node, Transaction value, int weight) {
+            node.value = value;
+            node.weight = weight;
+            link(probation, node);
+            probationWeight += weight;
+            entryCount++;
+
+            int evicted = 0;
+            while (probationWeight + protectedWeight > maxWeight) {
+                Node victim = probation.next != probation ? probation.next : protectedHead.next;
+                remove(victim.id);
+                evicted++;
+            }
+            return evicted;
+        }
+
+        void onHit(Node node) {
+            unlink(node);
+            if (!node.protectedNode) {
+                node.protectedNode = true;
+                probationWeight -= node.weight;
+                protectedWeight += node.weight;
+            }
+            link(protectedHead, node);
+            // Demote the least recently used protected transactions back to the probationary segment
+            while (protectedWeight > maxProtectedWeight) {
+                Node demoted = protectedHead.next;
+                unlink(demoted);
+                demoted.protectedNode = false;
+                protectedWeight -= demoted.weight;
+                probationWeight += demoted.weight;
+                link(probation, demoted);
+            }
+        }
+
+        Node remove(long id) {
+            Node node = nodes.remove(id);
+            if (node != null && node.value != null) {
+                unlink(node);
+                if (node.protectedNode) {
+                    protectedWeight -= node.weight;
+                } else {
+                    probationWeight -= node.weight;
+                }
+                entryCount--;
+            }
+            return node;
+        }
+
+        private static void link(Node head, Node node) {
+            node.previous = head.previous;
+            node.next = head;
+            head.previous.next = node;
+            head.previous = node;
+        }
+
+        private static void unlink(Node node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+        }
+    }
+}
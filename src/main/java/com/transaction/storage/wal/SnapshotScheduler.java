@@ -0,0 +1,69 @@
+package com.transaction.storage.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a snapshot of the transactions and deletes the write ahead log segments before it,
+ * so the log replayed on startup doesn't grow without a limit.
+ *
+ * @author Diyan Yordanov
+ */
+public class SnapshotScheduler implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotScheduler.class);
+
+    private final WriteAheadLogTransactionRepository transactionRepository;
+
+    private final SnapshotStore snapshotStore;
+
+    private final long intervalSeconds;
+
+    private ScheduledExecutorService executor;
+
+    public SnapshotScheduler(WriteAheadLogTransactionRepository transactionRepository, SnapshotStore snapshotStore,
+                             long intervalSeconds) {
+        this.transactionRepository = transactionRepository;
+        this.snapshotStore = snapshotStore;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * Start writing snapshots. It should be started only after the state is recovered.
+     */
+    public void start() {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::snapshot, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void snapshot() {
+        try {
+            long startTime = System.nanoTime();
+            long position = transactionRepository.snapshot(snapshotStore);
+            LOG.info("Snapshot at log position {} written in {} ms", position,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } catch (Exception e) {
+            // Keep the schedule, the log is kept until the next successful snapshot
+            LOG.error("Snapshot failed", e);
+        }
+    }
+}
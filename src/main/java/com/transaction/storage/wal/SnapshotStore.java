@@ -0,0 +1,224 @@
+package com.transaction.storage.wal;
+
+import com.transaction.storage.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores point in time snapshots of all transactions in files. A snapshot is taken at a write ahead log position
+ * and together with the log records after this position it has the whole state, so the log segments before it
+ * could be deleted.
+ * <p>
+ * The snapshot file format is:
+ * <pre>
+ * int     magic number
+ * byte    format version
+ * long    write ahead log position
+ * records int payload length and the payload encoded by {@link TransactionRecords}
+ * int     0 marks the end of the records
+ * long    number of records
+ * int     CRC32 of everything before it
+ * </pre>
+ * A snapshot is written to a temporary file which is renamed when it is complete, so only complete snapshots
+ * are ever loaded.
+ *
+ * @author Diyan Yordanov
+ */
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x54584e53;
+
+    private static final byte VERSION = 1;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Write a snapshot and delete the older ones
+     *
+     * @param logPosition  - the write ahead log position of the snapshot
+     * @param transactions - visits all transactions which should be written in the snapshot
+     * @return the number of the written transactions
+     */
+    public long write(long logPosition, Consumer<Consumer<Transaction>> transactions) throws IOException {
+        Path snapshot = snapshotPath(logPosition);
+        Path temporarySnapshot = directory.resolve(snapshot.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long[] count = new long[1];
+
+        try (FileChannel channel = FileChannel.open(temporarySnapshot, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeLong(logPosition);
+            try {
+                transactions.accept(transaction -> {
+                    byte[] record = TransactionRecords.encode(transaction);
+                    try {
+                        output.writeInt(record.length);
+                        output.write(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            output.writeInt(0);
+            output.writeLong(count[0]);
+            output.flush();
+
+            ByteBuffer checksum = ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) crc.getValue());
+            while (checksum.hasRemaining()) {
+                channel.write(checksum);
+            }
+            channel.force(true);
+        }
+        Files.move(temporarySnapshot, snapshot, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long position : listSnapshotPositions()) {
+            if (position < logPosition) {
+                Files.delete(snapshotPath(position));
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Load the latest snapshot. The transactions are read lazily while the consumer iterates them.
+     *
+     * @param consumer - consumes the transactions of the snapshot
+     * @return the write ahead log position of the loaded snapshot or 0 if there is no snapshot
+     * @throws IllegalStateException in case of corrupted snapshot
+     */
+    public long load(Consumer<Iterator<Transaction>> consumer) throws IOException {
+        List<Long> positions = listSnapshotPositions();
+        if (positions.isEmpty()) {
+            return 0;
+        }
+        Path snapshot = snapshotPath(positions.get(positions.size() - 1));
+
+        CRC32 crc = new CRC32();
+        try (DataInputStream input = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE), crc))) {
+            if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+                throw new IllegalStateException(String.format("Unknown snapshot format of %s", snapshot));
+            }
+            long logPosition = input.readLong();
+
+            RecordIterator records = new RecordIterator(input);
+            try {
+                consumer.accept(records);
+                // Read the rest of the records if the consumer stopped earlier
+                records.forEachRemaining(transaction -> {
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            long count = input.readLong();
+            int expectedChecksum = (int) crc.getValue();
+            if (count != records.count || input.readInt() != expectedChecksum) {
+                throw new IllegalStateException(String.format("Corrupted snapshot %s", snapshot));
+            }
+            return logPosition;
+        }
+    }
+
+    private List<Long> listSnapshotPositions() throws IOException {
+        List<Long> positions = new ArrayList<>();
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path snapshot : snapshots) {
+                String fileName = snapshot.getFileName().toString();
+                positions.add(Long.parseLong(fileName.substring(SNAPSHOT_PREFIX.length(),
+                        fileName.length() - SNAPSHOT_SUFFIX.length())));
+            }
+        }
+        positions.sort(Long::compare);
+        return positions;
+    }
+
+    private Path snapshotPath(long logPosition) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, logPosition, SNAPSHOT_SUFFIX));
+    }
+
+    private static class RecordIterator implements Iterator<Transaction> {
+
+        private final DataInputStream input;
+
+        private Transaction next;
+
+        private boolean finished;
+
+        private long count;
+
+        RecordIterator(DataInputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                try {
+                    int length = input.readInt();
+                    if (length == 0) {
+                        finished = true;
+                    } else {
+                        byte[] record = new byte[length];
+                        input.readFully(record);
+                        next = TransactionRecords.decode(ByteBuffer.wrap(record));
+                        count++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Transaction next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Transaction transaction = next;
+            next = null;
+            return transaction;
+        }
+    }
+}
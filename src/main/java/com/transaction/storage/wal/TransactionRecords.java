@@ -0,0 +1,109 @@
+package com.transaction.storage.wal;
+
+import com.transaction.storage.Transaction;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of a transaction as a log record payload:
+ * <pre>
+ * byte    record version
+ * long    id
+ * byte    1 if there is a parent, 0 otherwise
+ * long    parent id, only if there is a parent
+ * byte    1 if there is a timestamp, 0 otherwise
+ * long    timestamp in milliseconds since the epoch, only if there is a timestamp
+ * byte    amount scale
+ * byte    amount unscaled value length
+ * byte[]  amount unscaled value as a two's complement big endian number
+ * short   type length
+ * byte[]  type in UTF-8
+ * </pre>
+ * The records of version 1 have no timestamp fields. They are still decoded, so the logs and the snapshots
+ * written before the timestamps could be recovered.
+ *
+ * @author Diyan Yordanov
+ */
+public final class TransactionRecords {
+
+    private static final byte VERSION = 2;
+
+    private static final byte VERSION_WITHOUT_TIMESTAMP = 1;
+
+    private TransactionRecords() {
+    }
+
+    /**
+     * Encode a transaction
+     *
+     * @param transaction - the transaction to be encoded
+     * @return the record payload
+     */
+    public static byte[] encode(Transaction transaction) {
+        byte[] unscaledAmount = transaction.getAmount().unscaledValue().toByteArray();
+        byte[] type = transaction.getType().getBytes(StandardCharsets.UTF_8);
+        if (unscaledAmount.length > Byte.MAX_VALUE || type.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Transaction %d is too large to be logged",
+                    transaction.getId()));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(transaction.getParentId() != null,
+                transaction.getTimestamp() != null, unscaledAmount.length, type.length));
+        buffer.put(VERSION);
+        buffer.putLong(transaction.getId());
+        if (transaction.getParentId() != null) {
+            buffer.put((byte) 1);
+            buffer.putLong(transaction.getParentId());
+        } else {
+            buffer.put((byte) 0);
+        }
+        if (transaction.getTimestamp() != null) {
+            buffer.put((byte) 1);
+            buffer.putLong(transaction.getTimestamp());
+        } else {
+            buffer.put((byte) 0);
+        }
+        buffer.put((byte) transaction.getAmount().scale());
+        buffer.put((byte) unscaledAmount.length);
+        buffer.put(unscaledAmount);
+        buffer.putShort((short) type.length);
+        buffer.put(type);
+        return buffer.array();
+    }
+
+    /**
+     * Decode a transaction from the current position of a buffer. The position is moved after the record.
+     *
+     * @param buffer - the buffer with the record payload
+     * @return the decoded transaction
+     * @throws IllegalArgumentException in case of unknown record version
+     */
+    public static Transaction decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION && version != VERSION_WITHOUT_TIMESTAMP) {
+            throw new IllegalArgumentException(String.format("Unknown record version %d", version));
+        }
+        long id = buffer.getLong();
+        Long parentId = buffer.get() != 0 ? buffer.getLong() : null;
+        Long timestamp = version != VERSION_WITHOUT_TIMESTAMP && buffer.get() != 0 ? buffer.getLong() : null;
+        int scale = buffer.get();
+        byte[] unscaledAmount = new byte[buffer.get()];
+        buffer.get(unscaledAmount);
+        byte[] type = new byte[buffer.getShort()];
+        buffer.get(type);
+
+        Transaction transaction = new Transaction(id, new BigDecimal(new BigInteger(unscaledAmount), scale),
+                new String(type, StandardCharsets.UTF_8), parentId);
+        transaction.setTimestamp(timestamp);
+        return transaction;
+    }
+
+    private static int encodedSize(boolean hasParent, boolean hasTimestamp, int unscaledAmountLength,
+                                   int typeLength) {
+        return 1 + Long.BYTES + 1 + (hasParent ? Long.BYTES : 0) + 1 + (hasTimestamp ? Long.BYTES : 0) + 1 + 1
+                + unscaledAmountLength + Short.BYTES + typeLength;
+    }
+}
@@ -0,0 +1,539 @@
+package com.transaction.storage.wal;
+
+import com.transaction.storage.Transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of the created and updated transactions. The log is a sequence of segment files with a fixed
+ * size which are memory mapped, so an append is a memory copy and the operating system writes the pages to the disk.
+ * <p>
+ * Every record has a header with the length and the CRC32 checksum of its payload. Reading stops on the first
+ * empty or corrupted record, so a record which is partially written on a crash is ignored. Every record is identified
+ * by its position - the number of bytes in the log before the record. The name of a segment file contains the
+ * position of its first byte.
+ * <p>
+ * When the records are written to the disk depends on the fsync policy:
+ * <ul>
+ * <li>NONE - the operating system decides, records are lost only if the operating system crashes</li>
+ * <li>ALWAYS - every append waits for the record to be written to the disk</li>
+ * <li>GROUP - every append waits for its record to be written to the disk, but the records appended while
+ * a write to the disk is in progress are written together by the next one (group commit). The appends of a group
+ * on a single thread wait once after the whole group, see {@link #appendGrouped(Runnable)}.</li>
+ * </ul>
+ * <p>
+ * The implementation is thread safe.
+ *
+ * @author Diyan Yordanov
+ */
+public class WriteAheadLog implements Closeable {
+
+    public enum FsyncPolicy {
+        NONE, ALWAYS, GROUP
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    // Payload length and checksum
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final CRC32 crc = new CRC32();
+
+    private long activeSegmentPosition;
+
+    private FileChannel activeSegmentChannel;
+
+    private MappedByteBuffer activeSegment;
+
+    private boolean unflushed;
+
+    // The group commit state, guarded by its own monitor, so the appends are not blocked by a write to the disk
+    private final Object groupCommitMonitor = new Object();
+
+    private long durablePosition;
+
+    private boolean groupCommitInProgress;
+
+    // Set on the thread which applies already persisted transactions, the appends of the other threads are logged
+    private final ThreadLocal<Boolean> applyingPersisted = ThreadLocal.withInitial(() -> false);
+
+    // The position after the last record of the group which is appended by the thread, null if it is not in a group
+    private final ThreadLocal<long[]> groupEndPosition = new ThreadLocal<>();
+
+    public WriteAheadLog(Path directory, int segmentSize, FsyncPolicy fsyncPolicy) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+
+        Files.createDirectories(directory);
+        List<Long> segmentPositions = listSegmentPositions();
+        if (segmentPositions.isEmpty()) {
+            openSegment(0);
+        } else {
+            openSegment(segmentPositions.get(segmentPositions.size() - 1));
+            seekToEnd();
+        }
+        durablePosition = getPosition();
+    }
+
+    /**
+     * Append a transaction to the log. Appending is skipped on a thread which applies already persisted
+     * transactions, see {@link #withoutAppending(Runnable)}.
+     *
+     * @param transaction - the created or updated transaction
+     * @return the position of the record
+     */
+    public long append(Transaction transaction) {
+        if (applyingPersisted.get()) {
+            return getPosition();
+        }
+
+        // Only the copy to the log is serialized
+        byte[] payload = TransactionRecords.encode(transaction);
+        long position;
+        long endPosition;
+        synchronized (this) {
+            position = write(payload);
+            endPosition = getPosition();
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                flush();
+            }
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            long[] groupEnd = groupEndPosition.get();
+            if (groupEnd != null) {
+                groupEnd[0] = endPosition;
+            } else {
+                awaitDurable(endPosition);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Run an action which appends a group of records on the calling thread. With the GROUP fsync policy the appends
+     * of the action don't wait, the records of the whole group are waited for once after the action returns, so
+     * the action should release its locks before it returns. The records appended before the action fails are
+     * waited for too, as they could be applied already.
+     *
+     * @param action - the action to be run
+     */
+    public void appendGrouped(Runnable action) {
+        if (fsyncPolicy != FsyncPolicy.GROUP || groupEndPosition.get() != null) {
+            // A nested group is waited for by the outer one
+            action.run();
+            return;
+        }
+
+        long[] groupEnd = {-1};
+        groupEndPosition.set(groupEnd);
+        try {
+            action.run();
+        } finally {
+            groupEndPosition.remove();
+            if (groupEnd[0] >= 0) {
+                awaitDurable(groupEnd[0]);
+            }
+        }
+    }
+
+    /**
+     * @return the position after the last record in the log
+     */
+    public synchronized long getPosition() {
+        return activeSegmentPosition + activeSegment.position();
+    }
+
+    /**
+     * Write all appended records to the disk
+     */
+    public synchronized void flush() {
+        if (unflushed) {
+            activeSegment.force();
+            unflushed = false;
+        }
+    }
+
+    /**
+     * Wait until all records up to a position are written to the disk. The first waiting thread writes all
+     * appended records, the threads which come meanwhile wait for it and the next write covers all of them.
+     *
+     * @param position - the position after the record which should be durable
+     */
+    private void awaitDurable(long position) {
+        boolean interrupted = false;
+        synchronized (groupCommitMonitor) {
+            while (durablePosition < position && groupCommitInProgress) {
+                try {
+                    groupCommitMonitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (durablePosition >= position) {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            groupCommitInProgress = true;
+        }
+
+        long flushedPosition = position;
+        try {
+            MappedByteBuffer segment;
+            synchronized (this) {
+                // The previous segments are written to the disk when they are closed
+                segment = activeSegment;
+                flushedPosition = getPosition();
+                unflushed = false;
+            }
+            // The appends continue while the segment is written to the disk
+            segment.force();
+        } finally {
+            synchronized (groupCommitMonitor) {
+                durablePosition = Math.max(durablePosition, flushedPosition);
+                groupCommitInProgress = false;
+                groupCommitMonitor.notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replay the transactions in the log from a given position. The transactions are read lazily while
+     * the consumer iterates them.
+     *
+     * @param fromPosition - the position of the first record to be replayed
+     * @param consumer     - consumes the transactions in the order of the log
+     * @return the position after the last replayed record
+     */
+    public long replay(long fromPosition, Consumer<Iterator<Transaction>> consumer) {
+        long endPosition = getPosition();
+        RecordIterator records = new RecordIterator(fromPosition, endPosition);
+        try {
+            withoutAppending(() -> consumer.accept(records));
+        } finally {
+            records.close();
+        }
+        return records.position;
+    }
+
+    /**
+     * Run an action which applies transactions that are already persisted, e.g. a replay of the log or a load
+     * of a snapshot. The appends of the calling thread are skipped while the action runs, so the action should
+     * apply the transactions on the calling thread. The appends of the other threads are not affected.
+     *
+     * @param action - the action to be run
+     */
+    public void withoutAppending(Runnable action) {
+        boolean wasApplyingPersisted = applyingPersisted.get();
+        applyingPersisted.set(true);
+        try {
+            action.run();
+        } finally {
+            applyingPersisted.set(wasApplyingPersisted);
+        }
+    }
+
+    /**
+     * Write a record at the end of the log, the caller should hold the monitor of the log
+     *
+     * @return the position of the record
+     */
+    private long write(byte[] payload) {
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException(String.format("Record of %d bytes doesn't fit in a segment",
+                    recordSize));
+        }
+        if (activeSegment.remaining() < recordSize) {
+            // The rest of the segment stays empty and it is skipped on reading
+            long nextSegmentPosition = activeSegmentPosition + activeSegment.capacity();
+            closeActiveSegment();
+            openSegment(nextSegmentPosition);
+        }
+
+        long position = getPosition();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        activeSegment.putInt(payload.length);
+        activeSegment.putInt((int) crc.getValue());
+        activeSegment.put(payload);
+        unflushed = true;
+        return position;
+    }
+
+    /**
+     * Delete the segments which contain only records before a given position
+     *
+     * @param position - the position of the first record which should be kept
+     */
+    public synchronized void deleteSegmentsBefore(long position) {
+        try {
+            List<Long> segmentPositions = listSegmentPositions();
+            for (int i = 0; i + 1 < segmentPositions.size(); i++) {
+                if (segmentPositions.get(i + 1) <= position && segmentPositions.get(i) != activeSegmentPosition) {
+                    Files.delete(segmentPath(segmentPositions.get(i)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeActiveSegment();
+    }
+
+    private void openSegment(long position) {
+        try {
+            activeSegmentChannel = FileChannel.open(segmentPath(position), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // An existing segment keeps its size even if the configured segment size is changed
+            long size = activeSegmentChannel.size() > 0 ? activeSegmentChannel.size() : segmentSize;
+            activeSegment = activeSegmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            activeSegmentPosition = position;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeActiveSegment() {
+        try {
+            flush();
+            activeSegmentChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Move the position of the active segment after its last valid record and clear the rest of it. Otherwise
+     * records which were written after a corrupted one could be read as valid after the next appends.
+     */
+    private void seekToEnd() {
+        int end = 0;
+        ByteBuffer segment = activeSegment.duplicate();
+        while (readRecord(segment) != null) {
+            end = segment.position();
+        }
+        activeSegment.position(end);
+        byte[] zeros = new byte[4096];
+        while (activeSegment.hasRemaining()) {
+            activeSegment.put(zeros, 0, Math.min(zeros.length, activeSegment.remaining()));
+        }
+        activeSegment.position(end);
+        unflushed = true;
+        flush();
+    }
+
+    /**
+     * Read the record payload at the current position of the segment
+     *
+     * @return a buffer which is positioned at the payload or null if there is no valid record
+     */
+    private static ByteBuffer readRecord(ByteBuffer segment) {
+        if (segment.remaining() < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int start = segment.position();
+        int length = segment.getInt();
+        int checksum = segment.getInt();
+        if (length <= 0 || length > segment.remaining()) {
+            segment.position(start);
+            return null;
+        }
+
+        ByteBuffer payload = segment.slice();
+        payload.limit(length);
+        CRC32 payloadCrc = new CRC32();
+        payloadCrc.update(payload.duplicate());
+        if ((int) payloadCrc.getValue() != checksum) {
+            segment.position(start);
+            return null;
+        }
+        segment.position(segment.position() + length);
+        return payload;
+    }
+
+    private List<Long> listSegmentPositions() throws IOException {
+        List<Long> positions = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                String fileName = segment.getFileName().toString();
+                positions.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                        fileName.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        positions.sort(Long::compare);
+        return positions;
+    }
+
+    private Path segmentPath(long position) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, position, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Reads the records of all segments one by one up to a given end position
+     */
+    private class RecordIterator implements Iterator<Transaction> {
+
+        private final long endPosition;
+
+        private final Iterator<Long> segmentPositions;
+
+        private long segmentPosition;
+
+        private FileChannel segmentChannel;
+
+        private ByteBuffer segment;
+
+        private Transaction next;
+
+        private long position;
+
+        RecordIterator(long fromPosition, long endPosition) {
+            this.endPosition = endPosition;
+            this.position = fromPosition;
+            try {
+                segmentPositions = listSegmentPositions().iterator();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Transaction next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Transaction transaction = next;
+            next = null;
+            return transaction;
+        }
+
+        private Transaction readNext() {
+            while (position < endPosition) {
+                if (segment == null && !openNextSegment()) {
+                    return null;
+                }
+                int start = segment.position();
+                ByteBuffer payload = readRecord(segment);
+                if (payload == null) {
+                    if (!isEmptyFrom(segment, start)) {
+                        // A corrupted record, the records after it are not replayed
+                        position = segmentPosition + start;
+                        return null;
+                    }
+                    // The rest of the segment is empty, continue with the next one
+                    position = segmentPosition + segment.limit();
+                    closeSegment();
+                    continue;
+                }
+                long recordPosition = segmentPosition + start;
+                position = segmentPosition + segment.position();
+                if (recordPosition >= endPosition) {
+                    return null;
+                }
+                return TransactionRecords.decode(payload);
+            }
+            return null;
+        }
+
+        /**
+         * @return true if the segment has only zeros from a given index, as the rest of a segment which is left
+         * empty when the next record doesn't fit in it
+         */
+        private boolean isEmptyFrom(ByteBuffer segment, int index) {
+            for (int i = index; i < segment.limit(); i++) {
+                if (segment.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean openNextSegment() {
+            while (segmentPositions.hasNext()) {
+                segmentPosition = segmentPositions.next();
+                try {
+                    segmentChannel = FileChannel.open(segmentPath(segmentPosition), StandardOpenOption.READ);
+                    segment = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (segmentPosition + segment.limit() <= position) {
+                    // All records in the segment are before the position to replay from
+                    closeSegment();
+                    continue;
+                }
+                skipTo(position);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Skip the records in the segment before a given position. The records are read from the beginning
+         * of the segment, as only the start of a record is a valid position.
+         */
+        private void skipTo(long fromPosition) {
+            while (segmentPosition + segment.position() < fromPosition) {
+                if (readRecord(segment) == null) {
+                    return;
+                }
+            }
+        }
+
+        private void closeSegment() {
+            try {
+                segmentChannel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segment = null;
+        }
+
+        void close() {
+            if (segment != null) {
+                closeSegment();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.transaction.storage.wal;
+
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Transaction repository which appends every saved transaction to a write ahead log before it is saved in
+ * the underlying repository. The child links and the subtree sums are not logged, as they are rebuilt when
+ * the logged transactions are replayed.
+ * <p>
+ * A snapshot is written while the transactions are saved. It is taken at the log position where all the logged
+ * transactions are already saved and then all transactions are visited without blocking the saves. The snapshot
+ * could have some transactions which are changed after its position, but as every log record has the whole state
+ * of a transaction, replaying the log after the position fixes them.
+ * <p>
+ * The saves run concurrently, only the appends to the log are serialized. The service orders the saves of
+ * a transaction, so its records are logged in the order they are saved.
+ *
+ * @author Diyan Yordanov
+ */
+public class WriteAheadLogTransactionRepository implements TransactionRepository {
+
+    private final TransactionRepository transactionRepository;
+
+    private final WriteAheadLog writeAheadLog;
+
+    // Shared by the saves, exclusive while the position of a snapshot is taken, so no logged transaction is
+    // missing from the underlying repository at that position
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    public WriteAheadLogTransactionRepository(TransactionRepository transactionRepository,
+                                              WriteAheadLog writeAheadLog) {
+        this.transactionRepository = transactionRepository;
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    @Override
+    public void save(Transaction transaction) {
+        snapshotLock.readLock().lock();
+        try {
+            writeAheadLog.append(transaction);
+            transactionRepository.save(transaction);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write a snapshot of all transactions and delete the log segments before it
+     *
+     * @param snapshotStore - the store where the snapshot is written
+     * @return the log position of the snapshot
+     */
+    public long snapshot(SnapshotStore snapshotStore) throws IOException {
+        long position;
+        snapshotLock.writeLock().lock();
+        try {
+            // All the records before this position are saved in the underlying repository
+            position = writeAheadLog.getPosition();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        writeAheadLog.flush();
+        snapshotStore.write(position, transactionRepository::forEach);
+        writeAheadLog.deleteSegmentsBefore(position);
+        return position;
+    }
+
+    /**
+     * The records of the group are written to the disk together after the writes return
+     */
+    @Override
+    public void saveGrouped(Runnable writes) {
+        writeAheadLog.appendGrouped(() -> transactionRepository.saveGrouped(writes));
+    }
+
+    @Override
+    public boolean canStoreAmount(BigDecimal amount) {
+        return transactionRepository.canStoreAmount(amount);
+    }
+
+    @Override
+    public Transaction read(Long id) {
+        return transactionRepository.read(id);
+    }
+
+    @Override
+    public Transaction[] readAll(long[] ids) {
+        return transactionRepository.readAll(ids);
+    }
+
+    @Override
+    public void forEach(Consumer<Transaction> consumer) {
+        transactionRepository.forEach(consumer);
+    }
+
+    @Override
+    public long size() {
+        return transactionRepository.size();
+    }
+
+    @Override
+    public long[] getChildIds(Long id) {
+        return transactionRepository.getChildIds(id);
+    }
+
+    @Override
+    public void addChild(Long parentId, Long childId) {
+        transactionRepository.addChild(parentId, childId);
+    }
+
+    @Override
+    public void removeChild(Long parentId, Long childId) {
+        transactionRepository.removeChild(parentId, childId);
+    }
+
+    @Override
+    public void addToSubtreeSums(Long id, BigDecimal delta) {
+        transactionRepository.addToSubtreeSums(id, delta);
+    }
+}
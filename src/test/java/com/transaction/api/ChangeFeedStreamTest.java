@@ -0,0 +1,40 @@
+package com.transaction.api;
+
+import com.transaction.feed.ChangeFeed;
+import com.transaction.feed.Subscription;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.Transaction;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ChangeFeedStreamTest {
+
+    @Test
+    public void testEventsUntilOverflow() throws IOException {
+        ChangeFeed changeFeed = new ChangeFeed(new InMemoryTransactionAncestryIndex(), 2, 1);
+        Subscription subscription = changeFeed.subscribe(null, null);
+        for (long id = 1; id <= 3; id++) {
+            Transaction transaction = new Transaction(id, new BigDecimal("1.50"), "cars", id > 1 ? 1L : null);
+            transaction.setTimestamp(1000L);
+            changeFeed.publish(transaction, null);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ChangeFeedStream(subscription, 60000).writeTo(output);
+
+        assertThat(output.toString("UTF-8"), is(equalTo(":\n\n"
+                + "id: 1\nevent: transaction\n"
+                + "data: {\"id\":1,\"amount\":1.50,\"type\":\"cars\",\"parent_id\":null,\"timestamp\":1000}\n\n"
+                + "id: 2\nevent: transaction\n"
+                + "data: {\"id\":2,\"amount\":1.50,\"type\":\"cars\",\"parent_id\":1,\"timestamp\":1000}\n\n"
+                + "event: overflow\ndata: {}\n\n")));
+        // The subscription is closed with the stream
+        assertThat(changeFeed.getSubscriberCount(), is(equalTo(0)));
+    }
+}
@@ -0,0 +1,130 @@
+package com.transaction.api;
+
+import com.transaction.storage.Transaction;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class TransactionBinaryCodecTest {
+
+    @Test
+    public void testSingleTransaction() throws IOException {
+        Transaction transaction = new Transaction(72147L, new BigDecimal("5000.25"), "cars", 72146L);
+        transaction.setTimestamp(1457000000000L);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransactionBinaryCodec.writeTransaction(transaction, output);
+
+        Transaction request = TransactionBinaryCodec.readTransaction(input(output.toByteArray()), 72147L);
+        Transaction stored = TransactionBinaryCodec.readStoredTransaction(input(output.toByteArray()), 72147L);
+
+        assertThat(request, is(equalTo(new Transaction(72147L, new BigDecimal("5000.25"), "cars", 72146L))));
+        // The timestamp is assigned by the server, so it is read only from a response
+        assertThat(request.getTimestamp(), is(nullValue()));
+        assertThat(stored.getTimestamp(), is(equalTo(1457000000000L)));
+        assertThat(stored.getAmount().scale(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testBatchWithTypeDictionary() throws IOException {
+        Transaction[] transactions = {
+                new Transaction(1L, new BigDecimal("1E+3"), "car rental", null),
+                new Transaction(2L, new BigDecimal("-0.5"), "shopping", 1L),
+                new Transaction(3L, new BigDecimal("123456789012345678901234567890.12"), "car rental", 1L),
+                new Transaction(-4L, BigDecimal.ZERO, "shopping", Long.MAX_VALUE)
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransactionBinaryCodec.Encoder encoder = new TransactionBinaryCodec.Encoder(output);
+        for (Transaction transaction : transactions) {
+            encoder.write(transaction, true);
+        }
+        byte[] body = output.toByteArray();
+
+        TransactionBinaryCodec.Decoder decoder = new TransactionBinaryCodec.Decoder(input(body), false);
+        for (Transaction transaction : transactions) {
+            Transaction read = decoder.read(null);
+            assertThat(read, is(equalTo(transaction)));
+            assertThat(read.getAmount(), is(equalTo(transaction.getAmount())));
+        }
+        assertThat(decoder.read(null), is(nullValue()));
+        // Every type is written once
+        assertThat(occurrences(body, "car rental"), is(equalTo(1)));
+        assertThat(occurrences(body, "shopping"), is(equalTo(1)));
+    }
+
+    @Test
+    public void testIdOfPathOverridesFrame() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TransactionBinaryCodec.Encoder(output).write(new Transaction(5L, BigDecimal.ONE, "cars", null), true);
+
+        assertThat(TransactionBinaryCodec.readTransaction(input(output.toByteArray()), 7L).getId(), is(equalTo(7L)));
+    }
+
+    @Test
+    public void testBatchReaderStopsOnMalformedFrame() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TransactionBinaryCodec.Encoder(output).write(new Transaction(1L, BigDecimal.ONE, "cars", null), true);
+        byte[] frame = output.toByteArray();
+        output.write(frame, 0, frame.length - 1);
+
+        BinaryTransactionStreamReader reader = new BinaryTransactionStreamReader(
+                new TransactionBinaryCodec.Decoder(input(output.toByteArray()), false));
+
+        assertThat(reader.next().getId(), is(equalTo(1L)));
+        assertThat(reader.hasNext(), is(false));
+        assertThat(reader.getError(), is(instanceOf(MalformedFrameException.class)));
+        assertThat(reader.getReadCount(), is(equalTo(1L)));
+    }
+
+    @Test(expected = MalformedFrameException.class)
+    public void testUnknownTypeOrdinal() throws IOException {
+        // Flags without NEW_TYPE, scale 0, amount 1 and type ordinal 0 of an empty dictionary
+        TransactionBinaryCodec.readTransaction(input(new byte[]{4, 0, 0, 2, 0}), 1L);
+    }
+
+    @Test(expected = MalformedFrameException.class)
+    public void testFrameLengthAboveLimit() throws IOException {
+        TransactionBinaryCodec.readTransaction(input(new byte[]{(byte) 0x81, (byte) 0x80, 0x04}), 1L);
+    }
+
+    @Test(expected = MalformedFrameException.class)
+    public void testTrailingContent() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransactionBinaryCodec.writeTransaction(new Transaction(1L, BigDecimal.ONE, "cars", null), output);
+        output.write(0);
+
+        TransactionBinaryCodec.readTransaction(input(output.toByteArray()), 1L);
+    }
+
+    @Test
+    public void testContentNegotiation() {
+        assertThat(TransactionBinaryCodec.isBinary("application/x-transaction-binary"), is(true));
+        assertThat(TransactionBinaryCodec.isBinary("application/json;charset=UTF-8"), is(false));
+        assertThat(TransactionBinaryCodec.accepts("application/json, application/x-transaction-binary;q=0.9"),
+                is(true));
+        assertThat(TransactionBinaryCodec.accepts("application/x-transaction-binary;q=0"), is(false));
+        assertThat(TransactionBinaryCodec.accepts("*/*"), is(false));
+        assertThat(TransactionBinaryCodec.accepts(null), is(false));
+    }
+
+    private static ByteArrayInputStream input(byte[] bytes) {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private static int occurrences(byte[] body, String type) {
+        byte[] bytes = type.getBytes();
+        int count = 0;
+        for (int i = 0; i + bytes.length <= body.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(body, i, i + bytes.length), bytes)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -65,6 +65,14 @@ public class TransactionControllerTest {
         assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
     }
 
+    @Test
+    public void createTransactionMalformedBody() {
+        ResponseEntity<Map> response = template.exchange(BASE_URL + "/transaction/651942", HttpMethod.PUT,
+                getHttpEntity("{\"amount\":10,\"type\":", MediaType.APPLICATION_JSON), Map.class);
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
     @Test
     public void createTransactionInvalidParent() throws JsonProcessingException {
         HttpEntity<String> httpEntity = getTransactionHttpEntity(BigDecimal.valueOf(5000L), "cars", 9724517L);
@@ -103,6 +111,40 @@ public class TransactionControllerTest {
 
     }
 
+    @Test
+    public void createTransactionsBatch() {
+        String body = "[{\"id\":8812001,\"amount\":10.5,\"type\":\"batch\"},"
+                + "{\"id\":8812003,\"amount\":1,\"type\":\"batch\",\"parent_id\":8812002},"
+                + "{\"id\":8812002,\"amount\":2,\"type\":\"batch\",\"parent_id\":8812001},"
+                + "{\"id\":8812004,\"type\":\"batch\"}]";
+        ResponseEntity<Map> response = template.exchange(BASE_URL + "/transactions", HttpMethod.POST,
+                getHttpEntity(body, MediaType.APPLICATION_JSON), Map.class);
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> responseBody = response.getBody();
+        assertThat(responseBody.get("status"), equalTo("ok"));
+        assertThat(responseBody.get("processed"), equalTo(3));
+        assertThat(responseBody.get("failed"), equalTo(1));
+        assertThat(transactionService.calculateTransactionsSum(8812001L), equalTo(new BigDecimal("13.5")));
+    }
+
+    @Test
+    public void createTransactionsNdjsonBatch() {
+        String body = "{\"id\":8813001,\"amount\":10.5,\"type\":\"batch\"}\n"
+                + "{\"id\":8813002,\"amount\":2,\"type\":\"batch\",\"parent_id\":8813001}\n"
+                + "{\"id\":8813003,\"amount\":";
+        ResponseEntity<Map> response = template.exchange(BASE_URL + "/transactions", HttpMethod.POST,
+                getHttpEntity(body, MediaType.valueOf("application/x-ndjson")), Map.class);
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> responseBody = response.getBody();
+        assertThat(responseBody.get("processed"), equalTo(2));
+        assertThat(responseBody.get("failed"), equalTo(1));
+        assertThat(transactionService.getById(8813002L).getParentId(), equalTo(8813001L));
+    }
+
     @Test
     public void testReadById() {
         transactionService.createOrUpdate(new Transaction(791698L, new BigDecimal("33.23"), "test type", null));
@@ -163,6 +205,26 @@ public class TransactionControllerTest {
 
     }
 
+    @Test
+    public void testIdListByTypePaged() {
+        for (long id = 1; id <= 5; id++) {
+            transactionService.createOrUpdate(
+                    new Transaction(72563400L + id, new BigDecimal("1.00"), "paged_type", null));
+        }
+
+        ResponseEntity<List> firstResponse = template.getForEntity(BASE_URL + "/types/paged_type?limit=3", List.class);
+        String cursor = firstResponse.getHeaders().getFirst("X-Next-Cursor");
+        ResponseEntity<List> secondResponse = template.getForEntity(
+                BASE_URL + "/types/paged_type?limit=3&after=" + cursor, List.class);
+
+        assertThat(firstResponse.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(firstResponse.getBody(), equalTo(Arrays.asList(72563401, 72563402, 72563403)));
+        assertThat(cursor, equalTo("72563403"));
+        assertThat(secondResponse.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(secondResponse.getBody(), equalTo(Arrays.asList(72563404, 72563405)));
+        assertThat(secondResponse.getHeaders().getFirst("X-Next-Cursor"), is(nullValue()));
+    }
+
     @Test
     public void testIdListByNotExistingType() throws JsonProcessingException {
         ResponseEntity<List> response = template.getForEntity(BASE_URL + "/types/not_existing_type", List.class);
@@ -173,6 +235,75 @@ public class TransactionControllerTest {
         assertThat(responseBody.size(), equalTo(0));
     }
 
+    @Test
+    public void testAggregatesByType() {
+        transactionService.createOrUpdate(new Transaction(61530001L, new BigDecimal("5.50"), "aggregated_type", null));
+        transactionService.createOrUpdate(new Transaction(61530002L, new BigDecimal("120"), "aggregated_type", null));
+
+        ResponseEntity<Map> response =
+                template.getForEntity(BASE_URL + "/aggregates/aggregated_type?histogram=true", Map.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> responseBody = response.getBody();
+        assertThat(responseBody.get("count"), equalTo(2));
+        assertThat(responseBody.get("sum"), equalTo(125.5));
+        assertThat(responseBody.get("min"), equalTo(5.5));
+        assertThat(responseBody.get("max"), equalTo(120));
+        @SuppressWarnings("unchecked")
+        Map<String, List<Integer>> histogram = (Map<String, List<Integer>>) responseBody.get("histogram");
+        assertThat(histogram.get("counts"), equalTo(Arrays.asList(0, 1, 0, 1, 0, 0, 0)));
+    }
+
+    @Test
+    public void testAggregatesByNotExistingType() {
+        ResponseEntity<Map> response = template.getForEntity(BASE_URL + "/aggregates/not_existing_type", Map.class);
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> responseBody = response.getBody();
+        assertThat(responseBody.get("count"), equalTo(0));
+        assertThat(responseBody.get("min"), is(nullValue()));
+        assertThat(responseBody.containsKey("histogram"), is(false));
+    }
+
+    @Test
+    public void testLineage() throws JsonProcessingException {
+        transactionService.createOrUpdate(new Transaction(82710001L, new BigDecimal("1.00"), "lineage_type", null));
+        transactionService.createOrUpdate(
+                new Transaction(82710002L, new BigDecimal("1.00"), "lineage_type", 82710001L));
+        transactionService.createOrUpdate(
+                new Transaction(82710003L, new BigDecimal("1.00"), "lineage_type", 82710002L));
+
+        ResponseEntity<List> ancestors = template.getForEntity(BASE_URL + "/ancestors/82710003", List.class);
+        assertThat(ancestors.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(ancestors.getBody(), equalTo(Arrays.asList(82710002, 82710001)));
+
+        ResponseEntity<Map> root = template.getForEntity(BASE_URL + "/root/82710003", Map.class);
+        assertThat(root.getBody().get("root_id"), equalTo(82710001));
+
+        ResponseEntity<Map> subtree =
+                template.getForEntity(BASE_URL + "/subtree/82710003?contains=82710001", Map.class);
+        assertThat(subtree.getBody().get("contains"), equalTo(false));
+
+        HttpEntity<String> cycle = getTransactionHttpEntity(new BigDecimal("1.00"), "lineage_type", 82710003L);
+        ResponseEntity<Map> response =
+                template.exchange(BASE_URL + "/transaction/82710001", HttpMethod.PUT, cycle, Map.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void testMetrics() {
+        template.getForEntity(BASE_URL + "/sum/61913", Map.class);
+
+        ResponseEntity<String> response = template.getForEntity("http://localhost:8080/metrics", String.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(response.getBody(),
+                containsString("transaction_http_request_latency_seconds_count{endpoint=\"getTransactionsSum\"}"));
+        assertThat(response.getBody(),
+                containsString("transaction_service_latency_seconds_count{method=\"calculateTransactionsSum\"}"));
+        assertThat(response.getBody(), containsString("# TYPE transaction_repository_size gauge"));
+    }
+
     private HttpEntity<String> getTransactionHttpEntity(BigDecimal amount, String type, Long parentId)
             throws JsonProcessingException {
         Map<String, Object> requestBody = new HashMap<>();
@@ -192,4 +323,12 @@ public class TransactionControllerTest {
         return new HttpEntity<>(OBJECT_MAPPER.writeValueAsString(requestBody), requestHeaders);
     }
 
-}
\ No newline at end of file
+    private HttpEntity<String> getHttpEntity(String body, MediaType contentType) {
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentType(contentType);
+        requestHeaders.set("Connection", "Close");
+
+        return new HttpEntity<>(body, requestHeaders);
+    }
+
+}
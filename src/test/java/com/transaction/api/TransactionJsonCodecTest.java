@@ -0,0 +1,81 @@
+package com.transaction.api;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.transaction.storage.Transaction;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class TransactionJsonCodecTest {
+
+    @Test
+    public void testReadTransaction() throws IOException {
+        Transaction transaction = read("{\"amount\":5000.25,\"type\":\"cars\",\"parent_id\":72146}", 72147L);
+
+        assertThat(transaction, is(equalTo(new Transaction(72147L, new BigDecimal("5000.25"), "cars", 72146L))));
+    }
+
+    @Test
+    public void testReadTransactionIgnoresUnknownFields() throws IOException {
+        Transaction transaction = read("{\"type\":\"cars\",\"tags\":[1,{\"a\":2}],\"id\":5,\"amount\":\"1E+3\"}", 7L);
+
+        assertThat(transaction, is(equalTo(new Transaction(7L, new BigDecimal("1E+3"), "cars", null))));
+    }
+
+    @Test
+    public void testReadTransactionWithNulls() throws IOException {
+        Transaction transaction = read("{\"amount\":null,\"type\":null,\"parent_id\":null}", 7L);
+
+        assertThat(transaction, is(equalTo(new Transaction(7L, null, null, null))));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testReadTransactionInvalidAmount() throws IOException {
+        read("{\"amount\":{\"value\":1},\"type\":\"cars\"}", 7L);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testReadTransactionTruncated() throws IOException {
+        read("{\"amount\":1,\"type\":\"cars\"", 7L);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testReadTransactionNotObject() throws IOException {
+        read("[1, 2]", 7L);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testReadTransactionTrailingContent() throws IOException {
+        read("{\"amount\":1,\"type\":\"cars\"} {}", 7L);
+    }
+
+    @Test
+    public void testWriteTransaction() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransactionJsonCodec.writeTransaction(new Transaction(7L, new BigDecimal("10.50"), "c\"ars", null), output);
+
+        assertThat(output.toString("UTF-8"),
+                is(equalTo("{\"amount\":10.50,\"type\":\"c\\\"ars\",\"parent_id\":null}")));
+    }
+
+    @Test
+    public void testWriteSumAndStatus() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransactionJsonCodec.writeSum(new BigDecimal("-12.40"), output);
+        TransactionJsonCodec.writeStatusOk(output);
+
+        assertThat(output.toString("UTF-8"), is(equalTo("{\"sum\":-12.40}{\"status\":\"ok\"}")));
+    }
+
+    private static Transaction read(String body, Long id) throws IOException {
+        return TransactionJsonCodec.readTransaction(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), id);
+    }
+}
@@ -0,0 +1,302 @@
+package com.transaction.api.nio;
+
+import com.transaction.api.TransactionBinaryCodec;
+import com.transaction.metrics.MetricsRegistry;
+import com.transaction.service.TransactionService;
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class NioHttpServerTest {
+
+    private TransactionService transactionService;
+
+    private NioHttpServer server;
+
+    @Before
+    public void setup() throws IOException {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        TransactionServiceImpl transactionServiceImpl = new TransactionServiceImpl(
+                new InMemoryTransactionRepository(),
+                new InMemoryTransactionIdsByTypeIndex(), new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+        transactionServiceImpl.setMetricsRegistry(metricsRegistry);
+        transactionService = transactionServiceImpl;
+        server = new NioHttpServer(new InetSocketAddress("localhost", 0), 2, 4,
+                new TransactionHttpHandler(transactionService, metricsRegistry));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testCreateAndRead() throws IOException {
+        HttpURLConnection put = request("PUT", "/transactionservice/transaction/10",
+                "{\"amount\":5000.25,\"type\":\"cars\"}");
+        assertThat(put.getResponseCode(), is(equalTo(200)));
+        assertThat(body(put), is(equalTo("{\"status\":\"ok\"}")));
+
+        request("PUT", "/transactionservice/transaction/11", "{\"amount\":10,\"type\":\"cars\",\"parent_id\":10}")
+                .getResponseCode();
+
+        HttpURLConnection get = request("GET", "/transactionservice/transaction/11", null);
+        assertThat(get.getResponseCode(), is(equalTo(200)));
+        assertThat(get.getContentType(), is(equalTo("application/json;charset=UTF-8")));
+        assertThat(body(get), startsWith("{\"amount\":10,\"type\":\"cars\",\"parent_id\":10,\"timestamp\":"));
+
+        HttpURLConnection sum = request("GET", "/transactionservice/sum/10", null);
+        assertThat(body(sum), is(equalTo("{\"sum\":5010.25}")));
+    }
+
+    @Test
+    public void testBinaryCreateAndRead() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        TransactionBinaryCodec.writeTransaction(new Transaction(null, new BigDecimal("12.50"), "cars", null), body);
+        HttpURLConnection put = request("PUT", "/transactionservice/transaction/20", null);
+        put.setDoOutput(true);
+        put.setRequestProperty("Content-Type", TransactionBinaryCodec.APPLICATION_TRANSACTION_BINARY_VALUE);
+        try (OutputStream output = put.getOutputStream()) {
+            body.writeTo(output);
+        }
+        assertThat(put.getResponseCode(), is(equalTo(200)));
+
+        HttpURLConnection get = request("GET", "/transactionservice/transaction/20", null);
+        get.setRequestProperty("Accept", TransactionBinaryCodec.APPLICATION_TRANSACTION_BINARY_VALUE);
+        assertThat(get.getContentType(), is(equalTo(TransactionBinaryCodec.APPLICATION_TRANSACTION_BINARY_VALUE)));
+        try (InputStream input = get.getInputStream()) {
+            Transaction transaction = TransactionBinaryCodec.readStoredTransaction(input, 20L);
+            assertThat(transaction, is(equalTo(new Transaction(20L, new BigDecimal("12.50"), "cars", null))));
+            assertThat(transaction.getTimestamp(), is(notNullValue()));
+        }
+
+        HttpURLConnection truncated = request("PUT", "/transactionservice/transaction/21", null);
+        truncated.setDoOutput(true);
+        truncated.setRequestProperty("Content-Type", TransactionBinaryCodec.APPLICATION_TRANSACTION_BINARY_VALUE);
+        try (OutputStream output = truncated.getOutputStream()) {
+            output.write(body.toByteArray(), 0, body.size() - 1);
+        }
+        assertThat(truncated.getResponseCode(), is(equalTo(400)));
+    }
+
+    @Test
+    public void testIdsByType() throws IOException {
+        for (long id = 1; id <= 5; id++) {
+            transactionService.createOrUpdate(new Transaction(id, BigDecimal.ONE, "car rental", null));
+        }
+
+        HttpURLConnection all = request("GET", "/transactionservice/types/car%20rental", null);
+        assertThat(body(all), is(equalTo("[1,2,3,4,5]")));
+
+        HttpURLConnection page = request("GET", "/transactionservice/types/car%20rental?after=1&limit=2", null);
+        assertThat(page.getHeaderField("X-Next-Cursor"), is(equalTo("3")));
+        assertThat(body(page), is(equalTo("[2,3]")));
+    }
+
+    @Test
+    public void testInvalidPathEscape() throws IOException {
+        assertThat(request("GET", "/transactionservice/types/car%zzrental", null).getResponseCode(),
+                is(equalTo(400)));
+    }
+
+    @Test
+    public void testMultiGet() throws IOException {
+        for (long id = 1; id <= 3; id++) {
+            Transaction transaction = new Transaction(id, new BigDecimal("2.50"), "cars", id > 1 ? id - 1 : null);
+            transaction.setTimestamp(1000L);
+            transactionService.createOrUpdate(transaction);
+        }
+
+        HttpURLConnection transactions = request("GET", "/transactionservice/transactions/3,9,1?sum=true", null);
+        assertThat(body(transactions), is(equalTo("[{\"id\":3,\"amount\":2.50,\"type\":\"cars\",\"parent_id\":2,"
+                + "\"timestamp\":1000,\"sum\":2.50},null,{\"id\":1,\"amount\":2.50,\"type\":\"cars\","
+                + "\"parent_id\":null,\"timestamp\":1000,\"sum\":7.50}]")));
+
+        HttpURLConnection sums = request("GET", "/transactionservice/sums/2,1", null);
+        assertThat(body(sums), is(equalTo("[{\"id\":2,\"sum\":5.00},{\"id\":1,\"sum\":7.50}]")));
+
+        HttpURLConnection page = request("GET", "/transactionservice/types/cars?include=sum&after=1&limit=1", null);
+        assertThat(page.getHeaderField("X-Next-Cursor"), is(equalTo("2")));
+        assertThat(body(page), is(equalTo("[{\"id\":2,\"sum\":5.00}]")));
+
+        assertThat(request("GET", "/transactionservice/types/cars?include=other", null).getResponseCode(),
+                is(equalTo(400)));
+        assertThat(request("GET", "/transactionservice/sums/1,a", null).getResponseCode(), is(equalTo(400)));
+    }
+
+    @Test
+    public void testTimeWindow() throws IOException {
+        for (long id = 1; id <= 4; id++) {
+            Transaction transaction = new Transaction(id, new BigDecimal("2.50"), "cars", null);
+            transaction.setTimestamp(1000 * id);
+            transactionService.createOrUpdate(transaction);
+        }
+
+        HttpURLConnection range = request("GET", "/transactionservice/range/cars?from=2000&to=4000", null);
+        assertThat(body(range), is(equalTo("[2,3]")));
+
+        HttpURLConnection window = request("GET", "/transactionservice/window/cars?last=2500&to=4500", null);
+        assertThat(body(window), is(equalTo("{\"type\":\"cars\",\"from\":2000,\"to\":4500,\"count\":3,"
+                + "\"sum\":7.50}")));
+
+        assertThat(request("GET", "/transactionservice/window/cars", null).getResponseCode(), is(equalTo(400)));
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        request("PUT", "/transactionservice/transaction/1", "{\"amount\":1.5,\"type\":\"cars\"}").getResponseCode();
+        request("GET", "/transactionservice/sum/1", null).getResponseCode();
+        request("GET", "/transactionservice/sum/2", null).getResponseCode();
+
+        HttpURLConnection metrics = request("GET", "/metrics", null);
+        assertThat(metrics.getResponseCode(), is(equalTo(200)));
+        assertThat(metrics.getContentType(), startsWith("text/plain; version=0.0.4"));
+        String body = body(metrics);
+        assertThat(body, containsString(
+                "\ntransaction_http_request_latency_seconds_count{endpoint=\"getTransactionsSum\"} 2\n"));
+        assertThat(body, containsString("\ntransaction_service_latency_seconds_count{method=\"createOrUpdate\"} 1\n"));
+        assertThat(body, containsString("\ntransaction_repository_size 1\n"));
+        assertThat(body, containsString("\ntransaction_type_count 1\n"));
+    }
+
+    @Test
+    public void testBadRequests() throws IOException {
+        assertThat(request("PUT", "/transactionservice/transaction/1", "{\"type\":\"cars\"}").getResponseCode(),
+                is(equalTo(400)));
+        assertThat(request("PUT", "/transactionservice/transaction/1", "{\"amount\":").getResponseCode(),
+                is(equalTo(400)));
+        assertThat(request("PUT", "/transactionservice/transaction/2", "{\"amount\":1,\"type\":\"a\",\"parent_id\":7}")
+                .getResponseCode(), is(equalTo(400)));
+        assertThat(request("GET", "/transactionservice/transaction/abc", null).getResponseCode(), is(equalTo(400)));
+        assertThat(request("GET", "/transactionservice/sum/1", null).getResponseCode(), is(equalTo(400)));
+        assertThat(request("GET", "/transactionservice/types/a?limit=0", null).getResponseCode(), is(equalTo(400)));
+        assertThat(request("GET", "/transactionservice/other/1", null).getResponseCode(), is(equalTo(404)));
+        assertThat(request("DELETE", "/transactionservice/transaction/1", null).getResponseCode(), is(equalTo(405)));
+    }
+
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        String body = "{\"amount\":1.5,\"type\":\"cars\"}";
+        String requests = "PUT /transactionservice/transaction/1 HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Type: application/json\r\nContent-Length: " + body.length() + "\r\n\r\n" + body
+                + "GET /transactionservice/sum/1 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /transactionservice/transaction/1 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream output = socket.getOutputStream();
+            // Split the requests in order to get a request head and a body in several reads
+            byte[] bytes = requests.getBytes(StandardCharsets.UTF_8);
+            output.write(bytes, 0, 20);
+            output.flush();
+            output.write(bytes, 20, bytes.length - 20);
+            output.flush();
+
+            String responses = readAll(socket.getInputStream());
+            assertThat(responses, containsString("\r\n\r\n{\"status\":\"ok\"}HTTP/1.1 200 OK\r\n"));
+            assertThat(responses, containsString("\r\n\r\n{\"sum\":1.5}HTTP/1.1 200 OK\r\n"));
+            assertThat(responses, containsString("Connection: close\r\n"));
+            assertThat(responses,
+                    containsString("{\"amount\":1.5,\"type\":\"cars\",\"parent_id\":null,\"timestamp\":"));
+        }
+    }
+
+    @Test
+    public void testChunkedBodyNotSupported() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write(("PUT /transactionservice/transaction/1 HTTP/1.1\r\n"
+                    + "Transfer-Encoding: chunked\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+            assertThat(readAll(socket.getInputStream()), startsWith("HTTP/1.1 411 Length Required\r\n"));
+        }
+    }
+
+    @Test
+    public void testBlockedHandlerDoesNotBlockEventLoop() throws Exception {
+        CountDownLatch unblock = new CountDownLatch(1);
+        HttpHandler handler = (request, response) -> {
+            if (request.getPath().equals("/blocked")) {
+                try {
+                    unblock.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // A single event loop serves both connections while a worker is blocked
+        try (NioHttpServer blockingServer = new NioHttpServer(new InetSocketAddress("localhost", 0), 1, 2, handler)) {
+            blockingServer.start();
+            String url = "http://localhost:" + blockingServer.getPort();
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Integer> blocked = executor.submit(() ->
+                        ((HttpURLConnection) new URL(url + "/blocked").openConnection()).getResponseCode());
+                assertThat(((HttpURLConnection) new URL(url + "/other").openConnection()).getResponseCode(),
+                        is(equalTo(200)));
+                assertThat(blocked.isDone(), is(false));
+
+                unblock.countDown();
+                assertThat(blocked.get(1, TimeUnit.MINUTES), is(equalTo(200)));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private HttpURLConnection request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        try (InputStream input = connection.getInputStream()) {
+            return readAll(input);
+        }
+    }
+
+    private static String readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("UTF-8");
+    }
+}
@@ -0,0 +1,142 @@
+package com.transaction.feed;
+
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ChangeFeedTest {
+
+    private InMemoryTransactionAncestryIndex ancestryIndex;
+
+    private TransactionServiceImpl transactionService;
+
+    @Before
+    public void setup() {
+        ancestryIndex = new InMemoryTransactionAncestryIndex();
+        transactionService = new TransactionServiceImpl(new InMemoryTransactionRepository(),
+                new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(), ancestryIndex, new InMemoryTransactionTimeIndex());
+    }
+
+    @Test
+    public void testFilters() throws InterruptedException {
+        ChangeFeed changeFeed = createChangeFeed(16, 4);
+        Subscription all = changeFeed.subscribe(null, null);
+        Subscription cars = changeFeed.subscribe("cars", null);
+
+        create(1L, "cars", null);
+        Subscription subtree = changeFeed.subscribe(null, 1L);
+        create(2L, "bikes", 1L);
+        create(3L, "cars", null);
+        create(4L, "cars", 2L);
+
+        assertThat(ids(all), is(equalTo(new long[]{1, 2, 3, 4})));
+        assertThat(ids(cars), is(equalTo(new long[]{1, 3, 4})));
+        assertThat(ids(subtree), is(equalTo(new long[]{2, 4})));
+    }
+
+    @Test
+    public void testEventIsCopyOfWrite() throws InterruptedException {
+        ChangeFeed changeFeed = createChangeFeed(16, 4);
+        Subscription subscription = changeFeed.subscribe(null, null);
+
+        create(1L, "cars", null);
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("7.25"), "cars", null));
+
+        ChangeEvent created = subscription.poll(0);
+        ChangeEvent updated = subscription.poll(0);
+        assertThat(created.getTransaction().getAmount(), is(equalTo(BigDecimal.ONE)));
+        assertThat(updated.getTransaction().getAmount(), is(equalTo(new BigDecimal("7.25"))));
+        assertThat(updated.getTransaction().getTimestamp(), is(equalTo(created.getTransaction().getTimestamp())));
+        assertThat(updated.getSequence() > created.getSequence(), is(true));
+    }
+
+    @Test
+    public void testUpdateOutOfFilter() throws InterruptedException {
+        create(1L, "cars", null);
+        create(2L, "cars", null);
+        create(3L, "cars", 1L);
+        ChangeFeed changeFeed = createChangeFeed(16, 4);
+        Subscription subtree = changeFeed.subscribe(null, 1L);
+        Subscription cars = changeFeed.subscribe("cars", null);
+
+        // The subscribers of the old subtree and the old type get the update which moves the transaction out
+        transactionService.createOrUpdate(new Transaction(3L, BigDecimal.ONE, "bikes", 2L));
+        transactionService.createOrUpdate(new Transaction(3L, BigDecimal.TEN, "bikes", 2L));
+
+        assertThat(ids(subtree), is(equalTo(new long[]{3})));
+        assertThat(ids(cars), is(equalTo(new long[]{3})));
+    }
+
+    @Test
+    public void testOverflow() throws InterruptedException {
+        ChangeFeed changeFeed = createChangeFeed(2, 4);
+        Subscription slow = changeFeed.subscribe(null, null);
+        Subscription fast = changeFeed.subscribe(null, null);
+
+        for (long id = 1; id <= 5; id++) {
+            create(id, "cars", null);
+            fast.poll(0);
+        }
+
+        // The writes are not blocked by the full buffer and the buffered events are still read
+        assertThat(slow.isOverflowed(), is(true));
+        assertThat(fast.isOverflowed(), is(false));
+        assertThat(ids(slow), is(equalTo(new long[]{1, 2})));
+        assertThat(slow.poll(1000), is(nullValue()));
+        assertThat(changeFeed.getOverflowCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testSubscriberLimit() {
+        ChangeFeed changeFeed = createChangeFeed(16, 1);
+        Subscription subscription = changeFeed.subscribe(null, null);
+        try {
+            changeFeed.subscribe("cars", null);
+            throw new AssertionError("The subscriber limit is not checked");
+        } catch (TooManySubscribersException e) {
+            assertThat(changeFeed.getSubscriberCount(), is(equalTo(1)));
+        }
+
+        subscription.close();
+        assertThat(changeFeed.getSubscriberCount(), is(equalTo(0)));
+        assertThat(changeFeed.subscribe("cars", null), is(notNullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRoot() {
+        createChangeFeed(16, 4).subscribe(null, 1L);
+    }
+
+    private ChangeFeed createChangeFeed(int bufferSize, int maxSubscribers) {
+        ChangeFeed changeFeed = new ChangeFeed(ancestryIndex, bufferSize, maxSubscribers);
+        transactionService.setChangeFeed(changeFeed);
+        return changeFeed;
+    }
+
+    private void create(Long id, String type, Long parentId) {
+        transactionService.createOrUpdate(new Transaction(id, BigDecimal.ONE, type, parentId));
+    }
+
+    private static long[] ids(Subscription subscription) throws InterruptedException {
+        List<Long> ids = new ArrayList<>();
+        ChangeEvent event;
+        while ((event = subscription.poll(0)) != null) {
+            ids.add(event.getTransaction().getId());
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+}
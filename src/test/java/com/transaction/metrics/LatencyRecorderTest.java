@@ -0,0 +1,44 @@
+package com.transaction.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LatencyRecorderTest {
+
+    private LatencyRecorder recorder = new LatencyRecorder();
+
+    @Test
+    public void testPercentiles() {
+        for (long value = 1; value <= 100000; value++) {
+            recorder.record(value * 1000);
+        }
+
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot(50, 99, 100);
+        assertThat(snapshot.getCount(), is(equalTo(100000L)));
+        assertWithinError(snapshot.getValueAtPercentile(0), 50000000L);
+        assertWithinError(snapshot.getValueAtPercentile(1), 99000000L);
+        assertWithinError(snapshot.getValueAtPercentile(2), 100000000L);
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 1L << 40, Long.MAX_VALUE / 2}) {
+            int index = LatencyRecorder.index(value);
+            assertThat(LatencyRecorder.highestValue(index) >= value, is(true));
+            assertThat(index == 0 || LatencyRecorder.highestValue(index - 1) < value, is(true));
+        }
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot(50);
+        assertThat(snapshot.getCount(), is(equalTo(0L)));
+        assertThat(snapshot.getValueAtPercentile(0), is(equalTo(0L)));
+    }
+
+    private static void assertWithinError(long actual, long expected) {
+        assertThat(Math.abs(actual - expected) <= expected * 0.035, is(true));
+    }
+}
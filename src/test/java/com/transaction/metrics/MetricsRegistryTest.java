@@ -0,0 +1,57 @@
+package com.transaction.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MetricsRegistryTest {
+
+    private MetricsRegistry registry = new MetricsRegistry();
+
+    @Test
+    public void testWritePrometheusFormat() throws IOException {
+        registry.counter("requests_total", "Requests", "endpoint", "read").add(3);
+        registry.counter("requests_total", "Requests", "endpoint", "sum").increment();
+        registry.gauge("size", "Size", () -> 2.5);
+        LatencyRecorder latency = registry.latencyRecorder("latency_seconds", "Latency", "method", "get");
+        latency.record(1023);
+        latency.record(3071);
+
+        String text = scrape();
+        assertThat(text, containsString("# HELP requests_total Requests\n# TYPE requests_total counter\n"
+                + "requests_total{endpoint=\"read\"} 3\nrequests_total{endpoint=\"sum\"} 1\n"));
+        assertThat(text, containsString("# TYPE size gauge\nsize 2.5\n"));
+        assertThat(text, containsString("# TYPE latency_seconds summary\n"));
+        assertThat(text, containsString("latency_seconds{method=\"get\",quantile=\"0.5\"} 1.023E-6\n"));
+        assertThat(text, containsString("latency_seconds_sum{method=\"get\"} 4.094E-6\n"));
+        assertThat(text, containsString("latency_seconds_count{method=\"get\"} 2\n"));
+    }
+
+    @Test
+    public void testRegisteredMetricIsShared() {
+        Counter counter = registry.counter("requests_total", "Requests");
+        assertThat(registry.counter("requests_total", "Requests"), is(sameInstance(counter)));
+    }
+
+    @Test
+    public void testEscapeLabelValue() throws IOException {
+        registry.counter("requests_total", "Requests", "type", "a \"b\"").increment();
+        assertThat(scrape(), containsString("requests_total{type=\"a \\\"b\\\"\"} 1\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegisterWithAnotherType() {
+        registry.counter("requests", "Requests");
+        registry.gauge("requests", "Requests", () -> 1);
+    }
+
+    private String scrape() throws IOException {
+        StringWriter writer = new StringWriter();
+        registry.write(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.transaction.replication;
+
+import com.transaction.service.TransactionService;
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TransactionRepository;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ReplicationTest {
+
+    private static final long READ_WAIT_MILLIS = 10000;
+
+    private ChangeLog changeLog;
+
+    private TransactionService leader;
+
+    private ReplicationServer server;
+
+    private TransactionService followerService;
+
+    private ReplicationFollower follower;
+
+    @After
+    public void tearDown() throws IOException {
+        if (follower != null) {
+            follower.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFollowerAppliesChanges() throws IOException {
+        startLeader(1024);
+        startFollower();
+        leader.createOrUpdate(new Transaction(1L, new BigDecimal("10.00"), "cars", null));
+        leader.createOrUpdate(new Transaction(2L, new BigDecimal("5.00"), "cars", 1L));
+        leader.createOrUpdate(new Transaction(3L, new BigDecimal("2.50"), "shopping", 2L));
+        leader.createOrUpdate(new Transaction(4L, new BigDecimal("1.00"), "shopping", null));
+        // Update the amount and move the subtree of 3 under 4
+        leader.createOrUpdate(new Transaction(2L, new BigDecimal("6.00"), "cars", 1L));
+        leader.createOrUpdate(new Transaction(3L, new BigDecimal("2.50"), "shopping", 4L));
+
+        follower.awaitPosition(changeLog.getPosition());
+
+        assertThat(follower.getPosition(), is(equalTo(6L)));
+        assertThat(followerService.getById(2L).getAmount(), is(equalTo(new BigDecimal("6.00"))));
+        assertThat(followerService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("16.00"))));
+        assertThat(followerService.calculateTransactionsSum(4L), is(equalTo(new BigDecimal("3.50"))));
+        assertThat(followerService.getTransactionIdsByType("shopping").containsAll(Arrays.asList(3L, 4L)), is(true));
+        assertThat(followerService.getAncestorIds(3L), is(equalTo(new long[]{4L})));
+        assertThat(followerService.getAggregatesByType("cars").getCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testFollowerGetsSnapshotWhenBehindLog() throws IOException {
+        startLeader(4);
+        // The children are saved after their parents, but the snapshot could visit them in any order
+        for (long id = 1; id <= 20; id++) {
+            leader.createOrUpdate(new Transaction(id, BigDecimal.ONE, "cars", id > 1 ? id - 1 : null));
+        }
+        startFollower();
+        leader.createOrUpdate(new Transaction(21L, BigDecimal.ONE, "cars", 20L));
+
+        follower.awaitPosition(changeLog.getPosition());
+
+        assertThat(follower.getPosition(), is(equalTo(21L)));
+        assertThat(followerService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("21"))));
+        assertThat(followerService.getRootId(21L), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testFollowerLagFailsRead() throws IOException {
+        startLeader(16);
+        ReplicationFollower notStarted = new ReplicationFollower(new InetSocketAddress("localhost", server.getPort()),
+                newService(new InMemoryTransactionRepository()), 50);
+        leader.createOrUpdate(new Transaction(1L, BigDecimal.ONE, "cars", null));
+        try {
+            notStarted.awaitPosition(changeLog.getPosition());
+            fail("The follower has not applied the change");
+        } catch (ReplicationLagException e) {
+            assertThat(notStarted.getPosition(), is(equalTo(0L)));
+        }
+    }
+
+    @Test
+    public void testFollowerLagFailsCheckWithoutWaiting() throws IOException {
+        startLeader(16);
+        ReplicationFollower notStarted = new ReplicationFollower(new InetSocketAddress("localhost", server.getPort()),
+                newService(new InMemoryTransactionRepository()), 60000);
+        leader.createOrUpdate(new Transaction(1L, BigDecimal.ONE, "cars", null));
+        notStarted.checkPosition(0);
+        long startTime = System.nanoTime();
+        try {
+            notStarted.checkPosition(changeLog.getPosition());
+            fail("The follower has not applied the change");
+        } catch (ReplicationLagException e) {
+            assertThat(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(10), is(true));
+        }
+        // The leader has all of its changes
+        changeLog.checkPosition(changeLog.getPosition());
+        assertThat(changeLog.getSnapshotPosition(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testChangeLogKeepsLatestRecords() throws InterruptedException {
+        ChangeLog log = new ChangeLog(2);
+        assertThat(log.read(0, 10, 10).isEmpty(), is(true));
+        for (long id = 1; id <= 3; id++) {
+            assertThat(log.append(new Transaction(id, BigDecimal.ONE, "cars", null)), is(equalTo(id)));
+        }
+
+        assertThat(log.read(0, 10, 0), is(nullValue()));
+        List<byte[]> records = log.read(1, 10, 0);
+        assertThat(records.size(), is(equalTo(2)));
+        assertThat(log.contains(3), is(true));
+        assertThat(log.contains(4), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFollowerRejectsWrites() {
+        new ReadOnlyTransactionService(newService(new InMemoryTransactionRepository()))
+                .createOrUpdateAll(Arrays.asList(new Transaction(1L, BigDecimal.ONE, "cars", null)).iterator());
+    }
+
+    private void startLeader(int logCapacity) throws IOException {
+        changeLog = new ChangeLog(logCapacity);
+        TransactionRepository repository = new ChangeLogTransactionRepository(new InMemoryTransactionRepository(),
+                changeLog);
+        leader = newService(repository);
+        server = new ReplicationServer(new InetSocketAddress("localhost", 0), changeLog, repository);
+        server.start();
+    }
+
+    private void startFollower() {
+        followerService = newService(new InMemoryTransactionRepository());
+        follower = new ReplicationFollower(new InetSocketAddress("localhost", server.getPort()), followerService,
+                READ_WAIT_MILLIS);
+        follower.start();
+    }
+
+    private static TransactionService newService(TransactionRepository repository) {
+        return new TransactionServiceImpl(repository,
+                new InMemoryTransactionIdsByTypeIndex(), new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+    }
+}
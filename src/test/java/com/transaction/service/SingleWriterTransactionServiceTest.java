@@ -0,0 +1,161 @@
+package com.transaction.service;
+
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SingleWriterTransactionServiceTest {
+
+    private TransactionServiceImpl appliedService;
+
+    private SingleWriterTransactionService transactionService;
+
+    @Before
+    public void setup() {
+        appliedService = new TransactionServiceImpl(
+                new InMemoryTransactionRepository(),
+                new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+        // A small buffer and batch, so the callers wait for free slots and the writer applies several batches
+        transactionService = new SingleWriterTransactionService(appliedService, 16, 4);
+        transactionService.start();
+    }
+
+    @After
+    public void tearDown() {
+        transactionService.close();
+    }
+
+    @Test
+    public void testCreateAndUpdate() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("10.00"), "cars", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("5.50"), "cars", 1L));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("7.50"), "shopping", 1L));
+
+        assertThat(transactionService.getById(2L).getAmount(), is(equalTo(new BigDecimal("7.50"))));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("17.50"))));
+        assertThat(transactionService.getTransactionIdsByType("cars").size(), is(equalTo(1)));
+        assertThat(transactionService.getTransactionIdsByType("shopping").size(), is(equalTo(1)));
+    }
+
+    @Test(expected = ParentNotFoundException.class)
+    public void testCreateWithInvalidParent() {
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("5.50"), "cars", 1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateInvalidAmount() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("5.555"), "cars", null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateAfterClose() {
+        transactionService.close();
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("10.00"), "cars", null));
+    }
+
+    @Test
+    public void testConcurrentCreateAndUpdate() throws Exception {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        int threads = 8;
+        int transactionsPerThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                long firstId = 2 + i * transactionsPerThread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (long id = firstId; id < firstId + transactionsPerThread; id++) {
+                        transactionService.createOrUpdate(new Transaction(id, BigDecimal.ONE, "test type", 1L));
+                        // The caller reads its own write as soon as the call returns
+                        transactionService.createOrUpdate(
+                                new Transaction(id, new BigDecimal("2.00"), "test type", id == firstId ? 1L : id - 1));
+                        assertThat(transactionService.getById(id).getParentId(), is(notNullValue()));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long count = 1 + threads * transactionsPerThread;
+        assertThat(appliedService.aggregateSubtree(1L, transaction -> 1L, Long::sum, 0L), is(equalTo(count)));
+        assertThat(transactionService.calculateTransactionsSum(1L),
+                is(equalTo(new BigDecimal(2 * count - 1).setScale(2))));
+    }
+
+    @Test
+    public void testFailedWriteInBatch() throws Exception {
+        transactionService.close();
+        long failingId = 50L;
+        InMemoryTransactionRepository transactionRepository = new InMemoryTransactionRepository() {
+            @Override
+            public void save(Transaction transaction) {
+                if (transaction.getId() == failingId) {
+                    throw new IllegalStateException("The storage failed");
+                }
+                super.save(transaction);
+            }
+        };
+        transactionService = new SingleWriterTransactionService(new TransactionServiceImpl(
+                transactionRepository,
+                new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex()), 16, 4);
+        transactionService.start();
+
+        int transactions = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (long id = 1; id <= transactions; id++) {
+                Transaction transaction = new Transaction(id, BigDecimal.ONE, "test type", null);
+                futures.add(executor.submit(() -> transactionService.createOrUpdate(transaction)));
+            }
+            for (int i = 0; i < transactions; i++) {
+                long id = i + 1;
+                boolean failed = false;
+                try {
+                    futures.get(i).get(1, TimeUnit.MINUTES);
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+                    failed = true;
+                }
+                // A caller gets the error only if its transaction is not applied
+                assertThat(failed, is(equalTo(transactionRepository.read(id) == null)));
+                if (id == failingId) {
+                    assertThat(failed, is(true));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,29 +1,62 @@
 package com.transaction.service;
 
+import com.transaction.storage.ColumnarTransactionRepository;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
 import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
 import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.TimeWindowAggregates;
 import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+import com.transaction.storage.cache.CachingTransactionRepository;
+import com.transaction.storage.wal.SnapshotStore;
+import com.transaction.storage.wal.WriteAheadLog;
+import com.transaction.storage.wal.WriteAheadLogTransactionRepository;
 import org.junit.Before;
 import org.junit.Test;
 
-import javax.validation.Validation;
-import javax.validation.ValidatorFactory;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class TransactionServiceImplTest {
 
-    private TransactionService transactionService;
+    private TransactionServiceImpl transactionService;
 
     @Before
     public void setup() {
         // Create a new instance of the service in order to start with empty transaction store
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        transactionService = new TransactionServiceImpl(factory.getValidator(), new InMemoryTransactionRepository(),
-                new InMemoryTransactionIdsByTypeIndex());
+        transactionService = new TransactionServiceImpl(new InMemoryTransactionRepository(),
+                new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+    }
+
+    private static TransactionService createService(WriteAheadLog writeAheadLog) {
+        return new TransactionServiceImpl(
+                new WriteAheadLogTransactionRepository(new InMemoryTransactionRepository(), writeAheadLog),
+                new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
     }
 
     @Test
@@ -96,6 +129,24 @@ public class TransactionServiceImplTest {
         assertThat(storedParentTransaction.getChildren().size(), is(equalTo(1)));
     }
 
+    @Test
+    public void testUpdateParentAfterAmountUpdate() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("10.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("10.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("5.00"), "test type", 1L));
+        transactionService.createOrUpdate(new Transaction(4L, new BigDecimal("1.00"), "test type", 3L));
+
+        // The child link is found by the ID, whatever the amount of the child was when it was linked
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("6.00"), "test type2", 1L));
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("6.00"), "test type2", 2L));
+
+        assertThat(transactionService.getById(1L).getChildren().size(), is(equalTo(0)));
+        assertThat(transactionService.getById(2L).getChildren().size(), is(equalTo(1)));
+        assertThat(transactionService.getById(3L).getChildren().size(), is(equalTo(1)));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("10.00"))));
+        assertThat(transactionService.calculateTransactionsSum(2L), is(equalTo(new BigDecimal("17.00"))));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testUnableToPointSelfAsParent() {
         Transaction parentTransaction = new Transaction(23768L, new BigDecimal("542.32"), "test type", null);
@@ -140,6 +191,30 @@ public class TransactionServiceImplTest {
         transactionService.createOrUpdate(null);
     }
 
+    @Test
+    public void testTryCreateOrUpdateResultCodes() {
+        assertThat(transactionService.tryCreateOrUpdate(null), is(ValidationResult.MISSING_TRANSACTION));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(null, BigDecimal.ONE, "cars", null)),
+                is(ValidationResult.MISSING_ID));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, null, "cars", null)),
+                is(ValidationResult.MISSING_AMOUNT));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, BigDecimal.ONE, "", null)),
+                is(ValidationResult.MISSING_TYPE));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, new BigDecimal("1.005"), "cars", null)),
+                is(ValidationResult.AMOUNT_SCALE));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, BigDecimal.ONE, "cars", 1L)),
+                is(ValidationResult.SELF_PARENT));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, BigDecimal.ONE, "cars", 2L)),
+                is(ValidationResult.PARENT_NOT_FOUND));
+        assertThat(transactionService.getTransactionIdsByType("cars").isEmpty(), is(true));
+
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(2L, BigDecimal.ONE, "cars", null)),
+                is(ValidationResult.VALID));
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, BigDecimal.ONE, "cars", 2L)),
+                is(ValidationResult.VALID));
+        assertThat(transactionService.calculateTransactionsSum(2L), is(equalTo(new BigDecimal("2"))));
+    }
+
     @Test
     public void testCreateWithNegativeAmount() {
         Transaction transaction = new Transaction(568736L, new BigDecimal("-12.43"), "test type", null);
@@ -166,6 +241,147 @@ public class TransactionServiceImplTest {
         transactionService.createOrUpdate(transaction);
     }
 
+    @Test
+    public void testCreateOrUpdateAll() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("10.00"), "test type", null));
+
+        List<Transaction> batch = Arrays.asList(
+                new Transaction(3L, new BigDecimal("3.00"), "test type", 2L),
+                new Transaction(2L, new BigDecimal("2.00"), "test type", 1L),
+                new Transaction(4L, new BigDecimal("4.005"), "test type", 1L),
+                new Transaction(5L, new BigDecimal("5.00"), "test type", 42L),
+                new Transaction(1L, new BigDecimal("1.00"), "test type2", null));
+        BatchResult result = transactionService.createOrUpdateAll(batch.iterator());
+
+        assertThat(result.getProcessed(), is(equalTo(3L)));
+        assertThat(result.getFailed(), is(equalTo(2L)));
+        assertThat(result.getFailures().get(0).getIndex(), is(equalTo(2L)));
+        assertThat(result.getFailures().get(1).getIndex(), is(equalTo(3L)));
+        assertThat(result.getFailures().get(1).getId(), is(equalTo(5L)));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("6.00"))));
+        assertThat(transactionService.getById(3L).getParentId(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testCreateOrUpdateAllLargeBatch() {
+        // Every transaction comes before its parent, so all of them wait for the root which is the last one
+        List<Transaction> batch = new ArrayList<>();
+        for (long id = 10000; id > 1; id--) {
+            batch.add(new Transaction(id, new BigDecimal("1.00"), "test type", id / 2));
+        }
+        batch.add(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+
+        BatchResult result = transactionService.createOrUpdateAll(batch.iterator());
+
+        assertThat(result.getProcessed(), is(equalTo(10000L)));
+        assertThat(result.getFailed(), is(equalTo(0L)));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("10000.00"))));
+    }
+
+    @Test
+    public void testCreateOrUpdateAllKeepsOrderOfSameId() {
+        // The first update of 2 waits for its parent, the later updates of 2 should not overtake it
+        List<Transaction> batch = Arrays.asList(
+                new Transaction(2L, new BigDecimal("1.00"), "test type", 1L),
+                new Transaction(2L, new BigDecimal("2.00"), "test type", null),
+                new Transaction(3L, new BigDecimal("3.00"), "test type", null),
+                new Transaction(2L, new BigDecimal("4.00"), "test type2", 3L),
+                new Transaction(1L, new BigDecimal("5.00"), "test type", null));
+        BatchResult result = transactionService.createOrUpdateAll(batch.iterator());
+
+        assertThat(result.getProcessed(), is(equalTo(5L)));
+        assertThat(transactionService.getById(2L).getAmount(), is(equalTo(new BigDecimal("4.00"))));
+        assertThat(transactionService.getById(2L).getParentId(), is(equalTo(3L)));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("5.00"))));
+        assertThat(transactionService.calculateTransactionsSum(3L), is(equalTo(new BigDecimal("7.00"))));
+    }
+
+    @Test
+    public void testCreateOrUpdateAllDeferredLimit() {
+        ((TransactionServiceImpl) transactionService).setMaxDeferredTransactions(2);
+        List<Transaction> batch = Arrays.asList(
+                new Transaction(2L, new BigDecimal("2.00"), "test type", 1L),
+                new Transaction(3L, new BigDecimal("3.00"), "test type", 1L),
+                new Transaction(4L, new BigDecimal("4.00"), "test type", 1L),
+                new Transaction(2L, new BigDecimal("5.00"), "test type", null),
+                new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        BatchResult result = transactionService.createOrUpdateAll(batch.iterator());
+
+        assertThat(result.getProcessed(), is(equalTo(3L)));
+        assertThat(result.getFailed(), is(equalTo(2L)));
+        assertThat(result.getFailures().get(0).getIndex(), is(equalTo(2L)));
+        assertThat(result.getFailures().get(0).getMessage(), is(equalTo("Invalid parent id: 1")));
+        assertThat(result.getFailures().get(1).getIndex(), is(equalTo(3L)));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("6.00"))));
+    }
+
+    @Test
+    public void testRecoverFromWriteAheadLog() throws IOException {
+        Path directory = Files.createTempDirectory("wal-recovery-test");
+        try (WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 4096, WriteAheadLog.FsyncPolicy.NONE)) {
+            TransactionService loggingService = createService(writeAheadLog);
+            loggingService.createOrUpdate(new Transaction(1L, new BigDecimal("10.00"), "test type", null));
+            loggingService.createOrUpdate(new Transaction(2L, new BigDecimal("2.00"), "test type", 1L));
+            loggingService.createOrUpdate(new Transaction(3L, new BigDecimal("3.00"), "test type", 2L));
+            loggingService.createOrUpdate(new Transaction(2L, new BigDecimal("5.00"), "test type2", null));
+        }
+
+        try (WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 4096, WriteAheadLog.FsyncPolicy.NONE)) {
+            TransactionService recoveredService = createService(writeAheadLog);
+            new WriteAheadLogRecovery(writeAheadLog, new SnapshotStore(directory), recoveredService).recover();
+
+            assertThat(recoveredService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("10.00"))));
+            assertThat(recoveredService.calculateTransactionsSum(2L), is(equalTo(new BigDecimal("8.00"))));
+            assertThat(recoveredService.getTransactionIdsByType("test type2"), hasItem(2L));
+            assertThat(recoveredService.getTransactionIdsByType("test type"), not(hasItem(2L)));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndWriteAheadLog() throws IOException {
+        Path directory = Files.createTempDirectory("snapshot-recovery-test");
+        try {
+            try (WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.NONE)) {
+                WriteAheadLogTransactionRepository repository =
+                        new WriteAheadLogTransactionRepository(new InMemoryTransactionRepository(), writeAheadLog);
+                TransactionService loggingService = new TransactionServiceImpl(repository,
+                        new InMemoryTransactionIdsByTypeIndex(),
+                        new InMemoryTransactionAggregatesByTypeIndex(),
+                        new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+                // Children are created before their parents are updated, so the snapshot has them in any order
+                loggingService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+                for (long id = 2; id <= 50; id++) {
+                    loggingService.createOrUpdate(new Transaction(id, new BigDecimal("1.00"), "test type", id - 1));
+                }
+                repository.snapshot(new SnapshotStore(directory));
+                loggingService.createOrUpdate(new Transaction(50L, new BigDecimal("10.00"), "test type2", 1L));
+                loggingService.createOrUpdate(new Transaction(51L, new BigDecimal("1.00"), "test type", 50L));
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                // Most of the log segments are deleted after the snapshot
+                assertThat(files.filter(path -> path.toString().endsWith(".wal")).count() < 3, is(true));
+            }
+
+            try (WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.NONE)) {
+                TransactionService recoveredService = createService(writeAheadLog);
+                new WriteAheadLogRecovery(writeAheadLog, new SnapshotStore(directory), recoveredService).recover();
+
+                assertThat(recoveredService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("60.00"))));
+                assertThat(recoveredService.calculateTransactionsSum(50L), is(equalTo(new BigDecimal("11.00"))));
+                assertThat(recoveredService.calculateTransactionsSum(2L), is(equalTo(new BigDecimal("48.00"))));
+                assertThat(recoveredService.getTransactionIdsByType("test type2"), hasItem(50L));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
     @Test
     public void testSumOfTransactions() {
         Transaction parentTransaction = new Transaction(5187623L, new BigDecimal("542.32"), "test type", null);
@@ -192,6 +408,22 @@ public class TransactionServiceImplTest {
                         .add(childTransaction4.getAmount()))));
     }
 
+    @Test
+    public void testGetByIdsAndSums() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("2.00"), "test type", 1L));
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("3.00"), "test type1", 2L));
+
+        Transaction[] transactions = transactionService.getByIds(new long[]{3, 42, 1});
+        assertThat(transactions[0].getType(), is(equalTo("test type1")));
+        assertThat(transactions[1], is(nullValue()));
+        assertThat(transactions[2].getAmount(), is(equalTo(new BigDecimal("1.00"))));
+
+        // The subtrees overlap
+        assertThat(transactionService.calculateTransactionsSums(new long[]{1, 2, 3, 42}), is(equalTo(new BigDecimal[]{
+                new BigDecimal("6.00"), new BigDecimal("5.00"), new BigDecimal("3.00"), null})));
+    }
+
     @Test
     public void testSumWithoutChildren() {
         Transaction transaction = new Transaction(76564325L, new BigDecimal("41.21"), "test type", null);
@@ -201,6 +433,243 @@ public class TransactionServiceImplTest {
         assertThat(sum, is(equalTo(transaction.getAmount())));
     }
 
+    @Test
+    public void testSumAfterAmountUpdate() {
+        Transaction parentTransaction = new Transaction(8712341L, new BigDecimal("100.50"), "test type", null);
+        transactionService.createOrUpdate(parentTransaction);
+
+        Transaction childTransaction = new Transaction(8712342L, new BigDecimal("20.25"), "test type", 8712341L);
+        transactionService.createOrUpdate(childTransaction);
+
+        Transaction grandChildTransaction = new Transaction(8712343L, new BigDecimal("3"), "test type", 8712342L);
+        transactionService.createOrUpdate(grandChildTransaction);
+
+        Transaction updatedGrandChild = new Transaction(8712343L, new BigDecimal("-7.10"), "test type2", 8712342L);
+        transactionService.createOrUpdate(updatedGrandChild);
+
+        assertThat(transactionService.calculateTransactionsSum(8712341L), is(equalTo(new BigDecimal("113.65"))));
+        assertThat(transactionService.calculateTransactionsSum(8712342L), is(equalTo(new BigDecimal("13.15"))));
+        assertThat(transactionService.calculateTransactionsSum(8712343L), is(equalTo(new BigDecimal("-7.10"))));
+    }
+
+    @Test
+    public void testSumAfterParentUpdate() {
+        Transaction parentTransaction1 = new Transaction(9912341L, new BigDecimal("100.00"), "test type", null);
+        transactionService.createOrUpdate(parentTransaction1);
+
+        Transaction parentTransaction2 = new Transaction(9912342L, new BigDecimal("200.00"), "test type", null);
+        transactionService.createOrUpdate(parentTransaction2);
+
+        Transaction childTransaction = new Transaction(9912343L, new BigDecimal("10.00"), "test type", 9912341L);
+        transactionService.createOrUpdate(childTransaction);
+
+        Transaction grandChildTransaction = new Transaction(9912344L, new BigDecimal("1.00"), "test type", 9912343L);
+        transactionService.createOrUpdate(grandChildTransaction);
+
+        Transaction updatedChild = new Transaction(9912343L, new BigDecimal("20.00"), "test type", 9912342L);
+        transactionService.createOrUpdate(updatedChild);
+
+        assertThat(transactionService.calculateTransactionsSum(9912341L), is(equalTo(new BigDecimal("100.00"))));
+        assertThat(transactionService.calculateTransactionsSum(9912342L), is(equalTo(new BigDecimal("221.00"))));
+        assertThat(transactionService.calculateTransactionsSum(9912343L), is(equalTo(new BigDecimal("21.00"))));
+    }
+
+    @Test
+    public void testSumWithVerification() {
+        ((TransactionServiceImpl) transactionService).setSumVerificationEnabled(true);
+
+        Transaction parentTransaction = new Transaction(4412341L, new BigDecimal("542.32"), "test type", null);
+        transactionService.createOrUpdate(parentTransaction);
+
+        Transaction childTransaction = new Transaction(4412342L, new BigDecimal("22.35"), "test type", 4412341L);
+        transactionService.createOrUpdate(childTransaction);
+
+        Transaction updatedChild = new Transaction(4412342L, new BigDecimal("12.35"), "test type", null);
+        transactionService.createOrUpdate(updatedChild);
+
+        assertThat(transactionService.calculateTransactionsSum(4412341L), is(equalTo(new BigDecimal("542.32"))));
+        assertThat(transactionService.calculateTransactionsSum(4412342L), is(equalTo(new BigDecimal("12.35"))));
+    }
+
+    @Test
+    public void testSumOfDeepChainWithVerification() {
+        int depth = 100000;
+        // Create all the transactions without a parent and link them from the bottom in order to keep every
+        // update cheap - the new parent is still a root when its child is linked
+        for (long id = 1; id <= depth; id++) {
+            transactionService.createOrUpdate(new Transaction(id, new BigDecimal("1.50"), "test type", null));
+        }
+        for (long id = depth; id > 1; id--) {
+            transactionService.createOrUpdate(new Transaction(id, new BigDecimal("1.50"), "test type", id - 1));
+        }
+        ((TransactionServiceImpl) transactionService).setSumVerificationEnabled(true);
+
+        BigDecimal sum = transactionService.calculateTransactionsSum(1L);
+        assertThat(sum, is(equalTo(new BigDecimal("150000.00"))));
+    }
+
+    @Test
+    public void testAggregateSubtreeInParallel() {
+        ((TransactionServiceImpl) transactionService).setTraversalParallelThreshold(8);
+
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        long id = 2;
+        for (int i = 0; i < 100; i++) {
+            long childId = id++;
+            transactionService.createOrUpdate(new Transaction(childId, new BigDecimal("1.00"), "test type", 1L));
+            for (int j = 0; j < 50; j++) {
+                transactionService.createOrUpdate(new Transaction(id++, new BigDecimal("1.00"), "test type", childId));
+            }
+        }
+
+        Long count = transactionService.aggregateSubtree(1L, transaction -> 1L, Long::sum, 0L);
+        BigDecimal sum = transactionService.aggregateSubtree(1L, Transaction::getAmount, BigDecimal::add,
+                BigDecimal.ZERO);
+        assertThat(count, is(equalTo(5101L)));
+        assertThat(sum, is(equalTo(new BigDecimal("5101.00"))));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        verifyConcurrentUpdates(transactionService);
+    }
+
+    @Test
+    public void testConcurrentUpdatesColumnar() throws Exception {
+        verifyConcurrentUpdates(new TransactionServiceImpl(
+                new ColumnarTransactionRepository(false, 1024), new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex()));
+    }
+
+    @Test
+    public void testAmountOutOfColumnarRangeRejected() {
+        TransactionService columnarService = new TransactionServiceImpl(
+                new ColumnarTransactionRepository(false, 16), new InMemoryTransactionIdsByTypeIndex(),
+                new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+        columnarService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        columnarService.createOrUpdate(new Transaction(2L, new BigDecimal("2.00"), "test type", 1L));
+
+        assertThat(columnarService.tryCreateOrUpdate(
+                new Transaction(2L, new BigDecimal("1E+17"), "test type", null)),
+                is(equalTo(ValidationResult.AMOUNT_RANGE)));
+        assertThat(columnarService.getById(2L).getParentId(), is(equalTo(1L)));
+        assertThat(columnarService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("3.00"))));
+    }
+
+    @Test
+    public void testConcurrentUpdatesCached() throws Exception {
+        // A small cache, so the transactions are evicted and loaded again during the updates
+        verifyConcurrentUpdates(new TransactionServiceImpl(
+                new CachingTransactionRepository(new ColumnarTransactionRepository(false, 1024), 16 * 1024, 4),
+                new InMemoryTransactionIdsByTypeIndex(), new InMemoryTransactionAggregatesByTypeIndex(),
+                new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex()));
+    }
+
+    @Test
+    public void testConcurrentCreateOfChildren() throws Exception {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        int threads = 8;
+        int childrenPerThread = 2000;
+        runConcurrently(threads, thread -> {
+            for (long i = 0; i < childrenPerThread; i++) {
+                long id = 2 + thread * childrenPerThread + i;
+                // Every second transaction updates its parent while the others add children to it
+                long parentId = i % 2 == 0 ? 1L : id - 1;
+                transactionService.createOrUpdate(new Transaction(id, new BigDecimal("1.00"), "test type", parentId));
+                if (i % 2 == 1) {
+                    transactionService.createOrUpdate(
+                            new Transaction(id - 1, new BigDecimal("2.00"), "test type", 1L));
+                }
+            }
+        });
+
+        int count = 1 + threads * childrenPerThread;
+        assertThat(transactionService.aggregateSubtree(1L, transaction -> 1L, Long::sum, 0L),
+                is(equalTo((long) count)));
+        assertThat(transactionService.calculateTransactionsSum(1L),
+                is(equalTo(new BigDecimal(1 + threads * childrenPerThread * 3 / 2).setScale(2))));
+        assertThat(transactionService.getTransactionIdsByType("test type").size(), is(equalTo(count)));
+    }
+
+    private static void verifyConcurrentUpdates(TransactionServiceImpl transactionService) throws Exception {
+        int size = 200;
+        String[] types = {"type a", "type b", "type c"};
+        for (long id = 1; id <= size; id++) {
+            transactionService.createOrUpdate(new Transaction(id, BigDecimal.ONE, types[0], id == 1 ? null : 1L));
+        }
+
+        // Concurrent updates of the same IDs which change the amount, the type and the parent. A parent
+        // always has a lower ID, so the moves could not create a cycle.
+        runConcurrently(8, thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 5000; i++) {
+                long id = random.nextLong(2, size + 1);
+                long parentId = random.nextInt(4) == 0 ? random.nextLong(1, id) : Math.max(1, id / 2);
+                transactionService.createOrUpdate(new Transaction(id, BigDecimal.valueOf(random.nextInt(-500, 500), 2),
+                        types[random.nextInt(types.length)], parentId));
+            }
+        });
+
+        // Every transaction is linked to its parent exactly once and has the sum of its subtree
+        assertThat(transactionService.aggregateSubtree(1L, transaction -> 1L, Long::sum, 0L),
+                is(equalTo((long) size)));
+        long indexed = 0;
+        for (long id = 1; id <= size; id++) {
+            Transaction transaction = transactionService.getById(id);
+            BigDecimal subtreeSum = transactionService.aggregateSubtree(id, Transaction::getAmount, BigDecimal::add,
+                    BigDecimal.ZERO);
+            assertThat(transaction.getSubtreeSum().compareTo(subtreeSum), is(equalTo(0)));
+            assertThat(Arrays.stream(transactionService.getTransactionIdsByType(transaction.getType(), id - 1, 1))
+                    .boxed().toArray(), is(equalTo(new Object[]{id})));
+        }
+        for (String type : types) {
+            indexed += transactionService.getTransactionIdsByType(type).size();
+            // The aggregates are the same as aggregated from the transactions of the type
+            BigDecimal sum = BigDecimal.ZERO;
+            BigDecimal max = null;
+            for (long id : transactionService.getTransactionIdsByType(type, null, size)) {
+                BigDecimal amount = transactionService.getById(id).getAmount();
+                sum = sum.add(amount);
+                max = max == null || amount.compareTo(max) > 0 ? amount : max;
+            }
+            TypeAggregates aggregates = transactionService.getAggregatesByType(type);
+            assertThat(aggregates.getCount(), is(equalTo((long) transactionService.getTransactionIdsByType(type)
+                    .size())));
+            assertThat(aggregates.getSum().compareTo(sum), is(equalTo(0)));
+            assertThat(aggregates.getMax(), is(equalTo(max)));
+        }
+        assertThat(indexed, is(equalTo((long) size)));
+    }
+
+    private static void runConcurrently(int threads, IntConsumer task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.accept(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregateSubtreeInvalidId() {
+        transactionService.aggregateSubtree(4327623L, transaction -> 1L, Long::sum, 0L);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSumOfTransactionsInvalidId() {
         transactionService.calculateTransactionsSum(4327623L);
@@ -246,6 +715,28 @@ public class TransactionServiceImplTest {
         assertThat(testType1Ids.size(), is(equalTo(1)));
     }
 
+    @Test
+    public void testIdsByTypePaged() {
+        for (long id = 1; id <= 10; id++) {
+            transactionService.createOrUpdate(new Transaction(id * 100000, new BigDecimal("1.00"), "test type", null));
+        }
+
+        long[] firstPage = transactionService.getTransactionIdsByType("test type", null, 4);
+        long[] secondPage = transactionService.getTransactionIdsByType("test type", firstPage[3], 4);
+        long[] lastPage = transactionService.getTransactionIdsByType("test type", secondPage[3], 4);
+        long[] emptyPage = transactionService.getTransactionIdsByType("test type", lastPage[1], 4);
+
+        assertThat(firstPage, is(equalTo(new long[]{100000L, 200000L, 300000L, 400000L})));
+        assertThat(secondPage, is(equalTo(new long[]{500000L, 600000L, 700000L, 800000L})));
+        assertThat(lastPage, is(equalTo(new long[]{900000L, 1000000L})));
+        assertThat(emptyPage.length, is(equalTo(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIdsByTypeInvalidLimit() {
+        transactionService.getTransactionIdsByType("test type", null, 0);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testIdsByTypeNullType() {
         transactionService.getTransactionIdsByType(null);
@@ -257,6 +748,155 @@ public class TransactionServiceImplTest {
         assertThat(testTypeIds.size(), is(equalTo(0)));
     }
 
+    @Test
+    public void testAggregatesByType() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("5.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("-20.50"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("300"), "test type", 1L));
+        transactionService.createOrUpdate(new Transaction(4L, new BigDecimal("7"), "other type", null));
+
+        TypeAggregates aggregates = transactionService.getAggregatesByType("test type");
+        assertThat(aggregates.getCount(), is(equalTo(3L)));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("284.50"))));
+        assertThat(aggregates.getMin(), is(equalTo(new BigDecimal("-20.50"))));
+        assertThat(aggregates.getMax(), is(equalTo(new BigDecimal("300"))));
+        assertThat(aggregates.getHistogramCounts(), is(equalTo(new long[]{1, 1, 0, 1, 0, 0, 0})));
+    }
+
+    @Test
+    public void testAggregatesByTypeAfterUpdate() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("5.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("300"), "test type", null));
+
+        // The maximum is updated to a lower amount and the minimum is moved to another type
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("50"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("5.00"), "test type1", null));
+
+        TypeAggregates aggregates = transactionService.getAggregatesByType("test type");
+        assertThat(aggregates.getCount(), is(equalTo(1L)));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("50.00"))));
+        assertThat(aggregates.getMin(), is(equalTo(new BigDecimal("50"))));
+        assertThat(aggregates.getMax(), is(equalTo(new BigDecimal("50"))));
+        assertThat(aggregates.getHistogramCounts(), is(equalTo(new long[]{0, 0, 1, 0, 0, 0, 0})));
+        assertThat(transactionService.getAggregatesByType("test type1").getSum(), is(equalTo(new BigDecimal("5.00"))));
+    }
+
+    @Test
+    public void testAggregatesByNotExistingType() {
+        TypeAggregates aggregates = transactionService.getAggregatesByType("not existing one");
+        assertThat(aggregates.getCount(), is(equalTo(0L)));
+        assertThat(aggregates.getSum(), is(equalTo(BigDecimal.ZERO)));
+        assertThat(aggregates.getMin(), is(nullValue()));
+        assertThat(aggregates.getMax(), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregatesByTypeNullType() {
+        transactionService.getAggregatesByType(null);
+    }
+
+    @Test
+    public void testLineage() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("1.00"), "test type", 1L));
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("1.00"), "test type", 2L));
+        transactionService.createOrUpdate(new Transaction(4L, new BigDecimal("1.00"), "test type", null));
+
+        assertThat(transactionService.getAncestorIds(3L), is(equalTo(new long[]{2, 1})));
+        assertThat(transactionService.getRootId(3L), is(equalTo(1L)));
+        assertThat(transactionService.isInSubtree(3L, 1L), is(true));
+        assertThat(transactionService.isInSubtree(1L, 3L), is(false));
+
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("1.00"), "test type", 4L));
+        assertThat(transactionService.getAncestorIds(3L), is(equalTo(new long[]{2, 4})));
+        assertThat(transactionService.getRootId(3L), is(equalTo(4L)));
+        assertThat(transactionService.isInSubtree(3L, 1L), is(false));
+    }
+
+    @Test
+    public void testUnableToMoveUnderDescendant() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        transactionService.createOrUpdate(new Transaction(2L, new BigDecimal("2.00"), "test type", 1L));
+        transactionService.createOrUpdate(new Transaction(3L, new BigDecimal("3.00"), "test type", 2L));
+
+        try {
+            transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", 3L));
+            fail("Moving a transaction under its descendant should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is(equalTo("Parent 3 is a descendant of transaction 1")));
+        }
+
+        assertThat(transactionService.tryCreateOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", 2L)),
+                is(equalTo(ValidationResult.PARENT_CYCLE)));
+
+        assertThat(transactionService.getById(1L).getParentId(), is(nullValue()));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("6.00"))));
+        assertThat(transactionService.getRootId(3L), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testUnableToMoveUnderDescendantInBatch() {
+        BatchResult result = transactionService.createOrUpdateAll(Arrays.asList(
+                new Transaction(1L, new BigDecimal("1.00"), "test type", null),
+                new Transaction(2L, new BigDecimal("2.00"), "test type", 1L),
+                new Transaction(1L, new BigDecimal("1.00"), "test type", 2L)).iterator());
+
+        assertThat(result.getProcessed(), is(equalTo(2L)));
+        assertThat(result.getFailures().get(0).getIndex(), is(equalTo(2L)));
+        assertThat(transactionService.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("3.00"))));
+    }
+
+    @Test
+    public void testTimestampKeptOnUpdate() {
+        long before = System.currentTimeMillis();
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        long timestamp = transactionService.getById(1L).getTimestamp();
+        assertThat(timestamp >= before && timestamp <= System.currentTimeMillis(), is(true));
+
+        // The timestamp of an update is ignored
+        Transaction update = new Transaction(1L, new BigDecimal("2.00"), "test type1", null);
+        update.setTimestamp(before - 100000);
+        transactionService.createOrUpdate(update);
+        assertThat(transactionService.getById(1L).getTimestamp(), is(equalTo(timestamp)));
+        assertThat(transactionService.getTransactionIdsByTime("test type1", timestamp, timestamp + 1, 10),
+                is(equalTo(new long[]{1})));
+        assertThat(transactionService.getTransactionIdsByTime("test type", timestamp, timestamp + 1, 10),
+                is(equalTo(new long[0])));
+    }
+
+    @Test
+    public void testAggregatesByTime() {
+        // Replayed transactions keep their timestamps
+        for (long id = 1; id <= 10; id++) {
+            Transaction transaction = new Transaction(id, new BigDecimal("1.50"), "test type", null);
+            transaction.setTimestamp(id * 60000);
+            transactionService.createOrUpdate(transaction);
+        }
+        transactionService.createOrUpdate(new Transaction(5L, new BigDecimal("3.50"), "test type", null));
+
+        TimeWindowAggregates aggregates = transactionService.getAggregatesByTime("test type", 180000, 360000);
+        assertThat(aggregates.getCount(), is(equalTo(3L)));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("6.50"))));
+        assertThat(transactionService.getTransactionIdsByTime("test type", 0, 240001, 10),
+                is(equalTo(new long[]{1, 2, 3, 4})));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregatesByTimeEmptyWindow() {
+        transactionService.getAggregatesByTime("test type", 1000, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAncestorsInvalidId() {
+        transactionService.getAncestorIds(757435L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIsInSubtreeInvalidId() {
+        transactionService.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+        transactionService.isInSubtree(1L, 757435L);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testReadByInvalidId() {
         transactionService.getById(757435L);
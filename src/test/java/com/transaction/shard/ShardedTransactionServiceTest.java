@@ -0,0 +1,237 @@
+package com.transaction.shard;
+
+import com.transaction.api.nio.NioHttpServer;
+import com.transaction.api.nio.TransactionHttpHandler;
+import com.transaction.metrics.MetricsRegistry;
+import com.transaction.service.BatchResult;
+import com.transaction.service.ParentNotFoundException;
+import com.transaction.service.TransactionService;
+import com.transaction.service.TransactionServiceImpl;
+import com.transaction.service.ValidationResult;
+import com.transaction.storage.InMemoryTransactionAggregatesByTypeIndex;
+import com.transaction.storage.InMemoryTransactionAncestryIndex;
+import com.transaction.storage.InMemoryTransactionIdsByTypeIndex;
+import com.transaction.storage.InMemoryTransactionRepository;
+import com.transaction.storage.InMemoryTransactionTimeIndex;
+import com.transaction.storage.Transaction;
+import com.transaction.storage.TypeAggregates;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ShardedTransactionServiceTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private List<TransactionService> shardServices = new ArrayList<>();
+
+    private List<NioHttpServer> servers = new ArrayList<>();
+
+    private List<ShardClient> shardClients = new ArrayList<>();
+
+    private ShardedTransactionService router;
+
+    @Before
+    public void setup() throws IOException {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            TransactionService shardService = new TransactionServiceImpl(new InMemoryTransactionRepository(),
+                    new InMemoryTransactionIdsByTypeIndex(), new InMemoryTransactionAggregatesByTypeIndex(),
+                    new InMemoryTransactionAncestryIndex(), new InMemoryTransactionTimeIndex());
+            NioHttpServer server = new NioHttpServer(new InetSocketAddress("localhost", 0), 1,
+                    new TransactionHttpHandler(shardService, new MetricsRegistry()));
+            server.start();
+            shardServices.add(shardService);
+            servers.add(server);
+            shardClients.add(new ShardClient("http://localhost:" + server.getPort(), 5000));
+        }
+        router = new ShardedTransactionService(shardClients);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        router.close();
+        for (NioHttpServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testTreeIsPlacedOnShardOfRoot() {
+        long rootId = 1;
+        // A child ID which would be placed on another shard by its own hash
+        long childId = 2;
+        while (router.placeRoot(childId) == router.placeRoot(rootId)) {
+            childId++;
+        }
+        router.createOrUpdate(new Transaction(rootId, new BigDecimal("10.00"), "cars", null));
+        router.createOrUpdate(new Transaction(childId, new BigDecimal("2.50"), "cars", rootId));
+        router.createOrUpdate(new Transaction(100L, new BigDecimal("1.25"), "cars", childId));
+
+        TransactionService owner = shardServices.get(router.placeRoot(rootId));
+        assertThat(owner.getById(childId).getParentId(), is(equalTo(rootId)));
+        assertThat(owner.getById(100L).getParentId(), is(equalTo(childId)));
+        assertThat(router.calculateTransactionsSum(rootId), is(equalTo(new BigDecimal("13.75"))));
+        assertThat(router.getById(100L).getAmount(), is(equalTo(new BigDecimal("1.25"))));
+        assertThat(router.getAncestorIds(100L), is(equalTo(new long[]{childId, rootId})));
+        assertThat(router.getRootId(100L), is(equalTo(rootId)));
+        assertThat(router.isInSubtree(100L, rootId), is(true));
+    }
+
+    @Test
+    public void testIdsAndAggregatesGatheredFromAllShards() {
+        for (long id = 1; id <= 20; id++) {
+            router.createOrUpdate(new Transaction(id, new BigDecimal(id), id % 2 == 0 ? "even" : "odd", null));
+        }
+
+        long[] firstPage = router.getTransactionIdsByType("even", null, 4);
+        assertThat(firstPage, is(equalTo(new long[]{2, 4, 6, 8})));
+        assertThat(router.getTransactionIdsByType("even", 8L, 4), is(equalTo(new long[]{10, 12, 14, 16})));
+        assertThat(router.getTransactionIdsByType("odd").size(), is(equalTo(10)));
+
+        TypeAggregates aggregates = router.getAggregatesByType("odd");
+        assertThat(aggregates.getCount(), is(equalTo(10L)));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("100"))));
+        assertThat(aggregates.getMin(), is(equalTo(new BigDecimal("1"))));
+        assertThat(aggregates.getMax(), is(equalTo(new BigDecimal("19"))));
+        assertThat(Arrays.stream(aggregates.getHistogramCounts()).sum(), is(equalTo(10L)));
+    }
+
+    @Test
+    public void testIdsByTimeMergedFromAllShards() throws InterruptedException {
+        long from = System.currentTimeMillis();
+        // The IDs are created in the reverse order, so the order of the time differs from the order of the IDs
+        for (long id = 8; id >= 1; id--) {
+            router.createOrUpdate(new Transaction(id, BigDecimal.ONE, "cars", null));
+            Thread.sleep(2);
+        }
+        long to = System.currentTimeMillis() + 1;
+
+        assertThat(router.getTransactionIdsByTime("cars", from, to, 100),
+                is(equalTo(new long[]{8, 7, 6, 5, 4, 3, 2, 1})));
+        assertThat(router.getTransactionIdsByTime("cars", from, to, 3), is(equalTo(new long[]{8, 7, 6})));
+        assertThat(router.getTransactionIdsByTime("bikes", from, to, 3), is(equalTo(new long[0])));
+    }
+
+    @Test
+    public void testMoveWithinShardAndRejectMoveToAnotherShard() {
+        long otherRootId = 2;
+        while (router.placeRoot(otherRootId) == router.placeRoot(1L)) {
+            otherRootId++;
+        }
+        router.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "cars", null));
+        router.createOrUpdate(new Transaction(otherRootId, new BigDecimal("2.00"), "cars", null));
+        router.createOrUpdate(new Transaction(1000L, new BigDecimal("3.00"), "cars", 1L));
+        router.createOrUpdate(new Transaction(1001L, new BigDecimal("4.00"), "cars", 1L));
+
+        router.createOrUpdate(new Transaction(1001L, new BigDecimal("4.00"), "cars", 1000L));
+        assertThat(router.calculateTransactionsSum(1000L), is(equalTo(new BigDecimal("7.00"))));
+
+        assertThat(router.tryCreateOrUpdate(new Transaction(1000L, new BigDecimal("3.00"), "cars", otherRootId)),
+                is(equalTo(ValidationResult.PARENT_ON_OTHER_SHARD)));
+        try {
+            router.createOrUpdate(new Transaction(1000L, new BigDecimal("3.00"), "cars", otherRootId));
+            fail("Moving a subtree to another shard should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("on another shard"));
+        }
+        assertThat(router.isInSubtree(1000L, otherRootId), is(false));
+        assertThat(router.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("8.00"))));
+    }
+
+    @Test
+    public void testShardsFoundByNewRouter() {
+        router.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "cars", null));
+        router.createOrUpdate(new Transaction(2L, new BigDecimal("2.00"), "cars", 1L));
+
+        try (ShardedTransactionService restartedRouter = new ShardedTransactionService(shardClients)) {
+            restartedRouter.createOrUpdate(new Transaction(3L, new BigDecimal("3.00"), "cars", 2L));
+            assertThat(restartedRouter.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("6.00"))));
+        }
+    }
+
+    @Test
+    public void testUnseenChildMadeRootStaysOnItsShard() {
+        router.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "cars", null));
+        // A child which would be placed on another shard if it were a new root
+        long childId = 2;
+        while (router.placeRoot(childId) == router.placeRoot(1L)) {
+            childId++;
+        }
+        router.createOrUpdate(new Transaction(childId, new BigDecimal("2.00"), "cars", 1L));
+
+        try (ShardedTransactionService restartedRouter = new ShardedTransactionService(shardClients)) {
+            restartedRouter.createOrUpdate(new Transaction(childId, new BigDecimal("4.00"), "cars", null));
+            assertThat(restartedRouter.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("1.00"))));
+            assertThat(restartedRouter.calculateTransactionsSum(childId), is(equalTo(new BigDecimal("4.00"))));
+        }
+        assertThat(shardServices.get(router.placeRoot(1L)).getById(childId).getParentId(), is(nullValue()));
+        int stored = 0;
+        for (TransactionService shard : shardServices) {
+            stored += shard.getTransactionIdsByType("cars").size();
+        }
+        assertThat(stored, is(equalTo(2)));
+    }
+
+    @Test
+    public void testMultiGetGatheredFromShards() {
+        for (long id = 1; id <= 6; id++) {
+            router.createOrUpdate(new Transaction(id, new BigDecimal("1.00"), "cars", null));
+        }
+        router.createOrUpdate(new Transaction(7L, new BigDecimal("2.00"), "cars", 4L));
+
+        // The shards of the IDs are not known by a new router
+        try (ShardedTransactionService restartedRouter = new ShardedTransactionService(shardClients)) {
+            long[] ids = {7, 1, 42, 4, 6};
+            Transaction[] transactions = restartedRouter.getByIds(ids);
+            assertThat(transactions[0].getParentId(), is(equalTo(4L)));
+            assertThat(transactions[1].getId(), is(equalTo(1L)));
+            assertThat(transactions[2], is(nullValue()));
+            assertThat(transactions[4].getId(), is(equalTo(6L)));
+
+            assertThat(restartedRouter.calculateTransactionsSums(ids), is(equalTo(new BigDecimal[]{
+                    new BigDecimal("2.00"), new BigDecimal("1.00"), null, new BigDecimal("3.00"),
+                    new BigDecimal("1.00")})));
+        }
+    }
+
+    @Test
+    public void testCreateOrUpdateAll() {
+        BatchResult result = router.createOrUpdateAll(Arrays.asList(
+                new Transaction(3L, new BigDecimal("3.00"), "cars", 2L),
+                new Transaction(2L, new BigDecimal("2.00"), "cars", 1L),
+                new Transaction(1L, new BigDecimal("1.00"), "cars", null),
+                new Transaction(4L, new BigDecimal("4.005"), "cars", 1L),
+                new Transaction(5L, new BigDecimal("5.00"), "cars", 42L)).iterator());
+
+        assertThat(result.getProcessed(), is(equalTo(3L)));
+        assertThat(result.getFailures().get(0).getIndex(), is(equalTo(3L)));
+        assertThat(result.getFailures().get(1).getIndex(), is(equalTo(4L)));
+        assertThat(router.calculateTransactionsSum(1L), is(equalTo(new BigDecimal("6.00"))));
+    }
+
+    @Test(expected = ParentNotFoundException.class)
+    public void testNotExistingParent() {
+        router.createOrUpdate(new Transaction(1L, new BigDecimal("1.00"), "cars", 7L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTransactionRejectedByShard() {
+        router.createOrUpdate(new Transaction(1L, new BigDecimal("1.005"), "cars", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadNotExisting() {
+        router.getById(1L);
+    }
+}
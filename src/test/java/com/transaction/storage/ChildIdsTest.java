@@ -0,0 +1,55 @@
+package com.transaction.storage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ChildIdsTest {
+
+    private ChildIds childIds = new ChildIds();
+
+    @Test
+    public void testAddAndRemove() {
+        assertThat(childIds.add(5L), is(true));
+        assertThat(childIds.add(5L), is(false));
+        assertThat(childIds.add(7L), is(true));
+        assertThat(childIds.add(9L), is(true));
+
+        assertThat(childIds.remove(5L), is(true));
+        assertThat(childIds.remove(5L), is(false));
+        assertThat(childIds.size(), is(equalTo(2)));
+
+        long[] ids = childIds.toArray();
+        Arrays.sort(ids);
+        assertThat(ids[0], is(equalTo(7L)));
+        assertThat(ids[1], is(equalTo(9L)));
+    }
+
+    @Test
+    public void testIndexedChildrenMatchSet() {
+        // Many children around the index threshold, so both the scan and the indexed positions are used
+        Random random = new Random(42);
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 20000; i++) {
+            long id = random.nextInt(ChildIds.INDEX_THRESHOLD * 64);
+            if (random.nextInt(3) == 0) {
+                assertThat(childIds.remove(id), is(equalTo(expected.remove(id))));
+            } else {
+                assertThat(childIds.add(id), is(equalTo(expected.add(id))));
+            }
+        }
+
+        long[] ids = childIds.toArray();
+        Arrays.sort(ids);
+        assertThat(ids.length, is(equalTo(expected.size())));
+        int i = 0;
+        for (Long id : expected) {
+            assertThat(ids[i++], is(equalTo(id)));
+        }
+    }
+}
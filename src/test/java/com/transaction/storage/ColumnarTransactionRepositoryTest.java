@@ -0,0 +1,152 @@
+package com.transaction.storage;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ColumnarTransactionRepositoryTest {
+
+    private TransactionRepository onHeapRepository = new ColumnarTransactionRepository(false, 16);
+
+    private TransactionRepository offHeapRepository = new ColumnarTransactionRepository(true, 16);
+
+    @Test
+    public void testSaveAndRead() {
+        for (TransactionRepository repository : Arrays.asList(onHeapRepository, offHeapRepository)) {
+            Transaction transaction = transaction(234523L, new BigDecimal("23422.55"), "test type", null);
+            repository.save(transaction);
+
+            Transaction storedTransaction = repository.read(234523L);
+            assertThat(storedTransaction, is(equalTo(transaction)));
+            assertThat(storedTransaction.getSubtreeSum(), is(equalTo(new BigDecimal("23422.55"))));
+        }
+    }
+
+    @Test
+    public void testKeepAmountScale() {
+        onHeapRepository.save(transaction(1L, new BigDecimal(2342), "test type", null));
+        onHeapRepository.save(transaction(2L, new BigDecimal("-12.4"), "test type", null));
+        onHeapRepository.save(transaction(3L, new BigDecimal("1E+3"), "test type", null));
+
+        assertThat(onHeapRepository.read(1L).getAmount(), is(equalTo(new BigDecimal(2342))));
+        assertThat(onHeapRepository.read(2L).getAmount(), is(equalTo(new BigDecimal("-12.4"))));
+        assertThat(onHeapRepository.read(3L).getAmount(), is(equalTo(new BigDecimal("1E+3"))));
+    }
+
+    @Test
+    public void testUpdate() {
+        onHeapRepository.save(transaction(5187623L, new BigDecimal("542.32"), "test type", null));
+        Transaction updateTransaction = transaction(5187623L, new BigDecimal("198.11"), "test type2", 67621421L);
+        onHeapRepository.save(updateTransaction);
+
+        assertThat(onHeapRepository.read(5187623L), is(equalTo(updateTransaction)));
+    }
+
+    @Test
+    public void testReadAll() {
+        for (TransactionRepository repository : Arrays.asList(onHeapRepository, offHeapRepository)) {
+            // More transactions than a single batch of rows
+            for (long id = 1; id <= 3000; id++) {
+                repository.save(transaction(id, new BigDecimal("1.50"), "test type", null));
+            }
+
+            long[] ids = {2999, 7, 5000, 7, 1};
+            Transaction[] transactions = repository.readAll(ids);
+            assertThat(transactions.length, is(equalTo(5)));
+            assertThat(transactions[0].getId(), is(equalTo(2999L)));
+            assertThat(transactions[1].getAmount(), is(equalTo(new BigDecimal("1.50"))));
+            assertThat(transactions[2], is(nullValue()));
+            assertThat(transactions[3].getId(), is(equalTo(7L)));
+            assertThat(transactions[4].getId(), is(equalTo(1L)));
+        }
+    }
+
+    @Test
+    public void testReadNotExisting() {
+        assertThat(onHeapRepository.read(757435L), is(nullValue()));
+    }
+
+    @Test
+    public void testChildren() {
+        for (TransactionRepository repository : Arrays.asList(onHeapRepository, offHeapRepository)) {
+            repository.save(transaction(1L, new BigDecimal("1.00"), "test type", null));
+            for (long id = 2; id <= 5; id++) {
+                Transaction child = transaction(id, new BigDecimal("1.00"), "test type", 1L);
+                repository.save(child);
+                repository.addChild(1L, id);
+            }
+
+            repository.removeChild(1L, 3L);
+            repository.removeChild(1L, 5L);
+            repository.removeChild(1L, 5L);
+            repository.addChild(1L, 2L);
+
+            long[] childIds = repository.getChildIds(1L);
+            Arrays.sort(childIds);
+            assertThat(childIds.length, is(equalTo(2)));
+            assertThat(childIds[0], is(equalTo(2L)));
+            assertThat(childIds[1], is(equalTo(4L)));
+            assertThat(repository.getChildIds(2L).length, is(equalTo(0)));
+        }
+    }
+
+    @Test
+    public void testAddToSubtreeSums() {
+        onHeapRepository.save(transaction(1L, new BigDecimal("1.00"), "test type", null));
+        onHeapRepository.save(transaction(2L, new BigDecimal("2.00"), "test type", 1L));
+        onHeapRepository.save(transaction(3L, new BigDecimal("3.00"), "test type", 2L));
+
+        onHeapRepository.addToSubtreeSums(2L, new BigDecimal("-10.5"));
+
+        assertThat(onHeapRepository.read(1L).getSubtreeSum(), is(equalTo(new BigDecimal("-9.50"))));
+        assertThat(onHeapRepository.read(2L).getSubtreeSum(), is(equalTo(new BigDecimal("-8.50"))));
+        assertThat(onHeapRepository.read(3L).getSubtreeSum(), is(equalTo(new BigDecimal("3.00"))));
+    }
+
+    @Test
+    public void testSubtreeSumsOutOfLongRange() {
+        BigDecimal maxAmount = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+        onHeapRepository.save(transaction(1L, maxAmount, "test type", null));
+        onHeapRepository.save(transaction(2L, maxAmount, "test type", 1L));
+        onHeapRepository.addToSubtreeSums(1L, maxAmount);
+        onHeapRepository.addToSubtreeSums(1L, maxAmount);
+
+        assertThat(onHeapRepository.read(1L).getSubtreeSum(), is(equalTo(maxAmount.multiply(new BigDecimal(3)))));
+
+        onHeapRepository.addToSubtreeSums(2L, maxAmount.multiply(new BigDecimal(-4)));
+        assertThat(onHeapRepository.read(1L).getSubtreeSum(), is(equalTo(maxAmount.negate())));
+        assertThat(onHeapRepository.read(2L).getSubtreeSum(), is(equalTo(maxAmount.multiply(new BigDecimal(-3)))));
+    }
+
+    @Test
+    public void testCanStoreAmount() {
+        assertThat(onHeapRepository.canStoreAmount(BigDecimal.valueOf(Long.MAX_VALUE, 2)), is(true));
+        assertThat(onHeapRepository.canStoreAmount(BigDecimal.valueOf(Long.MIN_VALUE, 2)), is(true));
+        assertThat(onHeapRepository.canStoreAmount(new BigDecimal("1E+3")), is(true));
+        assertThat(onHeapRepository.canStoreAmount(new BigDecimal("92233720368547758.08")), is(false));
+        assertThat(onHeapRepository.canStoreAmount(new BigDecimal("1E+1000000")), is(false));
+        assertThat(onHeapRepository.canStoreAmount(new BigDecimal("0.001")), is(false));
+    }
+
+    @Test
+    public void testManyTransactions() {
+        for (long id = 0; id < 200000; id++) {
+            offHeapRepository.save(transaction(id * 7919, BigDecimal.valueOf(id, 2), "type" + id % 10, null));
+        }
+        for (long id = 0; id < 200000; id++) {
+            Transaction transaction = offHeapRepository.read(id * 7919);
+            assertThat(transaction.getAmount(), is(equalTo(BigDecimal.valueOf(id, 2))));
+            assertThat(transaction.getType(), is(equalTo("type" + id % 10)));
+        }
+    }
+
+    private static Transaction transaction(Long id, BigDecimal amount, String type, Long parentId) {
+        Transaction transaction = new Transaction(id, amount, type, parentId);
+        transaction.setSubtreeSum(amount);
+        return transaction;
+    }
+}
@@ -0,0 +1,87 @@
+package com.transaction.storage;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryTransactionAggregatesByTypeIndexTest {
+
+    private InMemoryTransactionAggregatesByTypeIndex index = new InMemoryTransactionAggregatesByTypeIndex(
+            new BigDecimal[]{new BigDecimal("-1"), BigDecimal.ZERO, new BigDecimal("10.5")});
+
+    @Test
+    public void testHistogramBuckets() {
+        // A bound belongs to the bucket above it
+        for (String amount : new String[]{"-1.01", "-1", "-0.01", "0", "10.49", "10.50", "1000"}) {
+            index.add(new Transaction(1L, new BigDecimal(amount), "type", null));
+        }
+
+        TypeAggregates aggregates = index.get("type");
+        assertThat(aggregates.getHistogramCounts(), is(equalTo(new long[]{1, 2, 2, 2})));
+        assertThat(aggregates.getCount(), is(equalTo(7L)));
+        assertThat(aggregates.getMin(), is(equalTo(new BigDecimal("-1.01"))));
+        assertThat(aggregates.getMax(), is(equalTo(new BigDecimal("1000"))));
+    }
+
+    @Test
+    public void testRemoveOneOfEqualAmounts() {
+        index.add(new Transaction(1L, new BigDecimal("3.00"), "type", null));
+        index.add(new Transaction(2L, new BigDecimal("3.00"), "type", null));
+        index.add(new Transaction(3L, new BigDecimal("1.00"), "type", null));
+
+        index.remove(new Transaction(1L, new BigDecimal("3.00"), "type", null));
+        TypeAggregates aggregates = index.get("type");
+        assertThat(aggregates.getMax(), is(equalTo(new BigDecimal("3.00"))));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("4.00"))));
+
+        index.remove(new Transaction(2L, new BigDecimal("3.00"), "type", null));
+        index.remove(new Transaction(3L, new BigDecimal("1.00"), "type", null));
+        aggregates = index.get("type");
+        assertThat(aggregates.getCount(), is(equalTo(0L)));
+        assertThat(aggregates.getMin(), is(nullValue()));
+        assertThat(aggregates.getMax(), is(nullValue()));
+        assertThat(aggregates.getHistogramCounts(), is(equalTo(new long[4])));
+    }
+
+    @Test
+    public void testRemoveMinAndMax() {
+        String[] amounts = {"5", "-2.50", "7.1", "-3", "12.00", "0.01"};
+        for (int i = 0; i < amounts.length; i++) {
+            index.add(new Transaction((long) i, new BigDecimal(amounts[i]), "type", null));
+        }
+        assertThat(index.get("type").getMin(), is(equalTo(new BigDecimal("-3"))));
+        assertThat(index.get("type").getMax(), is(equalTo(new BigDecimal("12.00"))));
+
+        // The next min and max are found after the last transactions with the old ones are removed
+        index.remove(new Transaction(3L, new BigDecimal("-3"), "type", null));
+        index.remove(new Transaction(4L, new BigDecimal("12.00"), "type", null));
+        index.add(new Transaction(6L, new BigDecimal("6"), "type", null));
+        TypeAggregates aggregates = index.get("type");
+        assertThat(aggregates.getMin(), is(equalTo(new BigDecimal("-2.50"))));
+        assertThat(aggregates.getMax(), is(equalTo(new BigDecimal("7.1"))));
+        assertThat(aggregates.getCount(), is(equalTo(5L)));
+    }
+
+    @Test
+    public void testLargeAmounts() {
+        BigDecimal large = new BigDecimal("1E+30");
+        index.add(new Transaction(1L, BigDecimal.ONE, "type", null));
+        index.add(new Transaction(2L, large, "type", null));
+        index.add(new Transaction(3L, large.negate(), "type", null));
+        assertThat(index.get("type").getMin(), is(equalTo(large.negate())));
+        assertThat(index.get("type").getMax(), is(equalTo(large)));
+
+        index.remove(new Transaction(2L, large, "type", null));
+        index.remove(new Transaction(3L, large.negate(), "type", null));
+        assertThat(index.get("type").getMin(), is(equalTo(BigDecimal.ONE)));
+        assertThat(index.get("type").getMax(), is(equalTo(BigDecimal.ONE)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundsNotInAscendingOrder() {
+        new InMemoryTransactionAggregatesByTypeIndex(new BigDecimal[]{BigDecimal.TEN, BigDecimal.ONE});
+    }
+}
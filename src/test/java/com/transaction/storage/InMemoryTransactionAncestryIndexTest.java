@@ -0,0 +1,78 @@
+package com.transaction.storage;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryTransactionAncestryIndexTest {
+
+    private InMemoryTransactionAncestryIndex index = new InMemoryTransactionAncestryIndex();
+
+    @Test
+    public void testLineage() {
+        index.save(1L, null);
+        index.save(2L, 1L);
+        index.save(3L, 2L);
+        index.save(4L, 1L);
+
+        assertThat(index.getDepth(3L), is(equalTo(2)));
+        assertThat(index.getAncestorIds(3L), is(equalTo(new long[]{2, 1})));
+        assertThat(index.getAncestorIds(1L), is(equalTo(new long[0])));
+        assertThat(index.getRootId(3L), is(equalTo(1L)));
+        assertThat(index.getRootId(1L), is(equalTo(1L)));
+        assertThat(index.getMaxDepth(), is(equalTo(2)));
+
+        assertThat(index.getDepth(5L), is(equalTo(-1)));
+        assertThat(index.getAncestorIds(5L), is(nullValue()));
+        assertThat(index.getRootId(5L), is(nullValue()));
+    }
+
+    @Test
+    public void testIsInSubtree() {
+        index.save(1L, null);
+        index.save(2L, 1L);
+        index.save(3L, 2L);
+        index.save(4L, 1L);
+
+        assertThat(index.isInSubtree(3L, 1L), is(true));
+        assertThat(index.isInSubtree(3L, 2L), is(true));
+        assertThat(index.isInSubtree(2L, 2L), is(true));
+        assertThat(index.isInSubtree(2L, 3L), is(false));
+        assertThat(index.isInSubtree(3L, 4L), is(false));
+        assertThat(index.isInSubtree(3L, 5L), is(false));
+    }
+
+    @Test
+    public void testMoveSubtree() {
+        index.save(1L, null);
+        index.save(2L, 1L);
+        index.save(3L, 2L);
+        index.save(4L, 3L);
+        index.save(10L, null);
+
+        // Move 3 with its child from depth 2 to depth 1
+        index.save(3L, 10L);
+        assertThat(index.getDepth(3L), is(equalTo(1)));
+        assertThat(index.getAncestorIds(4L), is(equalTo(new long[]{3, 10})));
+        assertThat(index.getRootId(4L), is(equalTo(10L)));
+        assertThat(index.isInSubtree(4L, 1L), is(false));
+        assertThat(index.getMaxDepth(), is(equalTo(2)));
+
+        // Detach the subtree, so no transaction is deeper than 1
+        index.save(3L, null);
+        assertThat(index.getDepth(4L), is(equalTo(1)));
+        assertThat(index.getRootId(4L), is(equalTo(3L)));
+        assertThat(index.getMaxDepth(), is(equalTo(1)));
+
+        // The depths recomputed after the move are kept up to date by the next creates
+        index.save(5L, 4L);
+        index.save(6L, 5L);
+        assertThat(index.getMaxDepth(), is(equalTo(3)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParentNotIndexed() {
+        index.save(2L, 1L);
+    }
+}
@@ -0,0 +1,89 @@
+package com.transaction.storage;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryTransactionTimeIndexTest {
+
+    private InMemoryTransactionTimeIndex index = new InMemoryTransactionTimeIndex(100);
+
+    @Test
+    public void testWindowAcrossBuckets() {
+        // Added out of the order of their time and with a negative time in the bucket before the epoch
+        add(3L, 250, "3.00");
+        add(1L, -10, "1.00");
+        add(4L, 399, "4.00");
+        add(2L, 100, "2.00");
+        add(5L, 250, "5.00");
+        add(6L, 400, "6.00");
+
+        assertThat(index.getIds("type", -10, 400, 10), is(equalTo(new long[]{1, 2, 3, 5, 4})));
+        assertThat(index.getIds("type", 100, 399, 10), is(equalTo(new long[]{2, 3, 5})));
+        assertThat(index.getIds("type", -100, 1000, 3), is(equalTo(new long[]{1, 2, 3})));
+        assertThat(index.getIds("type", 500, 1000, 10), is(equalTo(new long[0])));
+        assertThat(index.getIds("other", 0, 1000, 10), is(equalTo(new long[0])));
+
+        TimeWindowAggregates aggregates = index.getAggregates("type", 0, 300);
+        assertThat(aggregates.getCount(), is(equalTo(3L)));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("10.00"))));
+        aggregates = index.getAggregates("type", 250, 400);
+        assertThat(aggregates.getCount(), is(equalTo(3L)));
+        assertThat(aggregates.getSum(), is(equalTo(new BigDecimal("12.00"))));
+    }
+
+    @Test
+    public void testUpdatedAmount() {
+        add(1L, 10, "1.00");
+        add(2L, 10, "2.00");
+        index.remove(transaction(1L, 10, "1.00"));
+        add(1L, 10, "7.00");
+
+        assertThat(index.getIds("type", 0, 100, 10), is(equalTo(new long[]{1, 2})));
+        assertThat(index.getAggregates("type", 0, 100).getSum(), is(equalTo(new BigDecimal("9.00"))));
+
+        index.remove(transaction(1L, 10, "7.00"));
+        index.remove(transaction(2L, 10, "2.00"));
+        assertThat(index.getAggregates("type", 0, 100).getCount(), is(equalTo(0L)));
+        assertThat(index.getIds("type", 0, 100, 10), is(equalTo(new long[0])));
+    }
+
+    @Test
+    public void testManyTransactionsInBucket() {
+        for (long id = 1; id <= 1000; id++) {
+            add(id, id, "1");
+        }
+
+        assertThat(index.getIds("type", 0, 100, 1000).length, is(equalTo(99)));
+        assertThat(index.getAggregates("type", 50, 950).getSum(), is(equalTo(new BigDecimal(900))));
+    }
+
+    @Test
+    public void testLargeAmounts() {
+        // The cents of the amounts overflow a long sum and the last amount doesn't fit in a long value of cents
+        for (long id = 1; id <= 20; id++) {
+            add(id, id, "10000000000000000.5");
+        }
+        add(21L, 21, "1E+30");
+
+        // A window at the edge of the bucket adds the amounts one by one
+        assertThat(index.getAggregates("type", 1, 22).getSum(),
+                is(equalTo(new BigDecimal("1000000000000200000000000000010.0"))));
+        index.remove(transaction(21L, 21, "1E+30"));
+        assertThat(index.getAggregates("type", 1, 22).getSum(), is(equalTo(new BigDecimal("200000000000000010.0"))));
+        assertThat(index.getAggregates("type", 0, 100).getSum(), is(equalTo(new BigDecimal("200000000000000010.0"))));
+    }
+
+    private void add(long id, long timestamp, String amount) {
+        index.add(transaction(id, timestamp, amount));
+    }
+
+    private static Transaction transaction(long id, long timestamp, String amount) {
+        Transaction transaction = new Transaction(id, new BigDecimal(amount), "type", null);
+        transaction.setTimestamp(timestamp);
+        return transaction;
+    }
+}
@@ -0,0 +1,75 @@
+package com.transaction.storage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LongBitmapTest {
+
+    private LongBitmap bitmap = new LongBitmap();
+
+    @Test
+    public void testAddAndRemove() {
+        assertThat(bitmap.add(5L), is(true));
+        assertThat(bitmap.add(5L), is(false));
+        assertThat(bitmap.add(-5L), is(true));
+        assertThat(bitmap.add(Long.MAX_VALUE), is(true));
+
+        assertThat(bitmap.contains(5L), is(true));
+        assertThat(bitmap.contains(6L), is(false));
+        assertThat(bitmap.cardinality(), is(equalTo(3L)));
+
+        assertThat(bitmap.remove(5L), is(true));
+        assertThat(bitmap.remove(5L), is(false));
+        assertThat(bitmap.contains(5L), is(false));
+        assertThat(bitmap.cardinality(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testCopyValuesInAscendingOrder() {
+        long[] values = {Long.MIN_VALUE, -70000L, -1L, 0L, 3L, 65535L, 65536L, 1L << 40, Long.MAX_VALUE};
+        for (int i = values.length - 1; i >= 0; i--) {
+            bitmap.add(values[i]);
+        }
+
+        long[] buffer = new long[values.length + 1];
+        assertThat(bitmap.copyValues(Long.MIN_VALUE, buffer), is(equalTo(values.length)));
+        assertThat(Arrays.copyOf(buffer, values.length), is(equalTo(values)));
+
+        long[] page = new long[3];
+        assertThat(bitmap.copyValues(1L, page), is(equalTo(3)));
+        assertThat(page, is(equalTo(new long[]{3L, 65535L, 65536L})));
+    }
+
+    @Test
+    public void testDenseAndSparseChunks() {
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+        // Fill one chunk densely, so it is converted to a bitmap, and remove most of it again
+        for (long value = 0; value < 20000; value++) {
+            bitmap.add(value);
+            expected.add(value);
+        }
+        for (int i = 0; i < 30000; i++) {
+            long value = random.nextInt(20000);
+            bitmap.remove(value);
+            expected.remove(value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            long value = random.nextLong();
+            bitmap.add(value);
+            expected.add(value);
+        }
+
+        assertThat(bitmap.cardinality(), is(equalTo((long) expected.size())));
+        long[] buffer = new long[expected.size()];
+        bitmap.copyValues(Long.MIN_VALUE, buffer);
+        long[] expectedValues = expected.stream().mapToLong(Long::longValue).toArray();
+        assertThat(buffer, is(equalTo(expectedValues)));
+    }
+}
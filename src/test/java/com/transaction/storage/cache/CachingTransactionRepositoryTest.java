@@ -0,0 +1,120 @@
+package com.transaction.storage.cache;
+
+import com.transaction.storage.ColumnarTransactionRepository;
+import com.transaction.storage.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CachingTransactionRepositoryTest {
+
+    private static final int ENTRY_WEIGHT = CachingTransactionRepository.ENTRY_OVERHEAD_BYTES + 2 * "type".length();
+
+    private ColumnarTransactionRepository backend;
+
+    private CachingTransactionRepository repository;
+
+    @Before
+    public void setUp() {
+        backend = new ColumnarTransactionRepository(false, 1024);
+        repository = new CachingTransactionRepository(backend, 10 * ENTRY_WEIGHT, 1);
+    }
+
+    @Test
+    public void testReadThrough() {
+        save(1L, "1.00", null);
+
+        assertThat(repository.read(1L).getAmount(), is(equalTo(new BigDecimal("1.00"))));
+        assertThat(repository.read(1L).getAmount(), is(equalTo(new BigDecimal("1.00"))));
+        assertThat(repository.read(2L), is(nullValue()));
+
+        CacheStats stats = repository.getStats();
+        assertThat(stats.getHitCount(), is(equalTo(1L)));
+        assertThat(stats.getMissCount(), is(equalTo(2L)));
+        assertThat(stats.getEntryCount(), is(equalTo(1L)));
+        assertThat(stats.getWeight(), is(equalTo((long) ENTRY_WEIGHT)));
+    }
+
+    @Test
+    public void testSaveInvalidates() {
+        save(1L, "1.00", null);
+        repository.read(1L);
+
+        save(1L, "2.00", null);
+
+        assertThat(repository.read(1L).getAmount(), is(equalTo(new BigDecimal("2.00"))));
+        assertThat(repository.getStats().getInvalidationCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testSubtreeSumUpdateInvalidatesAncestors() {
+        save(1L, "1.00", null);
+        save(2L, "1.00", 1L);
+        save(3L, "1.00", 2L);
+        save(4L, "1.00", null);
+        for (long id = 1; id <= 4; id++) {
+            repository.read(id);
+        }
+
+        repository.addToSubtreeSums(3L, new BigDecimal("5.00"));
+
+        assertThat(repository.read(1L).getSubtreeSum(), is(equalTo(new BigDecimal("5.00"))));
+        assertThat(repository.read(2L).getSubtreeSum(), is(equalTo(new BigDecimal("5.00"))));
+        assertThat(repository.read(3L).getSubtreeSum(), is(equalTo(new BigDecimal("5.00"))));
+        // Not an ancestor, so it is still cached
+        repository.read(4L);
+        assertThat(repository.getStats().getInvalidationCount(), is(equalTo(3L)));
+        assertThat(repository.getStats().getHitCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testEvictionKeepsMemoryBudget() {
+        for (long id = 1; id <= 100; id++) {
+            save(id, "1.00", null);
+            repository.read(id);
+        }
+
+        CacheStats stats = repository.getStats();
+        assertThat(stats.getEntryCount(), is(equalTo(10L)));
+        assertThat(stats.getEvictionCount(), is(equalTo(90L)));
+        assertThat(stats.getWeight() <= stats.getMemoryBudget(), is(true));
+    }
+
+    @Test
+    public void testScanDoesNotEvictHotTransactions() {
+        for (long id = 1; id <= 5; id++) {
+            save(id, "1.00", null);
+            repository.read(id);
+            repository.read(id);
+        }
+        // Transactions which are read only once go through the probationary segment
+        for (long id = 100; id < 200; id++) {
+            save(id, "1.00", null);
+            repository.read(id);
+        }
+
+        long hits = repository.getStats().getHitCount();
+        for (long id = 1; id <= 5; id++) {
+            repository.read(id);
+        }
+        assertThat(repository.getStats().getHitCount() - hits, is(equalTo(5L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSegmentCount() {
+        new CachingTransactionRepository(backend, 1024, 3);
+    }
+
+    private void save(Long id, String amount, Long parentId) {
+        Transaction transaction = new Transaction(id, new BigDecimal(amount), "type", parentId);
+        transaction.setSubtreeSum(BigDecimal.ZERO);
+        repository.save(transaction);
+        if (parentId != null) {
+            repository.addChild(parentId, id);
+        }
+    }
+}
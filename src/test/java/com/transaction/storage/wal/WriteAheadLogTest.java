@@ -0,0 +1,210 @@
+package com.transaction.storage.wal;
+
+import com.transaction.storage.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class WriteAheadLogTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("wal-test");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testAppendAndReplayAfterReopen() throws IOException {
+        Transaction root = new Transaction(1L, new BigDecimal("542.32"), "test type", null);
+        Transaction child = new Transaction(2L, new BigDecimal("-12.4"), "\u0442\u0438\u043f", 1L);
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, WriteAheadLog.FsyncPolicy.ALWAYS)) {
+            assertThat(log.append(root), is(equalTo(0L)));
+            log.append(child);
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, WriteAheadLog.FsyncPolicy.NONE)) {
+            List<Transaction> replayed = replay(log, 0);
+            assertThat(replayed.size(), is(equalTo(2)));
+            assertThat(replayed.get(0), is(equalTo(root)));
+            assertThat(replayed.get(1), is(equalTo(child)));
+        }
+    }
+
+    @Test
+    public void testReplayAcrossSegments() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.GROUP)) {
+            long middlePosition = 0;
+            for (long id = 0; id < 100; id++) {
+                long position = log.append(new Transaction(id, BigDecimal.valueOf(id, 2), "test type", null));
+                if (id == 50) {
+                    middlePosition = position;
+                }
+            }
+
+            List<Transaction> replayed = replay(log, 0);
+            assertThat(replayed.size(), is(equalTo(100)));
+            for (int i = 0; i < 100; i++) {
+                assertThat(replayed.get(i).getId(), is(equalTo((long) i)));
+            }
+
+            List<Transaction> tail = replay(log, middlePosition);
+            assertThat(tail.size(), is(equalTo(50)));
+            assertThat(tail.get(0).getId(), is(equalTo(50L)));
+        }
+    }
+
+    @Test
+    public void testGroupCommitOfConcurrentAppends() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 4096, WriteAheadLog.FsyncPolicy.GROUP)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                long firstId = thread * 1000L;
+                writers.add(new Thread(() -> {
+                    for (long id = firstId; id < firstId + 200; id++) {
+                        log.append(new Transaction(id, BigDecimal.ONE, "test type", null));
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            assertThat(replay(log, 0).size(), is(equalTo(1600)));
+        }
+    }
+
+    @Test
+    public void testGroupedAppends() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.GROUP)) {
+            log.appendGrouped(() -> {
+                for (long id = 0; id < 100; id++) {
+                    log.append(new Transaction(id, BigDecimal.ONE, "test type", null));
+                }
+            });
+            try {
+                log.appendGrouped(() -> {
+                    log.append(new Transaction(100L, BigDecimal.ONE, "test type", null));
+                    throw new IllegalStateException("The group failed");
+                });
+            } catch (IllegalStateException e) {
+                // The records appended before the failure are kept
+            }
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.GROUP)) {
+            assertThat(replay(log, 0).size(), is(equalTo(101)));
+        }
+    }
+
+    @Test
+    public void testIgnoreCorruptedTail() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, WriteAheadLog.FsyncPolicy.NONE)) {
+            log.append(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+            log.append(new Transaction(2L, new BigDecimal("2.00"), "test type", null));
+        }
+        // Corrupt the payload of the second record
+        Path segment = directory.resolve(String.format("segment-%020d.wal", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 8 + header.getInt(0) + 8 + 3);
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, WriteAheadLog.FsyncPolicy.NONE)) {
+            log.append(new Transaction(3L, new BigDecimal("3.00"), "test type", null));
+
+            List<Transaction> replayed = replay(log, 0);
+            assertThat(replayed.size(), is(equalTo(2)));
+            assertThat(replayed.get(0).getId(), is(equalTo(1L)));
+            assertThat(replayed.get(1).getId(), is(equalTo(3L)));
+        }
+    }
+
+    @Test
+    public void testStopReplayOnCorruptedRecordBeforeLastSegment() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.NONE)) {
+            for (long id = 0; id < 20; id++) {
+                log.append(new Transaction(id, BigDecimal.ONE, "test type", null));
+            }
+        }
+        // Corrupt the payload of the second record of the first segment
+        Path segment = directory.resolve(String.format("segment-%020d.wal", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 8 + header.getInt(0) + 8 + 3);
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 256, WriteAheadLog.FsyncPolicy.NONE)) {
+            // The records of the next segments are not replayed after the corrupted one
+            List<Transaction> replayed = replay(log, 0);
+            assertThat(replayed.size(), is(equalTo(1)));
+            assertThat(replayed.get(0).getId(), is(equalTo(0L)));
+        }
+    }
+
+    @Test
+    public void testSkipAppendWhileReplaying() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, WriteAheadLog.FsyncPolicy.NONE)) {
+            log.append(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+            long position = log.getPosition();
+
+            log.replay(0, transactions -> transactions.forEachRemaining(log::append));
+
+            assertThat(log.getPosition(), is(equalTo(position)));
+        }
+    }
+
+    @Test
+    public void testAppendOfOtherThreadWhileReplaying() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, WriteAheadLog.FsyncPolicy.NONE)) {
+            log.append(new Transaction(1L, new BigDecimal("1.00"), "test type", null));
+
+            log.replay(0, transactions -> {
+                Thread writer = new Thread(() -> log.append(
+                        new Transaction(2L, new BigDecimal("2.00"), "test type", null)));
+                writer.start();
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                transactions.forEachRemaining(log::append);
+            });
+
+            List<Transaction> logged = replay(log, 0);
+            assertThat(logged.size(), is(equalTo(2)));
+            assertThat(logged.get(1).getId(), is(equalTo(2L)));
+        }
+    }
+
+    private static List<Transaction> replay(WriteAheadLog log, long fromPosition) {
+        List<Transaction> replayed = new ArrayList<>();
+        log.replay(fromPosition, transactions -> transactions.forEachRemaining(replayed::add));
+        return replayed;
+    }
+}